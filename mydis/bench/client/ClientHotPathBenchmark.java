@@ -0,0 +1,105 @@
+package client;
+
+import common.Constants;
+import common.Frame;
+import common.Marshaller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request work in BankClientManager outside the network calls:
+ * building a framed request, decoding replies and callbacks, and
+ * recovering the account id from an open-account reply.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientHotPathBenchmark {
+    private static final String OPEN_REPLY = "Account opened successfully, id: 1042";
+
+    private final UserSession session = new UserSession(1042, "alice", "correct-horse");
+    private ByteBuffer reply;
+    private ByteBuffer callback;
+    private int reqID;
+
+    @Setup
+    public void setup() {
+        reply = frame(7, Constants.STATUS_OK, "Deposit successful. New balance: 1234.50 USD");
+        callback = frame(0, Constants.STATUS_CALLBACK, "[Callback] Account 1042 deposit 100.00 USD");
+    }
+
+    private static ByteBuffer frame(int reqID, int status, String msg) {
+        byte[] text = msg.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocateDirect(Frame.HEADER_SIZE + text.length + 1).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(reqID).putInt(status).put(text).put((byte) 0);
+        buf.flip();
+        return buf;
+    }
+
+    @Benchmark
+    public int frameDepositRequest() {
+        ByteBuffer payloadBuf = Frame.newRequest();
+        try {
+            BankClientManager.packDeposit(payloadBuf, session, session.getAccountId(), "USD", 100f);
+            return Frame.seal(payloadBuf, reqID++, Constants.OP_DEPOSIT).remaining();
+        } finally {
+            Frame.release(payloadBuf);
+        }
+    }
+
+    /**
+     * The framing sendRequest used before trimmed frames: a BUFFER_SIZE payload
+     * copied whole into a second 8 + BUFFER_SIZE buffer.
+     */
+    @Benchmark
+    public int frameDepositRequestPadded() {
+        ByteBuffer payloadBuf = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        Marshaller.packInt(payloadBuf, session.getAccountId());
+        Marshaller.packString(payloadBuf, session.getName());
+        Marshaller.packString(payloadBuf, session.getPassword());
+        Marshaller.packString(payloadBuf, "USD");
+        Marshaller.packFloat(payloadBuf, 100f);
+
+        ByteBuffer reqBuf = ByteBuffer.allocate(8 + Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        reqBuf.putInt(reqID++);
+        reqBuf.putInt(Constants.OP_DEPOSIT);
+        reqBuf.put(payloadBuf.array());
+        return reqBuf.array().length;
+    }
+
+    @Benchmark
+    public BankClientManager.Result decodeReply() {
+        reply.rewind();
+        reply.getInt();
+        int status = reply.getInt();
+        return BankClientManager.readResult(status, reply);
+    }
+
+    @Benchmark
+    public String decodeCallbackMessage() {
+        callback.rewind();
+        return BankClientManager.decodeCallbackMessage(callback);
+    }
+
+    @Benchmark
+    public int extractAccountId() {
+        return BankClientManager.extractAccountId(OPEN_REPLY);
+    }
+}
@@ -0,0 +1,149 @@
+package common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marshaller string and primitive paths as used by every request and reply.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MarshallerBenchmark {
+    private static final String NAME = "alice";
+    private static final String PASSWORD = "correct-horse";
+    private static final String CURRENCY = "USD";
+    private static final String UNICODE_NAME = "Zoë Müller-Straße";
+
+    private ByteBuffer heapOut;
+    private ByteBuffer heapIn;
+    private ByteBuffer directIn;
+    private ByteBuffer replyIn;
+    private CharBuffer chars;
+
+    @Setup
+    public void setup() {
+        heapOut = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        heapIn = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        Marshaller.packString(heapIn, NAME);
+        Marshaller.packString(heapIn, PASSWORD);
+        Marshaller.packFloat(heapIn, 100f);
+        Marshaller.packString(heapIn, CURRENCY);
+        heapIn.flip();
+
+        directIn = ByteBuffer.allocateDirect(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        directIn.put(heapIn.duplicate());
+        directIn.flip();
+
+        byte[] reply = "Deposit successful. New balance: 1234.50 USD\0".getBytes(StandardCharsets.UTF_8);
+        replyIn = ByteBuffer.allocateDirect(Constants.BUFFER_SIZE);
+        replyIn.put(reply);
+        replyIn.flip();
+
+        chars = CharBuffer.allocate(Constants.BUFFER_SIZE);
+    }
+
+    @Benchmark
+    public int packString() {
+        heapOut.clear();
+        Marshaller.packString(heapOut, NAME);
+        Marshaller.packString(heapOut, PASSWORD);
+        Marshaller.packFloat(heapOut, 100f);
+        Marshaller.packString(heapOut, CURRENCY);
+        return heapOut.position();
+    }
+
+    @Benchmark
+    public int packUtf8() {
+        heapOut.clear();
+        Marshaller.packUtf8(heapOut, NAME);
+        Marshaller.packUtf8(heapOut, PASSWORD);
+        Marshaller.packFloat(heapOut, 100f);
+        Marshaller.packUtf8(heapOut, CURRENCY);
+        return heapOut.position();
+    }
+
+    @Benchmark
+    public int packUtf8NonAscii() {
+        heapOut.clear();
+        Marshaller.packUtf8(heapOut, UNICODE_NAME);
+        return heapOut.position();
+    }
+
+    @Benchmark
+    public String unpackString() {
+        heapIn.rewind();
+        Marshaller.unpackString(heapIn);
+        Marshaller.unpackString(heapIn);
+        Marshaller.unpackFloat(heapIn);
+        return Marshaller.unpackString(heapIn);
+    }
+
+    @Benchmark
+    public String unpackUtf8Heap() {
+        heapIn.rewind();
+        Marshaller.unpackUtf8(heapIn);
+        Marshaller.unpackUtf8(heapIn);
+        Marshaller.unpackFloat(heapIn);
+        return Marshaller.unpackUtf8(heapIn);
+    }
+
+    @Benchmark
+    public String unpackUtf8Direct() {
+        directIn.rewind();
+        Marshaller.unpackUtf8(directIn);
+        Marshaller.unpackUtf8(directIn);
+        Marshaller.unpackFloat(directIn);
+        return Marshaller.unpackUtf8(directIn);
+    }
+
+    @Benchmark
+    public int unpackUtf8IntoCharBuffer() {
+        directIn.rewind();
+        Marshaller.unpackUtf8(directIn, chars);
+        Marshaller.unpackUtf8(directIn, chars);
+        Marshaller.unpackFloat(directIn);
+        Marshaller.unpackUtf8(directIn, chars);
+        return chars.remaining();
+    }
+
+    @Benchmark
+    public String unpackNullTerminated() {
+        replyIn.rewind();
+        return Marshaller.unpackNullTerminated(replyIn);
+    }
+
+    /**
+     * The reply decoding the clients used before Marshaller.unpackNullTerminated:
+     * copy the payload, scan for NUL, build a String and trim it.
+     */
+    @Benchmark
+    public String decodeNullTerminatedCopying() {
+        replyIn.rewind();
+        byte[] payloadBytes = new byte[Math.min(Constants.BUFFER_SIZE, replyIn.remaining())];
+        replyIn.get(payloadBytes);
+        int end = 0;
+        while (end < payloadBytes.length && payloadBytes[end] != 0) {
+            end++;
+        }
+        return new String(payloadBytes, 0, end, StandardCharsets.UTF_8).trim();
+    }
+}
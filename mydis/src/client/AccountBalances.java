@@ -0,0 +1,53 @@
+package client;
+
+import common.CurrencyType;
+
+/**
+ * Balances of one account in every currency, from the balance cache or one OP_CHECK_ALL_BALANCES round trip.
+ */
+public class AccountBalances {
+    private final int accountId;
+    private final double[] balances;
+    private final boolean fromCache;
+    private final BankClientManager.Result result;
+
+    AccountBalances(int accountId, double[] balances, boolean fromCache, BankClientManager.Result result) {
+        this.accountId = accountId;
+        this.balances = balances;
+        this.fromCache = fromCache;
+        this.result = result;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * False if the request failed; getResult() then explains why.
+     */
+    public boolean isSuccess() {
+        return balances != null;
+    }
+
+    public double getBalance(CurrencyType currency) {
+        if (balances == null) {
+            throw new IllegalStateException("Balances unavailable: " + result.getMessage());
+        }
+        return balances[currency.ordinal()];
+    }
+
+    /**
+     * True if no request was sent because every balance was cached.
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    /**
+     * The server reply, or null when served from the cache. For a fallback on a server without
+     * OP_CHECK_ALL_BALANCES this is the first failed per-currency reply, if any.
+     */
+    public BankClientManager.Result getResult() {
+        return result;
+    }
+}
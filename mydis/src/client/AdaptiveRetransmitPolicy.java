@@ -0,0 +1,60 @@
+package client;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retransmission timeout derived from each server's measured RTT.
+ * The first wait is the estimator's RTO; every retransmission doubles it
+ * (capped at maxRto) and adds up to 50% random jitter so that clients which
+ * lost packets at the same moment do not resend in lockstep.
+ */
+public class AdaptiveRetransmitPolicy implements RetransmitPolicy {
+    public static final long DEFAULT_MIN_RTO_MS = 200;
+    public static final long DEFAULT_MAX_RTO_MS = 10000;
+    public static final long DEFAULT_INITIAL_RTO_MS = 1000;
+
+    private final long minRtoMillis;
+    private final long maxRtoMillis;
+    private final long initialRtoMillis;
+    private final ConcurrentHashMap<InetSocketAddress, RttEstimator> estimators = new ConcurrentHashMap<>();
+
+    public AdaptiveRetransmitPolicy() {
+        this(DEFAULT_MIN_RTO_MS, DEFAULT_MAX_RTO_MS, DEFAULT_INITIAL_RTO_MS);
+    }
+
+    public AdaptiveRetransmitPolicy(long minRtoMillis, long maxRtoMillis, long initialRtoMillis) {
+        if (minRtoMillis <= 0 || maxRtoMillis < minRtoMillis) {
+            throw new IllegalArgumentException("Invalid RTO bounds");
+        }
+        this.minRtoMillis = minRtoMillis;
+        this.maxRtoMillis = maxRtoMillis;
+        this.initialRtoMillis = initialRtoMillis;
+    }
+
+    @Override
+    public long timeoutMillis(InetSocketAddress server, int attempt) {
+        long rto = TimeUnit.NANOSECONDS.toMillis(estimator(server).rtoNanos());
+        if (attempt <= 1) {
+            return Math.max(minRtoMillis, rto);
+        }
+        int shift = Math.min(attempt - 1, 16);
+        long backoff = Math.min(maxRtoMillis, rto << shift);
+        long jitter = ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        return Math.min(maxRtoMillis, backoff + jitter);
+    }
+
+    @Override
+    public void onRttSample(InetSocketAddress server, long rttNanos) {
+        estimator(server).onSample(rttNanos);
+    }
+
+    public RttEstimator estimator(InetSocketAddress server) {
+        return estimators.computeIfAbsent(server, s -> new RttEstimator(
+                TimeUnit.MILLISECONDS.toNanos(minRtoMillis),
+                TimeUnit.MILLISECONDS.toNanos(maxRtoMillis),
+                TimeUnit.MILLISECONDS.toNanos(initialRtoMillis)));
+    }
+}
@@ -0,0 +1,211 @@
+package client;
+
+import common.CurrencyType;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client-side balances keyed by (accountId, currency).
+ *
+ * Entries come from OP_CHECK_BALANCE and OP_CHECK_ALL_BALANCES replies and from
+ * the balance trailer of STATUS_CALLBACK messages. They expire after a TTL, as a
+ * fallback for changes this client is not told about (for example when it is not
+ * monitoring). Each account remembers the newest server version it has applied,
+ * so a snapshot that arrives late cannot overwrite a newer one. Unversioned balances
+ * carry the epoch() read when their request was sent instead, and are dropped if the
+ * cache was invalidated or updated since.
+ */
+public class BalanceCache {
+    private static final CurrencyType[] CURRENCIES = CurrencyType.values();
+
+    private final ConcurrentHashMap<Integer, AccountEntry> accounts = new ConcurrentHashMap<>();
+    // Advanced by every invalidation and versioned update
+    private final AtomicLong epoch = new AtomicLong();
+    private volatile long ttlNanos;
+
+    public BalanceCache(long ttlMillis) {
+        setTtl(ttlMillis);
+    }
+
+    /**
+     * 0 disables caching.
+     */
+    public void setTtl(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("TTL cannot be negative");
+        }
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        if (ttlMillis == 0) {
+            accounts.clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return ttlNanos > 0;
+    }
+
+    /**
+     * The cached balance, or NaN if missing or expired.
+     */
+    public double get(int accountId, CurrencyType currency) {
+        AccountEntry entry = accounts.get(accountId);
+        if (entry == null) {
+            return Double.NaN;
+        }
+        synchronized (entry) {
+            return entry.isFresh(currency.ordinal(), System.nanoTime()) ? entry.balances[currency.ordinal()] : Double.NaN;
+        }
+    }
+
+    /**
+     * Copies every balance of the account into dst and returns true only if all of them are fresh.
+     */
+    public boolean getAll(int accountId, double[] dst) {
+        AccountEntry entry = accounts.get(accountId);
+        if (entry == null) {
+            return false;
+        }
+        long now = System.nanoTime();
+        synchronized (entry) {
+            for (int i = 0; i < CURRENCIES.length; i++) {
+                if (!entry.isFresh(i, now)) {
+                    return false;
+                }
+                dst[i] = entry.balances[i];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * To be read before sending a request whose unversioned reply will be put().
+     */
+    public long epoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Stores one balance read without a version, such as an OP_CHECK_BALANCE reply,
+     * unless the cache changed after epoch was read: the reply may then predate a
+     * balance update and would overwrite what the update invalidated.
+     */
+    public void put(int accountId, CurrencyType currency, double balance, long epoch) {
+        if (!isEnabled()) {
+            return;
+        }
+        AccountEntry entry = accounts.computeIfAbsent(accountId, id -> new AccountEntry());
+        synchronized (entry) {
+            if (this.epoch.get() != epoch) {
+                return;
+            }
+            entry.balances[currency.ordinal()] = balance;
+            entry.expiresAt[currency.ordinal()] = System.nanoTime() + ttlNanos;
+        }
+    }
+
+    /**
+     * Reads a versioned trailer, [long version][int count] then [int currency][double balance]
+     * pairs, and stores it unless a newer version was already applied. A count of zero
+     * means the account is gone.
+     */
+    public void applyVersioned(int accountId, ByteBuffer trailer) {
+        long version = trailer.getLong();
+        int count = trailer.getInt();
+        if (count == 0) {
+            invalidate(accountId);
+            return;
+        }
+        if (!isEnabled()) {
+            return;
+        }
+        AccountEntry entry = accounts.computeIfAbsent(accountId, id -> new AccountEntry());
+        long expiresAt = System.nanoTime() + ttlNanos;
+        synchronized (entry) {
+            boolean stale = version < entry.version;
+            for (int i = 0; i < count; i++) {
+                int ordinal = trailer.getInt();
+                double balance = trailer.getDouble();
+                if (!stale && ordinal >= 0 && ordinal < CURRENCIES.length) {
+                    entry.balances[ordinal] = balance;
+                    entry.expiresAt[ordinal] = expiresAt;
+                }
+            }
+            if (!stale) {
+                entry.version = version;
+                epoch.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Updates the cache from the part of a STATUS_CALLBACK message after its text.
+     * Callbacks without a balance trailer fall back to invalidating the account named
+     * in the text, or everything if none can be found.
+     */
+    public void applyCallback(String text, ByteBuffer trailer) {
+        if (trailer != null && trailer.remaining() >= 16) {
+            try {
+                applyVersioned(trailer.getInt(), trailer);
+                return;
+            } catch (BufferUnderflowException e) {
+                // malformed trailer, fall through to the text
+            }
+        }
+        int accountId = parseAccountId(text);
+        if (accountId >= 0) {
+            invalidate(accountId);
+        } else {
+            clear();
+        }
+    }
+
+    public void invalidate(int accountId) {
+        epoch.incrementAndGet();
+        accounts.remove(accountId);
+    }
+
+    public void invalidate(int accountId, CurrencyType currency) {
+        epoch.incrementAndGet();
+        AccountEntry entry = accounts.get(accountId);
+        if (entry != null) {
+            synchronized (entry) {
+                entry.expiresAt[currency.ordinal()] = 0;
+            }
+        }
+    }
+
+    public void clear() {
+        epoch.incrementAndGet();
+        accounts.clear();
+    }
+
+    private static int parseAccountId(String text) {
+        if (text == null) {
+            return -1;
+        }
+        int at = text.indexOf("Account ");
+        if (at < 0) {
+            return -1;
+        }
+        int start = at + "Account ".length();
+        int end = start;
+        while (end < text.length() && end - start < 9 && Character.isDigit(text.charAt(end))) {
+            end++;
+        }
+        return end > start ? Integer.parseInt(text.substring(start, end)) : -1;
+    }
+
+    private static final class AccountEntry {
+        private final double[] balances = new double[CURRENCIES.length];
+        // 0 marks a missing entry
+        private final long[] expiresAt = new long[CURRENCIES.length];
+        private long version = Long.MIN_VALUE;
+
+        private boolean isFresh(int ordinal, long now) {
+            return expiresAt[ordinal] != 0 && expiresAt[ordinal] - now > 0;
+        }
+    }
+}
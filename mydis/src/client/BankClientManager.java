@@ -1,36 +1,138 @@
 package client;
 
+import common.BufferPool;
 import common.Constants;
+import common.CurrencyType;
+import common.DatagramTransport;
+import common.Fragments;
+import common.Frame;
 import common.Marshaller;
-import common.NetworkUtil;
-
+import common.codec.AccountReply;
+import common.codec.BalanceReply;
+import common.codec.CheckAllBalancesRequest;
+import common.codec.CheckBalanceRequest;
+import common.codec.CloseAccountRequest;
+import common.codec.DepositRequest;
+import common.codec.ExchangeRequest;
+import common.codec.HistoryEntryReply;
+import common.codec.HistoryPageReply;
+import common.codec.HistoryRequest;
+import common.codec.LoginReply;
+import common.codec.LoginRequest;
+import common.codec.MonitorRequest;
+import common.codec.OpenAccountRequest;
+import common.codec.TransferRequest;
+import common.codec.WithdrawRequest;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Random;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class BankClientManager {
     private static BankClientManager instance;
 
-    private DatagramSocket socket;
-    private InetAddress serverAddress;
-    private int serverPort;
-    private int reqIdCounter = new Random().nextInt(1000);
+    // Interval between retransmissions under the default fixed policy (ms)
+    private static final long RETRANSMIT_INTERVAL_MS = 1000;
+    // How long a cached balance is trusted without a callback confirming it (ms)
+    private static final long BALANCE_CACHE_TTL_MS = 10000;
+    private static final CurrencyType[] CURRENCIES = CurrencyType.values();
+    private static final int MAX_FREE_RECEIVE_BUFFERS = 256;
+    // Bytes of partly reassembled replies held at once; fragments beyond it are dropped
+    private static final long MAX_REASSEMBLY_BYTES = 4L << 20;
+    // History pages sized to fit one datagram with room for the message
+    private static final int DEFAULT_HISTORY_PAGE_ENTRIES =
+            (Fragments.MAX_UNFRAGMENTED - 128 - HistoryPageReply.SIZE) / HistoryEntryReply.SIZE;
+    private static final int DEFAULT_HISTORY_WINDOW = 8;
+    // Requests that may wait for room in one server's congestion window
+    private static final int DEFAULT_CONGESTION_QUEUE_LIMIT = 4096;
+    // Start of the message a server sends for an opcode it does not implement (RequestHandler.execute)
+    private static final String UNKNOWN_OPERATION = "Unknown operation:";
+    private static final java.util.regex.Pattern AMOUNT_PATTERN = java.util.regex.Pattern.compile("-?\\d+(\\.\\d+)?");
+
+    private final DatagramTransport transport;
+    private volatile ReplicaSet replicas;
+    private final RequestIds requestIds = new RequestIds();
     private UserSession currentUser;
-    private boolean enableRetry = false;
-    private DatagramSocket monitorSocket;
+    private volatile boolean enableRetry = false;
+    private volatile RetransmitPolicy retransmitPolicy = RetransmitPolicy.fixed(RETRANSMIT_INTERVAL_MS);
+    private volatile HedgePolicy hedgePolicy;
+    // Per-opcode overrides of Constants.RETRY_TIMEOUT_MS
+    private final ConcurrentHashMap<Integer, Long> operationDeadlines = new ConcurrentHashMap<>();
+    private DatagramTransport monitorTransport;
     private Thread monitorThread;
-    private ServerMessageListener messageListener;
+    private volatile ServerMessageListener messageListener;
+
+    // Requests sent on the shared transport and still waiting for a reply, keyed by reqID
+    private final ConcurrentHashMap<Integer, PendingRequest> inFlight = new ConcurrentHashMap<>();
+    // Receive buffers given back by Result.release(), ready for the next datagram. Releasing
+    // a Result is optional, so unreleased buffers are not reported as leaks
+    private final BufferPool receiveBuffers = new BufferPool(Constants.NETWORK_BUFFER_SIZE, MAX_FREE_RECEIVE_BUFFERS, false);
+    private final AtomicLong reassemblyBytes = new AtomicLong();
+    // Replies still due for extra copies of answered requests (retransmissions, hedges);
+    // a late reply beyond these was delayed past its timeout and signals congestion
+    private final AtomicInteger expectedDuplicates = new AtomicInteger();
+    // Replies the transport's receive buffer holds; caps each server's congestion window
+    private final int maxWindow;
+    private final ScheduledThreadPoolExecutor retryTimer;
+    private final Thread receiverThread;
+    private final ClientMetrics metrics = new ClientMetrics();
+    private final BalanceCache balanceCache = new BalanceCache(BALANCE_CACHE_TTL_MS);
+    // Set once the server rejects OP_CHECK_ALL_BALANCES; balances are then fetched per currency
+    private volatile boolean allBalancesUnsupported;
+    // Set once the server rejects OP_LOGIN; requests then keep carrying name and password
+    private volatile boolean tokensUnsupported;
+    // Reply format version the server answers in; -1 until a reply to a versioned request shows it
+    private volatile int serverReplyVersion = -1;
+    private volatile boolean replyMessages = true;
+    private volatile int historyPageEntries = DEFAULT_HISTORY_PAGE_ENTRIES;
+    private volatile int historyWindow = DEFAULT_HISTORY_WINDOW;
+    private volatile int congestionQueueLimit = DEFAULT_CONGESTION_QUEUE_LIMIT;
 
     private BankClientManager(String host, int port) throws Exception {
-        this.socket = new DatagramSocket();
-        this.serverAddress = InetAddress.getByName(host);
-        this.serverPort = port;
+        this(host, port, DatagramTransport.open());
+    }
+
+    private BankClientManager(String host, int port, DatagramTransport transport) throws Exception {
+        this.transport = transport;
+        this.maxWindow = maxWindowFor(transport);
+        this.replicas = newReplicaSet(List.of(new InetSocketAddress(InetAddress.getByName(host), port)));
+
+        this.retryTimer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "bank-client-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        this.retryTimer.setRemoveOnCancelPolicy(true);
+        this.retryTimer.scheduleAtFixedRate(metrics::tick, ClientMetrics.TICK_SECONDS, ClientMetrics.TICK_SECONDS, TimeUnit.SECONDS);
+        this.retryTimer.scheduleAtFixedRate(this::refreshHedgeDelays, 1, 1, TimeUnit.SECONDS);
+        this.metrics.setInFlightGauge(inFlight::size);
+        registerMetrics();
+
+        this.receiverThread = new Thread(this::receiveLoop, "bank-client-receiver");
+        this.receiverThread.setDaemon(true);
+        this.receiverThread.start();
     }
 
     public static synchronized BankClientManager getInstance(String host, int port) throws Exception {
@@ -40,6 +142,29 @@ public class BankClientManager {
         return instance;
     }
 
+    /**
+     * Initializes the shared instance on a caller-supplied transport instead of the
+     * one selected by the mydis.transport system property.
+     */
+    public static synchronized BankClientManager getInstance(String host, int port, DatagramTransport transport) throws Exception {
+        if (instance == null) {
+            instance = new BankClientManager(host, port, transport);
+        }
+        return instance;
+    }
+
+    /**
+     * A manager of its own rather than the shared instance: its own socket, receiver
+     * thread and metrics. Close it when done.
+     */
+    public static BankClientManager create(String host, int port) throws Exception {
+        return new BankClientManager(host, port);
+    }
+
+    public static BankClientManager create(String host, int port, DatagramTransport transport) throws Exception {
+        return new BankClientManager(host, port, transport);
+    }
+
     public static synchronized BankClientManager getInstance() {
         if (instance == null) {
             throw new IllegalStateException("BankClientManager not initialized. Call getInstance(host, port) first.");
@@ -51,9 +176,88 @@ public class BankClientManager {
         this.enableRetry = enableRetry;
     }
 
+    /**
+     * Selects how long to wait before each retransmission. Defaults to a fixed
+     * 1 s interval; RetransmitPolicy.adaptive() follows each server's measured RTT.
+     * Under at-most-once semantics only the first timeout applies.
+     */
+    public synchronized void setRetransmitPolicy(RetransmitPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Retransmit policy is required");
+        }
+        this.retransmitPolicy = policy;
+    }
+
+    public RetransmitPolicy getRetransmitPolicy() {
+        return retransmitPolicy;
+    }
+
+    /**
+     * Enables hedging of the operations the policy marks idempotent; null (the default)
+     * disables it. A hedge only goes out if it is due before the first retransmission.
+     */
+    public synchronized void setHedgePolicy(HedgePolicy policy) {
+        this.hedgePolicy = policy;
+        if (policy != null) {
+            policy.refresh(metrics);
+        }
+    }
+
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    /**
+     * Sets the total time an operation may spend waiting for a reply,
+     * including retransmissions, before it completes with "No response".
+     */
+    public void setOperationDeadline(int opCode, long deadlineMillis) {
+        if (deadlineMillis <= 0) {
+            throw new IllegalArgumentException("Deadline must be positive");
+        }
+        operationDeadlines.put(opCode, deadlineMillis);
+    }
+
+    private long deadlineMillis(int opCode) {
+        Long deadline = operationDeadlines.get(opCode & Constants.OP_CODE_MASK);
+        return deadline != null ? deadline : Constants.RETRY_TIMEOUT_MS;
+    }
+
     public synchronized void setServer(String host, int port) throws Exception {
-        this.serverAddress = InetAddress.getByName(host);
-        this.serverPort = port;
+        this.replicas = newReplicaSet(List.of(new InetSocketAddress(InetAddress.getByName(host), port)));
+    }
+
+    /**
+     * Spreads requests over several servers. The first is the primary and takes every
+     * update; balance queries go to whichever replica is expected to answer soonest.
+     */
+    public synchronized void setReplicas(List<InetSocketAddress> servers) {
+        this.replicas = newReplicaSet(servers);
+    }
+
+    public ReplicaSet getReplicaSet() {
+        return replicas;
+    }
+
+    private ReplicaSet newReplicaSet(List<InetSocketAddress> servers) {
+        ReplicaSet set = new ReplicaSet(servers);
+        for (Replica replica : set.getReplicas()) {
+            replica.getCongestionWindow().setMaxWindow(maxWindow);
+        }
+        return set;
+    }
+
+    /**
+     * Requests whose replies fit the receive buffer at once, each reply taking up to a
+     * datagram. A larger window lets a burst of replies overflow it.
+     */
+    private static int maxWindowFor(DatagramTransport transport) {
+        try {
+            return Math.max(CongestionWindow.MIN_WINDOW,
+                    Math.min(CongestionWindow.MAX_WINDOW, transport.getReceiveBufferSize() / Constants.NETWORK_BUFFER_SIZE));
+        } catch (IOException e) {
+            return CongestionWindow.MAX_WINDOW;
+        }
     }
 
     public synchronized UserSession getCurrentUser() {
@@ -62,6 +266,52 @@ public class BankClientManager {
 
     public synchronized void logout() {
         currentUser = null;
+        balanceCache.clear();
+    }
+
+    /**
+     * Sets how long cached balances are served without asking the server; 0 disables the cache.
+     * Callbacks received while monitoring refresh entries before they expire.
+     */
+    public void setBalanceCacheTtl(long ttlMillis) {
+        balanceCache.setTtl(ttlMillis);
+    }
+
+    public BalanceCache getBalanceCache() {
+        return balanceCache;
+    }
+
+    /**
+     * Whether successful replies carry their human-readable message. Without it the server
+     * sends only the typed fields and a successful Result's getMessage() is empty. Servers
+     * that only speak the text reply format always send the message.
+     */
+    public void setReplyMessages(boolean enabled) {
+        this.replyMessages = enabled;
+    }
+
+    /**
+     * Entries per OP_HISTORY page and how many pages a HistoryStream keeps in flight.
+     * Pages larger than a datagram arrive in fragments.
+     */
+    public void setHistoryPaging(int pageEntries, int window) {
+        if (pageEntries < 1 || window < 1) {
+            throw new IllegalArgumentException("Page size and window must be positive");
+        }
+        this.historyPageEntries = pageEntries;
+        this.historyWindow = window;
+    }
+
+    /**
+     * How many requests may wait for room in a server's congestion window (see
+     * CongestionWindow) before further ones fail at once with STATUS_ERROR; 0 makes
+     * every request that finds the window full fail fast.
+     */
+    public void setCongestionQueueLimit(int maxWaiting) {
+        if (maxWaiting < 0) {
+            throw new IllegalArgumentException("Queue limit must not be negative");
+        }
+        this.congestionQueueLimit = maxWaiting;
     }
 
     public synchronized void setServerMessageListener(ServerMessageListener listener) {
@@ -69,142 +319,464 @@ public class BankClientManager {
     }
 
     public synchronized void close() {
-        if (socket != null && !socket.isClosed()) {
-            socket.close();
+        unregisterMetrics();
+        closeQuietly(transport);
+        closeQuietly(monitorTransport);
+        retryTimer.shutdownNow();
+        boolean timerStopped;
+        try {
+            timerStopped = retryTimer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            timerStopped = false;
         }
-        if (monitorSocket != null && !monitorSocket.isClosed()) {
-            monitorSocket.close();
+        for (PendingRequest pending : inFlight.values()) {
+            if (inFlight.remove(pending.reqID, pending)) {
+                pending.future.complete(new Result(Constants.STATUS_ERROR, "Client closed", new byte[0]));
+                if (timerStopped) {
+                    releaseFrame(pending);
+                }
+            }
         }
     }
 
-    public Result openAccount(String name, String password, String currency, float initialBalance) throws Exception {
-        ByteBuffer payloadBuf = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        Marshaller.packString(payloadBuf, name);
-        Marshaller.packString(payloadBuf, password);
-        Marshaller.packFloat(payloadBuf, initialBalance);
-        Marshaller.packString(payloadBuf, currency);
-
-        int opCode = Constants.OP_OPEN_ACCOUNT;
-        Response response = sendRequest(opCode, payloadBuf);
-        if (response.status == Constants.STATUS_OK) {
-            int accountId = extractAccountId(response.message);
-            synchronized (this) {
-                currentUser = new UserSession(accountId, name, password);
+    /**
+     * Latency, retry, timeout and callback statistics for this client, also published over JMX.
+     */
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Pool of the buffers replies are received into; request frames come from BufferPool.requests().
+     */
+    public BufferPool getReceiveBufferPool() {
+        return receiveBuffers;
+    }
+
+    private void registerMetrics() {
+        try {
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(ClientMetrics.OBJECT_NAME);
+            if (!mbeans.isRegistered(name)) {
+                mbeans.registerMBean(metrics, name);
             }
+        } catch (JMException e) {
+            // metrics stay available through getMetrics()
         }
-        return new Result(response.status, response.message, response.payload);
     }
 
-    public Result login(int accountId, String name, String password, String currency) throws Exception {
-        ByteBuffer payloadBuf = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        Marshaller.packInt(payloadBuf, accountId);
-        Marshaller.packString(payloadBuf, name);
-        Marshaller.packString(payloadBuf, password);
-        Marshaller.packString(payloadBuf, currency);
-
-        int opCode = Constants.OP_CHECK_BALANCE;
-        Response response = sendRequest(opCode, payloadBuf);
-        if (response.status == Constants.STATUS_OK) {
-            synchronized (this) {
-                currentUser = new UserSession(accountId, name, password);
+    private void unregisterMetrics() {
+        try {
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(ClientMetrics.OBJECT_NAME);
+            if (mbeans.isRegistered(name)) {
+                mbeans.unregisterMBean(name);
             }
+        } catch (JMException e) {
+            // already gone
         }
-        return new Result(response.status, response.message, response.payload);
     }
 
-    public Result deposit(int accountId, String currency, float amount) throws Exception {
-        UserSession session = requireSession();
+    /**
+     * Number of requests sent on the shared transport that have not been answered yet.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
 
-        int opCode = Constants.OP_DEPOSIT;
-        ByteBuffer payloadBuf = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        Marshaller.packInt(payloadBuf, accountId);
-        Marshaller.packString(payloadBuf, session.getName());
-        Marshaller.packString(payloadBuf, session.getPassword());
-        Marshaller.packString(payloadBuf, currency);
-        Marshaller.packFloat(payloadBuf, amount);
+    public Result openAccount(String name, String password, String currency, float initialBalance) throws Exception {
+        return await(openAccountAsync(name, password, currency, initialBalance));
+    }
 
-        Response response = sendRequest(opCode, payloadBuf);
-        return new Result(response.status, response.message, response.payload);
+    public Result login(int accountId, String name, String password, String currency) throws Exception {
+        return await(loginAsync(accountId, name, password, currency));
+    }
+
+    public Result deposit(int accountId, String currency, float amount) throws Exception {
+        return await(depositAsync(accountId, currency, amount));
     }
 
     public Result transfer(int receiverId, String currency, float amount) throws Exception {
-        UserSession session = requireSession();
+        return await(transferAsync(receiverId, currency, amount));
+    }
 
-        int opCode = Constants.OP_TRANSFER;
-        ByteBuffer payloadBuf = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        Marshaller.packInt(payloadBuf, session.getAccountId());
-        Marshaller.packString(payloadBuf, session.getName());
-        Marshaller.packString(payloadBuf, session.getPassword());
-        Marshaller.packString(payloadBuf, currency);
-        Marshaller.packFloat(payloadBuf, amount);
-        Marshaller.packInt(payloadBuf, receiverId);
+    public Result exchange(String fromCurrency, String toCurrency, float amountToExchange) throws Exception {
+        return await(exchangeAsync(fromCurrency, toCurrency, amountToExchange));
+    }
 
-        Response response = sendRequest(opCode, payloadBuf);
-        return new Result(response.status, response.message, response.payload);
+    public Result withdraw(int accountId, String currency, float amount) throws Exception {
+        return await(withdrawAsync(accountId, currency, amount));
     }
 
-    public Result exchange(String fromCurrency, String toCurrency, float amountToExchange) throws Exception {
-        UserSession session = requireSession();
+    public Result checkBalance(String currency) throws Exception {
+        return await(checkBalanceAsync(currency));
+    }
 
-        int opCode = Constants.OP_EXCHANGE;
-        ByteBuffer payloadBuf = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        Marshaller.packInt(payloadBuf, session.getAccountId());
-        Marshaller.packString(payloadBuf, session.getName());
-        Marshaller.packString(payloadBuf, session.getPassword());
-        Marshaller.packString(payloadBuf, fromCurrency);
-        Marshaller.packString(payloadBuf, toCurrency);
-        Marshaller.packFloat(payloadBuf, amountToExchange);
+    public Result closeAccount() throws Exception {
+        return await(closeAccountAsync());
+    }
 
-        Response response = sendRequest(opCode, payloadBuf);
-        return new Result(response.status, response.message, response.payload);
+    public AccountBalances getBalances() throws Exception {
+        return await(getBalancesAsync(requireSession()));
     }
 
-    public Result withdraw(int accountId, String currency, float amount) throws Exception {
-        UserSession session = requireSession();
+    // === Pipelined operations ===
+    // Each call returns as soon as the request is on the wire. Replies are matched
+    // to requests by reqID on the shared receiver thread, so any number of
+    // requests can be outstanding at once.
 
-        int opCode = Constants.OP_WITHDRAW;
+    public CompletableFuture<Result> openAccountAsync(String name, String password, String currency, float initialBalance) {
+        return sendOpenAccount(name, password, currency, initialBalance).thenCompose(result -> {
+            if (!result.isSuccess()) {
+                return CompletableFuture.completedFuture(result);
+            }
+            UserSession session = newSession(result.getAccountId(), name, password);
+            return acquireTokenAsync(session).thenApply(ignored -> {
+                synchronized (this) {
+                    currentUser = session;
+                }
+                return result;
+            });
+        });
+    }
 
-        ByteBuffer payloadBuf = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        Marshaller.packInt(payloadBuf, accountId);
-        Marshaller.packString(payloadBuf, session.getName());
-        Marshaller.packString(payloadBuf, session.getPassword());
-        Marshaller.packString(payloadBuf, currency);
-        Marshaller.packFloat(payloadBuf, amount);
+    /**
+     * Logs in with OP_LOGIN and keeps the returned token in the session, so later
+     * requests carry the token instead of the name and password. Against a server
+     * without OP_LOGIN the credentials are verified with a balance check instead
+     * (currency is only used for that).
+     */
+    public CompletableFuture<Result> loginAsync(int accountId, String name, String password, String currency) {
+        UserSession session = newSession(accountId, name, password);
+        return authenticate(session, currency).thenApply(result -> {
+            if (result.isSuccess()) {
+                synchronized (this) {
+                    currentUser = session;
+                }
+            }
+            return result;
+        });
+    }
 
-        Response response = sendRequest(opCode, payloadBuf);
-        return new Result(response.status, response.message, response.payload);
+    /**
+     * Logs in without making the account this manager's current user. Completes with
+     * a session bound to this manager, or null if the credentials were rejected; any
+     * number of such sessions can be active at once.
+     */
+    public CompletableFuture<UserSession> loginSessionAsync(int accountId, String name, String password) {
+        UserSession session = newSession(accountId, name, password);
+        return authenticate(session, CurrencyType.USD.name()).thenApply(result -> {
+            boolean success = result.isSuccess();
+            result.release();
+            return success ? session : null;
+        });
     }
 
-    public Result checkBalance(String currency) throws Exception {
-        UserSession session = requireSession();
+    private UserSession newSession(int accountId, String name, String password) {
+        UserSession session = new UserSession(accountId, name, password);
+        session.bind(this);
+        return session;
+    }
 
-        int opCode = Constants.OP_CHECK_BALANCE;
-        ByteBuffer payloadBuf = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        Marshaller.packInt(payloadBuf, session.getAccountId());
-        Marshaller.packString(payloadBuf, session.getName());
-        Marshaller.packString(payloadBuf, session.getPassword());
-        Marshaller.packString(payloadBuf, currency);
+    private CompletableFuture<Result> authenticate(UserSession session, String currency) {
+        if (tokensUnsupported) {
+            return verifyCredentials(session, currency);
+        }
+        return sendLogin(session).thenCompose(result -> {
+            if (isUnsupported(result)) {
+                tokensUnsupported = true;
+                return verifyCredentials(session, currency);
+            }
+            return CompletableFuture.completedFuture(result);
+        });
+    }
+
+    private CompletableFuture<Result> sendLogin(UserSession session) {
+        ByteBuffer payloadBuf = Frame.newRequest();
+        int opCode = LoginRequest.encode(payloadBuf, session.getAccountId(), session.getName(), session.getPassword());
 
-        Response response = sendRequest(opCode, payloadBuf);
-        return new Result(response.status, response.message, response.payload);
+        return sendAsync(opCode, payloadBuf).thenApply(result -> {
+            ByteBuffer trailer = result.isSuccess() ? result.getTrailer() : null;
+            if (trailer != null && trailer.remaining() >= 8) {
+                session.setToken(LoginReply.token(trailer));
+            }
+            return result;
+        });
     }
 
-    public Result closeAccount() throws Exception {
+    private CompletableFuture<Result> verifyCredentials(UserSession session, String currency) {
+        ByteBuffer payloadBuf = Frame.newRequest();
+        int opCode = CheckBalanceRequest.encode(payloadBuf, session.getAccountId(), 0,
+                session.getName(), session.getPassword(), currency);
+
+        return sendAsync(opCode, payloadBuf);
+    }
+
+    /**
+     * Obtains a token for the session if the server issues them. Completes with the
+     * session either way; without a token it keeps using name and password.
+     */
+    CompletableFuture<UserSession> acquireTokenAsync(UserSession session) {
+        if (tokensUnsupported) {
+            return CompletableFuture.completedFuture(session);
+        }
+        return sendLogin(session).thenApply(result -> {
+            if (isUnsupported(result)) {
+                tokensUnsupported = true;
+            }
+            result.release();
+            return session;
+        });
+    }
+
+    /**
+     * Older servers answer opcodes they do not know with STATUS_ERROR and an
+     * "Unknown operation" message. Any other error is about the request itself
+     * (bad credentials, a missing account) and says nothing about the server.
+     */
+    private static boolean isUnsupported(Result result) {
+        return result.getStatus() == Constants.STATUS_ERROR && !result.isTimeout()
+                && result.getMessage().startsWith(UNKNOWN_OPERATION);
+    }
+
+    public CompletableFuture<Result> depositAsync(int accountId, String currency, float amount) {
+        return depositAsync(requireSession(), accountId, currency, amount);
+    }
+
+    public CompletableFuture<Result> transferAsync(int receiverId, String currency, float amount) {
+        return transferAsync(requireSession(), receiverId, currency, amount);
+    }
+
+    public CompletableFuture<Result> exchangeAsync(String fromCurrency, String toCurrency, float amountToExchange) {
+        return exchangeAsync(requireSession(), fromCurrency, toCurrency, amountToExchange);
+    }
+
+    public CompletableFuture<Result> withdrawAsync(int accountId, String currency, float amount) {
+        return withdrawAsync(requireSession(), accountId, currency, amount);
+    }
+
+    public CompletableFuture<Result> checkBalanceAsync(String currency) {
+        return checkBalanceAsync(requireSession(), currency);
+    }
+
+    public CompletableFuture<Result> closeAccountAsync() {
         UserSession session = requireSession();
+        return closeAccountAsync(session).thenApply(result -> {
+            if (result.isSuccess()) {
+                synchronized (this) {
+                    if (currentUser == session) {
+                        currentUser = null;
+                    }
+                }
+            }
+            return result;
+        });
+    }
 
-        int opCode = Constants.OP_CLOSE_ACCOUNT;
-        ByteBuffer payloadBuf = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        Marshaller.packInt(payloadBuf, session.getAccountId());
-        Marshaller.packString(payloadBuf, session.getName());
-        Marshaller.packString(payloadBuf, session.getPassword());
+    // === Operations on behalf of an explicit session ===
+    // These leave the logged-in user untouched, so one manager can drive many
+    // accounts at once (load generation, batch tools).
 
-        Response response = sendRequest(opCode, payloadBuf);
-        if (response.status == Constants.STATUS_OK) {
-            synchronized (this) {
-                currentUser = null;
+    public CompletableFuture<Result> depositAsync(UserSession session, int accountId, String currency, float amount) {
+        return sendWithSession(session, (payloadBuf, useToken) -> packDeposit(payloadBuf, session, accountId, currency, amount));
+    }
+
+    public CompletableFuture<Result> transferAsync(UserSession session, int receiverId, String currency, float amount) {
+        return sendWithSession(session, (payloadBuf, useToken) -> packTransfer(payloadBuf, session, receiverId, currency, amount));
+    }
+
+    public CompletableFuture<Result> exchangeAsync(UserSession session, String fromCurrency, String toCurrency, float amountToExchange) {
+        return sendWithSession(session, (payloadBuf, useToken) -> packExchange(payloadBuf, session, fromCurrency, toCurrency, amountToExchange));
+    }
+
+    public CompletableFuture<Result> withdrawAsync(UserSession session, int accountId, String currency, float amount) {
+        return sendWithSession(session, (payloadBuf, useToken) -> packWithdraw(payloadBuf, session, accountId, currency, amount));
+    }
+
+    /**
+     * Answers from the balance cache when it holds a fresh entry, otherwise asks the
+     * server and caches the balance from the reply.
+     */
+    public CompletableFuture<Result> checkBalanceAsync(UserSession session, String currency) {
+        CurrencyType type = parseCurrency(currency);
+        if (type != null) {
+            double cached = balanceCache.get(session.getAccountId(), type);
+            if (!Double.isNaN(cached)) {
+                return CompletableFuture.completedFuture(Result.cached("Balance: " + formatAmount(cached) + " " + type));
+            }
+        }
+
+        long epoch = balanceCache.epoch();
+        return sendWithSession(session, true, (payloadBuf, useToken) -> CheckBalanceRequest.encode(payloadBuf,
+                session.getAccountId(), useToken ? session.getToken() : 0, session.getName(), session.getPassword(), currency)).thenApply(result -> {
+            if (result.isSuccess() && type != null) {
+                double balance = result.getBalance(type);
+                if (!Double.isNaN(balance)) {
+                    balanceCache.put(session.getAccountId(), type, balance, epoch);
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Balances in every currency: from the cache when all are fresh (no round trip),
+     * otherwise with one OP_CHECK_ALL_BALANCES request. Against a server without that
+     * opcode the currencies are requested pipelined instead.
+     */
+    public CompletableFuture<AccountBalances> getBalancesAsync(UserSession session) {
+        double[] cached = new double[CURRENCIES.length];
+        if (balanceCache.getAll(session.getAccountId(), cached)) {
+            return CompletableFuture.completedFuture(new AccountBalances(session.getAccountId(), cached, true, null));
+        }
+        return fetchBalancesAsync(session);
+    }
+
+    /**
+     * Like getBalancesAsync but always asks the server, refreshing the cache.
+     */
+    public CompletableFuture<AccountBalances> fetchBalancesAsync(UserSession session) {
+        if (allBalancesUnsupported) {
+            return fetchBalancesPerCurrency(session);
+        }
+        int accountId = session.getAccountId();
+        return sendWithSession(session, true, (payloadBuf, useToken) -> CheckAllBalancesRequest.encode(payloadBuf,
+                accountId, useToken ? session.getToken() : 0, session.getName(), session.getPassword())).thenCompose(result -> {
+            ByteBuffer trailer = result.isSuccess() ? result.getTrailer() : null;
+            if (trailer != null && trailer.remaining() >= 12) {
+                balanceCache.applyVersioned(accountId, trailer.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+                double[] balances = new double[CURRENCIES.length];
+                Arrays.fill(balances, Double.NaN);
+                trailer.getLong();
+                int count = trailer.getInt();
+                for (int i = 0; i < count && trailer.remaining() >= 12; i++) {
+                    int ordinal = trailer.getInt();
+                    double balance = trailer.getDouble();
+                    if (ordinal >= 0 && ordinal < balances.length) {
+                        balances[ordinal] = balance;
+                    }
+                }
+                return CompletableFuture.completedFuture(new AccountBalances(accountId, balances, false, result));
+            }
+            if (isUnsupported(result)) {
+                allBalancesUnsupported = true;
+                result.release();
+                return fetchBalancesPerCurrency(session);
+            }
+            return CompletableFuture.completedFuture(new AccountBalances(accountId, null, false, result));
+        });
+    }
+
+    private CompletableFuture<AccountBalances> fetchBalancesPerCurrency(UserSession session) {
+        List<CompletableFuture<Result>> replies = new ArrayList<>(CURRENCIES.length);
+        for (CurrencyType currency : CURRENCIES) {
+            replies.add(checkBalanceAsync(session, currency.name()));
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            double[] balances = new double[CURRENCIES.length];
+            boolean allCached = true;
+            Result failed = null;
+            for (int i = 0; i < CURRENCIES.length; i++) {
+                Result result = replies.get(i).join();
+                balances[i] = result.isSuccess() ? result.getBalance(CURRENCIES[i]) : Double.NaN;
+                if (failed == null && Double.isNaN(balances[i])) {
+                    // reported to the caller, who releases it; the other replies are released here
+                    failed = result;
+                } else {
+                    result.release();
+                }
+                allCached &= result.getAttempts() == 0;
+            }
+            if (failed != null) {
+                return new AccountBalances(session.getAccountId(), null, false, failed);
             }
+            return new AccountBalances(session.getAccountId(), balances, allCached, null);
+        });
+    }
+
+    /**
+     * Lists the logged-in user's transaction history from entry cursor (0 for the start).
+     */
+    public HistoryStream history(long cursor) {
+        return history(requireSession(), cursor);
+    }
+
+    /**
+     * Lists the session's transaction history from entry cursor (0 for the start), fetching
+     * pages as the stream is read. See HistoryStream.
+     */
+    public HistoryStream history(UserSession session, long cursor) {
+        return new HistoryStream((pageCursor, maxEntries) -> fetchHistoryPage(session, pageCursor, maxEntries),
+                cursor, historyPageEntries, historyWindow);
+    }
+
+    CompletableFuture<Result> fetchHistoryPage(UserSession session, long cursor, int maxEntries) {
+        return sendWithSession(session, true, (payloadBuf, useToken) -> HistoryRequest.encode(payloadBuf,
+                session.getAccountId(), useToken ? session.getToken() : 0, session.getName(), session.getPassword(),
+                cursor, maxEntries));
+    }
+
+    public CompletableFuture<Result> closeAccountAsync(UserSession session) {
+        return sendWithSession(session, (payloadBuf, useToken) -> CloseAccountRequest.encode(payloadBuf,
+                session.getAccountId(), session.getToken(), session.getName(), session.getPassword()));
+    }
+
+    /**
+     * Sends the request the packer writes. If the server no longer knows the session's
+     * token (expired, or the server restarted), logs in again and resends once.
+     */
+    private CompletableFuture<Result> sendWithSession(UserSession session, RequestPacker packer) {
+        return sendWithSession(session, false, packer);
+    }
+
+    /**
+     * Read-only requests may go to any replica. Tokens are only known to the primary
+     * that issued them, so requests routed elsewhere carry name and password instead.
+     */
+    private CompletableFuture<Result> sendWithSession(UserSession session, boolean readOnly, RequestPacker packer) {
+        long token = session.getToken();
+        Replica target = readOnly ? replicas.select() : replicas.primary();
+        ByteBuffer payloadBuf = Frame.newRequest();
+        int opCode = packer.pack(payloadBuf, target.isPrimary());
+        CompletableFuture<Result> reply = sendAsync(opCode, payloadBuf, target);
+        if ((opCode & Constants.OP_FLAG_TOKEN) == 0) {
+            return reply;
         }
-        return new Result(response.status, response.message, response.payload);
+        return reply.thenCompose(result -> {
+            if (result.getStatus() != Constants.STATUS_INVALID_SESSION) {
+                return CompletableFuture.completedFuture(result);
+            }
+            result.release();
+            session.clearToken(token);
+            return acquireTokenAsync(session).thenCompose(ignored -> {
+                ByteBuffer retryBuf = Frame.newRequest();
+                int retryOpCode = packer.pack(retryBuf, true);
+                return sendAsync(retryOpCode, retryBuf, target);
+            });
+        });
+    }
+
+    /**
+     * Opens an account without logging in as it. On success the returned session
+     * is bound to this manager and can run operations itself.
+     */
+    public CompletableFuture<UserSession> openAccountSessionAsync(String name, String password, String currency, float initialBalance) {
+        return sendOpenAccount(name, password, currency, initialBalance).thenCompose(result -> {
+            int accountId = result.isSuccess() ? result.getAccountId() : -1;
+            result.release();
+            if (accountId < 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return acquireTokenAsync(newSession(accountId, name, password));
+        });
+    }
+
+    CompletableFuture<Result> sendOpenAccount(String name, String password, String currency, float initialBalance) {
+        ByteBuffer payloadBuf = Frame.newRequest();
+        int opCode = OpenAccountRequest.encode(payloadBuf, name, password, initialBalance, currency);
+
+        return sendAsync(opCode, payloadBuf);
     }
 
     public Result startMonitor(long durationMillis) throws Exception {
@@ -216,20 +788,58 @@ public class BankClientManager {
             if (monitorThread != null && monitorThread.isAlive()) {
                 return new Result(Constants.STATUS_FAIL, "Monitor already running", new byte[0]);
             }
-            if (monitorSocket != null && !monitorSocket.isClosed()) {
-                monitorSocket.close();
-            }
-            monitorSocket = new DatagramSocket();
+            closeQuietly(monitorTransport);
+            monitorTransport = DatagramTransport.open();
         }
 
-        ByteBuffer payloadBuf = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        Marshaller.packLong(payloadBuf, durationMillis);
+        ByteBuffer payloadBuf = Frame.newRequest();
+        int opCode = MonitorRequest.encode(payloadBuf, durationMillis);
 
-        Response response = sendRequestWithSocket(Constants.OP_MONITOR, payloadBuf, monitorSocket);
-        if (response.status == Constants.STATUS_OK) {
+        Result result = sendRequestWithTransport(opCode, payloadBuf, monitorTransport);
+        if (result.isSuccess()) {
             startMonitorListenerThread(durationMillis);
         }
-        return new Result(response.status, response.message, response.payload);
+        return result;
+    }
+
+    /**
+     * Starts a batch of deposits, withdrawals, transfers and exchanges for the
+     * logged-in user. See Batch for how items are packed into OP_BATCH frames.
+     */
+    public Batch newBatch() {
+        return new Batch(this, requireSession());
+    }
+
+    // === Request layouts shared by single operations and batch items ===
+    // The field layouts are generated from common.codec.BankMessages; each helper
+    // returns the opcode to send, including OP_FLAG_TOKEN when a token was packed.
+
+    /**
+     * The token to send in place of name and password: the session's own token when
+     * it holds one for that account, otherwise 0.
+     */
+    static long tokenFor(UserSession session, int accountId) {
+        return accountId == session.getAccountId() ? session.getToken() : 0;
+    }
+
+    static int packDeposit(ByteBuffer buf, UserSession session, int accountId, String currency, float amount) {
+        return DepositRequest.encode(buf, accountId, tokenFor(session, accountId),
+                session.getName(), session.getPassword(), currency, amount);
+    }
+
+    static int packWithdraw(ByteBuffer buf, UserSession session, int accountId, String currency, float amount) {
+        return WithdrawRequest.encode(buf, accountId, tokenFor(session, accountId),
+                session.getName(), session.getPassword(), currency, amount);
+    }
+
+    static int packTransfer(ByteBuffer buf, UserSession session, int receiverId, String currency, float amount) {
+        return TransferRequest.encode(buf, session.getAccountId(), session.getToken(),
+                session.getName(), session.getPassword(), currency, amount, receiverId);
+    }
+
+    static int packExchange(ByteBuffer buf, UserSession session, String fromCurrency, String toCurrency, float amount) {
+        return ExchangeRequest.encode(buf, session.getAccountId(), session.getToken(),
+                session.getName(), session.getPassword(), fromCurrency, toCurrency, amount);
     }
 
     private UserSession requireSession() {
@@ -240,94 +850,686 @@ public class BankClientManager {
         return session;
     }
 
-    private Response sendRequest(int opCode, ByteBuffer payloadBuf) throws Exception {
-        int reqID = reqIdCounter++;
+    CompletableFuture<Result> sendAsync(int opCode, ByteBuffer payloadBuf) {
+        return sendAsync(opCode, payloadBuf, isReadOnly(opCode) ? replicas.select() : replicas.primary());
+    }
 
-        ByteBuffer reqBuf = ByteBuffer.allocate(8 + Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        reqBuf.putInt(reqID);
-        reqBuf.putInt(opCode);
-        reqBuf.put(payloadBuf.array());
-        byte[] reqData = reqBuf.array();
+    private CompletableFuture<Result> sendAsync(int opCode, ByteBuffer payloadBuf, Replica target) {
+        int reqID = requestIds.next();
+        opCode = requestReplyVersion(opCode);
+        ByteBuffer reqFrame = (opCode & Constants.OP_FLAG_REQUEST_ID) != 0
+                ? Frame.seal(payloadBuf, reqID, opCode, requestIds.getNonce())
+                : Frame.seal(payloadBuf, reqID, opCode);
+        if (isBalanceUpdate(opCode)) {
+            int[] accounts = affectedAccounts(opCode, reqFrame);
+            return sendFrame(reqID, opCode, reqFrame, target).whenComplete((result, error) -> {
+                // whatever the outcome, the cached balances can no longer be trusted
+                for (int accountId : accounts) {
+                    balanceCache.invalidate(accountId);
+                }
+            });
+        }
+        return sendFrame(reqID, opCode, reqFrame, target);
+    }
 
-        DatagramPacket replyPacket = sendWithRetryNonCallback(socket, serverAddress, serverPort, reqData, enableRetry);
-        if (replyPacket == null) {
-            return new Response(Constants.STATUS_ERROR, "No response", new byte[0]);
+    private CompletableFuture<Result> sendFrame(int reqID, int opCode, ByteBuffer reqFrame, Replica target) {
+        PendingRequest pending = new PendingRequest(reqID, opCode, reqFrame, target, enableRetry,
+                retransmitPolicy, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis(opCode)));
+        inFlight.put(reqID, pending);
+        metrics.onRequest(opCode);
+        switch (pending.window.acquire(() -> admit(pending), congestionQueueLimit)) {
+            case ADMITTED:
+                pending.slotHeld.set(true);
+                transmit(pending);
+                scheduleHedge(pending);
+                break;
+            case QUEUED:
+                metrics.onCongestionWait();
+                break;
+            case REJECTED:
+                if (inFlight.remove(reqID, pending)) {
+                    metrics.onCongestionReject();
+                    pending.future.complete(new Result(Constants.STATUS_ERROR,
+                            "Too many requests waiting for " + target, new byte[0]));
+                    releaseFrame(pending);
+                }
+                break;
         }
+        // drop the sender's reference; completion drops the other
+        releaseFrame(pending);
+        return pending.future;
+    }
 
-        byte[] resData = Arrays.copyOf(replyPacket.getData(), replyPacket.getLength());
-        if (resData.length < 8) {
-            return new Response(Constants.STATUS_ERROR, "Invalid response length", resData);
+    /**
+     * Sends a request that waited for room in its congestion window, unless it was
+     * completed meanwhile or its deadline passed while it waited.
+     */
+    private void admit(PendingRequest pending) {
+        pending.slotHeld.set(true);
+        if (System.nanoTime() - pending.deadlineNanos >= 0 && inFlight.remove(pending.reqID, pending)) {
+            metrics.onTimeout(pending.opCode, 0);
+            pending.future.complete(Result.noResponse(0));
+            releaseFrame(pending);
+        }
+        if (pending.future.isDone()) {
+            releaseSlot(pending, false);
+            return;
         }
+        transmit(pending);
+        scheduleHedge(pending);
+    }
 
-        ByteBuffer resBuf = ByteBuffer.wrap(resData).order(ByteOrder.LITTLE_ENDIAN);
-        resBuf.getInt();
-        int status = resBuf.getInt();
-        byte[] payloadBytes = new byte[Math.min(Constants.BUFFER_SIZE, resData.length - 8)];
-        resBuf.get(payloadBytes);
-        String msg = decodeNullTerminated(payloadBytes);
-        return new Response(status, msg, payloadBytes);
+    /**
+     * Gives the request's congestion window slot back once it completed, letting the
+     * next waiting request in.
+     */
+    private static void releaseSlot(PendingRequest pending, boolean replied) {
+        if (pending.slotHeld.compareAndSet(true, false)) {
+            pending.window.release(replied);
+        }
     }
 
-    private Response sendRequestWithSocket(int opCode, ByteBuffer payloadBuf, DatagramSocket requestSocket) throws Exception {
-        int reqID = reqIdCounter++;
+    /**
+     * Returns the request frame to the pool once both the sending thread and the
+     * request's completion are done with it.
+     */
+    private static void releaseFrame(PendingRequest pending) {
+        if (pending.frameRefs.decrementAndGet() == 0) {
+            Frame.release(pending.reqFrame);
+        }
+    }
 
-        ByteBuffer reqBuf = ByteBuffer.allocate(8 + Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-        reqBuf.putInt(reqID);
-        reqBuf.putInt(opCode);
-        reqBuf.put(payloadBuf.array());
-        byte[] reqData = reqBuf.array();
+    /**
+     * Releases the frame of a request the receiver completed. A retransmission or hedge
+     * may be sending it on the timer thread right now, so the release queues behind it;
+     * timer tasks that run later see the request is done and leave the frame alone.
+     */
+    private void releaseFrameAfterTimer(PendingRequest pending) {
+        try {
+            retryTimer.execute(() -> releaseFrame(pending));
+        } catch (RejectedExecutionException e) {
+            // closing: the timer may still be running a task, so leave the frame to the GC
+        }
+    }
 
-        DatagramPacket replyPacket = sendWithRetryNonCallback(requestSocket, serverAddress, serverPort, reqData, enableRetry);
-        if (replyPacket == null) {
-            return new Response(Constants.STATUS_ERROR, "No response", new byte[0]);
+    /**
+     * Asks for typed replies, offers to reassemble fragmented ones and sends the client
+     * nonce, unless the server is known not to send typed replies. The reference server
+     * before typed replies matched OP_BATCH and OP_LOGIN with == in handle(), so a
+     * flagged opcode fell through to execute() and was rejected as unknown. Those two
+     * only carry the flags once another reply has shown the server understands them.
+     */
+    private int requestReplyVersion(int opCode) {
+        int known = serverReplyVersion;
+        int op = opCode & Constants.OP_CODE_MASK;
+        if (known == Constants.REPLY_VERSION_TEXT
+                || (known < 0 && (op == Constants.OP_BATCH || op == Constants.OP_LOGIN))) {
+            return opCode;
         }
+        int flags = Constants.OP_FLAG_FRAGMENTS | Constants.OP_FLAG_REQUEST_ID
+                | (replyMessages ? 0 : Constants.OP_FLAG_NO_MESSAGE);
+        return Frame.withVersion(opCode | flags, Constants.REPLY_VERSION_TYPED);
+    }
 
-        byte[] resData = Arrays.copyOf(replyPacket.getData(), replyPacket.getLength());
-        if (resData.length < 8) {
-            return new Response(Constants.STATUS_ERROR, "Invalid response length", resData);
+    private void scheduleHedge(PendingRequest pending) {
+        HedgePolicy policy = hedgePolicy;
+        if (policy == null || pending.future.isDone()) {
+            return;
+        }
+        long delayNanos = policy.onRequest(pending.opCode);
+        long retransmitNanos = TimeUnit.MILLISECONDS.toNanos(pending.policy.timeoutMillis(pending.replica.getAddress(), 1));
+        if (delayNanos > 0 && delayNanos < retransmitNanos) {
+            pending.hedge = retryTimer.schedule(() -> sendHedge(pending, policy), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Sends the request once more under the same reqID. Reads carrying name and password
+     * go to another replica if there is one; everything else to the same server.
+     */
+    private void sendHedge(PendingRequest pending, HedgePolicy policy) {
+        if (pending.future.isDone() || pending.attempts > 1) {
+            return;
+        }
+        if (!policy.tryAcquire()) {
+            metrics.onHedgeDenied();
+            return;
+        }
+        Replica target = pending.replica;
+        if (isReadOnly(pending.opCode) && (pending.opCode & Constants.OP_FLAG_TOKEN) == 0) {
+            target = replicas.selectOther(target);
+        }
+        try {
+            synchronized (pending) {
+                // the receiver settles replicas under the same lock once it removed the request
+                if (inFlight.get(pending.reqID) != pending) {
+                    return;
+                }
+                pending.hedgeSentNanos = System.nanoTime();
+                pending.hedgeReplica = target;
+                if (target != pending.replica) {
+                    target.onSend();
+                }
+            }
+            ByteBuffer frame = pending.reqFrame.duplicate();
+            frame.rewind();
+            transport.send(frame, target.getAddress());
+            metrics.onHedge();
+        } catch (Exception e) {
+            // the original send is still outstanding and retransmits as usual
+        }
+    }
+
+    /**
+     * Feeds a reply into the RTT estimators and replica load accounting, crediting
+     * the hedge if it was the copy that got answered.
+     */
+    private void settleReply(PendingRequest pending, InetSocketAddress source, long now, long rtt) {
+        synchronized (pending) {
+            Replica hedge = pending.hedgeReplica;
+            if (hedge == null) {
+                if (pending.attempts == 1) {
+                    pending.policy.onRttSample(pending.replica.getAddress(), rtt);
+                }
+                releaseReplicas(pending, pending.replica, pending.attempts == 1 ? rtt : -1);
+            } else if (hedge != pending.replica && hedge.getAddress().equals(source)) {
+                metrics.onHedgeWin();
+                releaseReplicas(pending, hedge, now - pending.hedgeSentNanos);
+            } else if (hedge == pending.replica) {
+                // same server and reqID: which copy was answered is unknown, so the
+                // hedge is credited and the RTT not sampled (as with retransmissions)
+                metrics.onHedgeWin();
+                releaseReplicas(pending, hedge, -1);
+            } else {
+                pending.policy.onRttSample(pending.replica.getAddress(), rtt);
+                releaseReplicas(pending, pending.replica, rtt);
+            }
+        }
+    }
+
+    private void refreshHedgeDelays() {
+        HedgePolicy policy = hedgePolicy;
+        if (policy != null) {
+            policy.refresh(metrics);
+        }
+    }
+
+    /**
+     * Settles the request's load accounting once it completes. answered is the replica
+     * whose reply completed it (null on timeout or error); rtt is negative if ambiguous.
+     */
+    private static void releaseReplicas(PendingRequest pending, Replica answered, long rttNanos) {
+        Replica hedge = pending.hedgeReplica;
+        Replica original = pending.replica;
+        if (answered != null) {
+            answered.onReply(rttNanos);
+        }
+        if (original != answered) {
+            original.onAbandoned();
+        }
+        if (hedge != null && hedge != original && hedge != answered) {
+            hedge.onAbandoned();
+        }
+    }
+
+    private void transmit(PendingRequest pending) {
+        if (pending.future.isDone()) {
+            return;
+        }
+        try {
+            int attempt = ++pending.attempts;
+            long now = System.nanoTime();
+            pending.lastSentNanos = now;
+            if (attempt == 1) {
+                pending.firstSentNanos = now;
+                pending.replica.onSend();
+            } else {
+                metrics.onRetransmit(pending.opCode);
+            }
+            pending.reqFrame.rewind();
+            InetSocketAddress target = pending.replica.getAddress();
+            transport.send(pending.reqFrame, target);
+
+            long waitMillis = pending.policy.timeoutMillis(target, attempt);
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(pending.deadlineNanos - now);
+            waitMillis = Math.max(1L, Math.min(waitMillis, remainingMillis));
+            pending.timeout = retryTimer.schedule(() -> onRetransmitTimeout(pending), waitMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            if (inFlight.remove(pending.reqID, pending)) {
+                dropAssembler(pending);
+                releaseReplicas(pending, null, -1);
+                metrics.onSendError(pending.opCode);
+                pending.future.completeExceptionally(e);
+                releaseFrame(pending);
+                releaseSlot(pending, false);
+            }
+        }
+    }
+
+    private void onRetransmitTimeout(PendingRequest pending) {
+        if (pending.future.isDone()) {
+            return;
+        }
+        if (pending.assembler != null && System.nanoTime() - pending.deadlineNanos < 0 && requestMissingFragments(pending)) {
+            // the request was executed and part of its reply arrived, so ask for the rest only
+            long waitMillis = pending.policy.timeoutMillis(pending.replica.getAddress(), pending.attempts);
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(pending.deadlineNanos - System.nanoTime());
+            pending.timeout = retryTimer.schedule(() -> onRetransmitTimeout(pending),
+                    Math.max(1L, Math.min(waitMillis, remainingMillis)), TimeUnit.MILLISECONDS);
+            return;
+        }
+        pending.replica.onTimeout();
+        pending.replica.getCongestionWindow().onLoss(pending.lastSentNanos);
+        Replica hedge = pending.hedgeReplica;
+        if (hedge != null) {
+            // the retransmission supersedes the hedge
+            pending.hedgeReplica = null;
+            if (hedge != pending.replica) {
+                hedge.onAbandoned();
+            }
+        }
+        if (pending.enableRetry && isReadOnly(pending.opCode) && (pending.opCode & Constants.OP_FLAG_TOKEN) == 0) {
+            // a read needs no particular replica, so the retransmission may go to a healthier one
+            Replica next = replicas.select();
+            if (next != pending.replica) {
+                pending.replica.onAbandoned();
+                pending.replica = next;
+                next.onSend();
+            }
+        }
+        if (!pending.enableRetry || System.nanoTime() - pending.deadlineNanos >= 0) {
+            if (inFlight.remove(pending.reqID, pending)) {
+                dropAssembler(pending);
+                releaseReplicas(pending, null, -1);
+                metrics.onTimeout(pending.opCode, pending.attempts);
+                pending.future.complete(Result.noResponse(pending.attempts));
+                releaseFrame(pending);
+                releaseSlot(pending, false);
+            }
+            return;
+        }
+        transmit(pending);
+    }
+
+    private void receiveLoop() {
+        ByteBuffer rxBuf = receiveBuffers.acquire();
+        while (transport.isOpen()) {
+            try {
+                rxBuf.clear();
+                InetSocketAddress source = transport.receive(rxBuf, 0);
+                if (source == null) {
+                    continue;
+                }
+                rxBuf.flip();
+                if (dispatchReply(rxBuf, source)) {
+                    // the buffer now backs a Result
+                    rxBuf = receiveBuffers.acquire();
+                }
+            } catch (IOException e) {
+                // transport closed, or a bad datagram; the loop condition decides
+            }
+        }
+    }
+
+    /**
+     * Routes one datagram. Returns true if resBuf was handed to a Result and must not be reused.
+     */
+    private boolean dispatchReply(ByteBuffer resBuf, InetSocketAddress source) {
+        if (resBuf.remaining() >= Frame.HEADER_SIZE) {
+            int reqID = resBuf.getInt();
+            int statusWord = resBuf.getInt();
+            int status = statusWord & Constants.STATUS_MASK;
+            if (status == Constants.STATUS_CALLBACK) {
+                onCallback(resBuf);
+                return false;
+            }
+            if ((statusWord & Constants.STATUS_FLAG_FRAGMENT) != 0) {
+                onFragment(reqID, statusWord & ~Constants.STATUS_FLAG_FRAGMENT, resBuf, source);
+                return false;
+            }
+            if ((statusWord & Constants.STATUS_FLAG_REQUEST_ID) != 0) {
+                if (!takeOwnNonce(resBuf)) {
+                    // same reqID, but the request of another client, or of this port's previous owner
+                    metrics.onStrayReply();
+                    return false;
+                }
+                statusWord &= ~Constants.STATUS_FLAG_REQUEST_ID;
+                status = statusWord & Constants.STATUS_MASK;
+            }
+            if (isValidStatus(status)) {
+                PendingRequest pending = inFlight.remove(reqID);
+                if (pending != null) {
+                    dropAssembler(pending);
+                    completeReply(pending, statusWord, resBuf, source, receiveBuffers::release);
+                    return true;
+                } else if (wasIssued(reqID)) {
+                    // duplicate of an answered request, or a reply after the deadline
+                    metrics.onLateReply();
+                    onLateReply(source);
+                } else {
+                    metrics.onStrayReply();
+                    onLateReply(source);
+                }
+                return false;
+            }
+            resBuf.rewind();
+        }
+        metrics.onStrayReply();
+        String msg = decodeNullTerminated(resBuf);
+        if (msg != null && !msg.isEmpty()) {
+            notifyListener(msg);
+        }
+        return false;
+    }
+
+    /**
+     * Completes a request the caller removed from inFlight with the reply in resBuf,
+     * positioned after the header.
+     */
+    private void completeReply(PendingRequest pending, int statusWord, ByteBuffer resBuf, InetSocketAddress source,
+                               Consumer<ByteBuffer> recycler) {
+        ScheduledFuture<?> timeout = pending.timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        ScheduledFuture<?> hedgeTimer = pending.hedge;
+        if (hedgeTimer != null) {
+            hedgeTimer.cancel(false);
+        }
+        int status = statusWord & Constants.STATUS_MASK;
+        long now = System.nanoTime();
+        long rtt = now - pending.firstSentNanos;
+        settleReply(pending, source, now, rtt);
+        expectDuplicates(pending.attempts - 1 + (pending.hedgeSentNanos != 0 ? 1 : 0));
+        metrics.onReply(pending.opCode, status, rtt, pending.attempts);
+        int version = Frame.version(statusWord);
+        if (Frame.version(pending.opCode) != Constants.REPLY_VERSION_TEXT && serverReplyVersion != version) {
+            serverReplyVersion = version;
+        }
+        pending.future.complete(Result.view(status, version, resBuf, pending.attempts, recycler));
+        releaseFrameAfterTimer(pending);
+        releaseSlot(pending, true);
+    }
+
+    /**
+     * Adds one fragment to its request's reassembly and completes the request once the
+     * reply is whole. Fragments are copied out, so resBuf stays with the receiver.
+     */
+    private void onFragment(int reqID, int statusWord, ByteBuffer resBuf, InetSocketAddress source) {
+        PendingRequest pending = inFlight.get(reqID);
+        if (pending == null || resBuf.remaining() < Fragments.FRAGMENT_HEADER_SIZE
+                || !isValidStatus(statusWord & ~Constants.STATUS_FLAG_REQUEST_ID & Constants.STATUS_MASK)) {
+            if (wasIssued(reqID)) {
+                metrics.onLateReply();
+            } else {
+                metrics.onStrayReply();
+            }
+            return;
+        }
+        metrics.onFragment();
+        int index = resBuf.getShort();
+        int count = resBuf.getShort();
+        int bodyLength = resBuf.getInt();
+        ReplyAssembler assembler = pending.assembler;
+        if (assembler == null && (assembler = startAssembler(pending, source, statusWord, count, bodyLength)) == null) {
+            // malformed, or over the reassembly budget: the request retransmits as if nothing arrived
+            return;
+        }
+        if (!assembler.add(source, statusWord, index, count, bodyLength, resBuf)) {
+            if (assembler.hasGap() && index == count - 1) {
+                requestMissingFragments(pending);
+            }
+            return;
+        }
+        ByteBuffer frame = assembler.frame();
+        int completedStatus = assembler.getStatusWord();
+        if ((completedStatus & Constants.STATUS_FLAG_REQUEST_ID) != 0) {
+            if (!takeOwnNonce(frame)) {
+                metrics.onStrayReply();
+                dropAssembler(pending);
+                return;
+            }
+            completedStatus &= ~Constants.STATUS_FLAG_REQUEST_ID;
+        }
+        if (inFlight.remove(reqID, pending)) {
+            dropAssembler(pending);
+            completeReply(pending, completedStatus, frame, source, null);
+        }
+    }
+
+    /**
+     * Takes the nonce off the end of a reply body with STATUS_FLAG_REQUEST_ID and tells
+     * whether it is this client's; a reqID alone may have been another client's too.
+     */
+    private boolean takeOwnNonce(ByteBuffer body) {
+        return body.remaining() >= Frame.NONCE_SIZE && Frame.takeNonce(body) == requestIds.getNonce();
+    }
+
+    private ReplyAssembler startAssembler(PendingRequest pending, InetSocketAddress source, int statusWord, int count,
+                                          int bodyLength) {
+        ReplyAssembler assembler = ReplyAssembler.create(source, pending.reqID, statusWord, count, bodyLength);
+        if (assembler == null) {
+            return null;
+        }
+        if (reassemblyBytes.addAndGet(assembler.size()) > MAX_REASSEMBLY_BYTES) {
+            reassemblyBytes.addAndGet(-assembler.size());
+            return null;
+        }
+        synchronized (pending) {
+            // a request completed by a timeout meanwhile must not keep the reservation
+            if (inFlight.get(pending.reqID) != pending) {
+                reassemblyBytes.addAndGet(-assembler.size());
+                return null;
+            }
+            pending.assembler = assembler;
+        }
+        return assembler;
+    }
+
+    /**
+     * Returns the request's reassembly buffer to the budget; called once it left inFlight.
+     */
+    private void dropAssembler(PendingRequest pending) {
+        synchronized (pending) {
+            ReplyAssembler assembler = pending.assembler;
+            if (assembler != null) {
+                pending.assembler = null;
+                reassemblyBytes.addAndGet(-assembler.size());
+            }
+        }
+    }
+
+    /**
+     * Sends OP_RESEND_FRAGMENTS for the fragments of pending's reply that have not arrived.
+     * Returns false if it could not be sent.
+     */
+    private boolean requestMissingFragments(PendingRequest pending) {
+        ReplyAssembler assembler = pending.assembler;
+        if (assembler == null) {
+            return false;
+        }
+        ByteBuffer payloadBuf = Frame.newRequest();
+        try {
+            assembler.packMissing(payloadBuf);
+            // the server finds the reply under the request's full id
+            ByteBuffer frame = (pending.opCode & Constants.OP_FLAG_REQUEST_ID) != 0
+                    ? Frame.seal(payloadBuf, pending.reqID, Constants.OP_RESEND_FRAGMENTS, requestIds.getNonce())
+                    : Frame.seal(payloadBuf, pending.reqID, Constants.OP_RESEND_FRAGMENTS);
+            transport.send(frame, assembler.getSource());
+            metrics.onFragmentResend();
+            return true;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            Frame.release(payloadBuf);
+        }
+    }
+
+    private static boolean isReadOnly(int opCode) {
+        opCode &= Constants.OP_CODE_MASK;
+        return opCode == Constants.OP_CHECK_BALANCE || opCode == Constants.OP_CHECK_ALL_BALANCES
+                || opCode == Constants.OP_HISTORY;
+    }
+
+    private static boolean isBalanceUpdate(int opCode) {
+        opCode &= Constants.OP_CODE_MASK;
+        return opCode == Constants.OP_DEPOSIT || opCode == Constants.OP_WITHDRAW
+                || opCode == Constants.OP_TRANSFER || opCode == Constants.OP_EXCHANGE
+                || opCode == Constants.OP_CLOSE_ACCOUNT || opCode == Constants.OP_BATCH;
+    }
+
+    /**
+     * Account ids whose balances a request may change. Every update starts with the
+     * account id; a transfer ends with the receiver's. Batch items are walked one by one.
+     */
+    static int[] affectedAccounts(int opCode, ByteBuffer frame) {
+        ByteBuffer buf = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buf.position(Frame.HEADER_SIZE);
+        if ((opCode & Constants.OP_FLAG_REQUEST_ID) != 0) {
+            buf.limit(buf.limit() - Frame.NONCE_SIZE);
+        }
+        if ((opCode & Constants.OP_CODE_MASK) != Constants.OP_BATCH) {
+            return affectedAccounts(opCode, buf, buf.limit());
+        }
+        int count = buf.getInt();
+        int[] ids = new int[0];
+        for (int i = 0; i < count && buf.remaining() >= 8; i++) {
+            int itemOp = buf.getInt();
+            int length = buf.getInt();
+            int end = buf.position() + length;
+            int[] itemIds = affectedAccounts(itemOp, buf, end);
+            int[] merged = Arrays.copyOf(ids, ids.length + itemIds.length);
+            System.arraycopy(itemIds, 0, merged, ids.length, itemIds.length);
+            ids = merged;
+            buf.position(end);
+        }
+        return ids;
+    }
+
+    private static int[] affectedAccounts(int opCode, ByteBuffer buf, int end) {
+        int accountId = buf.getInt(buf.position());
+        if ((opCode & Constants.OP_CODE_MASK) == Constants.OP_TRANSFER) {
+            return new int[]{accountId, buf.getInt(end - 4)};
+        }
+        return new int[]{accountId};
+    }
+
+    private void expectDuplicates(int copies) {
+        if (copies > 0) {
+            expectedDuplicates.addAndGet(copies);
+        }
+    }
+
+    /**
+     * A whole reply from source matched no outstanding request. Unless it answers an
+     * extra copy of a request that already completed, it was queued past its timeout:
+     * the server's window is cut, as for a loss.
+     */
+    private void onLateReply(InetSocketAddress source) {
+        int expected;
+        do {
+            expected = expectedDuplicates.get();
+            if (expected == 0) {
+                Replica replica = replicas.find(source);
+                if (replica != null) {
+                    replica.getCongestionWindow().onLateReply(lateReplyIntervalNanos(replica));
+                }
+                return;
+            }
+        } while (!expectedDuplicates.compareAndSet(expected, expected - 1));
+    }
+
+    // About one round trip: late replies within it report the congestion of the last cut
+    private static long lateReplyIntervalNanos(Replica replica) {
+        return Math.max(TimeUnit.MILLISECONDS.toNanos(1), (long) (replica.getRttMillis() * 1e6));
+    }
+
+    /**
+     * True if reqID lies in the range this client has handed out so far.
+     */
+    private boolean wasIssued(int reqID) {
+        return requestIds.wasIssued(reqID);
+    }
+
+    static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private Result sendRequestWithTransport(int opCode, ByteBuffer payloadBuf, DatagramTransport requestTransport) throws Exception {
+        int reqID = requestIds.next();
+        ByteBuffer reqBuf = Frame.seal(payloadBuf, reqID, opCode, requestIds.getNonce());
+
+        ByteBuffer resBuf = ByteBuffer.allocate(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        metrics.onRequest(opCode);
+        boolean replied;
+        try {
+            replied = sendWithRetryNonCallback(requestTransport, replicas.primary(), reqID, reqBuf, resBuf, enableRetry, opCode);
+        } finally {
+            Frame.release(reqBuf);
+        }
+        if (!replied) {
+            return Result.noResponse(0);
+        }
+
+        if (resBuf.remaining() < Frame.HEADER_SIZE) {
+            byte[] resData = new byte[resBuf.remaining()];
+            resBuf.get(resData);
+            return new Result(Constants.STATUS_ERROR, "Invalid response length", resData);
         }
 
-        ByteBuffer resBuf = ByteBuffer.wrap(resData).order(ByteOrder.LITTLE_ENDIAN);
         resBuf.getInt();
-        int status = resBuf.getInt();
-        byte[] payloadBytes = new byte[Math.min(Constants.BUFFER_SIZE, resData.length - 8)];
-        resBuf.get(payloadBytes);
-        String msg = decodeNullTerminated(payloadBytes);
-        return new Response(status, msg, payloadBytes);
+        int status = resBuf.getInt() & ~Constants.STATUS_FLAG_REQUEST_ID;
+        return readResult(status, resBuf);
     }
 
     private void startMonitorListenerThread(long durationMillis) {
+        DatagramTransport listenTransport = monitorTransport;
         monitorThread = new Thread(() -> {
             long endTime = System.currentTimeMillis() + durationMillis;
+            ByteBuffer rxBuf = ByteBuffer.allocateDirect(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
             try {
-                monitorSocket.setSoTimeout(1000);
-                while (System.currentTimeMillis() < endTime && !monitorSocket.isClosed()) {
-                    try {
-                        DatagramPacket packet = NetworkUtil.receive(monitorSocket);
-                        byte[] resData = Arrays.copyOf(packet.getData(), packet.getLength());
-                        String msg = decodeCallbackMessage(resData);
-                        if (msg == null || msg.isEmpty()) {
-                            continue;
-                        }
-                        notifyListener(msg);
-                    } catch (java.net.SocketTimeoutException e) {
-                        // continue
+                while (System.currentTimeMillis() < endTime && listenTransport.isOpen()) {
+                    rxBuf.clear();
+                    if (listenTransport.receive(rxBuf, 1000) == null) {
+                        continue;
+                    }
+                    rxBuf.flip();
+                    String msg = decodeCallbackMessage(rxBuf);
+                    if (msg == null || msg.isEmpty()) {
+                        continue;
                     }
+                    metrics.onCallback();
+                    balanceCache.applyCallback(msg, rxBuf);
+                    notifyListener(msg);
                 }
             } catch (Exception e) {
                 notifyListener("Monitor error: " + e.getMessage());
             } finally {
-                try {
-                    monitorSocket.close();
-                } catch (Exception e) {
-                    // ignore
-                }
+                closeQuietly(listenTransport);
             }
-        });
+        }, "bank-client-monitor");
         monitorThread.setDaemon(true);
         monitorThread.start();
     }
 
+    /**
+     * Handles a STATUS_CALLBACK body: resBuf is positioned just after the header.
+     */
+    private void onCallback(ByteBuffer resBuf) {
+        metrics.onCallback();
+        String msg = decodeNullTerminated(resBuf);
+        balanceCache.applyCallback(msg, resBuf);
+        notifyListener(msg);
+    }
+
     private void notifyListener(String msg) {
         ServerMessageListener listener = this.messageListener;
         if (listener != null && msg != null && !msg.isEmpty()) {
@@ -335,80 +1537,135 @@ public class BankClientManager {
         }
     }
 
-    private DatagramPacket sendWithRetryNonCallback(DatagramSocket socket, InetAddress serverAddress, int serverPort, byte[] reqData, boolean enableRetry) throws Exception {
-        socket.setSoTimeout(1000);
+    /**
+     * Sends reqBuf and waits for the reply to reqID, which is left flipped in resBuf
+     * with any nonce taken off. A reply to an earlier send of the same request counts;
+     * replies to other requests are skipped. Returns false if no reply arrived.
+     */
+    private boolean sendWithRetryNonCallback(DatagramTransport transport, Replica replica, int reqID, ByteBuffer reqBuf,
+                                             ByteBuffer resBuf, boolean enableRetry, int opCode) throws Exception {
+        RetransmitPolicy policy = retransmitPolicy;
+        InetSocketAddress target = replica.getAddress();
         long startTime = System.currentTimeMillis();
+        long firstSentAt = System.nanoTime();
+        int attempt = 0;
 
         while (true) {
-            try {
-                NetworkUtil.send(socket, serverAddress, serverPort, reqData);
-                while (true) {
-                    DatagramPacket packet = NetworkUtil.receive(socket);
-                    byte[] data = Arrays.copyOf(packet.getData(), packet.getLength());
-                    if (data.length >= 8) {
-                        ByteBuffer resBuf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
-                        resBuf.getInt();
-                        int status = resBuf.getInt();
-                        if (status == Constants.STATUS_CALLBACK) {
-                            byte[] payloadBytes = new byte[Math.min(Constants.BUFFER_SIZE, data.length - 8)];
-                            resBuf.get(payloadBytes);
-                            String msg = decodeNullTerminated(payloadBytes);
-                            notifyListener(msg);
+            attempt++;
+            if (attempt > 1) {
+                metrics.onRetransmit(opCode);
+            }
+            reqBuf.rewind();
+            long sentAt = System.nanoTime();
+            transport.send(reqBuf, target);
+            long waitUntil = System.currentTimeMillis() + policy.timeoutMillis(target, attempt);
+            long remaining;
+            while ((remaining = waitUntil - System.currentTimeMillis()) > 0) {
+                resBuf.clear();
+                if (transport.receive(resBuf, remaining) == null) {
+                    break;
+                }
+                resBuf.flip();
+                if (resBuf.remaining() >= Frame.HEADER_SIZE) {
+                    int resId = resBuf.getInt();
+                    int status = resBuf.getInt();
+                    if (status == Constants.STATUS_CALLBACK) {
+                        onCallback(resBuf);
+                        continue;
+                    }
+                    if ((status & Constants.STATUS_FLAG_REQUEST_ID) != 0) {
+                        if (!takeOwnNonce(resBuf)) {
+                            metrics.onStrayReply();
                             continue;
                         }
-                        if (isValidStatus(status)) {
-                            return packet;
+                        status &= ~Constants.STATUS_FLAG_REQUEST_ID;
+                    }
+                    if (isValidStatus(status) && resId != reqID) {
+                        // an earlier request's reply that arrived after it gave up
+                        if (wasIssued(resId)) {
+                            metrics.onLateReply();
+                        } else {
+                            metrics.onStrayReply();
                         }
+                        onLateReply(target);
+                        continue;
                     }
-                    String msg = decodeNullTerminated(data);
-                    if (msg != null && !msg.isEmpty()) {
-                        notifyListener(msg);
+                    if (isValidStatus(status)) {
+                        long now = System.nanoTime();
+                        if (attempt == 1) {
+                            policy.onRttSample(target, now - sentAt);
+                        }
+                        metrics.onReply(opCode, status, now - firstSentAt, attempt);
+                        expectDuplicates(attempt - 1);
+                        resBuf.rewind();
+                        return true;
                     }
+                    resBuf.rewind();
                 }
-            } catch (java.net.SocketTimeoutException e) {
-                if (!enableRetry) {
-                    return null;
-                }
-                if (System.currentTimeMillis() - startTime >= Constants.RETRY_TIMEOUT_MS) {
-                    return null;
+                String msg = decodeNullTerminated(resBuf);
+                if (msg != null && !msg.isEmpty()) {
+                    notifyListener(msg);
                 }
             }
+            // one request at a time needs no window, but its loss still tells of congestion
+            replica.getCongestionWindow().onLoss(sentAt);
+            if (!enableRetry || System.currentTimeMillis() - startTime >= deadlineMillis(opCode)) {
+                metrics.onTimeout(opCode, attempt);
+                return false;
+            }
         }
     }
 
-    private static String decodeNullTerminated(byte[] payloadBytes) {
-        int end = 0;
-        while (end < payloadBytes.length && payloadBytes[end] != 0) {
-            end++;
+    private static void closeQuietly(DatagramTransport transport) {
+        if (transport == null) {
+            return;
+        }
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // ignore
         }
-        return new String(payloadBytes, 0, end, StandardCharsets.UTF_8).trim();
+    }
+
+    private static String decodeNullTerminated(ByteBuffer buf) {
+        return Marshaller.unpackNullTerminated(buf);
+    }
+
+    /**
+     * Builds a Result from the reply payload that follows the header in resBuf.
+     */
+    static Result readResult(int status, ByteBuffer resBuf) {
+        return readResult(status, resBuf, 1);
+    }
+
+    static Result readResult(int status, ByteBuffer resBuf, int attempts) {
+        return Result.view(status, Constants.REPLY_VERSION_TEXT, resBuf, attempts, null);
     }
 
     private static boolean isValidStatus(int status) {
         return status == Constants.STATUS_OK
                 || status == Constants.STATUS_FAIL
                 || status == Constants.STATUS_ERROR
-                || status == Constants.STATUS_CALLBACK;
+                || status == Constants.STATUS_CALLBACK
+                || status == Constants.STATUS_INVALID_SESSION;
     }
 
-    private static String decodeCallbackMessage(byte[] resData) {
-        if (resData == null || resData.length == 0) {
+    static String decodeCallbackMessage(ByteBuffer resBuf) {
+        if (resBuf == null || !resBuf.hasRemaining()) {
             return "";
         }
-        if (resData.length >= 8) {
-            ByteBuffer resBuf = ByteBuffer.wrap(resData).order(ByteOrder.LITTLE_ENDIAN);
+        if (resBuf.remaining() >= Frame.HEADER_SIZE) {
             resBuf.getInt();
             int status = resBuf.getInt();
             if (status == Constants.STATUS_CALLBACK) {
-                byte[] payloadBytes = new byte[Math.min(Constants.BUFFER_SIZE, resData.length - 8)];
-                resBuf.get(payloadBytes);
-                return decodeNullTerminated(payloadBytes);
+                return decodeNullTerminated(resBuf);
             }
             if (isValidStatus(status)) {
                 return "";
             }
+            resBuf.rewind();
         }
-        return decodeNullTerminated(resData);
+        return decodeNullTerminated(resBuf);
     }
 
     private static int resolveOpCode(String fieldName, int fallback) {
@@ -420,7 +1677,35 @@ public class BankClientManager {
         }
     }
 
-    private static int extractAccountId(String msg) {
+    private static CurrencyType parseCurrency(String currency) {
+        try {
+            return CurrencyType.fromString(currency);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String formatAmount(double amount) {
+        return String.format(Locale.ROOT, "%.2f", amount);
+    }
+
+    /**
+     * The amount in currency from a text reply such as "Balance: 12.50 USD", or NaN.
+     */
+    static double extractAmount(String msg, CurrencyType currency) {
+        if (msg == null) {
+            return Double.NaN;
+        }
+        java.util.regex.Matcher matcher = AMOUNT_PATTERN.matcher(msg);
+        while (matcher.find()) {
+            if (msg.startsWith(currency.name(), matcher.end() + 1)) {
+                return Double.parseDouble(matcher.group());
+            }
+        }
+        return Double.NaN;
+    }
+
+    static int extractAccountId(String msg) {
         if (msg == null) {
             return -1;
         }
@@ -442,47 +1727,264 @@ public class BankClientManager {
         }
     }
 
+    /**
+     * The outcome of one request. A reply's Result is a view over the datagram it
+     * arrived in: nothing is copied or decoded until asked for, and getMessage()
+     * decodes the text once on first use. Replies in the typed format (see
+     * Constants.REPLY_VERSION_TYPED) are read through getAccountId() and getBalance()
+     * without touching the message; for text replies those parse the message instead.
+     *
+     * Replies on the shared socket are received into pooled buffers. Calling release()
+     * once a Result is no longer needed hands its buffer back for the next datagram;
+     * afterwards only getStatus(), isSuccess(), isTimeout() and getAttempts() may be used.
+     * Releasing is optional (an unreleased buffer is simply garbage collected); use
+     * copy() to keep the contents beyond a release.
+     */
     public static class Result {
+        private static final String NO_RESPONSE = "No response";
+        private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+
         private final int status;
-        private final String message;
-        private final byte[] payload;
+        private final int version;
+        private final int attempts;
+        private final boolean timedOut;
+        // The reply after its header, little-endian; null once released
+        private ByteBuffer payload;
+        private String message;
+        private ByteBuffer pooled;
+        private final Consumer<ByteBuffer> recycler;
 
         public Result(int status, String message, byte[] payload) {
+            this(status, Constants.REPLY_VERSION_TEXT, message, ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN),
+                    1, false, null, null);
+        }
+
+        private Result(int status, int version, String message, ByteBuffer payload, int attempts, boolean timedOut,
+                       ByteBuffer pooled, Consumer<ByteBuffer> recycler) {
             this.status = status;
+            this.version = version;
             this.message = message;
             this.payload = payload;
+            this.attempts = attempts;
+            this.timedOut = timedOut;
+            this.pooled = pooled;
+            this.recycler = recycler;
+        }
+
+        /**
+         * A Result over resBuf from its position to its limit, in reply format version, without
+         * copying. If recycler is given, release() passes it resBuf for reuse.
+         */
+        static Result view(int status, int version, ByteBuffer resBuf, int attempts, Consumer<ByteBuffer> recycler) {
+            ByteBuffer payload = resBuf.slice().order(ByteOrder.LITTLE_ENDIAN);
+            return new Result(status, version, null, payload, attempts, false, recycler != null ? resBuf : null, recycler);
+        }
+
+        static Result noResponse(int attempts) {
+            return new Result(Constants.STATUS_ERROR, Constants.REPLY_VERSION_TEXT, NO_RESPONSE, EMPTY, attempts, true, null, null);
+        }
+
+        /**
+         * A successful result answered locally; getAttempts() is 0.
+         */
+        static Result cached(String message) {
+            return new Result(Constants.STATUS_OK, Constants.REPLY_VERSION_TEXT, message, EMPTY, 0, false, null, null);
+        }
+
+        private ByteBuffer payload() {
+            ByteBuffer p = payload;
+            if (p == null) {
+                throw new IllegalStateException("Result was released");
+            }
+            return p;
+        }
+
+        /**
+         * The binary part of the reply after the message (the typed fields, or a text
+         * reply's trailer) as a little-endian view, or null if the reply has none.
+         */
+        synchronized ByteBuffer getTrailer() {
+            ByteBuffer p = payload();
+            int start = fieldsStart(p);
+            if (start >= p.limit()) {
+                return null;
+            }
+            ByteBuffer trailer = p.duplicate();
+            trailer.position(start);
+            return trailer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private int fieldsStart(ByteBuffer p) {
+            if (version == Constants.REPLY_VERSION_TEXT) {
+                int end = 0;
+                while (end < p.limit() && p.get(end) != 0) {
+                    end++;
+                }
+                return end + 1;
+            }
+            if (p.limit() < 8) {
+                return p.limit();
+            }
+            long length = p.getLong(0);
+            return length < 0 || length > p.limit() - 8 ? p.limit() : 8 + (int) length;
+        }
+
+        /**
+         * The reply format version the server answered in.
+         */
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * The account a successful open or close refers to, or -1.
+         */
+        public int getAccountId() {
+            if (version != Constants.REPLY_VERSION_TEXT) {
+                ByteBuffer fields = isSuccess() ? getTrailer() : null;
+                return fields != null && fields.remaining() >= AccountReply.SIZE ? AccountReply.accountId(fields) : -1;
+            }
+            return extractAccountId(getMessage());
+        }
+
+        /**
+         * The balance in currency reported by a successful balance query, deposit, withdrawal,
+         * transfer or exchange, or NaN if the reply does not carry one.
+         */
+        public double getBalance(CurrencyType currency) {
+            if (version == Constants.REPLY_VERSION_TEXT) {
+                return extractAmount(getMessage(), currency);
+            }
+            ByteBuffer fields = isSuccess() ? getTrailer() : null;
+            for (; fields != null && fields.remaining() >= BalanceReply.SIZE; fields.position(fields.position() + BalanceReply.SIZE)) {
+                if (BalanceReply.currency(fields) == currency.ordinal()) {
+                    return BalanceReply.balance(fields);
+                }
+            }
+            return Double.NaN;
+        }
+
+        /**
+         * Number of times the request was transmitted before this result; 0 if it was answered from the cache.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * True if no reply arrived before the operation's deadline.
+         */
+        public boolean isTimeout() {
+            return timedOut;
         }
 
         public int getStatus() {
             return status;
         }
 
-        public String getMessage() {
+        public synchronized String getMessage() {
+            ByteBuffer p = payload();
+            if (message == null) {
+                ByteBuffer text = p.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                if (version == Constants.REPLY_VERSION_TEXT) {
+                    message = Marshaller.unpackNullTerminated(text);
+                } else {
+                    int end = fieldsStart(p);
+                    message = end > 8 ? Marshaller.unpackUtf8(text.limit(end)) : "";
+                }
+            }
             return message;
         }
 
-        public byte[] getPayload() {
-            return payload;
+        /**
+         * A copy of the reply bytes after the header.
+         */
+        public synchronized byte[] getPayload() {
+            ByteBuffer p = payload().duplicate();
+            byte[] bytes = new byte[p.remaining()];
+            p.get(bytes);
+            return bytes;
         }
 
         public boolean isSuccess() {
             return status == Constants.STATUS_OK;
         }
+
+        /**
+         * A Result with the same contents that owns its own memory and survives release().
+         */
+        public synchronized Result copy() {
+            ByteBuffer p = payload().duplicate();
+            ByteBuffer owned = ByteBuffer.allocate(p.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+            owned.put(p).flip();
+            return new Result(status, version, message, owned, attempts, timedOut, null, null);
+        }
+
+        /**
+         * Gives the receive buffer behind this Result back for reuse. Idempotent.
+         */
+        public void release() {
+            ByteBuffer buffer;
+            synchronized (this) {
+                if (payload == null) {
+                    return;
+                }
+                payload = null;
+                buffer = pooled;
+                pooled = null;
+            }
+            if (buffer != null) {
+                recycler.accept(buffer);
+            }
+        }
     }
 
     public interface ServerMessageListener {
         void onMessageReceived(String msg);
     }
 
-    private static class Response {
-        private final int status;
-        private final String message;
-        private final byte[] payload;
+    private interface RequestPacker {
+        /**
+         * Writes a request payload and returns its opcode, flags included. useToken is
+         * false when the request goes to a replica that did not issue the session's token.
+         */
+        int pack(ByteBuffer payloadBuf, boolean useToken);
+    }
 
-        private Response(int status, String message, byte[] payload) {
-            this.status = status;
-            this.message = message;
-            this.payload = payload;
+    private static class PendingRequest {
+        private final int reqID;
+        private final int opCode;
+        private final ByteBuffer reqFrame;
+        // Held by the sending thread and by completion; see releaseFrame()
+        private final AtomicInteger frameRefs = new AtomicInteger(2);
+        private volatile Replica replica;
+        private final boolean enableRetry;
+        private final RetransmitPolicy policy;
+        private final long deadlineNanos;
+        // Window of the server the request was first sent to, and whether it holds a slot there
+        private final CongestionWindow window;
+        private final AtomicBoolean slotHeld = new AtomicBoolean();
+        private final CompletableFuture<Result> future = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> timeout;
+        private volatile ScheduledFuture<?> hedge;
+        private volatile Replica hedgeReplica;
+        private volatile long hedgeSentNanos;
+        private volatile int attempts;
+        private volatile long firstSentNanos;
+        private volatile long lastSentNanos;
+        // Fragments of the reply received so far; guarded by the request's monitor
+        private volatile ReplyAssembler assembler;
+
+        private PendingRequest(int reqID, int opCode, ByteBuffer reqFrame, Replica replica, boolean enableRetry,
+                               RetransmitPolicy policy, long deadlineNanos) {
+            this.reqID = reqID;
+            this.opCode = opCode;
+            this.reqFrame = reqFrame;
+            this.replica = replica;
+            this.window = replica.getCongestionWindow();
+            this.enableRetry = enableRetry;
+            this.policy = policy;
+            this.deadlineNanos = deadlineNanos;
         }
     }
 }
@@ -0,0 +1,148 @@
+package client;
+
+import common.Constants;
+import common.Frame;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Builder for OP_BATCH requests. Items are encoded as they are added, with the
+ * same field layout as the single operation. execute() packs them greedily into
+ * as few frames as fit in Frame.MAX_PAYLOAD, sends the frames pipelined, and
+ * reports item statuses in the order the items were added.
+ */
+public class Batch {
+    // [int count] at the start of every batch payload
+    static final int BATCH_HEADER_SIZE = 4;
+    // [int opCode][int length] in front of every item
+    static final int ITEM_HEADER_SIZE = 8;
+    static final int MAX_ITEM_SIZE = Frame.MAX_PAYLOAD - BATCH_HEADER_SIZE - ITEM_HEADER_SIZE;
+
+    private final BankClientManager manager;
+    private final UserSession session;
+    private final ByteBuffer scratch = ByteBuffer.allocate(MAX_ITEM_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<Item> items = new ArrayList<>();
+
+    Batch(BankClientManager manager, UserSession session) {
+        this.manager = manager;
+        this.session = session;
+    }
+
+    public Batch deposit(int accountId, String currency, float amount) {
+        scratch.clear();
+        int opCode;
+        try {
+            opCode = BankClientManager.packDeposit(scratch, session, accountId, currency, amount);
+        } catch (BufferOverflowException e) {
+            throw tooLarge();
+        }
+        return add(opCode);
+    }
+
+    public Batch withdraw(int accountId, String currency, float amount) {
+        scratch.clear();
+        int opCode;
+        try {
+            opCode = BankClientManager.packWithdraw(scratch, session, accountId, currency, amount);
+        } catch (BufferOverflowException e) {
+            throw tooLarge();
+        }
+        return add(opCode);
+    }
+
+    public Batch transfer(int receiverId, String currency, float amount) {
+        scratch.clear();
+        int opCode;
+        try {
+            opCode = BankClientManager.packTransfer(scratch, session, receiverId, currency, amount);
+        } catch (BufferOverflowException e) {
+            throw tooLarge();
+        }
+        return add(opCode);
+    }
+
+    public Batch exchange(String fromCurrency, String toCurrency, float amount) {
+        scratch.clear();
+        int opCode;
+        try {
+            opCode = BankClientManager.packExchange(scratch, session, fromCurrency, toCurrency, amount);
+        } catch (BufferOverflowException e) {
+            throw tooLarge();
+        }
+        return add(opCode);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public BatchResult execute() throws Exception {
+        return BankClientManager.await(executeAsync());
+    }
+
+    public CompletableFuture<BatchResult> executeAsync() {
+        List<Item> snapshot = new ArrayList<>(items);
+        List<CompletableFuture<BankClientManager.Result>> frames = new ArrayList<>();
+        List<Integer> frameSizes = new ArrayList<>();
+
+        int next = 0;
+        while (next < snapshot.size()) {
+            ByteBuffer payloadBuf = Frame.newRequest();
+            // request frames also have room for the nonce, so stop at MAX_PAYLOAD rather than the limit
+            int end = Frame.HEADER_SIZE + Frame.MAX_PAYLOAD;
+            int countPos = payloadBuf.position();
+            payloadBuf.putInt(0);
+            int first = next;
+            while (next < snapshot.size() && end - payloadBuf.position() >= ITEM_HEADER_SIZE + snapshot.get(next).data.length) {
+                Item item = snapshot.get(next++);
+                payloadBuf.putInt(item.opCode);
+                payloadBuf.putInt(item.data.length);
+                payloadBuf.put(item.data);
+            }
+            payloadBuf.putInt(countPos, next - first);
+            frameSizes.add(next - first);
+            frames.add(manager.sendAsync(Constants.OP_BATCH, payloadBuf));
+        }
+
+        return CompletableFuture.allOf(frames.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            int[] statuses = new int[snapshot.size()];
+            List<BankClientManager.Result> frameResults = new ArrayList<>(frames.size());
+            int offset = 0;
+            for (int i = 0; i < frames.size(); i++) {
+                BankClientManager.Result result = frames.get(i).join();
+                frameResults.add(result);
+                int count = frameSizes.get(i);
+                BatchResult.readItemStatuses(result, statuses, offset, count);
+                offset += count;
+            }
+            return new BatchResult(statuses, frameResults);
+        });
+    }
+
+    private Batch add(int opCode) {
+        scratch.flip();
+        byte[] data = new byte[scratch.remaining()];
+        scratch.get(data);
+        items.add(new Item(opCode, data));
+        return this;
+    }
+
+    private static IllegalArgumentException tooLarge() {
+        return new IllegalArgumentException("Batch item does not fit in one frame");
+    }
+
+    private static class Item {
+        private final int opCode;
+        private final byte[] data;
+
+        private Item(int opCode, byte[] data) {
+            this.opCode = opCode;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package client;
+
+import common.Constants;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a Batch: one STATUS_* code per item, in the order the items were added,
+ * plus the raw reply of every frame the batch was split into.
+ */
+public class BatchResult {
+    private final int[] statuses;
+    private final List<BankClientManager.Result> frameResults;
+
+    BatchResult(int[] statuses, List<BankClientManager.Result> frameResults) {
+        this.statuses = statuses;
+        this.frameResults = Collections.unmodifiableList(frameResults);
+    }
+
+    public int size() {
+        return statuses.length;
+    }
+
+    public int getStatus(int index) {
+        return statuses[index];
+    }
+
+    public boolean isSuccess(int index) {
+        return statuses[index] == Constants.STATUS_OK;
+    }
+
+    public int getSuccessCount() {
+        int count = 0;
+        for (int status : statuses) {
+            if (status == Constants.STATUS_OK) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isAllSuccess() {
+        return getSuccessCount() == statuses.length;
+    }
+
+    public int getFrameCount() {
+        return frameResults.size();
+    }
+
+    public List<BankClientManager.Result> getFrameResults() {
+        return frameResults;
+    }
+
+    /**
+     * Copies the per-item statuses that follow the NUL-terminated message of a batch
+     * reply into statuses[offset..offset+count). A failed frame, or one without a
+     * usable status list, marks all its items with the frame's status.
+     */
+    static void readItemStatuses(BankClientManager.Result result, int[] statuses, int offset, int count) {
+        int fallback = result.isSuccess() ? Constants.STATUS_ERROR : result.getStatus();
+        ByteBuffer buf = result.isSuccess() ? result.getTrailer() : null;
+
+        int parsed = 0;
+        if (buf != null && buf.remaining() >= 4) {
+            int replyCount = buf.getInt();
+            while (parsed < count && parsed < replyCount && buf.remaining() >= 4) {
+                statuses[offset + parsed] = buf.getInt();
+                parsed++;
+            }
+        }
+        for (int i = parsed; i < count; i++) {
+            statuses[offset + i] = fallback;
+        }
+    }
+}
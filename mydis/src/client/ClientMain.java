@@ -1,23 +1,59 @@
 package client;
 
 import common.Constants;
+import common.DatagramTransport;
+import common.Frame;
 import common.Marshaller;
-import common.NetworkUtil;
-
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import common.codec.CheckBalanceRequest;
+import common.codec.CloseAccountRequest;
+import common.codec.DepositRequest;
+import common.codec.ExchangeRequest;
+import common.codec.MonitorRequest;
+import common.codec.OpenAccountRequest;
+import common.codec.TransferRequest;
+import common.codec.WithdrawRequest;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.Random;
 
+/**
+ * Interactive menu client.
+ *
+ * Usage:
+ *   java client.ClientMain [host[:port]] [amo|alo] [fixed|adaptive]
+ *       [--script file|- [--window 64] [--quiet]]
+ *
+ * With --script the operations are read from the file (or stdin for -) instead
+ * of the menu and run pipelined; see ScriptRunner for the line format.
+ */
 public class ClientMain {
-    private static int reqIdCounter = new Random().nextInt(1000);
+    private static final RequestIds REQUEST_IDS = new RequestIds();
 
     public static void main(String[] args) {
+        List<String> positional = new ArrayList<>();
+        Map<String, String> opts = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                String key = args[i].substring(2);
+                boolean hasValue = !key.equals("quiet") && i + 1 < args.length;
+                opts.put(key, hasValue ? args[++i] : "true");
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        args = positional.toArray(new String[0]);
         String serverIp = "127.0.0.1";
         int serverPort = Constants.SERVER_PORT;
         if (args.length > 0) {
@@ -39,14 +75,24 @@ public class ClientMain {
         }
         String mode = (args.length > 1) ? args[1].trim().toLowerCase() : "amo";
         boolean enableRetry = mode.equals("alo");
+        String timeoutMode = (args.length > 2) ? args[2].trim().toLowerCase() : "fixed";
+        boolean adaptive = timeoutMode.equals("adaptive");
+        RetransmitPolicy policy = adaptive ? RetransmitPolicy.adaptive() : RetransmitPolicy.fixed(1000);
+
+        if (opts.containsKey("script")) {
+            runScript(serverIp, serverPort, enableRetry, policy, opts);
+            return;
+        }
 
         System.out.println("Starting Client. Target Server: " + serverIp + ":" + serverPort);
         System.out.println("Invocation Semantics: " + (enableRetry ? "At-least-once" : "At-most-once"));
+        System.out.println("Retransmission: " + (adaptive ? "Adaptive (RTT-based)" : "Fixed 1s"));
         
-        try (DatagramSocket socket = new DatagramSocket();
+        try (DatagramTransport transport = DatagramTransport.open();
              Scanner scanner = new Scanner(System.in)) {
 
-            InetAddress serverAddress = InetAddress.getByName(serverIp);
+            InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getByName(serverIp), serverPort);
+            ByteBuffer resBuf = ByteBuffer.allocateDirect(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
 
             while (true) {
                 System.out.println("\n--- Bank Client Menu ---");
@@ -71,8 +117,8 @@ public class ClientMain {
 
                 if (choice == 0) break;
 
-                int reqID = reqIdCounter++;
-                ByteBuffer payloadBuf = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                int reqID = REQUEST_IDS.next();
+                ByteBuffer payloadBuf = Frame.newRequest();
                 int opCode;
 
                 switch (choice) {
@@ -85,11 +131,7 @@ public class ClientMain {
                         System.out.print("Enter Initial Balance: ");
                         float bal = Float.parseFloat(scanner.nextLine());
 
-                        opCode = Constants.OP_OPEN_ACCOUNT;
-                        Marshaller.packString(payloadBuf, name);
-                        Marshaller.packString(payloadBuf, pwd);
-                        Marshaller.packFloat(payloadBuf, bal);
-                        Marshaller.packString(payloadBuf, curr);
+                        opCode = OpenAccountRequest.encode(payloadBuf, name, pwd, bal, curr);
                         break;
 
                     case 2: // Close Account
@@ -100,10 +142,7 @@ public class ClientMain {
                         System.out.print("Enter Password: ");
                         String closePwd = scanner.nextLine();
 
-                        opCode = Constants.OP_CLOSE_ACCOUNT;
-                        Marshaller.packInt(payloadBuf, closeId);
-                        Marshaller.packString(payloadBuf, closeName);
-                        Marshaller.packString(payloadBuf, closePwd);
+                        opCode = CloseAccountRequest.encode(payloadBuf, closeId, 0, closeName, closePwd);
                         break;
 
                     case 3: // Check Balance
@@ -115,11 +154,7 @@ public class ClientMain {
                         String balPwd = scanner.nextLine();
                         String balCurr = readCurrency(scanner);
 
-                        opCode = Constants.OP_CHECK_BALANCE;
-                        Marshaller.packInt(payloadBuf, balId);
-                        Marshaller.packString(payloadBuf, balName);
-                        Marshaller.packString(payloadBuf, balPwd);
-                        Marshaller.packString(payloadBuf, balCurr);
+                        opCode = CheckBalanceRequest.encode(payloadBuf, balId, 0, balName, balPwd, balCurr);
                         break;
 
                     case 4: // Deposit
@@ -133,12 +168,7 @@ public class ClientMain {
                         System.out.print("Enter Amount: ");
                         float depAmt = Float.parseFloat(scanner.nextLine());
 
-                        opCode = Constants.OP_DEPOSIT;
-                        Marshaller.packInt(payloadBuf, depId);
-                        Marshaller.packString(payloadBuf, depName);
-                        Marshaller.packString(payloadBuf, depPwd);
-                        Marshaller.packString(payloadBuf, depCurr);
-                        Marshaller.packFloat(payloadBuf, depAmt);
+                        opCode = DepositRequest.encode(payloadBuf, depId, 0, depName, depPwd, depCurr, depAmt);
                         break;
 
                     case 5: // Withdraw
@@ -152,12 +182,7 @@ public class ClientMain {
                         System.out.print("Enter Amount: ");
                         float wAmt = Float.parseFloat(scanner.nextLine());
 
-                        opCode = Constants.OP_WITHDRAW;
-                        Marshaller.packInt(payloadBuf, wId);
-                        Marshaller.packString(payloadBuf, wName);
-                        Marshaller.packString(payloadBuf, wPwd);
-                        Marshaller.packString(payloadBuf, wCurr);
-                        Marshaller.packFloat(payloadBuf, wAmt);
+                        opCode = WithdrawRequest.encode(payloadBuf, wId, 0, wName, wPwd, wCurr, wAmt);
                         break;
 
                     case 6: // Transfer
@@ -173,13 +198,7 @@ public class ClientMain {
                         System.out.print("Enter Receiver Account ID: ");
                         int receiverId = Integer.parseInt(scanner.nextLine());
 
-                        opCode = Constants.OP_TRANSFER;
-                        Marshaller.packInt(payloadBuf, senderId);
-                        Marshaller.packString(payloadBuf, senderName);
-                        Marshaller.packString(payloadBuf, senderPwd);
-                        Marshaller.packString(payloadBuf, tCurr);
-                        Marshaller.packFloat(payloadBuf, tAmt);
-                        Marshaller.packInt(payloadBuf, receiverId);
+                        opCode = TransferRequest.encode(payloadBuf, senderId, 0, senderName, senderPwd, tCurr, tAmt, receiverId);
                         break;
 
                     case 7: // Exchange
@@ -196,51 +215,41 @@ public class ClientMain {
                         System.out.print("Enter Amount (target currency): ");
                         float exAmt = Float.parseFloat(scanner.nextLine());
 
-                        opCode = Constants.OP_EXCHANGE;
-                        Marshaller.packInt(payloadBuf, exId);
-                        Marshaller.packString(payloadBuf, exName);
-                        Marshaller.packString(payloadBuf, exPwd);
-                        Marshaller.packString(payloadBuf, fromCurr);
-                        Marshaller.packString(payloadBuf, toCurr);
-                        Marshaller.packFloat(payloadBuf, exAmt);
+                        opCode = ExchangeRequest.encode(payloadBuf, exId, 0, exName, exPwd, fromCurr, toCurr, exAmt);
                         break;
 
                     case 8: // Monitor
                         System.out.print("Enter Duration (milliseconds): ");
                         long durationMillis = Long.parseLong(scanner.nextLine());
 
-                        opCode = Constants.OP_MONITOR;
-                        Marshaller.packLong(payloadBuf, durationMillis);
+                        opCode = MonitorRequest.encode(payloadBuf, durationMillis);
                         break;
 
                     default:
                         System.out.println("Invalid option.");
+                        Frame.release(payloadBuf);
                         continue;
                 }
 
-                ByteBuffer reqBuf = ByteBuffer.allocate(8 + Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
-                reqBuf.putInt(reqID);
-                reqBuf.putInt(opCode);
-                reqBuf.put(payloadBuf.array());
-                byte[] reqData = reqBuf.array();
-
-                DatagramPacket replyPacket = sendWithRetry(socket, serverAddress, serverPort, reqData, enableRetry);
-                if (replyPacket == null) {
+                ByteBuffer reqBuf = Frame.seal(payloadBuf, reqID, opCode, REQUEST_IDS.getNonce());
+                boolean replied;
+                try {
+                    replied = sendWithRetry(transport, serverAddress, reqID, reqBuf, resBuf, enableRetry, policy);
+                } finally {
+                    Frame.release(reqBuf);
+                }
+                if (!replied) {
                     continue;
                 }
 
-                byte[] resData = Arrays.copyOf(replyPacket.getData(), replyPacket.getLength());
-                if (resData.length < 8) {
+                if (resBuf.remaining() < Frame.HEADER_SIZE) {
                     System.out.println("Invalid response length. Ignoring.");
                     continue;
                 }
 
-                ByteBuffer resBuf = ByteBuffer.wrap(resData).order(ByteOrder.LITTLE_ENDIAN);
                 int resId = resBuf.getInt();
-                int status = resBuf.getInt();
-                byte[] payloadBytes = new byte[Math.min(Constants.BUFFER_SIZE, resData.length - 8)];
-                resBuf.get(payloadBytes);
-                String msg = decodeNullTerminated(payloadBytes);
+                int status = resBuf.getInt() & ~Constants.STATUS_FLAG_REQUEST_ID;
+                String msg = Marshaller.unpackNullTerminated(resBuf);
                 System.out.println("Reply [ReqID=" + resId + ", Status=" + status + "]: " + msg);
             }
 
@@ -250,34 +259,93 @@ public class ClientMain {
     }
 
 
-    private static DatagramPacket sendWithRetry(DatagramSocket socket, InetAddress serverAddress, int serverPort, byte[] reqData, boolean enableRetry) throws Exception {
-        int retries = 0;
-        DatagramPacket replyPacket = null;
+    private static void runScript(String serverIp, int serverPort, boolean enableRetry, RetransmitPolicy policy,
+                                  Map<String, String> opts) {
+        String script = opts.get("script");
+        int window = Integer.parseInt(opts.getOrDefault("window", "64"));
+        BankClientManager manager = null;
+        try (BufferedReader in = script.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(script), StandardCharsets.UTF_8)) {
+            manager = BankClientManager.create(serverIp, serverPort);
+            manager.setInvocationSemantics(enableRetry);
+            manager.setRetransmitPolicy(policy);
+            // every balance line should reach the server
+            manager.setBalanceCacheTtl(0);
+            // --quiet prints only the summary, so successful replies need no text
+            manager.setReplyMessages(!opts.containsKey("quiet"));
+
+            ScriptRunner runner = new ScriptRunner(manager, window, System.out, opts.containsKey("quiet"));
+            runner.run(in);
+            runner.printSummary();
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (manager != null) {
+                manager.close();
+            }
+        }
+    }
 
-        socket.setSoTimeout(1000); // 1.0 second timeout
+    /**
+     * Sends reqBuf and waits for the reply to reqID, left flipped in resBuf with its nonce
+     * taken off. A late reply to an earlier send of the request completes it; replies to
+     * other requests and callbacks are skipped.
+     */
+    private static boolean sendWithRetry(DatagramTransport transport, InetSocketAddress serverAddress, int reqID,
+                                         ByteBuffer reqBuf, ByteBuffer resBuf, boolean enableRetry,
+                                         RetransmitPolicy policy) throws Exception {
+        int retries = 0;
         long startTime = System.currentTimeMillis();
 
         while (true) {
-            try {
-                NetworkUtil.send(socket, serverAddress, serverPort, reqData);
-                System.out.println("Waiting for reply (Attempt " + (retries + 1) + ")...");
-                replyPacket = NetworkUtil.receive(socket);
-                return replyPacket;
-            } catch (java.net.SocketTimeoutException e) {
-                retries++;
-                if (!enableRetry) {
-                    System.out.println("Error: No response from server.");
-                    return null;
+            reqBuf.rewind();
+            long sentAt = System.nanoTime();
+            transport.send(reqBuf, serverAddress);
+            System.out.println("Waiting for reply (Attempt " + (retries + 1) + ")...");
+            long waitUntil = System.currentTimeMillis() + policy.timeoutMillis(serverAddress, retries + 1);
+            long remaining;
+            while ((remaining = waitUntil - System.currentTimeMillis()) > 0) {
+                resBuf.clear();
+                if (transport.receive(resBuf, remaining) == null) {
+                    break;
                 }
-                if (System.currentTimeMillis() - startTime >= Constants.RETRY_TIMEOUT_MS) {
-                    System.out.println("Error: No response from server within retry timeout.");
-                    return null;
+                resBuf.flip();
+                if (isReplyTo(reqID, resBuf)) {
+                    if (retries == 0) {
+                        policy.onRttSample(serverAddress, System.nanoTime() - sentAt);
+                    }
+                    return true;
                 }
-                System.out.println("Timeout! Retrying (" + retries + ")...");
             }
+            retries++;
+            if (!enableRetry) {
+                System.out.println("Error: No response from server.");
+                return false;
+            }
+            if (System.currentTimeMillis() - startTime >= Constants.RETRY_TIMEOUT_MS) {
+                System.out.println("Error: No response from server within retry timeout.");
+                return false;
+            }
+            System.out.println("Timeout! Retrying (" + retries + ")...");
         }
     }
 
+    /**
+     * True if resBuf holds the reply to reqID from this client; the nonce ending it is
+     * checked and taken off.
+     */
+    private static boolean isReplyTo(int reqID, ByteBuffer resBuf) {
+        if (resBuf.remaining() < Frame.HEADER_SIZE || resBuf.getInt(0) != reqID) {
+            return false;
+        }
+        if ((resBuf.getInt(4) & Constants.STATUS_FLAG_REQUEST_ID) == 0) {
+            return true;
+        }
+        return resBuf.remaining() >= Frame.HEADER_SIZE + Frame.NONCE_SIZE
+                && Frame.takeNonce(resBuf) == REQUEST_IDS.getNonce();
+    }
+
     private static String readCurrency(Scanner scanner) {
         while (true) {
             System.out.print("Enter Currency (USD/RMB/SGD/JPY/BPD): ");
@@ -289,12 +357,4 @@ public class ClientMain {
             System.out.println("Invalid currency. Allowed values: USD, RMB, SGD, JPY, BPD.");
         }
     }
-
-    private static String decodeNullTerminated(byte[] payloadBytes) {
-        int end = 0;
-        while (end < payloadBytes.length && payloadBytes[end] != 0) {
-            end++;
-        }
-        return new String(payloadBytes, 0, end, StandardCharsets.UTF_8).trim();
-    }
 }
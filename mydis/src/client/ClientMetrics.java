@@ -0,0 +1,364 @@
+package client;
+
+import common.Constants;
+import common.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free counters and histograms describing what BankClientManager does,
+ * broken out by opcode. Recording is a few LongAdder increments and one
+ * histogram update per reply, so it stays on permanently.
+ *
+ * Exposed over JMX as mydis.client:type=ClientMetrics (see ClientMetricsMXBean).
+ */
+public class ClientMetrics implements ClientMetricsMXBean {
+    public static final String OBJECT_NAME = "mydis.client:type=ClientMetrics";
+
+    // Index 0 collects opcodes outside the known range
+    private static final String[] OP_NAMES = {
+            "other", "open", "close", "balance", "deposit", "withdraw",
+            "transfer", "exchange", "monitor", "batch", "all-balances", "login", "resend", "history"};
+
+    // One-minute moving rates are refreshed every TICK_SECONDS
+    static final long TICK_SECONDS = 5;
+    private static final double M1_ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+    private final OpMetrics[] ops = new OpMetrics[OP_NAMES.length];
+    private final LongAdder lateReplies = new LongAdder();
+    private final LongAdder strayReplies = new LongAdder();
+    private final LongAdder callbacks = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder hedgesDenied = new LongAdder();
+    private final LongAdder fragments = new LongAdder();
+    private final LongAdder fragmentResends = new LongAdder();
+    private final LongAdder congestionWaits = new LongAdder();
+    private final LongAdder congestionRejects = new LongAdder();
+    private final Rate requestRate = new Rate();
+    private final Rate callbackRate = new Rate();
+    private volatile InFlightGauge inFlightGauge = () -> 0;
+
+    public ClientMetrics() {
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = new OpMetrics();
+        }
+    }
+
+    private OpMetrics op(int opCode) {
+        opCode &= Constants.OP_CODE_MASK;
+        return opCode > 0 && opCode < ops.length ? ops[opCode] : ops[0];
+    }
+
+    void setInFlightGauge(InFlightGauge gauge) {
+        this.inFlightGauge = gauge;
+    }
+
+    // === Recording ===
+
+    void onRequest(int opCode) {
+        op(opCode).requests.increment();
+    }
+
+    void onRetransmit(int opCode) {
+        op(opCode).retransmissions.increment();
+    }
+
+    void onReply(int opCode, int status, long latencyNanos, int attempts) {
+        OpMetrics m = op(opCode);
+        if (status == Constants.STATUS_OK) {
+            m.ok.increment();
+        } else if (status == Constants.STATUS_FAIL) {
+            m.failed.increment();
+        } else {
+            m.errors.increment();
+        }
+        m.latency.record(latencyNanos);
+        m.attempts.record(attempts);
+    }
+
+    void onTimeout(int opCode, int attempts) {
+        OpMetrics m = op(opCode);
+        m.timeouts.increment();
+        m.attempts.record(attempts);
+    }
+
+    void onSendError(int opCode) {
+        op(opCode).errors.increment();
+    }
+
+    /**
+     * A reply for a reqID this client issued but no longer waits for: a duplicate
+     * of an answered request, or a reply that arrived after its deadline.
+     */
+    void onLateReply() {
+        lateReplies.increment();
+    }
+
+    /**
+     * A datagram that is not a reply to any reqID this client issued.
+     */
+    void onStrayReply() {
+        strayReplies.increment();
+    }
+
+    void onCallback() {
+        callbacks.increment();
+    }
+
+    void onHedge() {
+        hedges.increment();
+    }
+
+    /**
+     * A hedged request was answered by its hedge rather than the original send.
+     */
+    void onHedgeWin() {
+        hedgeWins.increment();
+    }
+
+    /**
+     * A hedge was due but the hedging budget was spent.
+     */
+    void onHedgeDenied() {
+        hedgesDenied.increment();
+    }
+
+    /**
+     * A fragment of a reply too large for one datagram arrived.
+     */
+    void onFragment() {
+        fragments.increment();
+    }
+
+    /**
+     * Missing fragments were asked for again instead of retransmitting the request.
+     */
+    void onFragmentResend() {
+        fragmentResends.increment();
+    }
+
+    /**
+     * A request found its server's congestion window full and waited for a slot.
+     */
+    void onCongestionWait() {
+        congestionWaits.increment();
+    }
+
+    /**
+     * A request found the congestion window full and too many waiting to queue behind.
+     */
+    void onCongestionReject() {
+        congestionRejects.increment();
+    }
+
+    /**
+     * Folds the counts since the last tick into the moving rates; called every TICK_SECONDS.
+     */
+    void tick() {
+        requestRate.tick(getRequestCount());
+        callbackRate.tick(callbacks.sum());
+    }
+
+    // === Reading ===
+
+    @Override
+    public long getRequestCount() {
+        long sum = 0;
+        for (OpMetrics m : ops) {
+            sum += m.requests.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public double getRequestRate() {
+        return requestRate.perSecond();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        long sum = 0;
+        for (OpMetrics m : ops) {
+            sum += m.timeouts.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getRetransmissionCount() {
+        long sum = 0;
+        for (OpMetrics m : ops) {
+            sum += m.retransmissions.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getLateReplyCount() {
+        return lateReplies.sum();
+    }
+
+    @Override
+    public long getStrayReplyCount() {
+        return strayReplies.sum();
+    }
+
+    @Override
+    public long getCallbackCount() {
+        return callbacks.sum();
+    }
+
+    @Override
+    public double getCallbackRate() {
+        return callbackRate.perSecond();
+    }
+
+    @Override
+    public long getHedgeCount() {
+        return hedges.sum();
+    }
+
+    @Override
+    public long getHedgeWinCount() {
+        return hedgeWins.sum();
+    }
+
+    @Override
+    public long getHedgeDeniedCount() {
+        return hedgesDenied.sum();
+    }
+
+    @Override
+    public long getFragmentCount() {
+        return fragments.sum();
+    }
+
+    @Override
+    public long getFragmentResendCount() {
+        return fragmentResends.sum();
+    }
+
+    @Override
+    public long getCongestionWaitCount() {
+        return congestionWaits.sum();
+    }
+
+    @Override
+    public long getCongestionRejectCount() {
+        return congestionRejects.sum();
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return inFlightGauge.get();
+    }
+
+    long getReplyCount(int opCode) {
+        return op(opCode).latency.getCount();
+    }
+
+    long getLatencyAtPercentile(int opCode, double percentile) {
+        return op(opCode).latency.getValueAtPercentile(percentile);
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        List<OperationStats> list = new ArrayList<>(ops.length);
+        for (int i = 1; i <= ops.length; i++) {
+            // "other" goes last
+            int index = i % ops.length;
+            OpMetrics m = ops[index];
+            if (m.requests.sum() == 0 && m.timeouts.sum() == 0) {
+                continue;
+            }
+            list.add(m.snapshot(OP_NAMES[index]));
+        }
+        return list;
+    }
+
+    @Override
+    public void reset() {
+        for (OpMetrics m : ops) {
+            m.reset();
+        }
+        lateReplies.reset();
+        strayReplies.reset();
+        callbacks.reset();
+        hedges.reset();
+        hedgeWins.reset();
+        hedgesDenied.reset();
+        fragments.reset();
+        fragmentResends.reset();
+        congestionWaits.reset();
+        congestionRejects.reset();
+        requestRate.reset();
+        callbackRate.reset();
+    }
+
+    interface InFlightGauge {
+        int get();
+    }
+
+    private static final class OpMetrics {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder retransmissions = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram attempts = new LatencyHistogram();
+
+        private OperationStats snapshot(String name) {
+            return new OperationStats(name, requests.sum(), ok.sum(), failed.sum(), errors.sum(),
+                    timeouts.sum(), retransmissions.sum(),
+                    latency.getMean() / 1e6, latency.getValueAtPercentile(50) / 1e6,
+                    latency.getValueAtPercentile(99) / 1e6, latency.getValueAtPercentile(99.9) / 1e6,
+                    latency.getMax() / 1e6, attempts.getMean(), attempts.getMax());
+        }
+
+        private void reset() {
+            requests.reset();
+            ok.reset();
+            failed.reset();
+            errors.reset();
+            timeouts.reset();
+            retransmissions.reset();
+            latency.reset();
+            attempts.reset();
+        }
+    }
+
+    /**
+     * Exponentially weighted one-minute rate, as in Unix load averages.
+     */
+    private static final class Rate {
+        private long lastCount;
+        private volatile double perSecond;
+        private boolean initialized;
+
+        private synchronized void tick(long count) {
+            double instant = (count - lastCount) / (double) TICK_SECONDS;
+            lastCount = count;
+            if (initialized) {
+                perSecond += M1_ALPHA * (instant - perSecond);
+            } else {
+                perSecond = instant;
+                initialized = true;
+            }
+        }
+
+        private double perSecond() {
+            return perSecond;
+        }
+
+        private synchronized void reset() {
+            lastCount = 0;
+            perSecond = 0;
+            initialized = false;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package client;
+
+import java.util.List;
+
+/**
+ * JMX view of ClientMetrics. Counts are cumulative since start or the last reset;
+ * rates are one-minute moving averages per second.
+ */
+public interface ClientMetricsMXBean {
+
+    long getRequestCount();
+
+    double getRequestRate();
+
+    long getTimeoutCount();
+
+    long getRetransmissionCount();
+
+    long getLateReplyCount();
+
+    long getStrayReplyCount();
+
+    long getCallbackCount();
+
+    double getCallbackRate();
+
+    long getHedgeCount();
+
+    long getHedgeWinCount();
+
+    long getHedgeDeniedCount();
+
+    long getFragmentCount();
+
+    long getFragmentResendCount();
+
+    long getCongestionWaitCount();
+
+    long getCongestionRejectCount();
+
+    int getInFlightCount();
+
+    List<OperationStats> getOperations();
+
+    void reset();
+}
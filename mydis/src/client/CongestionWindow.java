@@ -0,0 +1,142 @@
+package client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Limits the requests outstanding at one server, as TCP limits unacknowledged segments.
+ * The window grows by one request per reply up to the slow start threshold, then by
+ * one request per window of replies, and halves on a timeout or a reply that came back
+ * after its request was given up on; replies only grow it while it is full, so an idle
+ * client does not build up a window it never tested. It never grows past the replies
+ * the client's receive buffer can hold (setMaxWindow). Requests
+ * that find the window full wait in line, up to a limit, and are admitted in order as
+ * outstanding ones complete.
+ */
+public class CongestionWindow {
+    static final int INITIAL_WINDOW = 8;
+    static final int MIN_WINDOW = 1;
+    static final int MAX_WINDOW = 1024;
+    static final int INITIAL_SLOW_START_THRESHOLD = 64;
+
+    public enum Admission { ADMITTED, QUEUED, REJECTED }
+
+    private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+    private int maxWindow = MAX_WINDOW;
+    private double window = INITIAL_WINDOW;
+    private double slowStartThreshold = INITIAL_SLOW_START_THRESHOLD;
+    private int outstanding;
+    // When the window was last cut; timeouts of requests sent before then report
+    // the congestion event that caused the cut
+    private long recoveryNanos = System.nanoTime();
+    private long decreases;
+
+    /**
+     * Current window, in requests.
+     */
+    public synchronized int getWindow() {
+        return (int) window;
+    }
+
+    public synchronized int getOutstanding() {
+        return outstanding;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    public synchronized int getMaxWindow() {
+        return maxWindow;
+    }
+
+    /**
+     * Times the window was cut for a timeout or a late reply.
+     */
+    public synchronized long getDecreases() {
+        return decreases;
+    }
+
+    /**
+     * Caps the window, typically at the replies the receive buffer holds; more requests
+     * in flight than that only turn a burst of replies into drops.
+     */
+    synchronized void setMaxWindow(int max) {
+        maxWindow = Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, max));
+        window = Math.min(window, maxWindow);
+        slowStartThreshold = Math.min(slowStartThreshold, maxWindow);
+    }
+
+    /**
+     * Takes a slot if the window has one. Otherwise queues admit to run once a slot is
+     * handed to it, unless maxWaiting requests are already waiting.
+     */
+    synchronized Admission acquire(Runnable admit, int maxWaiting) {
+        if (waiting.isEmpty() && outstanding < (int) window) {
+            outstanding++;
+            return Admission.ADMITTED;
+        }
+        if (waiting.size() >= maxWaiting) {
+            return Admission.REJECTED;
+        }
+        waiting.add(admit);
+        return Admission.QUEUED;
+    }
+
+    /**
+     * Gives back a slot; replied is false for requests that timed out or failed to send.
+     * Waiting requests the window now has room for are admitted on the calling thread.
+     */
+    void release(boolean replied) {
+        List<Runnable> admitted = null;
+        synchronized (this) {
+            if (replied && outstanding >= (int) window) {
+                window = Math.min(maxWindow, window < slowStartThreshold ? window + 1 : window + 1 / window);
+            }
+            outstanding--;
+            while (!waiting.isEmpty() && outstanding < (int) window) {
+                outstanding++;
+                if (admitted == null) {
+                    admitted = new ArrayList<>();
+                }
+                admitted.add(waiting.poll());
+            }
+        }
+        if (admitted != null) {
+            for (Runnable admit : admitted) {
+                admit.run();
+            }
+        }
+    }
+
+    /**
+     * A request sent at sentNanos timed out. The window is halved at most once per round
+     * trip: timeouts of requests sent before the last cut report the same congestion.
+     */
+    synchronized void onLoss(long sentNanos) {
+        if (sentNanos - recoveryNanos <= 0) {
+            return;
+        }
+        decrease();
+    }
+
+    /**
+     * A reply arrived after its request timed out: the server or the path queued it
+     * longer than the client waits. The sent time is no longer known, so the window is
+     * cut unless it was already cut within the last intervalNanos (about a round trip).
+     */
+    synchronized void onLateReply(long intervalNanos) {
+        if (System.nanoTime() - recoveryNanos < intervalNanos) {
+            return;
+        }
+        decrease();
+    }
+
+    private void decrease() {
+        decreases++;
+        slowStartThreshold = Math.max(MIN_WINDOW, window / 2);
+        window = slowStartThreshold;
+        recoveryNanos = System.nanoTime();
+    }
+}
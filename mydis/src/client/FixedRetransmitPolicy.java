@@ -0,0 +1,24 @@
+package client;
+
+import java.net.InetSocketAddress;
+
+public class FixedRetransmitPolicy implements RetransmitPolicy {
+    private final long intervalMillis;
+
+    public FixedRetransmitPolicy(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Retransmit interval must be positive");
+        }
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public long timeoutMillis(InetSocketAddress server, int attempt) {
+        return intervalMillis;
+    }
+
+    @Override
+    public void onRttSample(InetSocketAddress server, long rttNanos) {
+        // fixed interval ignores measurements
+    }
+}
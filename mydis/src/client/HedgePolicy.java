@@ -0,0 +1,112 @@
+package client;
+
+import common.Constants;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Which operations BankClientManager may hedge and when. A request of a hedged
+ * opcode that has no reply after the opcode's observed latency percentile is sent
+ * once more under the same reqID; the first reply wins and the other is dropped as
+ * a late duplicate. Only mark operations that are safe to execute twice, or that the
+ * server deduplicates: a same-reqID duplicate to the same server is answered from its
+ * at-most-once reply cache, while read-only requests may be hedged to another replica.
+ *
+ * Hedges are paid for from a budget: every eligible request deposits budgetRatio of
+ * a hedge, so hedges add at most that fraction of extra requests beyond a small burst.
+ */
+public class HedgePolicy {
+    public static final double DEFAULT_PERCENTILE = 95;
+    public static final double DEFAULT_BUDGET_RATIO = 0.05;
+    public static final long DEFAULT_MIN_DELAY_MS = 1;
+    // Replies needed before the percentile is trusted
+    static final int MIN_SAMPLES = 100;
+    private static final long CREDITS_PER_HEDGE = 1000;
+    private static final long MAX_CREDITS = 10 * CREDITS_PER_HEDGE;
+
+    private final double percentile;
+    private final long depositPerRequest;
+    private final long minDelayNanos;
+    // Per opcode: 0 = not hedged, -1 = hedged but no delay measured yet, else the delay
+    private final AtomicLongArray delays = new AtomicLongArray(Constants.OP_CODE_MASK + 1);
+    private final AtomicLong credits = new AtomicLong(MAX_CREDITS);
+
+    public HedgePolicy() {
+        this(DEFAULT_PERCENTILE, DEFAULT_BUDGET_RATIO, DEFAULT_MIN_DELAY_MS);
+    }
+
+    public HedgePolicy(double percentile, double budgetRatio, long minDelayMillis) {
+        if (percentile <= 0 || percentile >= 100 || budgetRatio < 0 || minDelayMillis < 0) {
+            throw new IllegalArgumentException("Invalid hedging parameters");
+        }
+        this.percentile = percentile;
+        this.depositPerRequest = Math.round(budgetRatio * CREDITS_PER_HEDGE);
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        hedge(Constants.OP_CHECK_BALANCE);
+        hedge(Constants.OP_CHECK_ALL_BALANCES);
+    }
+
+    /**
+     * Marks an opcode as idempotent, allowing it to be hedged. Balance queries are marked by default.
+     */
+    public HedgePolicy hedge(int opCode) {
+        delays.compareAndSet(opCode & Constants.OP_CODE_MASK, 0, -1);
+        return this;
+    }
+
+    public boolean isHedged(int opCode) {
+        return delays.get(opCode & Constants.OP_CODE_MASK) != 0;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * How long to wait before hedging a request of this opcode, or -1 if it is not
+     * hedged or too few replies have been seen to know its latency. Also deposits
+     * the request's share of the budget.
+     */
+    long onRequest(int opCode) {
+        long delay = delays.get(opCode & Constants.OP_CODE_MASK);
+        if (delay == 0) {
+            return -1;
+        }
+        if (credits.get() < MAX_CREDITS) {
+            credits.accumulateAndGet(depositPerRequest, (c, d) -> Math.min(MAX_CREDITS, c + d));
+        }
+        return delay;
+    }
+
+    /**
+     * Takes one hedge from the budget; false if it is spent.
+     */
+    boolean tryAcquire() {
+        long c;
+        do {
+            c = credits.get();
+            if (c < CREDITS_PER_HEDGE) {
+                return false;
+            }
+        } while (!credits.compareAndSet(c, c - CREDITS_PER_HEDGE));
+        return true;
+    }
+
+    /**
+     * Recomputes each hedged opcode's delay from the latencies recorded so far.
+     */
+    void refresh(ClientMetrics metrics) {
+        for (int op = 0; op < delays.length(); op++) {
+            if (delays.get(op) == 0) {
+                continue;
+            }
+            if (metrics.getReplyCount(op) < MIN_SAMPLES) {
+                delays.set(op, -1);
+            } else {
+                delays.set(op, Math.max(minDelayNanos, metrics.getLatencyAtPercentile(op, percentile)));
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package client;
+
+import common.CurrencyType;
+import common.EntryType;
+
+/**
+ * One entry of an account's transaction history, as streamed by HistoryStream.
+ */
+public class HistoryEntry {
+    private final long seq;
+    private final long timeMillis;
+    private final EntryType type;
+    private final CurrencyType currency;
+    private final double amount;
+    private final double balance;
+    private final int counterparty;
+
+    HistoryEntry(long seq, long timeMillis, EntryType type, CurrencyType currency, double amount, double balance,
+                 int counterparty) {
+        this.seq = seq;
+        this.timeMillis = timeMillis;
+        this.type = type;
+        this.currency = currency;
+        this.amount = amount;
+        this.balance = balance;
+        this.counterparty = counterparty;
+    }
+
+    /**
+     * Position in the history, from 0; the cursor to resume a listing after this entry is seq + 1.
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public EntryType getType() {
+        return type;
+    }
+
+    public CurrencyType getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Signed change: negative for money leaving the account.
+     */
+    public double getAmount() {
+        return amount;
+    }
+
+    /**
+     * Balance in getCurrency() right after the entry.
+     */
+    public double getBalance() {
+        return balance;
+    }
+
+    /**
+     * The other account of a transfer, or -1.
+     */
+    public int getCounterparty() {
+        return counterparty;
+    }
+
+    @Override
+    public String toString() {
+        return seq + " " + type + " " + amount + " " + currency + " -> " + balance
+                + (counterparty >= 0 ? " (account " + counterparty + ")" : "");
+    }
+}
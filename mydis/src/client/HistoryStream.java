@@ -0,0 +1,209 @@
+package client;
+
+import common.CurrencyType;
+import common.EntryType;
+import common.codec.HistoryEntryReply;
+import common.codec.HistoryPageReply;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over an account's transaction history page by page (Constants.OP_HISTORY)
+ * without holding more than a window of pages. The reader sets the pace: up to
+ * `window` page requests are in flight, and another is only sent when the caller has
+ * consumed a page. Pages are plain reads by cursor, so a lost one is simply asked for
+ * again, and a listing that failed can be resumed with getCursor().
+ *
+ * The listing ends at the history length the first page reported; entries appended
+ * later are left for the next listing. Close the stream if it is not read to the end.
+ */
+public class HistoryStream implements Iterator<HistoryEntry>, AutoCloseable {
+    // Sends per page before a timed-out page fails the stream
+    private static final int MAX_PAGE_ATTEMPTS = 3;
+    private static final EntryType[] TYPES = EntryType.values();
+    private static final CurrencyType[] CURRENCIES = CurrencyType.values();
+
+    private final PageFetcher fetcher;
+    private int pageEntries;
+    private final int window;
+    private final ArrayDeque<Page> pages = new ArrayDeque<>();
+    private long nextPageCursor;
+    private long end = Long.MAX_VALUE;
+    private long cursor;
+
+    private BankClientManager.Result current;
+    private ByteBuffer entries;
+    private int entriesLeft;
+    private boolean closed;
+
+    HistoryStream(PageFetcher fetcher, long cursor, int pageEntries, int window) {
+        if (cursor < 0 || pageEntries < 1 || window < 1) {
+            throw new IllegalArgumentException("Invalid history cursor or paging");
+        }
+        this.fetcher = fetcher;
+        this.cursor = cursor;
+        this.nextPageCursor = cursor;
+        this.pageEntries = pageEntries;
+        this.window = window;
+        // one page until the first reply tells how long the history is
+        requestPage();
+    }
+
+    /**
+     * Seq of the next entry this stream returns; a new stream from here continues the listing.
+     */
+    public long getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (entriesLeft == 0) {
+            if (closed || cursor >= end || pages.isEmpty()) {
+                // read to the end: give back the last page and any sent past the end
+                close();
+                return false;
+            }
+            nextPage();
+        }
+        return true;
+    }
+
+    @Override
+    public HistoryEntry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ByteBuffer e = entries;
+        HistoryEntry entry = new HistoryEntry(HistoryEntryReply.seq(e), HistoryEntryReply.timeMillis(e),
+                TYPES[HistoryEntryReply.type(e)], CURRENCIES[HistoryEntryReply.currency(e)],
+                HistoryEntryReply.amount(e), HistoryEntryReply.balance(e), HistoryEntryReply.counterparty(e));
+        e.position(e.position() + HistoryEntryReply.SIZE);
+        entriesLeft--;
+        cursor = entry.getSeq() + 1;
+        return entry;
+    }
+
+    /**
+     * The remaining entries as a sequential stream; closing it closes this HistoryStream.
+     */
+    public Stream<HistoryEntry> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+    }
+
+    /**
+     * Releases the current page and discards the pages still in flight.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        releaseCurrent();
+        discardPagesInFlight();
+    }
+
+    private void requestPage() {
+        pages.add(new Page(nextPageCursor, fetcher.fetch(nextPageCursor, pageEntries)));
+        nextPageCursor += pageEntries;
+    }
+
+    /**
+     * Waits for the oldest page in flight and makes it the current one, sending it again
+     * if it timed out and topping the window up once the history length is known.
+     */
+    private void nextPage() {
+        releaseCurrent();
+        Page page = pages.peek();
+        BankClientManager.Result result;
+        try {
+            result = page.reply.join();
+        } catch (CompletionException e) {
+            close();
+            throw new IllegalStateException("History request failed", e.getCause());
+        }
+        if (result.isTimeout() && page.attempts < MAX_PAGE_ATTEMPTS) {
+            result.release();
+            pages.poll();
+            pages.addFirst(new Page(page.cursor, fetcher.fetch(page.cursor, pageEntries), page.attempts + 1));
+            return;
+        }
+        pages.poll();
+        ByteBuffer fields = result.isSuccess() ? result.getTrailer() : null;
+        if (fields == null || fields.remaining() < HistoryPageReply.SIZE) {
+            String message = result.getMessage();
+            result.release();
+            close();
+            throw new IllegalStateException("History unavailable at entry " + page.cursor + ": " + message);
+        }
+        current = result;
+        long total = HistoryPageReply.total(fields);
+        int count = HistoryPageReply.count(fields);
+        fields.position(fields.position() + HistoryPageReply.SIZE);
+        if (end == Long.MAX_VALUE) {
+            end = total;
+        }
+        entries = fields;
+        entriesLeft = Math.min(count, fields.remaining() / HistoryEntryReply.SIZE);
+        if (entriesLeft > 0 && entriesLeft < pageEntries && page.cursor + entriesLeft < end) {
+            // the server capped the page: ask for pages of that size from where it stopped,
+            // rather than leave a gap before the pages already in flight
+            discardPagesInFlight();
+            pageEntries = entriesLeft;
+            nextPageCursor = page.cursor + entriesLeft;
+        }
+        if (entriesLeft == 0) {
+            end = Math.min(end, page.cursor);
+        }
+        while (pages.size() < window && nextPageCursor < end) {
+            requestPage();
+        }
+    }
+
+    private void discardPagesInFlight() {
+        for (Page page : pages) {
+            page.reply.thenAccept(BankClientManager.Result::release);
+        }
+        pages.clear();
+    }
+
+    private void releaseCurrent() {
+        if (current != null) {
+            current.release();
+            current = null;
+            entries = null;
+            entriesLeft = 0;
+        }
+    }
+
+    interface PageFetcher {
+        /**
+         * Sends one OP_HISTORY request for up to maxEntries entries from cursor.
+         */
+        CompletableFuture<BankClientManager.Result> fetch(long cursor, int maxEntries);
+    }
+
+    private static final class Page {
+        private final long cursor;
+        private final CompletableFuture<BankClientManager.Result> reply;
+        private final int attempts;
+
+        private Page(long cursor, CompletableFuture<BankClientManager.Result> reply) {
+            this(cursor, reply, 1);
+        }
+
+        private Page(long cursor, CompletableFuture<BankClientManager.Result> reply, int attempts) {
+            this.cursor = cursor;
+            this.reply = reply;
+            this.attempts = attempts;
+        }
+    }
+}
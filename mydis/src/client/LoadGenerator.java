@@ -0,0 +1,444 @@
+package client;
+
+import common.BufferPool;
+import common.Constants;
+import common.LatencyHistogram;
+import common.VirtualThreads;
+import server.Bank;
+import server.BankServer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a weighted mix of operations from many simulated accounts through
+ * BankClientManager and reports latency percentiles, throughput, timeouts and
+ * retries per opcode.
+ *
+ * Closed loop: a fixed number of workers each wait for their reply before the
+ * next request. Open loop: requests are issued on a fixed schedule regardless of
+ * replies, and latency is measured from the scheduled send time, so a stalled
+ * client or server is charged for every request it delayed (no coordinated omission).
+ * Sessions: every account is a user on its own virtual thread (see
+ * common.VirtualThreads), making blocking calls with --think ms pauses between them.
+ *
+ * Usage:
+ *   java client.LoadGenerator [--server host:port[,host:port...] | --local [--replicas N]] [--mode closed|open|sessions]
+ *       [--concurrency 32] [--rate 5000] [--think 100] [--duration 30] [--warmup 5] [--accounts 1000]
+ *       [--mix deposit=30,withdraw=20,transfer=20,exchange=10,balance=20]
+ *       [--alo] [--adaptive] [--drop 0.0] [--server-workers N] [--hedge [p95]] [--hedge-budget 0.05]
+ *       [--window-queue 4096]
+ *
+ * --local starts a server.BankServer in this process on a free port; it shares one
+ * channel between its workers since all load arrives from this one client socket.
+ * With --replicas N it starts N servers over one shared Bank, standing in for
+ * replicas of the same data, and balance queries are spread across them.
+ * Several --server addresses form a replica set whose first entry is the primary.
+ * --window-queue caps the requests waiting for room in a server's congestion window;
+ * 0 makes requests fail fast instead.
+ */
+public class LoadGenerator {
+    private static final String[] OP_NAMES = {"deposit", "withdraw", "transfer", "exchange", "balance"};
+    private static final int[] OP_CODES = {
+            Constants.OP_DEPOSIT, Constants.OP_WITHDRAW, Constants.OP_TRANSFER,
+            Constants.OP_EXCHANGE, Constants.OP_CHECK_BALANCE};
+    // Open loop stops issuing new requests beyond this many outstanding
+    private static final int MAX_OUTSTANDING = 100_000;
+
+    private final BankClientManager manager;
+    private final List<UserSession> accounts;
+    private final int[] cumulativeWeights;
+    private final OpStats[] stats = new OpStats[OP_NAMES.length];
+    private final LongAdder skipped = new LongAdder();
+
+    LoadGenerator(BankClientManager manager, List<UserSession> accounts, int[] weights) {
+        this.manager = manager;
+        this.accounts = accounts;
+        this.cumulativeWeights = new int[weights.length];
+        int sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cumulativeWeights[i] = sum;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("Operation mix has no weight");
+        }
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new OpStats();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parseArgs(args);
+        String mode = opts.getOrDefault("mode", "closed");
+        int concurrency = Integer.parseInt(opts.getOrDefault("concurrency", "32"));
+        double rate = Double.parseDouble(opts.getOrDefault("rate", "5000"));
+        long durationSec = Long.parseLong(opts.getOrDefault("duration", "30"));
+        long warmupSec = Long.parseLong(opts.getOrDefault("warmup", "5"));
+        int accountCount = Integer.parseInt(opts.getOrDefault("accounts", "1000"));
+        int[] weights = parseMix(opts.getOrDefault("mix", "deposit=30,withdraw=20,transfer=20,exchange=10,balance=20"));
+
+        String host = "127.0.0.1";
+        ReplicaSet servers = ReplicaSet.parse(host, Constants.SERVER_PORT);
+        List<BankServer> localServers = new ArrayList<>();
+        if (opts.containsKey("local")) {
+            int workers = Integer.parseInt(opts.getOrDefault("server-workers",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            int replicaCount = Integer.parseInt(opts.getOrDefault("replicas", "1"));
+            Bank bank = new Bank();
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < replicaCount; i++) {
+                BankServer localServer = new BankServer(bank, new InetSocketAddress(host, 0), workers,
+                        !opts.containsKey("alo"), true, Double.parseDouble(opts.getOrDefault("drop", "0")));
+                localServer.start();
+                localServers.add(localServer);
+                addresses.add(new InetSocketAddress(host, localServer.getPort()));
+            }
+            servers = new ReplicaSet(addresses);
+        } else if (opts.containsKey("server")) {
+            servers = ReplicaSet.parse(opts.get("server"), Constants.SERVER_PORT);
+        }
+
+        InetSocketAddress primary = servers.primary().getAddress();
+        BankClientManager manager = BankClientManager.getInstance(primary.getHostString(), primary.getPort());
+        if (servers.size() > 1) {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (Replica replica : servers.getReplicas()) {
+                addresses.add(replica.getAddress());
+            }
+            manager.setReplicas(addresses);
+        }
+        manager.setInvocationSemantics(opts.containsKey("alo"));
+        // only statuses are counted, so successful replies need no text
+        manager.setReplyMessages(false);
+        if (opts.containsKey("window-queue")) {
+            manager.setCongestionQueueLimit(Integer.parseInt(opts.get("window-queue")));
+        }
+        if (opts.containsKey("adaptive")) {
+            manager.setRetransmitPolicy(RetransmitPolicy.adaptive());
+        }
+        if (opts.containsKey("hedge")) {
+            String percentile = opts.get("hedge");
+            manager.setHedgePolicy(new HedgePolicy(
+                    percentile.equals("true") ? HedgePolicy.DEFAULT_PERCENTILE : Double.parseDouble(percentile.replace("p", "")),
+                    Double.parseDouble(opts.getOrDefault("hedge-budget", String.valueOf(HedgePolicy.DEFAULT_BUDGET_RATIO))),
+                    HedgePolicy.DEFAULT_MIN_DELAY_MS));
+        }
+
+        System.out.println("Target " + servers + (localServers.isEmpty() ? "" : " (in-process server)")
+                + ", mode=" + mode + (mode.equals("open") ? ", rate=" + rate + "/s" : ", concurrency=" + concurrency)
+                + ", duration=" + durationSec + "s, warmup=" + warmupSec + "s");
+        System.out.println("Opening " + accountCount + " accounts...");
+        List<UserSession> accounts = openAccounts(manager, accountCount);
+        if (accounts.isEmpty()) {
+            System.out.println("Could not open any accounts; aborting.");
+            manager.close();
+            return;
+        }
+
+        LoadGenerator generator = new LoadGenerator(manager, accounts, weights);
+        long warmupNanos = TimeUnit.SECONDS.toNanos(warmupSec);
+        long durationNanos = TimeUnit.SECONDS.toNanos(durationSec);
+        if (mode.equals("open")) {
+            generator.runOpenLoop(rate, warmupNanos, durationNanos);
+        } else if (mode.equals("sessions")) {
+            System.out.println("Running " + accounts.size() + " sessions on "
+                    + (VirtualThreads.isSupported() ? "virtual" : "platform") + " threads");
+            generator.runSessions(Long.parseLong(opts.getOrDefault("think", "100")), warmupNanos, durationNanos);
+        } else {
+            generator.runClosedLoop(concurrency, warmupNanos, durationNanos);
+        }
+        generator.printReport(durationNanos);
+        if (servers.size() > 1) {
+            generator.printReplicas();
+        }
+
+        manager.close();
+        for (BankServer localServer : localServers) {
+            localServer.close();
+        }
+    }
+
+    static List<UserSession> openAccounts(BankClientManager manager, int count) {
+        String runId = Long.toString(System.currentTimeMillis() % 100000, 36);
+        List<CompletableFuture<UserSession>> pending = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            pending.add(manager.openAccountSessionAsync("load-" + runId + "-" + i, "pw" + i, "USD", 1_000_000f));
+        }
+        List<UserSession> sessions = new ArrayList<>(count);
+        for (CompletableFuture<UserSession> future : pending) {
+            UserSession session = future.join();
+            if (session != null) {
+                sessions.add(session);
+            }
+        }
+        return sessions;
+    }
+
+    void runClosedLoop(int concurrency, long warmupNanos, long durationNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        List<Thread> workers = new ArrayList<>(concurrency);
+        for (int w = 0; w < concurrency; w++) {
+            Thread worker = new Thread(() -> {
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    int op = pickOp();
+                    BankClientManager.Result result = issue(op).join();
+                    long done = System.nanoTime();
+                    if (now >= measureFrom) {
+                        stats[op].record(result, done - now);
+                    }
+                    result.release();
+                }
+            }, "load-worker-" + w);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    void runOpenLoop(double ratePerSecond, long warmupNanos, long durationNanos) throws InterruptedException {
+        long intervalNanos = Math.max(1L, (long) (1_000_000_000L / ratePerSecond));
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        AtomicInteger outstanding = new AtomicInteger();
+
+        for (long i = 0; ; i++) {
+            long intended = start + i * intervalNanos;
+            if (intended >= end) {
+                break;
+            }
+            long wait;
+            while ((wait = intended - System.nanoTime()) > 0) {
+                if (wait > 50_000L) {
+                    LockSupport.parkNanos(wait - 20_000L);
+                } else {
+                    Thread.onSpinWait();
+                }
+            }
+            if (outstanding.get() >= MAX_OUTSTANDING) {
+                skipped.increment();
+                continue;
+            }
+            int op = pickOp();
+            outstanding.incrementAndGet();
+            issue(op).whenComplete((result, error) -> {
+                outstanding.decrementAndGet();
+                if (intended >= measureFrom && result != null) {
+                    // measured from the scheduled send time, not the actual one
+                    stats[op].record(result, System.nanoTime() - intended);
+                }
+                if (result != null) {
+                    result.release();
+                }
+            });
+        }
+
+        long drainUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Constants.RETRY_TIMEOUT_MS);
+        while (outstanding.get() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(10);
+        }
+    }
+
+    void runSessions(long thinkMillis, long warmupNanos, long durationNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("load-session-");
+        for (UserSession session : accounts) {
+            executor.execute(() -> {
+                try {
+                    // spread the first requests over one think time
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(thinkMillis + 1));
+                    long now;
+                    while ((now = System.nanoTime()) < end) {
+                        int op = pickOp();
+                        BankClientManager.Result result = issue(session, op);
+                        if (now >= measureFrom) {
+                            stats[op].record(result, System.nanoTime() - now);
+                        }
+                        result.release();
+                        Thread.sleep(thinkMillis);
+                    }
+                } catch (Exception e) {
+                    // the session ends; the others carry on
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(durationNanos + warmupNanos + TimeUnit.MILLISECONDS.toNanos(Constants.RETRY_TIMEOUT_MS),
+                TimeUnit.NANOSECONDS);
+    }
+
+    private BankClientManager.Result issue(UserSession session, int op) throws Exception {
+        switch (OP_CODES[op]) {
+            case Constants.OP_DEPOSIT:
+                return session.deposit("USD", 1f);
+            case Constants.OP_WITHDRAW:
+                return session.withdraw("USD", 1f);
+            case Constants.OP_TRANSFER:
+                UserSession receiver = accounts.get(ThreadLocalRandom.current().nextInt(accounts.size()));
+                return session.transfer(receiver.getAccountId(), "USD", 1f);
+            case Constants.OP_EXCHANGE:
+                return session.exchange("USD", "SGD", 1f);
+            default:
+                return session.checkBalance("USD");
+        }
+    }
+
+    private int pickOp() {
+        int roll = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (roll < cumulativeWeights[i]) {
+                return i;
+            }
+        }
+        return cumulativeWeights.length - 1;
+    }
+
+    private CompletableFuture<BankClientManager.Result> issue(int op) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        UserSession session = accounts.get(random.nextInt(accounts.size()));
+        switch (OP_CODES[op]) {
+            case Constants.OP_DEPOSIT:
+                return manager.depositAsync(session, session.getAccountId(), "USD", 1f);
+            case Constants.OP_WITHDRAW:
+                return manager.withdrawAsync(session, session.getAccountId(), "USD", 1f);
+            case Constants.OP_TRANSFER:
+                UserSession receiver = accounts.get(random.nextInt(accounts.size()));
+                return manager.transferAsync(session, receiver.getAccountId(), "USD", 1f);
+            case Constants.OP_EXCHANGE:
+                return manager.exchangeAsync(session, "USD", "SGD", 1f);
+            default:
+                return manager.checkBalanceAsync(session, "USD");
+        }
+    }
+
+    void printReport(long durationNanos) {
+        double seconds = durationNanos / 1e9;
+        System.out.println();
+        System.out.printf("%-9s %9s %9s %7s %8s %8s %9s %9s %9s %9s %10s%n",
+                "op", "count", "ok", "fail", "timeout", "retries", "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)", "ops/s");
+        LatencyHistogram all = new LatencyHistogram();
+        OpStats total = new OpStats();
+        for (int i = 0; i < OP_NAMES.length; i++) {
+            OpStats s = stats[i];
+            if (s.latency.getCount() == 0) {
+                continue;
+            }
+            printRow(OP_NAMES[i], s, s.latency, seconds);
+            all.add(s.latency);
+            total.add(s);
+        }
+        printRow("total", total, all, seconds);
+        ClientMetrics metrics = manager.getMetrics();
+        if (metrics.getHedgeCount() + metrics.getHedgeDeniedCount() > 0) {
+            System.out.println("Hedges: " + metrics.getHedgeCount() + " sent, " + metrics.getHedgeWinCount() + " won, "
+                    + metrics.getHedgeDeniedCount() + " over budget");
+        }
+        if (metrics.getCongestionWaitCount() + metrics.getCongestionRejectCount() > 0) {
+            System.out.println("Congestion window: " + metrics.getCongestionWaitCount() + " requests waited, "
+                    + metrics.getCongestionRejectCount() + " rejected");
+        }
+        System.out.println("Request frames: " + BufferPool.requests());
+        System.out.println("Receive buffers: " + manager.getReceiveBufferPool());
+        if (skipped.sum() > 0) {
+            System.out.println("Skipped " + skipped.sum() + " scheduled requests: more than " + MAX_OUTSTANDING + " outstanding.");
+        }
+    }
+
+    void printReplicas() {
+        System.out.println();
+        System.out.printf("%-22s %10s %8s %12s %9s %9s %7s %9s%n", "replica", "requests", "healthy", "rtt-ewma(ms)",
+                "ejections", "in-flight", "window", "decreases");
+        for (Replica replica : manager.getReplicaSet().getReplicas()) {
+            CongestionWindow window = replica.getCongestionWindow();
+            System.out.printf("%-22s %10d %8s %12.3f %9d %9d %7d %9d%n", replica + (replica.isPrimary() ? "*" : ""),
+                    replica.getRequestCount(), replica.isHealthy(), replica.getRttMillis(), replica.getEjections(),
+                    replica.getOutstanding(), window.getWindow(), window.getDecreases());
+        }
+    }
+
+    private static void printRow(String name, OpStats s, LatencyHistogram h, double seconds) {
+        System.out.printf("%-9s %9d %9d %7d %8d %8d %9.3f %9.3f %9.3f %9.3f %10.1f%n",
+                name, h.getCount(), s.ok.sum(), s.failed.sum(), s.timeouts.sum(), s.retries.sum(),
+                h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6,
+                h.getValueAtPercentile(99.9) / 1e6, h.getMax() / 1e6, h.getCount() / seconds);
+    }
+
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> opts = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String key = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                opts.put(key, args[++i]);
+            } else {
+                opts.put(key, "true");
+            }
+        }
+        return opts;
+    }
+
+    private static int[] parseMix(String spec) {
+        int[] weights = new int[OP_NAMES.length];
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=", 2);
+            int index = -1;
+            for (int i = 0; i < OP_NAMES.length; i++) {
+                if (OP_NAMES[i].equalsIgnoreCase(kv[0].trim())) {
+                    index = i;
+                }
+            }
+            if (index < 0 || kv.length < 2) {
+                throw new IllegalArgumentException("Bad mix entry: " + part);
+            }
+            weights[index] = Integer.parseInt(kv[1].trim());
+        }
+        return weights;
+    }
+
+    private static class OpStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+
+        private void record(BankClientManager.Result result, long latencyNanos) {
+            latency.record(latencyNanos);
+            if (result.isTimeout()) {
+                timeouts.increment();
+            } else if (result.isSuccess()) {
+                ok.increment();
+            } else {
+                failed.increment();
+            }
+            retries.add(Math.max(0, result.getAttempts() - 1));
+        }
+
+        private void add(OpStats other) {
+            ok.add(other.ok.sum());
+            failed.add(other.failed.sum());
+            timeouts.add(other.timeouts.sum());
+            retries.add(other.retries.sum());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package client;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point-in-time statistics for one opcode. Latencies are in milliseconds,
+ * measured from the first transmission to the reply.
+ */
+public class OperationStats {
+    private final String operation;
+    private final long requests;
+    private final long ok;
+    private final long failed;
+    private final long errors;
+    private final long timeouts;
+    private final long retransmissions;
+    private final double meanLatencyMillis;
+    private final double p50LatencyMillis;
+    private final double p99LatencyMillis;
+    private final double p999LatencyMillis;
+    private final double maxLatencyMillis;
+    private final double meanAttempts;
+    private final long maxAttempts;
+
+    @ConstructorProperties({"operation", "requests", "ok", "failed", "errors", "timeouts", "retransmissions",
+            "meanLatencyMillis", "p50LatencyMillis", "p99LatencyMillis", "p999LatencyMillis", "maxLatencyMillis",
+            "meanAttempts", "maxAttempts"})
+    public OperationStats(String operation, long requests, long ok, long failed, long errors, long timeouts,
+                          long retransmissions, double meanLatencyMillis, double p50LatencyMillis,
+                          double p99LatencyMillis, double p999LatencyMillis, double maxLatencyMillis,
+                          double meanAttempts, long maxAttempts) {
+        this.operation = operation;
+        this.requests = requests;
+        this.ok = ok;
+        this.failed = failed;
+        this.errors = errors;
+        this.timeouts = timeouts;
+        this.retransmissions = retransmissions;
+        this.meanLatencyMillis = meanLatencyMillis;
+        this.p50LatencyMillis = p50LatencyMillis;
+        this.p99LatencyMillis = p99LatencyMillis;
+        this.p999LatencyMillis = p999LatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.meanAttempts = meanAttempts;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getOk() {
+        return ok;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getRetransmissions() {
+        return retransmissions;
+    }
+
+    public double getMeanLatencyMillis() {
+        return meanLatencyMillis;
+    }
+
+    public double getP50LatencyMillis() {
+        return p50LatencyMillis;
+    }
+
+    public double getP99LatencyMillis() {
+        return p99LatencyMillis;
+    }
+
+    public double getP999LatencyMillis() {
+        return p999LatencyMillis;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    public double getMeanAttempts() {
+        return meanAttempts;
+    }
+
+    public long getMaxAttempts() {
+        return maxAttempts;
+    }
+}
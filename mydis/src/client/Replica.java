@@ -0,0 +1,169 @@
+package client;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * One server of a ReplicaSet with the load and health state the client observes:
+ * an EWMA of the round-trip time, the number of requests outstanding, and
+ * consecutive timeouts. After EJECT_AFTER_FAILURES timeouts in a row the replica
+ * is ejected; once its cooldown expires a single probe request is let through,
+ * and its reply restores the replica while another timeout doubles the cooldown.
+ * Its CongestionWindow limits how many requests the client keeps outstanding there.
+ */
+public class Replica {
+    static final int EJECT_AFTER_FAILURES = 3;
+    static final long MIN_EJECTION_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final long MAX_EJECTION_NANOS = TimeUnit.SECONDS.toNanos(30);
+    // A sample's weight in the score halves every DECAY_NANOS, so a replica
+    // that was slow once is eventually tried again
+    static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final InetSocketAddress address;
+    private final boolean primary;
+    private final LongSupplier clock;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final CongestionWindow window = new CongestionWindow();
+
+    private volatile long ewmaRttNanos;
+    private volatile long lastSampleNanos;
+    // 0 while healthy, otherwise when the ejection cooldown ends
+    private volatile long ejectedUntilNanos;
+    private int consecutiveFailures;
+    private long ejectionNanos = MIN_EJECTION_NANOS;
+    private boolean probing;
+    private int ejections;
+
+    Replica(InetSocketAddress address, boolean primary, LongSupplier clock) {
+        this.address = address;
+        this.primary = primary;
+        this.clock = clock;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * The replica that takes writes and logins; reads may go to any replica.
+     */
+    public boolean isPrimary() {
+        return primary;
+    }
+
+    public boolean isHealthy() {
+        return ejectedUntilNanos == 0;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public CongestionWindow getCongestionWindow() {
+        return window;
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public double getRttMillis() {
+        return ewmaRttNanos / 1e6;
+    }
+
+    public synchronized int getEjections() {
+        return ejections;
+    }
+
+    /**
+     * Expected cost of sending one more request here: the decayed RTT estimate
+     * times the queue the request would join. Unmeasured replicas score lowest.
+     */
+    long score(long now) {
+        long rtt = ewmaRttNanos;
+        long age = now - lastSampleNanos;
+        if (rtt > 0 && age > DECAY_NANOS) {
+            rtt >>= Math.min(62, age / DECAY_NANOS);
+        }
+        return (rtt + 1) * (outstanding.get() + 1);
+    }
+
+    /**
+     * True if the replica was ejected and its cooldown has expired; claims the
+     * single probe slot for the caller's request.
+     */
+    boolean claimProbe(long now) {
+        long until = ejectedUntilNanos;
+        if (until == 0 || now - until < 0) {
+            return false;
+        }
+        synchronized (this) {
+            if (probing || ejectedUntilNanos == 0) {
+                return false;
+            }
+            probing = true;
+            return true;
+        }
+    }
+
+    long ejectedUntilNanos() {
+        return ejectedUntilNanos;
+    }
+
+    void onSend() {
+        requests.increment();
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * A reply arrived. rttNanos is negative when the request was retransmitted
+     * and the sample is ambiguous.
+     */
+    void onReply(long rttNanos) {
+        outstanding.decrementAndGet();
+        if (rttNanos > 0) {
+            long ewma = ewmaRttNanos;
+            ewmaRttNanos = ewma == 0 ? rttNanos : ewma - (ewma >> 2) + (rttNanos >> 2);
+            lastSampleNanos = clock.getAsLong();
+        }
+        synchronized (this) {
+            consecutiveFailures = 0;
+            if (ejectedUntilNanos != 0) {
+                ejectedUntilNanos = 0;
+                ejectionNanos = MIN_EJECTION_NANOS;
+                probing = false;
+            }
+        }
+    }
+
+    /**
+     * A wait for a reply expired.
+     */
+    synchronized void onTimeout() {
+        long now = clock.getAsLong();
+        if (probing) {
+            probing = false;
+            ejectionNanos = Math.min(MAX_EJECTION_NANOS, ejectionNanos * 2);
+            ejectedUntilNanos = now + ejectionNanos;
+        } else if (++consecutiveFailures >= EJECT_AFTER_FAILURES && ejectedUntilNanos == 0) {
+            ejections++;
+            ejectedUntilNanos = now + ejectionNanos;
+        }
+    }
+
+    /**
+     * The request gave up or failed to send; it no longer counts as outstanding.
+     */
+    void onAbandoned() {
+        outstanding.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return address.getHostString() + ":" + address.getPort();
+    }
+}
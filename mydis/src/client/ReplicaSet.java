@@ -0,0 +1,166 @@
+package client;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * The servers a BankClientManager spreads requests over. The first one listed is
+ * the primary: it takes updates, logins and monitor registrations, since account
+ * state and session tokens live on the server that created them. Read-only
+ * requests go to any replica, chosen by power of two choices: sample two healthy
+ * replicas at random and take the one with the lower RTT x outstanding score.
+ */
+public class ReplicaSet {
+    private final Replica[] replicas;
+    // null draws from ThreadLocalRandom
+    private final Random random;
+    private final LongSupplier clock;
+
+    public ReplicaSet(List<InetSocketAddress> servers) {
+        this(servers, null, System::nanoTime);
+    }
+
+    /**
+     * Samples with random and reads the time, for this set and its replicas, from
+     * clock instead of System.nanoTime(), so that tests can replay a selection.
+     */
+    ReplicaSet(List<InetSocketAddress> servers, Random random, LongSupplier clock) {
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("At least one server is required");
+        }
+        this.random = random;
+        this.clock = clock;
+        this.replicas = new Replica[servers.size()];
+        for (int i = 0; i < replicas.length; i++) {
+            replicas[i] = new Replica(servers.get(i), i == 0, clock);
+        }
+    }
+
+    /**
+     * Parses "host:port,host:port,..."; entries without a port use defaultPort.
+     */
+    public static ReplicaSet parse(String spec, int defaultPort) throws UnknownHostException {
+        List<InetSocketAddress> servers = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            String host = colon < 0 ? entry : entry.substring(0, colon);
+            int port = colon < 0 ? defaultPort : Integer.parseInt(entry.substring(colon + 1));
+            servers.add(new InetSocketAddress(InetAddress.getByName(host), port));
+        }
+        return new ReplicaSet(servers);
+    }
+
+    public Replica primary() {
+        return replicas[0];
+    }
+
+    public List<Replica> getReplicas() {
+        return Collections.unmodifiableList(Arrays.asList(replicas));
+    }
+
+    public int size() {
+        return replicas.length;
+    }
+
+    /**
+     * The replica at address, or null if it is not one of this set.
+     */
+    public Replica find(InetSocketAddress address) {
+        for (Replica replica : replicas) {
+            if (replica.getAddress().equals(address)) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks the replica for a read-only request. An ejected replica whose cooldown
+     * has expired takes precedence so that it is re-probed even under light load.
+     * If every replica is ejected, the one due back soonest is used.
+     */
+    public Replica select() {
+        if (replicas.length == 1) {
+            return replicas[0];
+        }
+        long now = clock.getAsLong();
+        for (Replica replica : replicas) {
+            if (replica.claimProbe(now)) {
+                return replica;
+            }
+        }
+
+        Random random = this.random != null ? this.random : ThreadLocalRandom.current();
+        int i = random.nextInt(replicas.length);
+        int j = random.nextInt(replicas.length - 1);
+        if (j >= i) {
+            j++;
+        }
+        Replica a = replicas[i];
+        Replica b = replicas[j];
+        if (a.isHealthy() && b.isHealthy()) {
+            return a.score(now) <= b.score(now) ? a : b;
+        }
+        if (a.isHealthy()) {
+            return a;
+        }
+        if (b.isHealthy()) {
+            return b;
+        }
+
+        Replica soonest = null;
+        for (Replica replica : replicas) {
+            if (replica.isHealthy()) {
+                return replica;
+            }
+            if (soonest == null || replica.ejectedUntilNanos() - soonest.ejectedUntilNanos() < 0) {
+                soonest = replica;
+            }
+        }
+        return soonest;
+    }
+
+    /**
+     * The healthy replica other than exclude with the lowest score, or exclude itself
+     * if there is none; used to send a hedge somewhere the original did not go.
+     */
+    Replica selectOther(Replica exclude) {
+        long now = clock.getAsLong();
+        Replica best = exclude;
+        long bestScore = Long.MAX_VALUE;
+        for (Replica replica : replicas) {
+            if (replica != exclude && replica.isHealthy()) {
+                long score = replica.score(now);
+                if (score < bestScore) {
+                    best = replica;
+                    bestScore = score;
+                }
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Replica replica : replicas) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(replica);
+        }
+        return sb.toString();
+    }
+}
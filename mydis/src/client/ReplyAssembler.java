@@ -0,0 +1,118 @@
+package client;
+
+import common.Constants;
+import common.Fragments;
+import common.Frame;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+
+/**
+ * Collects the fragments of one reply (see Constants.STATUS_FLAG_FRAGMENT) into a
+ * frame laid out like an unfragmented reply, header included. Fragments may arrive
+ * in any order and more than once; ones that disagree with the first, or come from
+ * another server (a hedge answered too), are ignored.
+ */
+public class ReplyAssembler {
+    private final InetSocketAddress source;
+    private final int statusWord;
+    private final int count;
+    private final int bodyLength;
+    private final ByteBuffer frame;
+    private final BitSet received;
+    private int missing;
+
+    private ReplyAssembler(InetSocketAddress source, int reqID, int statusWord, int count, int bodyLength) {
+        this.source = source;
+        this.statusWord = statusWord;
+        this.count = count;
+        this.bodyLength = bodyLength;
+        this.frame = ByteBuffer.allocate(Frame.HEADER_SIZE + bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+        this.received = new BitSet(count);
+        this.missing = count;
+        frame.putInt(0, reqID);
+        frame.putInt(4, statusWord);
+    }
+
+    /**
+     * An assembler for the reply a first fragment header announces, or null if the
+     * header is not one a server could have sent.
+     */
+    static ReplyAssembler create(InetSocketAddress source, int reqID, int statusWord, int count, int bodyLength) {
+        if (bodyLength > Constants.MAX_REPLY_SIZE + Frame.NONCE_SIZE || count < 2 || count != Fragments.count(bodyLength)) {
+            return null;
+        }
+        return new ReplyAssembler(source, reqID, statusWord, count, bodyLength);
+    }
+
+    /**
+     * Copies in the fragment whose bytes lie between data's position and limit.
+     * Returns true once every fragment has arrived.
+     */
+    synchronized boolean add(InetSocketAddress source, int statusWord, int index, int count, int bodyLength,
+                             ByteBuffer data) {
+        if (!source.equals(this.source) || statusWord != this.statusWord || count != this.count
+                || bodyLength != this.bodyLength || index < 0 || index >= count || received.get(index)) {
+            return missing == 0;
+        }
+        int offset = Fragments.offset(index);
+        if (data.remaining() != Math.min(Fragments.MAX_FRAGMENT_DATA, bodyLength - offset)) {
+            return missing == 0;
+        }
+        frame.put(Frame.HEADER_SIZE + offset, data, data.position(), data.remaining());
+        received.set(index);
+        missing--;
+        return missing == 0;
+    }
+
+    /**
+     * True if the last fragment has arrived while earlier ones are still missing, which
+     * on a path that rarely reorders means they were lost.
+     */
+    synchronized boolean hasGap() {
+        return missing > 0 && received.get(count - 1);
+    }
+
+    /**
+     * Writes the OP_RESEND_FRAGMENTS payload for the fragments still missing.
+     */
+    synchronized void packMissing(ByteBuffer buf) {
+        int countPos = buf.position();
+        buf.putInt(0);
+        int n = 0;
+        for (int i = received.nextClearBit(0); i < count && buf.remaining() >= 2; i = received.nextClearBit(i + 1)) {
+            buf.putShort((short) i);
+            n++;
+        }
+        buf.putInt(countPos, n);
+    }
+
+    /**
+     * The reassembled reply positioned after its header, as dispatchReply sees a datagram.
+     */
+    ByteBuffer frame() {
+        ByteBuffer reply = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        reply.position(Frame.HEADER_SIZE);
+        return reply;
+    }
+
+    /**
+     * The server sending the fragments, which holds the whole reply.
+     */
+    InetSocketAddress getSource() {
+        return source;
+    }
+
+    int getStatusWord() {
+        return statusWord;
+    }
+
+    /**
+     * Bytes this assembler holds, counted against the client's reassembly budget.
+     */
+    int size() {
+        return frame.capacity();
+    }
+}
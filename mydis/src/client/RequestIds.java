@@ -0,0 +1,46 @@
+package client;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Request ids of one client: a random nonce fixed for the client's lifetime, sent
+ * after every request payload (Constants.OP_FLAG_REQUEST_ID), and a sequence number
+ * per request, sent as the reqID. Together they form the 64-bit request id the server
+ * deduplicates on, so requests of different clients, or of one client before and
+ * after a restart on the same port, never share an id.
+ */
+public class RequestIds {
+    private final int nonce;
+    private final int first;
+    private final AtomicInteger next;
+
+    public RequestIds() {
+        SecureRandom random = new SecureRandom();
+        int n;
+        do {
+            n = random.nextInt();
+        } while (n == 0); // 0 stands for requests without a nonce
+        this.nonce = n;
+        this.first = random.nextInt() >>> 1;
+        this.next = new AtomicInteger(first);
+    }
+
+    public int getNonce() {
+        return nonce;
+    }
+
+    /**
+     * The reqID for the next request.
+     */
+    public int next() {
+        return next.getAndIncrement();
+    }
+
+    /**
+     * True if reqID was handed out by next().
+     */
+    public boolean wasIssued(int reqID) {
+        return reqID - first >= 0 && next.get() - reqID > 0;
+    }
+}
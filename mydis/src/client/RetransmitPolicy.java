@@ -0,0 +1,37 @@
+package client;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Decides how long to wait for a reply before retransmitting a request.
+ * Chosen per manager with setRetransmitPolicy, next to the at-least-once /
+ * at-most-once switch in setInvocationSemantics.
+ */
+public interface RetransmitPolicy {
+
+    /**
+     * Milliseconds to wait for a reply after transmission number attempt (1 = first send).
+     */
+    long timeoutMillis(InetSocketAddress server, int attempt);
+
+    /**
+     * Reports the round-trip time of a request that was answered on its first
+     * transmission. Retransmitted requests are never sampled, since the reply
+     * cannot be matched to a particular send (Karn's algorithm).
+     */
+    void onRttSample(InetSocketAddress server, long rttNanos);
+
+    /**
+     * The legacy behaviour: resend at a fixed interval.
+     */
+    static RetransmitPolicy fixed(long intervalMillis) {
+        return new FixedRetransmitPolicy(intervalMillis);
+    }
+
+    /**
+     * Per-server smoothed RTT estimation with jittered exponential backoff.
+     */
+    static RetransmitPolicy adaptive() {
+        return new AdaptiveRetransmitPolicy();
+    }
+}
@@ -0,0 +1,56 @@
+package client;
+
+/**
+ * Smoothed round-trip time and variance for one server, using the
+ * estimator from RFC 6298: SRTT and RTTVAR with gains 1/8 and 1/4,
+ * RTO = SRTT + 4 * RTTVAR clamped to [minRto, maxRto].
+ */
+public class RttEstimator {
+    private final long minRtoNanos;
+    private final long maxRtoNanos;
+    private final long initialRtoNanos;
+
+    private long srttNanos;
+    private long rttvarNanos;
+    private long rtoNanos;
+    private boolean hasSample;
+
+    public RttEstimator(long minRtoNanos, long maxRtoNanos, long initialRtoNanos) {
+        this.minRtoNanos = minRtoNanos;
+        this.maxRtoNanos = maxRtoNanos;
+        this.initialRtoNanos = initialRtoNanos;
+        this.rtoNanos = initialRtoNanos;
+    }
+
+    public synchronized void onSample(long rttNanos) {
+        if (rttNanos <= 0) {
+            return;
+        }
+        if (!hasSample) {
+            srttNanos = rttNanos;
+            rttvarNanos = rttNanos / 2;
+            hasSample = true;
+        } else {
+            long delta = Math.abs(srttNanos - rttNanos);
+            rttvarNanos = rttvarNanos - (rttvarNanos >> 2) + (delta >> 2);
+            srttNanos = srttNanos - (srttNanos >> 3) + (rttNanos >> 3);
+        }
+        rtoNanos = clamp(srttNanos + 4 * rttvarNanos);
+    }
+
+    public synchronized long rtoNanos() {
+        return hasSample ? rtoNanos : initialRtoNanos;
+    }
+
+    public synchronized long srttNanos() {
+        return srttNanos;
+    }
+
+    public synchronized long rttvarNanos() {
+        return rttvarNanos;
+    }
+
+    private long clamp(long value) {
+        return Math.max(minRtoNanos, Math.min(maxRtoNanos, value));
+    }
+}
@@ -0,0 +1,297 @@
+package client;
+
+import client.BankClientManager.Result;
+import common.Constants;
+import common.CurrencyType;
+import common.LatencyHistogram;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Runs bank operations read from a script, one per line, keeping up to window
+ * requests outstanding at a time. Fields are separated by commas or whitespace;
+ * blank lines and lines starting with # are skipped:
+ *
+ *   open     name password currency balance
+ *   close    id name password
+ *   balance  id name password currency
+ *   deposit  id name password currency amount
+ *   withdraw id name password currency amount
+ *   transfer id name password currency amount receiverId
+ *   exchange id name password fromCurrency toCurrency amount
+ *
+ * An id written as @name refers to the account the script opened under that name;
+ * the operation waits for the open to complete. Results are printed as they arrive,
+ * tagged with their line number, followed by a per-operation summary. Printing and
+ * statistics happen on the thread calling run(); the client's receiver thread only
+ * queues each completion for it.
+ */
+public class ScriptRunner {
+    private static final String[] OPS = {"open", "close", "balance", "deposit", "withdraw", "transfer", "exchange"};
+    private static final int[] FIELD_COUNTS = {5, 4, 5, 6, 6, 7, 7};
+
+    private final BankClientManager manager;
+    private final int window;
+    private final PrintStream out;
+    private final boolean quiet;
+    // Accounts opened by the script, by name; only touched on the reading thread
+    private final Map<String, CompletableFuture<Integer>> opened = new HashMap<>();
+    private final Map<String, OpStats> stats = new LinkedHashMap<>();
+    private final OpStats parseErrors = new OpStats();
+    // Operations completed on the receiver thread and not yet reported by the reading thread
+    private final BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+    // Operations issued and not yet reported; only touched on the reading thread
+    private int inFlight;
+    private long startNanos;
+    private long endNanos;
+
+    public ScriptRunner(BankClientManager manager, int window, PrintStream out, boolean quiet) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be at least 1");
+        }
+        this.manager = manager;
+        this.window = window;
+        this.out = out;
+        this.quiet = quiet;
+        for (String op : OPS) {
+            stats.put(op, new OpStats());
+        }
+    }
+
+    /**
+     * Issues every operation in the script and returns once all have completed.
+     */
+    public void run(BufferedReader in) throws IOException, InterruptedException {
+        startNanos = System.nanoTime();
+        String line;
+        int lineNo = 0;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("[,\\s]+");
+            String op = fields[0].toLowerCase(Locale.ROOT);
+            OpStats opStats = stats.get(op);
+
+            while (inFlight >= window) {
+                report(completions.take());
+            }
+            long issuedAt = System.nanoTime();
+            CompletableFuture<Result> reply;
+            try {
+                if (opStats == null) {
+                    throw new IllegalArgumentException("unknown operation " + fields[0]);
+                }
+                reply = issue(op, fields);
+            } catch (RuntimeException e) {
+                parseErrors.failed.increment();
+                out.println(lineNo + ": ERROR " + e.getMessage());
+                continue;
+            }
+            inFlight++;
+            int n = lineNo;
+            reply.whenComplete((result, error) ->
+                    completions.add(new Completion(n, op, opStats, result, error, System.nanoTime() - issuedAt)));
+            Completion done;
+            while ((done = completions.poll()) != null) {
+                report(done);
+            }
+        }
+        while (inFlight > 0) {
+            report(completions.take());
+        }
+        endNanos = System.nanoTime();
+    }
+
+    private void report(Completion done) {
+        inFlight--;
+        Result result = done.result;
+        if (done.error != null) {
+            result = new Result(Constants.STATUS_ERROR, String.valueOf(done.error.getMessage()), new byte[0]);
+        }
+        done.stats.record(result, done.latencyNanos);
+        if (!quiet) {
+            out.printf("%d: %s %s %.3f ms %s%n", done.lineNo, done.op, outcome(result), done.latencyNanos / 1e6, result.getMessage());
+        }
+        result.release();
+    }
+
+    private CompletableFuture<Result> issue(String op, String[] f) {
+        int index = indexOf(op);
+        if (f.length != FIELD_COUNTS[index]) {
+            throw new IllegalArgumentException(op + " takes " + (FIELD_COUNTS[index] - 1) + " fields, got " + (f.length - 1));
+        }
+        if (op.equals("open")) {
+            float balance = Float.parseFloat(f[4]);
+            CompletableFuture<Integer> id = new CompletableFuture<>();
+            opened.put(f[1], id);
+            // read the id before the caller's handler sees, and releases, the result
+            return manager.sendOpenAccount(f[1], f[2], currency(f[3]), balance).whenComplete((result, error) ->
+                    id.complete(result != null && result.isSuccess() ? result.getAccountId() : -1));
+        }
+
+        CompletableFuture<Integer> account = accountId(f[1]);
+        String name = f[2];
+        String password = f[3];
+        switch (op) {
+            case "close":
+                return withAccount(account, f[1], id -> manager.closeAccountAsync(new UserSession(id, name, password)));
+            case "balance": {
+                String currency = currency(f[4]);
+                return withAccount(account, f[1], id -> manager.checkBalanceAsync(new UserSession(id, name, password), currency));
+            }
+            case "deposit":
+            case "withdraw": {
+                String currency = currency(f[4]);
+                float amount = Float.parseFloat(f[5]);
+                boolean deposit = op.equals("deposit");
+                return withAccount(account, f[1], id -> {
+                    UserSession session = new UserSession(id, name, password);
+                    return deposit ? manager.depositAsync(session, id, currency, amount)
+                            : manager.withdrawAsync(session, id, currency, amount);
+                });
+            }
+            case "transfer": {
+                String currency = currency(f[4]);
+                float amount = Float.parseFloat(f[5]);
+                CompletableFuture<Integer> receiver = accountId(f[6]);
+                return withAccount(account, f[1], id -> withAccount(receiver, f[6], receiverId ->
+                        manager.transferAsync(new UserSession(id, name, password), receiverId, currency, amount)));
+            }
+            default: {
+                String from = currency(f[4]);
+                String to = currency(f[5]);
+                float amount = Float.parseFloat(f[6]);
+                return withAccount(account, f[1], id -> manager.exchangeAsync(new UserSession(id, name, password), from, to, amount));
+            }
+        }
+    }
+
+    private CompletableFuture<Integer> accountId(String field) {
+        if (!field.startsWith("@")) {
+            return CompletableFuture.completedFuture(Integer.parseInt(field));
+        }
+        CompletableFuture<Integer> id = opened.get(field.substring(1));
+        if (id == null) {
+            throw new IllegalArgumentException(field + " was not opened earlier in the script");
+        }
+        return id;
+    }
+
+    private static CompletableFuture<Result> withAccount(CompletableFuture<Integer> account, String field,
+                                                         Function<Integer, CompletableFuture<Result>> op) {
+        return account.thenCompose(id -> id < 0
+                ? CompletableFuture.completedFuture(new Result(Constants.STATUS_ERROR, "Account " + field + " was not opened", new byte[0]))
+                : op.apply(id));
+    }
+
+    private static String currency(String field) {
+        String currency = field.toUpperCase(Locale.ROOT);
+        try {
+            CurrencyType.valueOf(currency);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown currency " + field);
+        }
+        return currency;
+    }
+
+    private static int indexOf(String op) {
+        for (int i = 0; i < OPS.length; i++) {
+            if (OPS[i].equals(op)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown operation " + op);
+    }
+
+    private static String outcome(Result result) {
+        if (result.isTimeout()) {
+            return "TIMEOUT";
+        }
+        return result.isSuccess() ? "OK" : "FAIL";
+    }
+
+    public void printSummary() {
+        double seconds = Math.max(1, endNanos - startNanos) / 1e9;
+        out.println();
+        out.printf("%-9s %9s %9s %7s %8s %9s %9s %9s %10s%n",
+                "op", "count", "ok", "fail", "timeout", "p50(ms)", "p99(ms)", "max(ms)", "ops/s");
+        OpStats total = new OpStats();
+        for (Map.Entry<String, OpStats> entry : stats.entrySet()) {
+            OpStats s = entry.getValue();
+            if (s.latency.getCount() > 0) {
+                printRow(entry.getKey(), s, seconds);
+                total.add(s);
+            }
+        }
+        printRow("total", total, seconds);
+        if (parseErrors.failed.sum() > 0) {
+            out.println("Skipped " + parseErrors.failed.sum() + " lines that could not be parsed.");
+        }
+        out.printf("Elapsed %.3f s with up to %d requests in flight.%n", seconds, window);
+    }
+
+    private void printRow(String name, OpStats s, double seconds) {
+        LatencyHistogram h = s.latency;
+        out.printf("%-9s %9d %9d %7d %8d %9.3f %9.3f %9.3f %10.1f%n",
+                name, h.getCount(), s.ok.sum(), s.failed.sum(), s.timeouts.sum(),
+                h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6, h.getMax() / 1e6,
+                h.getCount() / seconds);
+    }
+
+    private static final class Completion {
+        private final int lineNo;
+        private final String op;
+        private final OpStats stats;
+        private final Result result;
+        private final Throwable error;
+        private final long latencyNanos;
+
+        private Completion(int lineNo, String op, OpStats stats, Result result, Throwable error, long latencyNanos) {
+            this.lineNo = lineNo;
+            this.op = op;
+            this.stats = stats;
+            this.result = result;
+            this.error = error;
+            this.latencyNanos = latencyNanos;
+        }
+    }
+
+    private static final class OpStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder ok = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+
+        private void record(Result result, long latencyNanos) {
+            latency.record(latencyNanos);
+            if (result.isTimeout()) {
+                timeouts.increment();
+            } else if (result.isSuccess()) {
+                ok.increment();
+            } else {
+                failed.increment();
+            }
+        }
+
+        private void add(OpStats other) {
+            latency.add(other.latency);
+            ok.add(other.ok.sum());
+            failed.add(other.failed.sum());
+            timeouts.add(other.timeouts.sum());
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package client;
+
+import common.Constants;
+import common.DatagramTransport;
+import common.FlightRecorder;
+import common.Frame;
+import common.LatencyHistogram;
+import common.Marshaller;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the requests captured by a FlightRecorder against a server, keeping
+ * the original inter-arrival times (optionally scaled), and reports replies,
+ * latency and how many replies differ in status from the recorded ones.
+ *
+ * Requests from different clients in a server-side trace are renumbered so
+ * their reqIDs cannot collide on the single replay socket; retransmissions of
+ * one original request keep sharing one reqID, so at-most-once filtering
+ * behaves as it did in the recording.
+ *
+ * Usage:
+ *   java client.TrafficReplay --file trace.rec [--server host:port] [--speed 1.0]
+ *       [--requests sent|received] [--drain 2000]
+ *   java client.TrafficReplay --file trace.rec --dump
+ *
+ * --speed 2 replays twice as fast, 0 as fast as possible. --requests picks the
+ * captured direction that holds the requests: "sent" for a client recording
+ * (the default), "received" for a server recording.
+ */
+public class TrafficReplay {
+    private final List<FlightRecorder.Record> requests = new ArrayList<>();
+    private final List<Integer> replayIds = new ArrayList<>();
+    private final Map<Integer, Integer> recordedStatus = new HashMap<>();
+
+    private final Map<Integer, Long> sentAt = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder replies = new LongAdder();
+    private final LongAdder diverged = new LongAdder();
+    private final LongAdder[] statusCounts = new LongAdder[Constants.STATUS_CALLBACK + 1];
+
+    TrafficReplay(List<FlightRecorder.Record> records, boolean requestsSent) {
+        for (int i = 0; i < statusCounts.length; i++) {
+            statusCounts[i] = new LongAdder();
+        }
+        // one replay reqID per (peer, original reqID), so retransmissions stay duplicates
+        Map<String, Integer> renumbered = new HashMap<>();
+        int nextId = 1;
+        for (FlightRecorder.Record record : records) {
+            if (!record.isComplete() || record.getFrameLength() < Frame.HEADER_SIZE) {
+                continue;
+            }
+            String key = record.getPeer() + "#" + record.getReqID();
+            if (record.isSent() == requestsSent) {
+                Integer id = renumbered.get(key);
+                if (id == null) {
+                    id = nextId++;
+                    renumbered.put(key, id);
+                }
+                requests.add(record);
+                replayIds.add(id);
+            } else {
+                Integer id = renumbered.get(key);
+                if (id != null && record.getCode() != Constants.STATUS_CALLBACK) {
+                    recordedStatus.put(id, record.getCode() & ~Constants.STATUS_FLAG_REQUEST_ID);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = LoadGenerator.parseArgs(args);
+        String file = opts.get("file");
+        if (file == null) {
+            System.out.println("Usage: java client.TrafficReplay --file trace.rec [--server host:port] [--speed 1.0]"
+                    + " [--requests sent|received] [--drain 2000] | --dump");
+            return;
+        }
+        List<FlightRecorder.Record> records = FlightRecorder.read(Paths.get(file));
+        if (opts.containsKey("dump")) {
+            dump(records);
+            return;
+        }
+
+        String host = "127.0.0.1";
+        int port = Constants.SERVER_PORT;
+        if (opts.containsKey("server")) {
+            String[] parts = opts.get("server").split(":", 2);
+            host = parts[0];
+            if (parts.length > 1) {
+                port = Integer.parseInt(parts[1]);
+            }
+        }
+        double speed = Double.parseDouble(opts.getOrDefault("speed", "1"));
+        boolean requestsSent = !"received".equalsIgnoreCase(opts.getOrDefault("requests", "sent"));
+        long drainMillis = Long.parseLong(opts.getOrDefault("drain", "2000"));
+
+        TrafficReplay replay = new TrafficReplay(records, requestsSent);
+        System.out.println("Replaying " + replay.requests.size() + " of " + records.size() + " captured frames to "
+                + host + ":" + port + (speed > 0 ? " at " + speed + "x" : " as fast as possible"));
+        long elapsed = replay.run(new InetSocketAddress(host, port), speed, drainMillis);
+        replay.printReport(elapsed);
+    }
+
+    /**
+     * Sends every request on its scaled schedule, then waits drainMillis for stragglers.
+     * Returns the time spent sending, in nanoseconds.
+     */
+    long run(InetSocketAddress server, double speed, long drainMillis) throws IOException, InterruptedException {
+        try (DatagramTransport transport = DatagramTransport.open()) {
+            Thread receiver = new Thread(() -> receiveLoop(transport), "traffic-replay-receiver");
+            receiver.setDaemon(true);
+            receiver.start();
+
+            ByteBuffer frame = ByteBuffer.allocateDirect(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long origin = requests.isEmpty() ? 0 : requests.get(0).getEpochNanos();
+            long start = System.nanoTime();
+            for (int i = 0; i < requests.size(); i++) {
+                FlightRecorder.Record record = requests.get(i);
+                if (speed > 0) {
+                    long due = start + (long) ((record.getEpochNanos() - origin) / speed);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                int id = replayIds.get(i);
+                frame.clear();
+                frame.put(record.wrap());
+                frame.putInt(0, id);
+                frame.flip();
+                sentAt.putIfAbsent(id, System.nanoTime());
+                transport.send(frame, server);
+            }
+            long elapsed = System.nanoTime() - start;
+            Thread.sleep(drainMillis);
+            return elapsed;
+        }
+    }
+
+    private void receiveLoop(DatagramTransport transport) {
+        ByteBuffer rxBuf = ByteBuffer.allocateDirect(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            while (transport.isOpen()) {
+                rxBuf.clear();
+                if (transport.receive(rxBuf, 0) == null) {
+                    continue;
+                }
+                rxBuf.flip();
+                if (rxBuf.remaining() < Frame.HEADER_SIZE) {
+                    continue;
+                }
+                int id = rxBuf.getInt();
+                int status = rxBuf.getInt() & ~Constants.STATUS_FLAG_REQUEST_ID;
+                if (status == Constants.STATUS_CALLBACK) {
+                    continue;
+                }
+                Long sent = sentAt.remove(id);
+                if (sent == null) {
+                    continue;
+                }
+                latency.record(System.nanoTime() - sent);
+                replies.increment();
+                if (status > 0 && status < statusCounts.length) {
+                    statusCounts[status].increment();
+                }
+                Integer expected = recordedStatus.get(id);
+                if (expected != null && expected != status) {
+                    diverged.increment();
+                }
+            }
+        } catch (IOException e) {
+            // transport closed at the end of the run
+        }
+    }
+
+    void printReport(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Sent %d requests (%d distinct) in %.2fs, %d replies, %d unanswered%n",
+                requests.size(), new HashSet<>(replayIds).size(), seconds, replies.sum(), sentAt.size());
+        System.out.printf("Status: ok=%d fail=%d error=%d%n", statusCounts[Constants.STATUS_OK].sum(),
+                statusCounts[Constants.STATUS_FAIL].sum(), statusCounts[Constants.STATUS_ERROR].sum());
+        System.out.printf("Latency ms: p50=%.3f p99=%.3f p99.9=%.3f max=%.3f%n",
+                latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+                latency.getValueAtPercentile(99.9) / 1e6, latency.getMax() / 1e6);
+        System.out.println("Replies whose status differs from the recording: " + diverged.sum()
+                + " (of " + recordedStatus.size() + " with a recorded reply)");
+    }
+
+    private static void dump(List<FlightRecorder.Record> records) {
+        long origin = records.isEmpty() ? 0 : records.get(0).getEpochNanos();
+        for (FlightRecorder.Record record : records) {
+            StringBuilder line = new StringBuilder();
+            line.append(String.format("%12.6f ", TimeUnit.NANOSECONDS.toMicros(record.getEpochNanos() - origin) / 1e6));
+            line.append(record.isSent() ? "-> " : "<- ").append(record.getPeer());
+            line.append(" len=").append(record.getFrameLength());
+            line.append(" reqID=").append(record.getReqID()).append(" code=").append(record.getCode());
+            if (!record.isComplete()) {
+                line.append(" (truncated)");
+            }
+            String text = replyText(record);
+            if (text != null) {
+                line.append(" \"").append(text).append('"');
+            }
+            System.out.println(line);
+        }
+        System.out.println(records.size() + " records");
+    }
+
+    /**
+     * Best-effort reply message: replies carry NUL-terminated text right after the header,
+     * request payloads start with binary lengths or ids and are skipped.
+     */
+    private static String replyText(FlightRecorder.Record record) {
+        ByteBuffer buf = record.wrap();
+        if (buf.remaining() <= Frame.HEADER_SIZE) {
+            return null;
+        }
+        buf.position(Frame.HEADER_SIZE);
+        int end = buf.position();
+        while (end < buf.limit() && buf.get(end) != 0) {
+            byte b = buf.get(end);
+            if (b >= 0 && b < 0x20) {
+                return null;
+            }
+            end++;
+        }
+        if (end == Frame.HEADER_SIZE || end == buf.limit()) {
+            return null;
+        }
+        return Marshaller.unpackNullTerminated(buf);
+    }
+}
@@ -1,9 +1,21 @@
 package client;
 
+import client.BankClientManager.Result;
+
+/**
+ * An account's credentials and session token. Sessions obtained from a
+ * BankClientManager (loginSessionAsync, openAccountSessionAsync) are bound to it
+ * and can run operations themselves; any number of them share the manager's
+ * socket, so each may be driven from its own (virtual) thread with blocking calls.
+ */
 public class UserSession {
     private final int accountId;
     private final String name;
     private final String password;
+    // Session token from OP_LOGIN; 0 until one is issued. Name and password are kept
+    // to log in again when the server reports the token invalid.
+    private volatile long token;
+    private volatile BankClientManager manager;
 
     public UserSession(int accountId, String name, String password) {
         this.accountId = accountId;
@@ -22,4 +34,69 @@ public class UserSession {
     public String getPassword() {
         return password;
     }
+
+    public boolean hasToken() {
+        return token != 0;
+    }
+
+    // === Operations as this account; block until the reply ===
+
+    public Result deposit(String currency, float amount) throws Exception {
+        return BankClientManager.await(manager().depositAsync(this, accountId, currency, amount));
+    }
+
+    public Result withdraw(String currency, float amount) throws Exception {
+        return BankClientManager.await(manager().withdrawAsync(this, accountId, currency, amount));
+    }
+
+    public Result transfer(int receiverId, String currency, float amount) throws Exception {
+        return BankClientManager.await(manager().transferAsync(this, receiverId, currency, amount));
+    }
+
+    public Result exchange(String fromCurrency, String toCurrency, float amountToExchange) throws Exception {
+        return BankClientManager.await(manager().exchangeAsync(this, fromCurrency, toCurrency, amountToExchange));
+    }
+
+    public Result checkBalance(String currency) throws Exception {
+        return BankClientManager.await(manager().checkBalanceAsync(this, currency));
+    }
+
+    public AccountBalances getBalances() throws Exception {
+        return BankClientManager.await(manager().getBalancesAsync(this));
+    }
+
+    public Result closeAccount() throws Exception {
+        return BankClientManager.await(manager().closeAccountAsync(this));
+    }
+
+    private BankClientManager manager() {
+        BankClientManager m = manager;
+        if (m == null) {
+            throw new IllegalStateException("Session is not bound to a client; obtain it from BankClientManager");
+        }
+        return m;
+    }
+
+    void bind(BankClientManager manager) {
+        this.manager = manager;
+    }
+
+    long getToken() {
+        return token;
+    }
+
+    void setToken(long token) {
+        this.token = token;
+    }
+
+    /**
+     * Drops the token if it is still the one the server rejected.
+     */
+    void clearToken(long rejected) {
+        synchronized (this) {
+            if (token == rejected) {
+                token = 0;
+            }
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package client.gui;
 
 import client.BankClientManager;
+import client.RetransmitPolicy;
 import client.UserSession;
 import common.Constants;
 
@@ -37,6 +38,7 @@ public class LoginFrame extends JFrame {
     private final JRadioButton openRadio = new JRadioButton("Open New Account");
 
     private final JCheckBox retryCheck = new JCheckBox("Enable At-Least-Once Retry", false);
+    private final JCheckBox adaptiveCheck = new JCheckBox("Adaptive Retransmission Timeout", false);
     private final JButton connectButton = new JButton("Connect & Login");
     private final JButton openMonitorButton = new JButton("Open Monitor Window");
 
@@ -85,6 +87,9 @@ public class LoginFrame extends JFrame {
         row++;
         panel.add(retryCheck, GuiUtils.createGbc(0, row, 4));
 
+        row++;
+        panel.add(adaptiveCheck, GuiUtils.createGbc(0, row, 4));
+
         row++;
         panel.add(connectButton, GuiUtils.createGbc(0, row, 4));
 
@@ -118,6 +123,7 @@ public class LoginFrame extends JFrame {
         String name = nameField.getText().trim();
         String password = new String(passwordField.getPassword());
         boolean enableRetry = retryCheck.isSelected();
+        boolean adaptive = adaptiveCheck.isSelected();
         boolean isOpen = openRadio.isSelected();
 
         if (host.isEmpty() || portText.isEmpty() || name.isEmpty() || password.isEmpty()) {
@@ -169,6 +175,7 @@ public class LoginFrame extends JFrame {
             protected BankClientManager.Result doInBackground() throws Exception {
                 BankClientManager manager = BankClientManager.getInstance(host, port);
                 manager.setInvocationSemantics(enableRetry);
+                manager.setRetransmitPolicy(adaptive ? RetransmitPolicy.adaptive() : RetransmitPolicy.fixed(1000));
                 if (isOpen) {
                     return manager.openAccount(name, password, currency, balance);
                 }
@@ -1,7 +1,9 @@
 package client.gui;
 
+import client.AccountBalances;
 import client.BankClientManager;
 import client.UserSession;
+import common.CurrencyType;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
@@ -28,6 +30,7 @@ public class MainFrame extends JFrame {
     private final JLabel headerLabel = new JLabel("", SwingConstants.LEFT);
     private final JLabel statusBar = new JLabel(" ");
     private final JLabel balanceLabel = new JLabel("Balance: --", SwingConstants.CENTER);
+    private final JLabel allBalancesLabel = new JLabel(" ", SwingConstants.CENTER);
     private final JComboBox<String> balanceCurrencyBox = new JComboBox<>(new String[]{"USD", "RMB", "SGD", "JPY", "BPD"});
 
     private final JTextField depositAmountField = new JTextField(12);
@@ -80,6 +83,7 @@ public class MainFrame extends JFrame {
         tabs.addTab("Transfer", buildTransferTab());
         tabs.addTab("Exchange", buildExchangeTab());
         tabs.addTab("Close Account", buildCloseTab());
+        tabs.addTab("Stats", new StatsPanel(manager.getMetrics()));
         return tabs;
     }
 
@@ -91,7 +95,10 @@ public class MainFrame extends JFrame {
         JButton refreshButton = new JButton("Refresh");
         refreshButton.addActionListener(e -> refreshBalance());
 
-        panel.add(balanceLabel, BorderLayout.CENTER);
+        JPanel balances = new JPanel(new BorderLayout());
+        balances.add(balanceLabel, BorderLayout.CENTER);
+        balances.add(allBalancesLabel, BorderLayout.SOUTH);
+        panel.add(balances, BorderLayout.CENTER);
         JPanel footer = new JPanel();
         footer.add(new JLabel("Currency:"));
         footer.add(balanceCurrencyBox);
@@ -211,22 +218,34 @@ public class MainFrame extends JFrame {
     }
 
     private void refreshBalance() {
-        String currency = (String) balanceCurrencyBox.getSelectedItem();
-        runAsync("Refreshing balance...", () -> manager.checkBalance(currency), result -> {
-            if (result.isSuccess()) {
-                String balanceText = extractNumber(result.getMessage());
-                if (balanceText == null || balanceText.isEmpty()) {
-                    balanceLabel.setText("Balance: " + result.getMessage());
-                } else {
-                    balanceLabel.setText("Balance: " + balanceText + " " + currency);
-                }
-                showSuccess("Balance updated.");
+        CurrencyType currency = CurrencyType.fromString((String) balanceCurrencyBox.getSelectedItem());
+        // every currency in one round trip, or none while the cached balances are fresh
+        runAsync("Refreshing balance...", manager::getBalances, balances -> {
+            if (balances.isSuccess()) {
+                balanceLabel.setText("Balance: " + formatAmount(balances.getBalance(currency)) + " " + currency);
+                allBalancesLabel.setText(formatAllBalances(balances));
+                showSuccess(balances.isFromCache() ? "Balance updated (cached)." : "Balance updated.");
             } else {
-                showError(result.getMessage());
+                showError(balances.getResult().getMessage());
             }
         });
     }
 
+    private static String formatAllBalances(AccountBalances balances) {
+        StringBuilder text = new StringBuilder();
+        for (CurrencyType currency : CurrencyType.values()) {
+            if (text.length() > 0) {
+                text.append("   ");
+            }
+            text.append(currency).append(' ').append(formatAmount(balances.getBalance(currency)));
+        }
+        return text.toString();
+    }
+
+    private static String formatAmount(double amount) {
+        return String.format("%.2f", amount);
+    }
+
     private void submitDeposit() {
         UserSession session = manager.getCurrentUser();
         if (session == null) {
@@ -346,11 +365,11 @@ public class MainFrame extends JFrame {
     }
 
 
-    private void runAsync(String loadingText, Task task, ResultHandler handler) {
+    private <T> void runAsync(String loadingText, Task<T> task, ResultHandler<T> handler) {
         JDialog loading = createLoadingDialog(loadingText);
-        SwingWorker<BankClientManager.Result, Void> worker = new SwingWorker<>() {
+        SwingWorker<T, Void> worker = new SwingWorker<>() {
             @Override
-            protected BankClientManager.Result doInBackground() throws Exception {
+            protected T doInBackground() throws Exception {
                 return task.run();
             }
 
@@ -396,19 +415,11 @@ public class MainFrame extends JFrame {
         JOptionPane.showMessageDialog(this, message, "Success", JOptionPane.INFORMATION_MESSAGE);
     }
 
-    private String extractNumber(String text) {
-        if (text == null) {
-            return "";
-        }
-        String num = text.replaceAll("[^0-9.]+", "");
-        return num;
-    }
-
-    private interface Task {
-        BankClientManager.Result run() throws Exception;
+    private interface Task<T> {
+        T run() throws Exception;
     }
 
-    private interface ResultHandler {
-        void handle(BankClientManager.Result result);
+    private interface ResultHandler<T> {
+        void handle(T result);
     }
 }
@@ -0,0 +1,106 @@
+package client.gui;
+
+import client.ClientMetrics;
+import client.OperationStats;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableModel;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.GridLayout;
+
+/**
+ * Live view of ClientMetrics, refreshed every second while the panel is showing.
+ * The summary turns red when timeouts or late replies grew since the last refresh.
+ */
+public class StatsPanel extends JPanel {
+    private static final String[] COLUMNS = {
+            "Operation", "Requests", "OK", "Fail", "Error", "Timeouts", "Retries",
+            "p50 ms", "p99 ms", "Max ms", "Avg attempts"};
+
+    private final ClientMetrics metrics;
+    private final DefaultTableModel model = new DefaultTableModel(COLUMNS, 0) {
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return false;
+        }
+    };
+    private final JLabel trafficLabel = new JLabel(" ");
+    private final JLabel problemLabel = new JLabel(" ");
+    private final Timer timer = new Timer(1000, e -> refresh());
+    private final Color normalColor = problemLabel.getForeground();
+    private long lastTimeouts;
+    private long lastLate;
+
+    public StatsPanel(ClientMetrics metrics) {
+        super(new BorderLayout());
+        this.metrics = metrics;
+        setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+
+        JPanel summary = new JPanel(new GridLayout(2, 1));
+        summary.add(trafficLabel);
+        summary.add(problemLabel);
+        add(summary, BorderLayout.NORTH);
+
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            metrics.reset();
+            lastTimeouts = 0;
+            lastLate = 0;
+            refresh();
+        });
+        JPanel footer = new JPanel();
+        footer.add(resetButton);
+        add(footer, BorderLayout.SOUTH);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        refresh();
+        timer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
+    private void refresh() {
+        trafficLabel.setText(String.format("Requests: %d (%.1f/s)   In flight: %d   Callbacks: %d (%.1f/s)",
+                metrics.getRequestCount(), metrics.getRequestRate(), metrics.getInFlightCount(),
+                metrics.getCallbackCount(), metrics.getCallbackRate()));
+
+        long timeouts = metrics.getTimeoutCount();
+        long late = metrics.getLateReplyCount();
+        problemLabel.setText(String.format("Timeouts: %d   Retransmissions: %d   Late/duplicate replies: %d   Stray: %d"
+                        + "   Hedges: %d (won %d, over budget %d)",
+                timeouts, metrics.getRetransmissionCount(), late, metrics.getStrayReplyCount(),
+                metrics.getHedgeCount(), metrics.getHedgeWinCount(), metrics.getHedgeDeniedCount()));
+        problemLabel.setForeground(timeouts > lastTimeouts || late > lastLate ? Color.RED : normalColor);
+        lastTimeouts = timeouts;
+        lastLate = late;
+
+        model.setRowCount(0);
+        for (OperationStats op : metrics.getOperations()) {
+            model.addRow(new Object[]{
+                    op.getOperation(), op.getRequests(), op.getOk(), op.getFailed(), op.getErrors(),
+                    op.getTimeouts(), op.getRetransmissions(),
+                    String.format("%.2f", op.getP50LatencyMillis()),
+                    String.format("%.2f", op.getP99LatencyMillis()),
+                    String.format("%.2f", op.getMaxLatencyMillis()),
+                    String.format("%.2f", op.getMeanAttempts())});
+        }
+    }
+}
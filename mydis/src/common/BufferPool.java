@@ -0,0 +1,280 @@
+package common;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recycles fixed-size little-endian direct buffers. Free buffers are kept in
+ * stripes chosen by thread id, so concurrent callers mostly touch different queues;
+ * stripes rather than thread-locals keep the footprint bounded when thousands of
+ * virtual threads build requests.
+ *
+ * Leak detection (constructor flag, or -Dmydis.bufferpool.leaks=true for the
+ * shared pools) remembers where every outstanding buffer was acquired. A buffer
+ * garbage collected without release() is reported on stderr and counted, release()
+ * of a buffer that is not outstanding throws, and getOutstandingTraces() lists
+ * what a test has not given back yet. It costs a stack trace per acquire.
+ */
+public class BufferPool {
+    public static final String LEAK_DETECTION_PROPERTY = "mydis.bufferpool.leaks";
+
+    private static final BufferPool REQUESTS = new BufferPool(Frame.HEADER_SIZE + Frame.MAX_PAYLOAD + Frame.NONCE_SIZE, 1024,
+            Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+
+    private final int bufferSize;
+    private final int maxFreePerStripe;
+    private final Stripe[] stripes;
+    private final LeakDetector leakDetector;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public BufferPool(int bufferSize, int maxFree, boolean leakDetection) {
+        if (bufferSize <= 0 || maxFree < 0) {
+            throw new IllegalArgumentException("Invalid pool size");
+        }
+        int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.bufferSize = bufferSize;
+        this.maxFreePerStripe = Math.max(1, maxFree / stripeCount);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.leakDetector = leakDetection ? new LeakDetector() : null;
+    }
+
+    /**
+     * Shared pool of request frames, HEADER_SIZE + MAX_PAYLOAD + NONCE_SIZE bytes each; see
+     * Frame.newRequest().
+     */
+    public static BufferPool requests() {
+        return REQUESTS;
+    }
+
+    /**
+     * A cleared buffer of bufferSize bytes in little-endian order.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buf = null;
+        int start = stripeIndex();
+        for (int i = 0; i < stripes.length && buf == null; i++) {
+            Stripe stripe = stripes[(start + i) & (stripes.length - 1)];
+            buf = stripe.free.poll();
+            if (buf != null) {
+                stripe.size.decrementAndGet();
+            }
+        }
+        if (buf != null) {
+            hits.increment();
+            buf.clear();
+        } else {
+            misses.increment();
+            buf = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (leakDetector != null) {
+            leakDetector.track(buf);
+        }
+        return buf;
+    }
+
+    /**
+     * Returns buf for reuse. The caller must not touch it, or any view of it, afterwards.
+     */
+    public void release(ByteBuffer buf) {
+        if (buf == null) {
+            return;
+        }
+        if (buf.capacity() != bufferSize || !buf.isDirect()) {
+            throw new IllegalArgumentException("Buffer does not belong to this pool");
+        }
+        if (leakDetector != null) {
+            leakDetector.untrack(buf);
+        }
+        releases.increment();
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        int start = stripeIndex();
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[(start + i) & (stripes.length - 1)];
+            if (stripe.size.incrementAndGet() <= maxFreePerStripe) {
+                stripe.free.offer(buf);
+                return;
+            }
+            stripe.size.decrementAndGet();
+        }
+        dropped.increment();
+    }
+
+    // Buffers are often released on another thread than acquired them (a receiver
+    // completing requests), so both operations move on to the next stripe when
+    // their own is empty or full
+    private int stripeIndex() {
+        return (int) Thread.currentThread().getId() & (stripes.length - 1);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Acquires served from a free buffer.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Acquires that had to allocate.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getReleaseCount() {
+        return releases.sum();
+    }
+
+    /**
+     * Releases discarded because the pool was full.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public int getFreeCount() {
+        int sum = 0;
+        for (Stripe stripe : stripes) {
+            sum += stripe.size.get();
+        }
+        return sum;
+    }
+
+    public boolean isLeakDetectionEnabled() {
+        return leakDetector != null;
+    }
+
+    /**
+     * Buffers garbage collected without being released; always 0 without leak detection.
+     */
+    public long getLeakCount() {
+        if (leakDetector == null) {
+            return 0;
+        }
+        leakDetector.poll();
+        return leakDetector.leaks.sum();
+    }
+
+    /**
+     * Where each buffer that is still outstanding was acquired. Empty without leak detection.
+     */
+    public List<Throwable> getOutstandingTraces() {
+        if (leakDetector == null) {
+            return new ArrayList<>();
+        }
+        leakDetector.poll();
+        return leakDetector.outstanding();
+    }
+
+    @Override
+    public String toString() {
+        long h = getHitCount();
+        long m = getMissCount();
+        return String.format("%d acquires, %.1f%% hits, %d allocated, %d free, %d dropped%s",
+                h + m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), m, getFreeCount(), getDroppedCount(),
+                leakDetector != null ? ", " + getLeakCount() + " leaked" : "");
+    }
+
+    private static final class Stripe {
+        private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+    }
+
+    /**
+     * Tracks outstanding buffers through weak references, bucketed by identity hash
+     * so that release() can find a buffer's record without keeping the buffer alive.
+     */
+    private static final class LeakDetector {
+        private final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<>();
+        private final ConcurrentHashMap<Integer, List<Tracked>> buckets = new ConcurrentHashMap<>();
+        private final LongAdder leaks = new LongAdder();
+
+        private void track(ByteBuffer buf) {
+            poll();
+            Tracked tracked = new Tracked(buf, collected);
+            // Bucket lists are replaced rather than modified so outstanding() can read them unlocked
+            buckets.compute(tracked.hash, (k, list) -> {
+                List<Tracked> l = list != null ? new ArrayList<>(list) : new ArrayList<>(1);
+                l.add(tracked);
+                return l;
+            });
+        }
+
+        private void untrack(ByteBuffer buf) {
+            boolean[] found = new boolean[1];
+            buckets.computeIfPresent(System.identityHashCode(buf), (k, list) -> {
+                List<Tracked> l = new ArrayList<>(list);
+                for (Iterator<Tracked> it = l.iterator(); it.hasNext(); ) {
+                    if (it.next().get() == buf) {
+                        it.remove();
+                        found[0] = true;
+                        break;
+                    }
+                }
+                return l.isEmpty() ? null : l;
+            });
+            if (!found[0]) {
+                throw new IllegalStateException("Buffer released twice or not acquired from this pool");
+            }
+        }
+
+        private void poll() {
+            Tracked tracked;
+            while ((tracked = (Tracked) collected.poll()) != null) {
+                Tracked gone = tracked;
+                boolean[] leaked = new boolean[1];
+                buckets.computeIfPresent(gone.hash, (k, list) -> {
+                    List<Tracked> l = new ArrayList<>(list);
+                    leaked[0] = l.remove(gone);
+                    return l.isEmpty() ? null : l;
+                });
+                if (leaked[0]) {
+                    leaks.increment();
+                    System.err.println("BufferPool: buffer was garbage collected without release()");
+                    gone.acquiredAt.printStackTrace();
+                }
+            }
+        }
+
+        private List<Throwable> outstanding() {
+            List<Throwable> traces = new ArrayList<>();
+            for (List<Tracked> list : buckets.values()) {
+                for (Tracked tracked : list) {
+                    if (tracked.get() != null) {
+                        traces.add(tracked.acquiredAt);
+                    }
+                }
+            }
+            return traces;
+        }
+    }
+
+    private static final class Tracked extends WeakReference<ByteBuffer> {
+        private final int hash;
+        private final Throwable acquiredAt = new Throwable("Buffer acquired here");
+
+        private Tracked(ByteBuffer buf, ReferenceQueue<ByteBuffer> queue) {
+            super(buf, queue);
+            this.hash = System.identityHashCode(buf);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package common;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * DatagramTransport built on a non-blocking DatagramChannel.
+ * Heap frames are staged through a per-thread direct buffer before sending,
+ * and receives go straight into the caller's buffer.
+ */
+public class ChannelTransport implements DatagramTransport {
+    private static final ThreadLocal<ByteBuffer> SEND_STAGING =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Constants.NETWORK_BUFFER_SIZE));
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final Object receiveLock = new Object();
+
+    public ChannelTransport() throws IOException {
+        this(null);
+    }
+
+    public ChannelTransport(InetSocketAddress bindAddress) throws IOException {
+        this(bindAddress, false);
+    }
+
+    /**
+     * With reusePort set, several transports can bind the same port (SO_REUSEPORT)
+     * and the kernel spreads incoming datagrams across them by sender.
+     * Ignored where the platform does not support the option.
+     */
+    public ChannelTransport(InetSocketAddress bindAddress, boolean reusePort) throws IOException {
+        this.channel = DatagramChannel.open();
+        if (reusePort && supportsReusePort(channel)) {
+            this.channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        this.channel.bind(bindAddress);
+        this.channel.configureBlocking(false);
+        this.selector = Selector.open();
+        this.channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    public DatagramChannel channel() {
+        return channel;
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    public static boolean supportsReusePort(DatagramChannel channel) {
+        return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+    }
+
+    @Override
+    public void send(ByteBuffer frame, InetSocketAddress target) throws IOException {
+        ByteBuffer src = frame;
+        // a staging buffer per virtual thread would cost more than the copy it saves
+        if (!frame.isDirect() && !VirtualThreads.isVirtual(Thread.currentThread())) {
+            src = SEND_STAGING.get();
+            if (frame.remaining() > src.capacity()) {
+                // oversized frames are rare; let the channel stage them itself
+                src = frame;
+            } else {
+                src.clear();
+                src.put(frame);
+                src.flip();
+            }
+        }
+        while (channel.send(src, target) == 0) {
+            // socket send buffer is full; wait for the kernel to drain it
+            LockSupport.parkNanos(50_000L);
+            if (!channel.isOpen()) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer dst, long timeoutMillis) throws IOException {
+        synchronized (receiveLock) {
+            long deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1_000_000L : 0L;
+            while (true) {
+                SocketAddress from = channel.receive(dst);
+                if (from != null) {
+                    return (InetSocketAddress) from;
+                }
+                long waitMillis = 0L;
+                if (timeoutMillis > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    waitMillis = Math.max(1L, remaining / 1_000_000L);
+                }
+                try {
+                    selector.select(waitMillis);
+                    selector.selectedKeys().clear();
+                } catch (ClosedSelectorException e) {
+                    throw new ClosedChannelException();
+                }
+                if (!channel.isOpen()) {
+                    throw new ClosedChannelException();
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public int getReceiveBufferSize() throws IOException {
+        return channel.getOption(StandardSocketOptions.SO_RCVBUF);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            selector.wakeup();
+            selector.close();
+        }
+    }
+}
@@ -13,11 +13,83 @@ public class Constants {
     public static final int OP_TRANSFER = 6;
     public static final int OP_EXCHANGE = 7;
     public static final int OP_MONITOR = 8;
+    // Several deposit/withdraw/transfer/exchange requests in one datagram.
+    // Request: [int count] then per item [int opCode][int length][item payload as for opCode]
+    // Reply:   message, NUL, [int count] then one int STATUS_* per item in request order
+    public static final int OP_BATCH = 9;
+    // Balances in every currency in one round trip.
+    // Request: [int accountId][name][password]
+    // Reply:   message, NUL, [long version][int count] then per currency [int CurrencyType ordinal][double balance]
+    // version grows with every change to the account, so clients can order snapshots
+    public static final int OP_CHECK_ALL_BALANCES = 10;
+    // Exchanges credentials for a session token.
+    // Request: [int accountId][name][password]
+    // Reply:   message, NUL, [long token][long idle timeout ms]
+    public static final int OP_LOGIN = 11;
+    // Asks for parts of a fragmented reply again, without executing anything.
+    // Sent with the reqID of the original request; the server answers only with the
+    // requested fragments, and only while it still holds the reply.
+    // Request: [int count] then count x [short fragment index]
+    public static final int OP_RESEND_FRAGMENTS = 12;
+    // One page of an account's transaction history, oldest first. Entries are numbered
+    // from 0 and never change, so a page can be asked for again, or a listing resumed,
+    // from any cursor. The server caps maxEntries to what fits one reply (one datagram
+    // unless OP_FLAG_FRAGMENTS is set).
+    // Request: [int accountId][credentials][long cursor][int maxEntries]
+    // Reply:   message, NUL, [long next cursor][long total][int count] then per entry
+    //          [long seq][long time ms][int EntryType ordinal][int CurrencyType ordinal]
+    //          [double amount][double balance after][int counterparty account or -1]
+    public static final int OP_HISTORY = 13;
+
+    // Flag bits above the opcode. With OP_FLAG_TOKEN set, the [name][password] fields
+    // after the account id are replaced by [long token] from OP_LOGIN.
+    public static final int OP_CODE_MASK = 0xFF;
+    public static final int OP_FLAG_TOKEN = 0x100;
+    // With a typed reply format, OK replies leave the message empty.
+    public static final int OP_FLAG_NO_MESSAGE = 0x200;
+    // The client reassembles fragmented replies. Without it, a reply that does not fit
+    // one datagram is replaced by a STATUS_ERROR.
+    public static final int OP_FLAG_FRAGMENTS = 0x400;
+    // The request ends with the client's [int nonce], after the payload. With the reqID
+    // it forms a 64-bit request id (Frame.requestId) that is unique across clients and
+    // restarts; the reply cache is keyed by it. The reply echoes the nonce as the last
+    // 4 bytes of its body and sets STATUS_FLAG_REQUEST_ID. Servers that predate it stop
+    // reading at the end of the fields they know, so the trailing nonce goes unnoticed.
+    public static final int OP_FLAG_REQUEST_ID = 0x800;
+
+    // Replies larger than one datagram (up to MAX_REPLY_SIZE bytes after the header) are
+    // sent as numbered fragments, each with STATUS_FLAG_FRAGMENT in its status word:
+    //   [int reqID][int status | STATUS_FLAG_FRAGMENT][short index][short count][int total length][bytes]
+    // Concatenating the fragments' bytes in index order gives the reply after its header.
+    public static final int STATUS_FLAG_FRAGMENT = 0x100;
+    // The reply body ends with the nonce of the request (see OP_FLAG_REQUEST_ID); for a
+    // fragmented reply, the reassembled body does.
+    public static final int STATUS_FLAG_REQUEST_ID = 0x200;
+    public static final int MAX_REPLY_SIZE = 64 * 1024;
+
+    // Reply format version: requested in the top byte of the opcode word, and the
+    // version actually used is echoed in the top byte of the reply's status word.
+    // Servers that predate versioning ignore the request and answer in version 0.
+    //   0: message, NUL, then the trailer documented for the opcode, if any.
+    //   1: [utf8 message] then, for STATUS_OK only, typed fields per opcode:
+    //      OPEN_ACCOUNT, CLOSE_ACCOUNT      [int accountId]
+    //      CHECK_BALANCE, DEPOSIT, WITHDRAW, TRANSFER
+    //                                       [int CurrencyType ordinal][double balance after]
+    //      EXCHANGE                         [int from ordinal][double balance][int to ordinal][double balance]
+    //      MONITOR                          [long duration ms]
+    //      BATCH, CHECK_ALL_BALANCES, LOGIN, HISTORY as the version 0 trailer
+    public static final int VERSION_SHIFT = 24;
+    public static final int REPLY_VERSION_TEXT = 0;
+    public static final int REPLY_VERSION_TYPED = 1;
+    public static final int STATUS_MASK = (1 << VERSION_SHIFT) - 1;
 
     public static final int STATUS_OK = 1;      // success = 1
     public static final int STATUS_FAIL = 2;    // fail = 2
     public static final int STATUS_ERROR = 3;   // error = 3
     public static final int STATUS_CALLBACK = 4; // callback = 4
+    public static final int STATUS_INVALID_SESSION = 5; // token unknown or expired; log in again
+    // Callbacks carry message, NUL, then optionally the balances the update left behind:
+    // [int accountId][long version][int count] then per currency [int CurrencyType ordinal][double balance]
 
     // === Client retry policy ===
     // Total time to keep retrying before giving up (ms)
@@ -0,0 +1,48 @@
+package common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * A datagram endpoint that sends and receives frames through caller-owned ByteBuffers,
+ * so steady-state traffic does not allocate a new array or packet per datagram.
+ */
+public interface DatagramTransport extends Closeable {
+
+    // System property selecting the implementation returned by open(): "nio" (default) or "socket"
+    String TRANSPORT_PROPERTY = "mydis.transport";
+
+    /**
+     * Sends the bytes between the frame's position and limit as one datagram.
+     */
+    void send(ByteBuffer frame, InetSocketAddress target) throws IOException;
+
+    /**
+     * Receives one datagram into dst starting at its position.
+     * Returns the sender, or null if nothing arrived within timeoutMillis (0 waits forever).
+     */
+    InetSocketAddress receive(ByteBuffer dst, long timeoutMillis) throws IOException;
+
+    boolean isOpen();
+
+    /**
+     * Bytes the socket can queue before incoming datagrams are dropped (SO_RCVBUF).
+     */
+    int getReceiveBufferSize() throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Opens the configured implementation, wrapped in the flight recorder when one is enabled.
+     */
+    static DatagramTransport open() throws IOException {
+        String kind = System.getProperty(TRANSPORT_PROPERTY, "nio").trim().toLowerCase();
+        if (kind.equals("socket")) {
+            return RecordingTransport.wrap(new SocketTransport());
+        }
+        return RecordingTransport.wrap(new ChannelTransport());
+    }
+}
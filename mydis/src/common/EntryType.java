@@ -0,0 +1,14 @@
+package common;
+
+/**
+ * Kinds of transaction history entries (Constants.OP_HISTORY), sent by ordinal.
+ */
+public enum EntryType {
+    OPEN,
+    DEPOSIT,
+    WITHDRAW,
+    TRANSFER_OUT,
+    TRANSFER_IN,
+    EXCHANGE_OUT,
+    EXCHANGE_IN
+}
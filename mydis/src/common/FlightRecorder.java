@@ -0,0 +1,299 @@
+package common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary flight recorder: a fixed-size memory-mapped ring of timestamped frames.
+ *
+ * The file starts with a 64-byte header followed by equal-sized slots. Each slot
+ * holds a 64-byte record header (sequence, epoch nanos, direction, peer address,
+ * frame length) and the first snapLength bytes of the frame, which include the
+ * reqID and opcode/status words. Writers claim a slot with one atomic increment
+ * and publish it by storing the sequence last, so recording costs one copy into
+ * the page cache and no locks or syscalls. The kernel writes the pages back, so
+ * the trace survives a crash of the process.
+ *
+ * Enable for DatagramTransport.open() and the server with -Dmydis.recorder=path,
+ * optionally -Dmydis.recorder.size=MB (default 64) and -Dmydis.recorder.snaplen=bytes.
+ */
+public class FlightRecorder implements Closeable {
+    public static final String FILE_PROPERTY = "mydis.recorder";
+    public static final String SIZE_PROPERTY = "mydis.recorder.size";
+    public static final String SNAPLEN_PROPERTY = "mydis.recorder.snaplen";
+
+    public static final byte DIRECTION_SENT = 0;
+    public static final byte DIRECTION_RECEIVED = 1;
+
+    private static final long MAGIC = 0x31524644_5349444DL; // "MDISDFR1" little-endian
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 64;
+    private static final int RECORD_HEADER_SIZE = 64;
+
+    // record header offsets
+    private static final int SEQ = 0;
+    private static final int TIMESTAMP = 8;
+    private static final int FRAME_LENGTH = 16;
+    private static final int CAPTURED_LENGTH = 20;
+    private static final int DIRECTION = 24;
+    private static final int ADDRESS_LENGTH = 25;
+    private static final int PORT = 26;
+    private static final int ADDRESS = 28;
+
+    private static final VarHandle LONG_VIEW =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static volatile FlightRecorder global;
+    private static boolean globalResolved;
+
+    private final FileChannel file;
+    private final MappedByteBuffer ring;
+    private final int slotSize;
+    private final int slotCount;
+    private final int snapLength;
+    private final AtomicLong nextSeq = new AtomicLong(1);
+    private final long baseEpochNanos = System.currentTimeMillis() * 1_000_000L;
+    private final long baseNanoTime = System.nanoTime();
+
+    /**
+     * Creates (or overwrites) a recording of about sizeBytes that keeps the
+     * first snapLength bytes of every frame.
+     */
+    public FlightRecorder(Path path, long sizeBytes, int snapLength) throws IOException {
+        if (snapLength < Frame.HEADER_SIZE) {
+            throw new IllegalArgumentException("snapLength must cover the frame header");
+        }
+        this.snapLength = snapLength;
+        // slots are 64-byte aligned so the sequence word can be published atomically
+        this.slotSize = (RECORD_HEADER_SIZE + snapLength + 63) & ~63;
+        long slots = (sizeBytes - FILE_HEADER_SIZE) / slotSize;
+        if (slots < 1 || slots > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Recording size out of range: " + sizeBytes);
+        }
+        this.slotCount = (int) slots;
+        long mappedSize = FILE_HEADER_SIZE + (long) slotCount * slotSize;
+        if (mappedSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Recording size out of range: " + sizeBytes);
+        }
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.ring = file.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize);
+        ring.order(ByteOrder.LITTLE_ENDIAN);
+        ring.putLong(0, MAGIC);
+        ring.putInt(8, VERSION);
+        ring.putInt(12, slotSize);
+        ring.putInt(16, slotCount);
+        ring.putInt(20, snapLength);
+    }
+
+    /**
+     * The process-wide recorder configured through system properties, or null when recording is off.
+     */
+    public static FlightRecorder global() {
+        FlightRecorder recorder = global;
+        if (recorder != null) {
+            return recorder;
+        }
+        synchronized (FlightRecorder.class) {
+            if (!globalResolved) {
+                globalResolved = true;
+                String path = System.getProperty(FILE_PROPERTY);
+                if (path != null && !path.isEmpty()) {
+                    long size = Long.getLong(SIZE_PROPERTY, 64) * 1024 * 1024;
+                    int snap = Integer.getInteger(SNAPLEN_PROPERTY, Constants.NETWORK_BUFFER_SIZE);
+                    try {
+                        global = new FlightRecorder(Paths.get(path), size, snap);
+                    } catch (IOException | IllegalArgumentException e) {
+                        System.err.println("Flight recorder disabled: " + e.getMessage());
+                    }
+                }
+            }
+            return global;
+        }
+    }
+
+    /**
+     * Records the bytes between frame's position and limit without moving either.
+     */
+    public void record(byte direction, InetSocketAddress peer, ByteBuffer frame) {
+        int length = frame.remaining();
+        int captured = Math.min(length, snapLength);
+        long seq = nextSeq.getAndIncrement();
+        int base = FILE_HEADER_SIZE + (int) ((seq - 1) % slotCount) * slotSize;
+
+        // mark the slot as being rewritten before touching the body
+        LONG_VIEW.setRelease(ring, base + SEQ, 0L);
+        ring.putLong(base + TIMESTAMP, baseEpochNanos + (System.nanoTime() - baseNanoTime));
+        ring.putInt(base + FRAME_LENGTH, length);
+        ring.putInt(base + CAPTURED_LENGTH, captured);
+        ring.put(base + DIRECTION, direction);
+        putAddress(base, peer);
+        ring.put(base + RECORD_HEADER_SIZE, frame, frame.position(), captured);
+        LONG_VIEW.setRelease(ring, base + SEQ, seq);
+    }
+
+    private void putAddress(int base, InetSocketAddress peer) {
+        if (peer == null || peer.getAddress() == null) {
+            ring.put(base + ADDRESS_LENGTH, (byte) 0);
+            return;
+        }
+        byte[] addr = peer.getAddress().getAddress();
+        ring.put(base + ADDRESS_LENGTH, (byte) addr.length);
+        ring.putShort(base + PORT, (short) peer.getPort());
+        ring.put(base + ADDRESS, addr);
+    }
+
+    public long getRecordedCount() {
+        return nextSeq.get() - 1;
+    }
+
+    /**
+     * Flushes dirty pages to the file; not needed for crash safety, only before copying the file.
+     */
+    public void force() {
+        ring.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        ring.force();
+        file.close();
+    }
+
+    // === Reading ===
+
+    /**
+     * Reads every complete record in a recording, oldest first.
+     */
+    public static List<Record> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.limit() < FILE_HEADER_SIZE || buf.getLong(0) != MAGIC) {
+                throw new IOException("Not a flight recording: " + path);
+            }
+            if (buf.getInt(8) != VERSION) {
+                throw new IOException("Unsupported recording version " + buf.getInt(8));
+            }
+            int slotSize = buf.getInt(12);
+            int slotCount = buf.getInt(16);
+            if ((long) FILE_HEADER_SIZE + (long) slotSize * slotCount > buf.limit()) {
+                throw new IOException("Truncated flight recording: " + path);
+            }
+
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < slotCount; i++) {
+                int base = FILE_HEADER_SIZE + i * slotSize;
+                long seq = buf.getLong(base + SEQ);
+                if (seq <= 0) {
+                    continue;
+                }
+                int captured = buf.getInt(base + CAPTURED_LENGTH);
+                if (captured < 0 || captured > slotSize - RECORD_HEADER_SIZE) {
+                    continue;
+                }
+                byte[] frame = new byte[captured];
+                buf.get(base + RECORD_HEADER_SIZE, frame);
+                records.add(new Record(seq, buf.getLong(base + TIMESTAMP), buf.get(base + DIRECTION),
+                        readAddress(buf, base), buf.getInt(base + FRAME_LENGTH), frame));
+            }
+            records.sort(Comparator.comparingLong(Record::getSequence));
+            return records;
+        }
+    }
+
+    private static InetSocketAddress readAddress(ByteBuffer buf, int base) {
+        int len = buf.get(base + ADDRESS_LENGTH);
+        if (len != 4 && len != 16) {
+            return null;
+        }
+        byte[] addr = new byte[len];
+        buf.get(base + ADDRESS, addr);
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(addr), buf.getShort(base + PORT) & 0xFFFF);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * One captured frame.
+     */
+    public static class Record {
+        private final long sequence;
+        private final long epochNanos;
+        private final byte direction;
+        private final InetSocketAddress peer;
+        private final int frameLength;
+        private final byte[] frame;
+
+        Record(long sequence, long epochNanos, byte direction, InetSocketAddress peer, int frameLength, byte[] frame) {
+            this.sequence = sequence;
+            this.epochNanos = epochNanos;
+            this.direction = direction;
+            this.peer = peer;
+            this.frameLength = frameLength;
+            this.frame = frame;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getEpochNanos() {
+            return epochNanos;
+        }
+
+        public boolean isSent() {
+            return direction == DIRECTION_SENT;
+        }
+
+        public InetSocketAddress getPeer() {
+            return peer;
+        }
+
+        /**
+         * Length of the datagram on the wire; larger than the captured bytes if it was truncated.
+         */
+        public int getFrameLength() {
+            return frameLength;
+        }
+
+        public boolean isComplete() {
+            return frame.length == frameLength;
+        }
+
+        public int getReqID() {
+            return frame.length >= 4 ? wrap().getInt(0) : 0;
+        }
+
+        /**
+         * The second header word: the opcode of a request or the status of a reply.
+         */
+        public int getCode() {
+            return frame.length >= Frame.HEADER_SIZE ? wrap().getInt(4) : 0;
+        }
+
+        /**
+         * The captured bytes as a little-endian buffer, header included.
+         */
+        public ByteBuffer wrap() {
+            return ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of fragmented replies (see Constants.STATUS_FLAG_FRAGMENT). The sender
+ * keeps the whole reply frame and cuts fragment i out of it on demand, so a
+ * lost fragment can be sent again without the request being executed again.
+ */
+public class Fragments {
+    // [short index][short count][int total length] after the frame header
+    public static final int FRAGMENT_HEADER_SIZE = 8;
+    // Largest reply body that still goes out as a single datagram
+    public static final int MAX_UNFRAGMENTED = Constants.NETWORK_BUFFER_SIZE - Frame.HEADER_SIZE;
+    public static final int MAX_FRAGMENT_DATA = MAX_UNFRAGMENTED - FRAGMENT_HEADER_SIZE;
+    public static final int MAX_FRAGMENTS = (Constants.MAX_REPLY_SIZE + MAX_FRAGMENT_DATA - 1) / MAX_FRAGMENT_DATA;
+
+    /**
+     * Number of fragments a reply body of bodyLength bytes is sent in; 1 if it fits a datagram.
+     */
+    public static int count(int bodyLength) {
+        if (bodyLength <= MAX_UNFRAGMENTED) {
+            return 1;
+        }
+        return (bodyLength + MAX_FRAGMENT_DATA - 1) / MAX_FRAGMENT_DATA;
+    }
+
+    /**
+     * Writes fragment index of reply, a whole reply frame from 0 to its limit, into dst
+     * and flips dst. The status word keeps its version and gains STATUS_FLAG_FRAGMENT.
+     */
+    public static void write(ByteBuffer reply, int index, ByteBuffer dst) {
+        int bodyLength = reply.limit() - Frame.HEADER_SIZE;
+        int count = count(bodyLength);
+        if (count == 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("No fragment " + index + " of " + count);
+        }
+        int start = Frame.HEADER_SIZE + index * MAX_FRAGMENT_DATA;
+        ByteBuffer data = reply.duplicate();
+        data.limit(Math.min(reply.limit(), start + MAX_FRAGMENT_DATA)).position(start);
+
+        dst.clear();
+        dst.putInt(reply.getInt(0));
+        dst.putInt(reply.getInt(4) | Constants.STATUS_FLAG_FRAGMENT);
+        dst.putShort((short) index);
+        dst.putShort((short) count);
+        dst.putInt(bodyLength);
+        dst.put(data);
+        dst.flip();
+    }
+
+    /**
+     * Offset of fragment index's bytes within the reassembled reply body.
+     */
+    public static int offset(int index) {
+        return index * MAX_FRAGMENT_DATA;
+    }
+}
@@ -0,0 +1,92 @@
+package common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Datagram layout shared by requests and replies:
+ * [int reqID][int opCode or status][payload], little-endian, followed by
+ * [int nonce] when the flags say so (see Constants.OP_FLAG_REQUEST_ID).
+ *
+ * Frames go on the wire trimmed to the bytes actually written. The payload
+ * length is the datagram length minus HEADER_SIZE (UDP keeps message
+ * boundaries), so decoders must stop at the buffer limit rather than assume
+ * a BUFFER_SIZE payload; a nonce is taken off before the payload is decoded.
+ */
+public class Frame {
+    public static final int HEADER_SIZE = 8;
+    public static final int MAX_PAYLOAD = Constants.BUFFER_SIZE;
+    // [int nonce] ending requests with Constants.OP_FLAG_REQUEST_ID and their replies
+    public static final int NONCE_SIZE = 4;
+
+    /**
+     * Takes a request buffer from BufferPool.requests() positioned just past the
+     * header, so the payload can be marshalled in place and sealed without another
+     * copy. Give it back with release() once it will not be sent again.
+     */
+    public static ByteBuffer newRequest() {
+        ByteBuffer buf = BufferPool.requests().acquire();
+        buf.position(HEADER_SIZE);
+        return buf;
+    }
+
+    public static void release(ByteBuffer frame) {
+        BufferPool.requests().release(frame);
+    }
+
+    /**
+     * Writes the header in front of the payload and flips the buffer so it covers
+     * exactly HEADER_SIZE + payload bytes.
+     */
+    public static ByteBuffer seal(ByteBuffer frame, int reqID, int opCode) {
+        if (frame.position() < HEADER_SIZE) {
+            throw new IllegalArgumentException("Frame has no room for the header");
+        }
+        frame.putInt(0, reqID);
+        frame.putInt(4, opCode);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Appends the client nonce after the payload and seals the frame with
+     * Constants.OP_FLAG_REQUEST_ID set.
+     */
+    public static ByteBuffer seal(ByteBuffer frame, int reqID, int opCode, int nonce) {
+        frame.putInt(nonce);
+        return seal(frame, reqID, opCode | Constants.OP_FLAG_REQUEST_ID);
+    }
+
+    /**
+     * Removes the nonce ending a frame or body that carries one, by moving its limit
+     * back, and returns it.
+     */
+    public static int takeNonce(ByteBuffer frame) {
+        int end = frame.limit() - NONCE_SIZE;
+        int nonce = frame.getInt(end);
+        frame.limit(end);
+        return nonce;
+    }
+
+    /**
+     * The 64-bit id of a request: its client's nonce above its reqID. Requests without
+     * a nonce count as nonce 0, which clients never pick.
+     */
+    public static long requestId(int nonce, int reqID) {
+        return (long) nonce << 32 | (reqID & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The reply format version carried in the top byte of an opcode or status word.
+     */
+    public static int version(int word) {
+        return word >>> Constants.VERSION_SHIFT;
+    }
+
+    public static int withVersion(int word, int version) {
+        return (word & Constants.STATUS_MASK) | (version << Constants.VERSION_SHIFT);
+    }
+
+    public static int payloadLength(ByteBuffer frame) {
+        return Math.max(0, frame.limit() - HEADER_SIZE);
+    }
+}
@@ -1,6 +1,8 @@
 package common;
 
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 
 public class Marshaller {
@@ -60,6 +62,239 @@ public class Marshaller {
     }
 
 
+    // === In-place String Marshalling ===
+    // Same wire format as packString/unpackString (8-byte length, then UTF-8 bytes),
+    // but strings are encoded straight into the target buffer and decoded without
+    // intermediate byte arrays where the caller supplies the CharBuffer. Nothing is
+    // kept per thread, so virtual threads pay nothing between calls.
+
+    public static void packUtf8(ByteBuffer buf, CharSequence text) {
+        if (text == null) text = "";
+        buf.putLong((long) utf8Length(text));
+        putUtf8(buf, text);
+    }
+
+    /**
+     * Number of bytes packUtf8 will write for text, excluding the length prefix.
+     * Unpaired surrogates count as one byte, matching String.getBytes.
+     */
+    public static int utf8Length(CharSequence text) {
+        int len = text.length();
+        int bytes = len;
+        for (int i = 0; i < len; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 2;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // replaced by '?'
+            } else {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    private static void putUtf8(ByteBuffer buf, CharSequence text) {
+        int len = text.length();
+        int i = 0;
+        // ASCII fast path
+        while (i < len) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            buf.put((byte) c);
+            i++;
+        }
+        for (; i < len; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buf.put((byte) '?');
+            } else {
+                buf.put((byte) (0xE0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    public static String unpackUtf8(ByteBuffer buf) {
+        long len = buf.getLong();
+        if (len <= 0) {
+            return "";
+        }
+        if (len > buf.remaining()) {
+            throw new IllegalArgumentException("String length too large: " + len);
+        }
+        int start = buf.position();
+        int end = start + (int) len;
+        buf.position(end);
+        return decodeUtf8(buf, start, end);
+    }
+
+    /**
+     * Decodes a length-prefixed string into dst without creating a String.
+     * dst is cleared first and left flipped for reading. A string longer than
+     * dst can hold is rejected like a truncated one.
+     */
+    public static void unpackUtf8(ByteBuffer buf, CharBuffer dst) {
+        long len = buf.getLong();
+        dst.clear();
+        if (len > 0) {
+            // one UTF-8 byte never yields more than one char, so this bounds the decode
+            if (len > buf.remaining() || len > dst.remaining()) {
+                throw new IllegalArgumentException("String length too large: " + len);
+            }
+            int start = buf.position();
+            int end = start + (int) len;
+            decodeInto(buf, start, end, dst);
+            buf.position(end);
+        }
+        dst.flip();
+    }
+
+    /**
+     * Writes a reply message as UTF-8 followed by a NUL terminator,
+     * the counterpart of unpackNullTerminated.
+     */
+    public static void packNullTerminated(ByteBuffer buf, CharSequence text) {
+        if (text != null) {
+            putUtf8(buf, text);
+        }
+        buf.put((byte) 0);
+    }
+
+    /**
+     * Reads a reply message: bytes up to the first NUL (or the limit), trimmed.
+     * The buffer is left positioned just past the terminator.
+     */
+    public static String unpackNullTerminated(ByteBuffer buf) {
+        int start = buf.position();
+        int limit = buf.limit();
+        int end = start;
+        while (end < limit && buf.get(end) != 0) {
+            end++;
+        }
+        buf.position(end < limit ? end + 1 : limit);
+
+        // UTF-8 continuation bytes are never <= 0x20, so trimming bytes matches String.trim()
+        while (start < end && (buf.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buf.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        return decodeUtf8(buf, start, end);
+    }
+
+    private static String decodeUtf8(ByteBuffer buf, int start, int end) {
+        if (start >= end) {
+            return "";
+        }
+        if (buf.hasArray()) {
+            byte[] array = buf.array();
+            int off = buf.arrayOffset();
+            if (isAscii(array, off + start, off + end)) {
+                return new String(array, off + start, end - start, StandardCharsets.ISO_8859_1);
+            }
+            return new String(array, off + start, end - start, StandardCharsets.UTF_8);
+        }
+        // the String needs its own copy of the bytes anyway; this one dies young
+        byte[] bytes = new byte[end - start];
+        buf.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the UTF-8 bytes between start and end into dst, leaving buf's position
+     * alone. Malformed sequences become U+FFFD. dst must have room for end - start
+     * chars: one UTF-8 byte never yields more than one char.
+     */
+    private static void decodeInto(ByteBuffer buf, int start, int end, CharBuffer dst) {
+        int mark = dst.position();
+        if (!decodeWellFormed(buf, start, end, dst)) {
+            // rare enough that a decoder per string costs nothing; it places the
+            // replacement characters exactly as the String constructor does
+            dst.position(mark);
+            ByteBuffer view = buf.duplicate();
+            view.limit(end).position(start);
+            StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(view, dst, true);
+        }
+    }
+
+    /**
+     * Decodes well-formed UTF-8, returning false at the first malformed sequence.
+     */
+    private static boolean decodeWellFormed(ByteBuffer buf, int start, int end, CharBuffer dst) {
+        int i = start;
+        while (i < end) {
+            int b = buf.get(i);
+            if (b >= 0) {
+                dst.put((char) b);
+                i++;
+                continue;
+            }
+            int lead = b & 0xFF;
+            if (lead < 0xC2 || lead > 0xF4) {
+                return false;
+            }
+            int length = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : 2;
+            if (i + length > end) {
+                return false;
+            }
+            // the second byte's range rules out overlong forms, surrogates and code points past U+10FFFF
+            int low = lead == 0xE0 ? 0xA0 : lead == 0xF0 ? 0x90 : 0x80;
+            int high = lead == 0xED ? 0x9F : lead == 0xF4 ? 0x8F : 0xBF;
+            int cp = lead & (0x7F >> length);
+            for (int j = i + 1; j < i + length; j++) {
+                int c = buf.get(j) & 0xFF;
+                if (c < low || c > high) {
+                    return false;
+                }
+                cp = cp << 6 | c & 0x3F;
+                low = 0x80;
+                high = 0xBF;
+            }
+            if (cp >= 0x10000) {
+                dst.put(Character.highSurrogate(cp));
+                dst.put(Character.lowSurrogate(cp));
+            } else {
+                dst.put((char) cp);
+            }
+            i += length;
+        }
+        return true;
+    }
+
+    private static boolean isAscii(byte[] array, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (array[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // === Legacy Support for string-only packing (for tests) ===
     // Keeps the old method to avoid breaking existing tests immediately, 
     // or we can update tests.
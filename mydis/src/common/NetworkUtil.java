@@ -4,20 +4,37 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 public class NetworkUtil {
+    // Per-packet logging is off by default; enable with -Dmydis.net.trace=true
+    private static final boolean TRACE = Boolean.getBoolean("mydis.net.trace");
 
     public static void send(DatagramSocket socket, InetAddress address, int port, byte[] data) throws IOException {
         DatagramPacket packet = new DatagramPacket(data, data.length, address, port);
         socket.send(packet);
-        System.out.println("[NetUtil] Sent packet to " + address + ":" + port + " (len=" + data.length + ")");
+        FlightRecorder recorder = FlightRecorder.global();
+        if (recorder != null) {
+            recorder.record(FlightRecorder.DIRECTION_SENT, new InetSocketAddress(address, port), ByteBuffer.wrap(data));
+        }
+        if (TRACE) {
+            System.out.println("[NetUtil] Sent packet to " + address + ":" + port + " (len=" + data.length + ")");
+        }
     }
 
     public static DatagramPacket receive(DatagramSocket socket) throws IOException {
         byte[] buffer = new byte[Constants.NETWORK_BUFFER_SIZE];
         DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
         socket.receive(packet);
-        System.out.println("[NetUtil] Received packet from " + packet.getAddress() + ":" + packet.getPort() + " (len=" + packet.getLength() + ")");
+        FlightRecorder recorder = FlightRecorder.global();
+        if (recorder != null) {
+            recorder.record(FlightRecorder.DIRECTION_RECEIVED, (InetSocketAddress) packet.getSocketAddress(),
+                    ByteBuffer.wrap(buffer, 0, packet.getLength()));
+        }
+        if (TRACE) {
+            System.out.println("[NetUtil] Received packet from " + packet.getAddress() + ":" + packet.getPort() + " (len=" + packet.getLength() + ")");
+        }
         return packet;
     }
 }
@@ -0,0 +1,59 @@
+package common;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * DatagramTransport decorator that copies every frame sent or received into a FlightRecorder.
+ */
+public class RecordingTransport implements DatagramTransport {
+    private final DatagramTransport delegate;
+    private final FlightRecorder recorder;
+
+    public RecordingTransport(DatagramTransport delegate, FlightRecorder recorder) {
+        this.delegate = delegate;
+        this.recorder = recorder;
+    }
+
+    /**
+     * Wraps transport in the global recorder when recording is enabled, otherwise returns it unchanged.
+     */
+    public static DatagramTransport wrap(DatagramTransport transport) {
+        FlightRecorder recorder = FlightRecorder.global();
+        return recorder == null ? transport : new RecordingTransport(transport, recorder);
+    }
+
+    @Override
+    public void send(ByteBuffer frame, InetSocketAddress target) throws IOException {
+        recorder.record(FlightRecorder.DIRECTION_SENT, target, frame);
+        delegate.send(frame, target);
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer dst, long timeoutMillis) throws IOException {
+        int start = dst.position();
+        InetSocketAddress from = delegate.receive(dst, timeoutMillis);
+        if (from != null) {
+            ByteBuffer view = dst.duplicate();
+            view.limit(view.position()).position(start);
+            recorder.record(FlightRecorder.DIRECTION_RECEIVED, from, view);
+        }
+        return from;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    @Override
+    public int getReceiveBufferSize() throws IOException {
+        return delegate.getReceiveBufferSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,73 @@
+package common;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * DatagramTransport on a classic DatagramSocket, kept as a fallback for
+ * environments where NIO channels are not wanted. One packet and array are reused
+ * for all receives.
+ */
+public class SocketTransport implements DatagramTransport {
+    private final DatagramSocket socket;
+    private final byte[] receiveBuffer = new byte[Constants.NETWORK_BUFFER_SIZE];
+    private final DatagramPacket receivePacket = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+    private final Object receiveLock = new Object();
+    private int currentTimeout = -1;
+
+    public SocketTransport() throws IOException {
+        this.socket = new DatagramSocket();
+    }
+
+    @Override
+    public void send(ByteBuffer frame, InetSocketAddress target) throws IOException {
+        DatagramPacket packet;
+        if (frame.hasArray()) {
+            packet = new DatagramPacket(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining(), target);
+        } else {
+            byte[] data = new byte[frame.remaining()];
+            frame.duplicate().get(data);
+            packet = new DatagramPacket(data, data.length, target);
+        }
+        socket.send(packet);
+        frame.position(frame.limit());
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer dst, long timeoutMillis) throws IOException {
+        synchronized (receiveLock) {
+            int timeout = (int) Math.min(Integer.MAX_VALUE, Math.max(0L, timeoutMillis));
+            if (timeout != currentTimeout) {
+                socket.setSoTimeout(timeout);
+                currentTimeout = timeout;
+            }
+            receivePacket.setLength(receiveBuffer.length);
+            try {
+                socket.receive(receivePacket);
+            } catch (SocketTimeoutException e) {
+                return null;
+            }
+            dst.put(receiveBuffer, 0, Math.min(receivePacket.getLength(), dst.remaining()));
+            return (InetSocketAddress) receivePacket.getSocketAddress();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !socket.isClosed();
+    }
+
+    @Override
+    public int getReceiveBufferSize() throws IOException {
+        return socket.getReceiveBufferSize();
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
@@ -0,0 +1,106 @@
+package common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Virtual threads where the runtime has them (Java 21+), looked up reflectively so
+ * the code still builds and runs on Java 17. Without them, the executor falls back
+ * to one daemon platform thread per task with a small stack, which serves a few
+ * thousand blocking sessions rather than tens of thousands.
+ */
+public final class VirtualThreads {
+    // Stack size of fallback platform threads; sessions only block on futures
+    private static final long FALLBACK_STACK_SIZE = 256 * 1024;
+
+    private static final MethodHandle IS_VIRTUAL;
+    private static final MethodHandle NEW_FACTORY;
+    private static final MethodHandle NEW_EXECUTOR;
+
+    static {
+        MethodHandle isVirtual = null;
+        MethodHandle newFactory = null;
+        MethodHandle newExecutor = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            isVirtual = lookup.findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+            MethodHandle ofVirtualHandle = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(ofVirtual));
+            MethodHandle name = lookup.findVirtual(ofVirtual, "name", MethodType.methodType(ofVirtual, String.class, long.class));
+            MethodHandle factory = lookup.findVirtual(builder, "factory", MethodType.methodType(ThreadFactory.class));
+            // (String prefix, long start) -> Thread.ofVirtual().name(prefix, start).factory()
+            newFactory = MethodHandles.filterReturnValue(
+                    MethodHandles.collectArguments(name, 0, ofVirtualHandle),
+                    factory.asType(MethodType.methodType(ThreadFactory.class, ofVirtual)));
+            newExecutor = lookup.findStatic(Executors.class, "newThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class, ThreadFactory.class));
+        } catch (ReflectiveOperationException e) {
+            isVirtual = null;
+            newFactory = null;
+            newExecutor = null;
+        }
+        IS_VIRTUAL = isVirtual;
+        NEW_FACTORY = newFactory;
+        NEW_EXECUTOR = newExecutor;
+    }
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return NEW_EXECUTOR != null;
+    }
+
+    public static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * Threads named namePrefix0, namePrefix1, ...: virtual if supported, otherwise
+     * daemon platform threads with a reduced stack.
+     */
+    public static ThreadFactory factory(String namePrefix) {
+        if (NEW_FACTORY != null) {
+            try {
+                return (ThreadFactory) NEW_FACTORY.invokeExact(namePrefix, 0L);
+            } catch (Throwable e) {
+                // fall through to platform threads
+            }
+        }
+        AtomicLong counter = new AtomicLong();
+        return r -> {
+            Thread t = new Thread(null, r, namePrefix + counter.getAndIncrement(), FALLBACK_STACK_SIZE);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * An executor that starts a new thread for every task, for code that blocks per
+     * session or per request instead of composing futures.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory factory = factory(namePrefix);
+        if (NEW_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_EXECUTOR.invokeExact(factory);
+            } catch (Throwable e) {
+                // fall through to platform threads
+            }
+        }
+        return Executors.newCachedThreadPool(factory);
+    }
+}
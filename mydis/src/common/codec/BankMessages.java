@@ -0,0 +1,75 @@
+package common.codec;
+
+import common.Constants;
+
+/**
+ * Wire layout of every request payload and of the typed reply fields
+ * (Constants.REPLY_VERSION_TYPED), one method per message with its fields as
+ * parameters in wire order. int, long, float and double are little-endian; a String
+ * is UTF-8 after a long length (Marshaller.packUtf8); a @Credentials long is the
+ * session token if non-zero, otherwise it stands for name and password strings.
+ *
+ * CodecProcessor turns each method into a class named after it with a Request or
+ * Reply suffix, through which both client and server encode and decode the message.
+ * The count-prefixed lists of OP_BATCH and of the OP_CHECK_ALL_BALANCES reply are
+ * beyond this schema and stay hand-written; an OP_HISTORY page is a historyPage
+ * followed by count historyEntry records.
+ */
+interface BankMessages {
+    @Request(Constants.OP_OPEN_ACCOUNT)
+    void openAccount(String name, String password, float initialBalance, String currency);
+
+    @Request(Constants.OP_CLOSE_ACCOUNT)
+    void closeAccount(int accountId, @Credentials long token);
+
+    @Request(Constants.OP_CHECK_BALANCE)
+    void checkBalance(int accountId, @Credentials long token, String currency);
+
+    @Request(Constants.OP_DEPOSIT)
+    void deposit(int accountId, @Credentials long token, String currency, float amount);
+
+    @Request(Constants.OP_WITHDRAW)
+    void withdraw(int accountId, @Credentials long token, String currency, float amount);
+
+    @Request(Constants.OP_TRANSFER)
+    void transfer(int accountId, @Credentials long token, String currency, float amount, int receiverId);
+
+    @Request(Constants.OP_EXCHANGE)
+    void exchange(int accountId, @Credentials long token, String fromCurrency, String toCurrency, float amount);
+
+    @Request(Constants.OP_MONITOR)
+    void monitor(long durationMillis);
+
+    @Request(Constants.OP_CHECK_ALL_BALANCES)
+    void checkAllBalances(int accountId, @Credentials long token);
+
+    @Request(Constants.OP_LOGIN)
+    void login(int accountId, String name, String password);
+
+    // Entries cursor, cursor + 1, ... of the account's history, at most maxEntries of them
+    @Request(Constants.OP_HISTORY)
+    void history(int accountId, @Credentials long token, long cursor, int maxEntries);
+
+    @Reply({Constants.OP_OPEN_ACCOUNT, Constants.OP_CLOSE_ACCOUNT})
+    void account(int accountId);
+
+    // currency is a CurrencyType ordinal; an exchange reply carries two, source currency first
+    @Reply({Constants.OP_CHECK_BALANCE, Constants.OP_DEPOSIT, Constants.OP_WITHDRAW,
+            Constants.OP_TRANSFER, Constants.OP_EXCHANGE})
+    void balance(int currency, double balance);
+
+    @Reply(Constants.OP_LOGIN)
+    void login(long token, long idleTimeoutMillis);
+
+    @Reply(Constants.OP_MONITOR)
+    void monitoring(long durationMillis);
+
+    // nextCursor continues after this page; total is the history length when it was read
+    @Reply(Constants.OP_HISTORY)
+    void historyPage(long nextCursor, long total, int count);
+
+    // type is an EntryType ordinal, currency a CurrencyType ordinal; amount is signed,
+    // balance is the currency's balance after the entry, counterparty an account id or -1
+    @Reply(Constants.OP_HISTORY)
+    void historyEntry(long seq, long timeMillis, int type, int currency, double amount, double balance, int counterparty);
+}
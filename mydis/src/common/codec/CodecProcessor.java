@@ -0,0 +1,511 @@
+package common.codec;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a codec class for every @Request and @Reply schema method (see
+ * BankMessages). It runs inside javac, so the codecs are regenerated on every
+ * build and cannot drift from the schema: the build compiles this processor first,
+ * then names it as the annotation processor for the remaining sources.
+ *
+ * A codec has no reflection and allocates nothing per message. Static encode()
+ * computes the exact encoded size, checks that it fits and then writes the fields
+ * with Marshaller. An instance decodes a message into reusable fields, with strings
+ * going into CharBuffers. Layouts without strings also get a SIZE constant and
+ * static getters that read a field in place.
+ */
+@SupportedAnnotationTypes({"common.codec.Request", "common.codec.Reply"})
+public class CodecProcessor extends AbstractProcessor {
+    private static final String REQUEST = "common.codec.Request";
+    private static final String CREDENTIALS = "common.codec.Credentials";
+    private static final String CONSTANTS = "common.Constants";
+
+    private enum Kind {
+        INT("int", "Int", 4),
+        LONG("long", "Long", 8),
+        FLOAT("float", "Float", 4),
+        DOUBLE("double", "Double", 8),
+        STRING("String", "Utf8", 8),
+        CREDENTIALS("long", null, 0);
+
+        private final String schemaType;
+        private final String marshaller;
+        // Fixed part of the encoded size: the value, or a string's length prefix
+        private final int size;
+
+        Kind(String schemaType, String marshaller, int size) {
+            this.schemaType = schemaType;
+            this.marshaller = marshaller;
+            this.size = size;
+        }
+
+        private String javaType() {
+            return this == STRING ? "CharSequence" : schemaType;
+        }
+    }
+
+    private static final class Field {
+        private final String name;
+        private final Kind kind;
+
+        private Field(String name, Kind kind) {
+            this.name = name;
+            this.kind = kind;
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            boolean request = annotation.getQualifiedName().contentEquals(REQUEST);
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.METHOD) {
+                    continue;
+                }
+                ExecutableElement method = (ExecutableElement) element;
+                List<Field> fields = fields(method);
+                if (fields != null) {
+                    write(method, request, opCodes(method, annotation), fields);
+                }
+            }
+        }
+        return true;
+    }
+
+    private List<Integer> opCodes(ExecutableElement method, TypeElement annotation) {
+        List<Integer> opCodes = new ArrayList<>();
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            if (!mirror.getAnnotationType().asElement().equals(annotation)) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+                Object value = entry.getValue().getValue();
+                if (value instanceof List) {
+                    for (Object item : (List<?>) value) {
+                        opCodes.add((Integer) ((AnnotationValue) item).getValue());
+                    }
+                } else {
+                    opCodes.add((Integer) value);
+                }
+            }
+        }
+        return opCodes;
+    }
+
+    /**
+     * The method's parameters as fields, or null after reporting an unsupported one.
+     */
+    private List<Field> fields(ExecutableElement method) {
+        List<Field> fields = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        boolean credentials = false;
+        for (VariableElement parameter : method.getParameters()) {
+            String name = parameter.getSimpleName().toString();
+            Kind kind = kindOf(parameter);
+            if (kind == null) {
+                return error(parameter, "Unsupported schema field type " + parameter.asType());
+            }
+            if (kind == Kind.CREDENTIALS) {
+                if (credentials) {
+                    return error(parameter, "A message can carry only one @Credentials field");
+                }
+                credentials = true;
+                names.add("hasToken");
+                names.add("name");
+                names.add("password");
+            }
+            if (!names.add(name) || name.equals("size") || name.equals("decode")) {
+                return error(parameter, "Field name " + name + " clashes with another field or a codec method");
+            }
+            fields.add(new Field(name, kind));
+        }
+        return fields;
+    }
+
+    private Kind kindOf(VariableElement parameter) {
+        TypeMirror type = parameter.asType();
+        for (AnnotationMirror mirror : parameter.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(CREDENTIALS)) {
+                return type.getKind() == TypeKind.LONG ? Kind.CREDENTIALS : null;
+            }
+        }
+        switch (type.getKind()) {
+            case INT:
+                return Kind.INT;
+            case LONG:
+                return Kind.LONG;
+            case FLOAT:
+                return Kind.FLOAT;
+            case DOUBLE:
+                return Kind.DOUBLE;
+            case DECLARED:
+                return type.toString().equals("java.lang.String") ? Kind.STRING : null;
+            default:
+                return null;
+        }
+    }
+
+    private <T> T error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+        return null;
+    }
+
+    private void write(ExecutableElement method, boolean request, List<Integer> opCodes, List<Field> fields) {
+        String methodName = method.getSimpleName().toString();
+        String className = Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1) + (request ? "Request" : "Reply");
+        String packageName = processingEnv.getElementUtils().getPackageOf(method).getQualifiedName().toString();
+        String schema = method.getEnclosingElement().getSimpleName() + "." + methodName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(packageName + "." + className, method).openWriter()) {
+            writer.write(new Generator(packageName, className, schema, request, opCodes, fields).generate());
+        } catch (IOException e) {
+            error(method, "Cannot write " + className + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Name of the Constants field holding opCode, or the number itself.
+     */
+    private String opCodeName(int opCode) {
+        TypeElement constants = processingEnv.getElementUtils().getTypeElement(CONSTANTS);
+        if (constants != null) {
+            for (Element member : constants.getEnclosedElements()) {
+                if (member.getKind() == ElementKind.FIELD && member.getSimpleName().toString().startsWith("OP_")
+                        && Integer.valueOf(opCode).equals(((VariableElement) member).getConstantValue())) {
+                    return "Constants." + member.getSimpleName();
+                }
+            }
+        }
+        return String.valueOf(opCode);
+    }
+
+    private final class Generator {
+        private final String packageName;
+        private final String className;
+        private final String schema;
+        private final boolean request;
+        private final List<Integer> opCodes;
+        private final List<Field> fields;
+        private final boolean hasStrings;
+        private final boolean hasCredentials;
+        private final StringBuilder out = new StringBuilder(4096);
+
+        private Generator(String packageName, String className, String schema, boolean request,
+                          List<Integer> opCodes, List<Field> fields) {
+            this.packageName = packageName;
+            this.className = className;
+            this.schema = schema;
+            this.request = request;
+            this.opCodes = opCodes;
+            this.fields = fields;
+            boolean strings = false;
+            boolean credentials = false;
+            for (Field field : fields) {
+                strings |= field.kind == Kind.STRING || field.kind == Kind.CREDENTIALS;
+                credentials |= field.kind == Kind.CREDENTIALS;
+            }
+            this.hasStrings = strings;
+            this.hasCredentials = credentials;
+        }
+
+        private String generate() {
+            line("package " + packageName + ";");
+            line("");
+            if (request || hasStrings) {
+                line("import common.Constants;");
+            }
+            line("import common.Marshaller;");
+            line("");
+            line("import javax.annotation.processing.Generated;");
+            line("import java.nio.BufferOverflowException;");
+            line("import java.nio.ByteBuffer;");
+            if (hasStrings) {
+                line("import java.nio.CharBuffer;");
+            }
+            line("");
+            line("/**");
+            StringBuilder ops = new StringBuilder();
+            for (int opCode : opCodes) {
+                ops.append(ops.length() == 0 ? "" : ", ").append(opCodeName(opCode).replace("Constants.", ""));
+            }
+            comment(request
+                    ? "Payload of " + ops + " requests, generated by CodecProcessor from " + schema + ":"
+                    : "Typed fields of successful " + ops + " replies, generated by CodecProcessor from " + schema + ":");
+            line(" * " + layout());
+            line(" */");
+            line("@Generated(\"common.codec.CodecProcessor\")");
+            line("public final class " + className + " {");
+            if (request) {
+                line("    public static final int OP_CODE = " + opCodeName(opCodes.get(0)) + ";");
+            }
+            if (!hasStrings) {
+                line("    public static final int SIZE = " + fixedSize() + ";");
+            }
+            line("");
+            for (Field field : fields) {
+                declare(field);
+            }
+            if (hasStrings) {
+                size();
+            }
+            encode();
+            decode();
+            if (!hasStrings) {
+                staticGetters();
+            }
+            getters();
+            line("}");
+            return out.toString();
+        }
+
+        private String layout() {
+            StringBuilder sb = new StringBuilder();
+            for (Field field : fields) {
+                if (field.kind == Kind.CREDENTIALS) {
+                    sb.append("[long ").append(field.name).append(" | String name, String password]");
+                } else {
+                    sb.append('[').append(field.kind.schemaType).append(' ').append(field.name).append(']');
+                }
+            }
+            return sb.length() == 0 ? "(no fields)" : sb.toString();
+        }
+
+        private int fixedSize() {
+            int size = 0;
+            for (Field field : fields) {
+                size += field.kind.size;
+            }
+            return size;
+        }
+
+        private void declare(Field field) {
+            switch (field.kind) {
+                case STRING:
+                    line("    private final CharBuffer " + field.name + " = CharBuffer.allocate(Constants.BUFFER_SIZE);");
+                    break;
+                case CREDENTIALS:
+                    line("    private boolean hasToken;");
+                    line("    private long " + field.name + ";");
+                    line("    private final CharBuffer name = CharBuffer.allocate(Constants.BUFFER_SIZE);");
+                    line("    private final CharBuffer password = CharBuffer.allocate(Constants.BUFFER_SIZE);");
+                    break;
+                default:
+                    line("    private " + field.kind.schemaType + " " + field.name + ";");
+            }
+        }
+
+        /**
+         * encode() parameters after the buffer; a credentials field expands to token, name and password.
+         */
+        private String parameters(boolean sizedOnly) {
+            StringBuilder sb = new StringBuilder();
+            for (Field field : fields) {
+                if (sizedOnly && field.kind != Kind.STRING && field.kind != Kind.CREDENTIALS) {
+                    continue;
+                }
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                if (field.kind == Kind.CREDENTIALS) {
+                    sb.append("long ").append(field.name).append(", CharSequence name, CharSequence password");
+                } else {
+                    sb.append(field.kind.javaType()).append(' ').append(field.name);
+                }
+            }
+            return sb.toString();
+        }
+
+        private String sizeArguments() {
+            StringBuilder sb = new StringBuilder();
+            for (Field field : fields) {
+                if (field.kind == Kind.STRING || field.kind == Kind.CREDENTIALS) {
+                    sb.append(sb.length() > 0 ? ", " : "").append(field.name);
+                    if (field.kind == Kind.CREDENTIALS) {
+                        sb.append(", name, password");
+                    }
+                }
+            }
+            return sb.toString();
+        }
+
+        private void size() {
+            StringBuilder expr = new StringBuilder().append(fixedSize());
+            for (Field field : fields) {
+                if (field.kind == Kind.STRING) {
+                    expr.append("\n                + Marshaller.utf8Length(").append(field.name).append(')');
+                } else if (field.kind == Kind.CREDENTIALS) {
+                    expr.append("\n                + (").append(field.name).append(" != 0 ? 8 : 16 + Marshaller.utf8Length(name) + Marshaller.utf8Length(password))");
+                }
+            }
+            line("");
+            line("    /**");
+            line("     * Exact number of bytes encode() writes for these arguments.");
+            line("     */");
+            line("    public static int size(" + parameters(true) + ") {");
+            line("        return " + expr + ";");
+            line("    }");
+        }
+
+        private void encode() {
+            line("");
+            line("    /**");
+            if (request && hasCredentials) {
+                line("     * Writes the fields at buf's position and returns the opcode to send. A non-zero");
+                line("     * token is written in place of name and password and adds OP_FLAG_TOKEN.");
+            } else if (request) {
+                line("     * Writes the fields at buf's position and returns the opcode to send.");
+            } else {
+                line("     * Writes the fields at buf's position.");
+            }
+            line("     * Throws BufferOverflowException, without writing anything, if they do not fit.");
+            line("     */");
+            String params = parameters(false);
+            line("    public static " + (request ? "int" : "void") + " encode(ByteBuffer buf" + (params.isEmpty() ? "" : ", " + params) + ") {");
+            line("        if (buf.remaining() < " + (hasStrings ? "size(" + sizeArguments() + ")" : "SIZE") + ") {");
+            line("            throw new BufferOverflowException();");
+            line("        }");
+            if (hasCredentials) {
+                line("        int flags = 0;");
+            }
+            for (Field field : fields) {
+                if (field.kind == Kind.CREDENTIALS) {
+                    line("        if (" + field.name + " != 0) {");
+                    line("            Marshaller.packLong(buf, " + field.name + ");");
+                    line("            flags = Constants.OP_FLAG_TOKEN;");
+                    line("        } else {");
+                    line("            Marshaller.packUtf8(buf, name);");
+                    line("            Marshaller.packUtf8(buf, password);");
+                    line("        }");
+                } else {
+                    line("        Marshaller.pack" + field.kind.marshaller + "(buf, " + field.name + ");");
+                }
+            }
+            if (request) {
+                line("        return OP_CODE" + (hasCredentials ? " | flags" : "") + ";");
+            }
+            line("    }");
+        }
+
+        private void decode() {
+            line("");
+            line("    /**");
+            line("     * Reads the fields at buf's position into this instance and returns it.");
+            if (hasCredentials) {
+                line("     * opCode tells whether a token or a name and password were sent.");
+            }
+            line("     * Throws BufferUnderflowException or IllegalArgumentException if they are malformed.");
+            line("     */");
+            line("    public " + className + " decode(ByteBuffer buf" + (hasCredentials ? ", int opCode" : "") + ") {");
+            for (Field field : fields) {
+                switch (field.kind) {
+                    case STRING:
+                        line("        Marshaller.unpackUtf8(buf, " + field.name + ");");
+                        break;
+                    case CREDENTIALS:
+                        line("        hasToken = (opCode & Constants.OP_FLAG_TOKEN) != 0;");
+                        line("        if (hasToken) {");
+                        line("            " + field.name + " = Marshaller.unpackLong(buf);");
+                        line("            name.clear().flip();");
+                        line("            password.clear().flip();");
+                        line("        } else {");
+                        line("            " + field.name + " = 0;");
+                        line("            Marshaller.unpackUtf8(buf, name);");
+                        line("            Marshaller.unpackUtf8(buf, password);");
+                        line("        }");
+                        break;
+                    default:
+                        line("        " + field.name + " = Marshaller.unpack" + field.kind.marshaller + "(buf);");
+                }
+            }
+            line("        return this;");
+            line("    }");
+        }
+
+        private void staticGetters() {
+            int offset = 0;
+            for (Field field : fields) {
+                line("");
+                line("    /**");
+                line("     * " + field.name + " of the fields at buf's position, read in place.");
+                line("     */");
+                line("    public static " + field.kind.schemaType + " " + field.name + "(ByteBuffer buf) {");
+                line("        return buf.get" + field.kind.marshaller + "(buf.position()" + (offset == 0 ? "" : " + " + offset) + ");");
+                line("    }");
+                offset += field.kind.size;
+            }
+        }
+
+        private void getters() {
+            for (Field field : fields) {
+                switch (field.kind) {
+                    case STRING:
+                        getter("CharBuffer", field.name, "Flipped for reading; valid until the next decode.");
+                        break;
+                    case CREDENTIALS:
+                        getter("boolean", "hasToken", "True if the message carried a token rather than name and password.");
+                        getter("long", field.name, null);
+                        getter("CharBuffer", "name", "Empty when a token was sent; valid until the next decode.");
+                        getter("CharBuffer", "password", "Empty when a token was sent; valid until the next decode.");
+                        break;
+                    default:
+                        getter(field.kind.schemaType, field.name, null);
+                }
+            }
+        }
+
+        private void getter(String type, String name, String doc) {
+            line("");
+            if (doc != null) {
+                line("    /**");
+                line("     * " + doc);
+                line("     */");
+            }
+            line("    public " + type + " " + name + "() {");
+            line("        return " + name + ";");
+            line("    }");
+        }
+
+        /**
+         * A javadoc paragraph wrapped at word boundaries.
+         */
+        private void comment(String text) {
+            StringBuilder current = new StringBuilder(" *");
+            for (String word : text.split(" ")) {
+                if (current.length() + word.length() > 88) {
+                    line(current.toString());
+                    current.setLength(2);
+                }
+                current.append(' ').append(word);
+            }
+            line(current.toString());
+        }
+
+        private void line(String text) {
+            out.append(text).append('\n');
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package common.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a long schema parameter as the request's credentials: the session token
+ * when it is non-zero (and OP_FLAG_TOKEN is set), otherwise a name and a password.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.PARAMETER)
+public @interface Credentials {
+}
@@ -0,0 +1,16 @@
+package common.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a schema method as the typed fields that successful replies to these
+ * opcodes carry after the message. See BankMessages.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface Reply {
+    int[] value();
+}
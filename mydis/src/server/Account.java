@@ -0,0 +1,73 @@
+package server;
+
+import common.CurrencyType;
+import common.EntryType;
+
+/**
+ * One bank account. Balances are kept per currency; callers synchronize on
+ * the account while reading or changing them, or its history.
+ */
+public class Account {
+    private final int id;
+    private final String name;
+    private final String password;
+    private final double[] balances = new double[CurrencyType.values().length];
+    private final History history = new History();
+    private long version;
+    private boolean closed;
+
+    public Account(int id, String name, String password) {
+        this.id = id;
+        this.name = name;
+        this.password = password;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean checkPassword(CharSequence candidate) {
+        return password.contentEquals(candidate);
+    }
+
+    public double getBalance(CurrencyType currency) {
+        return balances[currency.ordinal()];
+    }
+
+    public void setBalance(CurrencyType currency, double value) {
+        balances[currency.ordinal()] = value;
+        version++;
+    }
+
+    /**
+     * Appends a history entry for a change of amount (negative for money leaving) in
+     * currency, with the balance setBalance left behind.
+     */
+    public void record(EntryType type, CurrencyType currency, double amount, int counterparty) {
+        history.append(System.currentTimeMillis(), type, currency, amount, getBalance(currency), counterparty);
+    }
+
+    public History getHistory() {
+        return history;
+    }
+
+    /**
+     * Number of balance changes so far; orders snapshots sent to clients.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void markClosed() {
+        closed = true;
+        version++;
+    }
+}
@@ -0,0 +1,91 @@
+package server;
+
+import common.CurrencyType;
+import common.EntryType;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Account state shared by all server workers. Each account is guarded by its
+ * own monitor; transfers lock both accounts in id order.
+ */
+public class Bank {
+    // Units of each currency per USD, indexed by CurrencyType ordinal
+    private static final double[] RATES_PER_USD = {1.0, 7.2, 1.35, 150.0, 0.79};
+
+    private final ConcurrentHashMap<Integer, Account> accounts = new ConcurrentHashMap<>();
+    private final AtomicInteger nextAccountId = new AtomicInteger(1);
+    private final CopyOnWriteArrayList<MonitorRegistration> monitors = new CopyOnWriteArrayList<>();
+    // Tokens idle for 30 minutes must log in again
+    private final SessionTable sessions = new SessionTable(30 * 60 * 1000L);
+
+    public Account open(String name, String password, CurrencyType currency, double initialBalance) {
+        Account account = new Account(nextAccountId.getAndIncrement(), name, password);
+        account.setBalance(currency, initialBalance);
+        account.record(EntryType.OPEN, currency, initialBalance, -1);
+        accounts.put(account.getId(), account);
+        return account;
+    }
+
+    public Account get(int accountId) {
+        return accounts.get(accountId);
+    }
+
+    public void remove(Account account) {
+        accounts.remove(account.getId(), account);
+        sessions.removeAccount(account.getId());
+    }
+
+    public SessionTable sessions() {
+        return sessions;
+    }
+
+    public int size() {
+        return accounts.size();
+    }
+
+    /**
+     * Amount of 'from' currency worth amount units of 'to' currency.
+     */
+    public static double convert(double amount, CurrencyType to, CurrencyType from) {
+        return amount / RATES_PER_USD[to.ordinal()] * RATES_PER_USD[from.ordinal()];
+    }
+
+    // === Monitor registrations ===
+
+    public void registerMonitor(InetSocketAddress address, long durationMillis) {
+        long expiresAt = System.currentTimeMillis() + durationMillis;
+        monitors.removeIf(m -> m.address.equals(address));
+        monitors.add(new MonitorRegistration(address, expiresAt));
+    }
+
+    public boolean hasMonitors() {
+        return !monitors.isEmpty();
+    }
+
+    /**
+     * Live monitor addresses; expired registrations are dropped on the way.
+     */
+    public Iterable<MonitorRegistration> activeMonitors() {
+        long now = System.currentTimeMillis();
+        monitors.removeIf(m -> m.expiresAt <= now);
+        return monitors;
+    }
+
+    public static class MonitorRegistration {
+        private final InetSocketAddress address;
+        private final long expiresAt;
+
+        private MonitorRegistration(InetSocketAddress address, long expiresAt) {
+            this.address = address;
+            this.expiresAt = expiresAt;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package server;
+
+import common.ChannelTransport;
+import common.Constants;
+import common.RecordingTransport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reference server for the bank protocol in common.Constants.
+ *
+ * Each worker thread gets its own DatagramChannel bound to the same port with
+ * SO_REUSEPORT, so the kernel spreads clients across cores and workers never
+ * contend on a receive lock. Where SO_REUSEPORT is unavailable, or with
+ * --shared, all workers take turns receiving on one channel and decode and
+ * execute in parallel; this also spreads a single busy client over cores.
+ *
+ * Usage:
+ *   java server.BankServer [--port 8080] [--workers N] [--semantics amo|alo] [--shared] [--drop p]
+ *
+ * Traffic is captured when -Dmydis.recorder=path is set; see common.FlightRecorder.
+ */
+public class BankServer implements Closeable {
+    private final Bank bank;
+    private final List<ChannelTransport> transports = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final LongAdder handled = new LongAdder();
+    private final int workers;
+    private final boolean sharedChannel;
+    private final ReplyCache replyCache;
+    private final ReplyCache fragmentedReplies;
+    private final double dropRate;
+    private final InetSocketAddress bindAddress;
+    private int port;
+
+    public BankServer(InetSocketAddress bindAddress, int workers, boolean atMostOnce, boolean sharedChannel, double dropRate) {
+        this(new Bank(), bindAddress, workers, atMostOnce, sharedChannel, dropRate);
+    }
+
+    /**
+     * Serves an existing Bank, e.g. one shared by several in-process servers that stand
+     * in for replicas of the same data.
+     */
+    public BankServer(Bank bank, InetSocketAddress bindAddress, int workers, boolean atMostOnce, boolean sharedChannel,
+                      double dropRate) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be at least 1");
+        }
+        this.bank = bank;
+        this.bindAddress = bindAddress;
+        this.workers = workers;
+        this.sharedChannel = sharedChannel;
+        this.dropRate = dropRate;
+        // keep replies for as long as a client may still be retransmitting
+        this.replyCache = atMostOnce ? new ReplyCache(Constants.RETRY_TIMEOUT_MS * 2, 4096) : null;
+        // at-least-once keeps only fragmented replies, for clients asking for lost fragments
+        this.fragmentedReplies = replyCache != null ? replyCache : new ReplyCache(Constants.RETRY_TIMEOUT_MS, 256);
+    }
+
+    public BankServer(int port) {
+        this(new InetSocketAddress(port), Runtime.getRuntime().availableProcessors(), true, false, 0);
+    }
+
+    /**
+     * Binds the port and starts the worker threads.
+     */
+    public synchronized void start() throws IOException {
+        if (!threads.isEmpty()) {
+            throw new IllegalStateException("Server already started");
+        }
+        boolean reusePort = !sharedChannel && workers > 1 && reusePortSupported();
+        ChannelTransport first = new ChannelTransport(bindAddress, reusePort);
+        transports.add(first);
+        port = first.getLocalAddress().getPort();
+        InetSocketAddress boundAddress = new InetSocketAddress(bindAddress.getAddress(), port);
+        try {
+            for (int i = 0; i < workers; i++) {
+                ChannelTransport transport = first;
+                if (reusePort && i > 0) {
+                    transport = new ChannelTransport(boundAddress, true);
+                    transports.add(transport);
+                }
+                ServerWorker worker = new ServerWorker(RecordingTransport.wrap(transport), bank, replyCache, fragmentedReplies,
+                        dropRate, handled);
+                Thread thread = new Thread(worker, "bank-server-" + i);
+                thread.setDaemon(true);
+                threads.add(thread);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    private static boolean reusePortSupported() {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            return ChannelTransport.supportsReusePort(probe);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public Bank getBank() {
+        return bank;
+    }
+
+    /**
+     * Replies sent so far, not counting at-most-once duplicates answered from the cache.
+     */
+    public long getHandledCount() {
+        return handled.sum();
+    }
+
+    public int getReceiveChannelCount() {
+        return transports.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (ChannelTransport transport : transports) {
+            try {
+                transport.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                continue;
+            }
+            String key = arg.substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                opts.put(key, args[++i]);
+            } else {
+                opts.put(key, "true");
+            }
+        }
+        int port = Integer.parseInt(opts.getOrDefault("port", String.valueOf(Constants.SERVER_PORT)));
+        int workers = Integer.parseInt(opts.getOrDefault("workers", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        boolean atMostOnce = !"alo".equalsIgnoreCase(opts.getOrDefault("semantics", "amo"));
+        boolean shared = opts.containsKey("shared");
+        double dropRate = Double.parseDouble(opts.getOrDefault("drop", "0"));
+
+        BankServer server = new BankServer(new InetSocketAddress(port), workers, atMostOnce, shared, dropRate);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("Bank server listening on port " + server.getPort() + " with " + workers + " workers on "
+                + server.getReceiveChannelCount() + " channel(s), "
+                + (atMostOnce ? "at-most-once" : "at-least-once") + " semantics"
+                + (dropRate > 0 ? ", dropping " + (dropRate * 100) + "% of requests" : ""));
+
+        long last = 0;
+        while (true) {
+            Thread.sleep(5000);
+            long now = server.getHandledCount();
+            System.out.println("Handled " + (now - last) / 5 + " req/s, " + server.getBank().size() + " accounts");
+            last = now;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package server;
+
+import common.CurrencyType;
+import common.EntryType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only transaction log of one account, guarded by the account's monitor
+ * like its balances. Entries are kept column-wise in fixed-size chunks of primitive
+ * arrays, so a history of millions of entries costs about 32 bytes per entry and
+ * never copies what is already stored.
+ */
+public class History {
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final EntryType[] TYPES = EntryType.values();
+    private static final CurrencyType[] CURRENCIES = CurrencyType.values();
+
+    private final List<Chunk> chunks = new ArrayList<>();
+    private long size;
+
+    public void append(long timeMillis, EntryType type, CurrencyType currency, double amount, double balance,
+                       int counterparty) {
+        int i = (int) (size & CHUNK_MASK);
+        if (i == 0) {
+            chunks.add(new Chunk());
+        }
+        Chunk chunk = chunks.get(chunks.size() - 1);
+        chunk.times[i] = timeMillis;
+        chunk.kinds[i] = type.ordinal() << 8 | currency.ordinal();
+        chunk.amounts[i] = amount;
+        chunk.balances[i] = balance;
+        chunk.counterparties[i] = counterparty;
+        size++;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long getTime(long seq) {
+        return chunk(seq).times[index(seq)];
+    }
+
+    public EntryType getType(long seq) {
+        return TYPES[chunk(seq).kinds[index(seq)] >>> 8];
+    }
+
+    public CurrencyType getCurrency(long seq) {
+        return CURRENCIES[chunk(seq).kinds[index(seq)] & 0xFF];
+    }
+
+    public double getAmount(long seq) {
+        return chunk(seq).amounts[index(seq)];
+    }
+
+    public double getBalance(long seq) {
+        return chunk(seq).balances[index(seq)];
+    }
+
+    /**
+     * The other account of a transfer, or -1.
+     */
+    public int getCounterparty(long seq) {
+        return chunk(seq).counterparties[index(seq)];
+    }
+
+    private Chunk chunk(long seq) {
+        if (seq < 0 || seq >= size) {
+            throw new IndexOutOfBoundsException("No history entry " + seq);
+        }
+        return chunks.get((int) (seq >>> CHUNK_SHIFT));
+    }
+
+    private static int index(long seq) {
+        return (int) (seq & CHUNK_MASK);
+    }
+
+    private static final class Chunk {
+        private final long[] times = new long[CHUNK_SIZE];
+        private final int[] kinds = new int[CHUNK_SIZE];
+        private final double[] amounts = new double[CHUNK_SIZE];
+        private final double[] balances = new double[CHUNK_SIZE];
+        private final int[] counterparties = new int[CHUNK_SIZE];
+    }
+}
@@ -0,0 +1,138 @@
+package server;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replies already sent, keyed by client address and 64-bit request id (see
+ * Frame.requestId), for at-most-once semantics: a retransmitted request gets the
+ * cached reply instead of being executed again. The id's nonce keeps a client that
+ * restarted on the same port from being answered with its predecessor's replies.
+ * Entries expire after the client retry window.
+ *
+ * Workers sharing a channel may receive copies of one request at the same time, so a
+ * request is reserved before it executes: only the worker that reserved it runs it,
+ * and copies arriving meanwhile are dropped, to be answered from the cache when the
+ * client sends again.
+ */
+public class ReplyCache {
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final int sweepEvery;
+    private final AtomicInteger insertsSinceSweep = new AtomicInteger();
+
+    public enum Reservation {
+        // the caller must execute the request, then store() or release() its reply
+        RESERVED,
+        // the reply was copied into dst
+        CACHED,
+        // another worker is executing the request
+        IN_PROGRESS
+    }
+
+    public ReplyCache(long ttlMillis, int sweepEvery) {
+        this.ttlMillis = ttlMillis;
+        this.sweepEvery = sweepEvery;
+    }
+
+    /**
+     * Copies the cached reply for this request into dst and returns true, or returns false.
+     */
+    public boolean lookup(InetSocketAddress client, long requestId, ByteBuffer dst) {
+        Entry entry = entries.get(new Key(client, requestId));
+        if (entry == null || entry.reply == null || entry.expiresAt < System.currentTimeMillis()) {
+            return false;
+        }
+        dst.put(entry.reply);
+        return true;
+    }
+
+    /**
+     * Copies the cached reply for this request into dst, or claims the request for the
+     * caller to execute if nobody has; see Reservation.
+     */
+    public Reservation reserve(InetSocketAddress client, long requestId, ByteBuffer dst) {
+        Key key = new Key(client, requestId);
+        long now = System.currentTimeMillis();
+        Entry executing = new Entry(null, now + ttlMillis);
+        while (true) {
+            Entry entry = entries.putIfAbsent(key, executing);
+            if (entry == null) {
+                return Reservation.RESERVED;
+            }
+            if (entry.expiresAt < now) {
+                // a reply or reservation from an earlier retry window
+                if (entries.replace(key, entry, executing)) {
+                    return Reservation.RESERVED;
+                }
+                continue;
+            }
+            if (entry.reply == null) {
+                return Reservation.IN_PROGRESS;
+            }
+            dst.put(entry.reply);
+            return Reservation.CACHED;
+        }
+    }
+
+    /**
+     * Gives up a reservation whose request produced no reply to store.
+     */
+    public void release(InetSocketAddress client, long requestId) {
+        entries.computeIfPresent(new Key(client, requestId), (key, entry) -> entry.reply == null ? null : entry);
+    }
+
+    /**
+     * Stores the bytes between reply's position and limit, completing a reservation.
+     */
+    public void store(InetSocketAddress client, long requestId, ByteBuffer reply) {
+        byte[] copy = new byte[reply.remaining()];
+        reply.duplicate().get(copy);
+        long now = System.currentTimeMillis();
+        entries.put(new Key(client, requestId), new Entry(copy, now + ttlMillis));
+        if (insertsSinceSweep.incrementAndGet() >= sweepEvery) {
+            insertsSinceSweep.set(0);
+            entries.values().removeIf(e -> e.expiresAt < now);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static final class Key {
+        private final InetSocketAddress client;
+        private final long requestId;
+
+        private Key(InetSocketAddress client, long requestId) {
+            this.client = client;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return requestId == other.requestId && client.equals(other.client);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * client.hashCode() + Long.hashCode(requestId);
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] reply;
+        private final long expiresAt;
+
+        private Entry(byte[] reply, long expiresAt) {
+            this.reply = reply;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
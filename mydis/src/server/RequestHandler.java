@@ -0,0 +1,712 @@
+package server;
+
+import common.Constants;
+import common.CurrencyType;
+import common.EntryType;
+import common.Fragments;
+import common.Frame;
+import common.Marshaller;
+import common.codec.AccountReply;
+import common.codec.BalanceReply;
+import common.codec.CheckAllBalancesRequest;
+import common.codec.CheckBalanceRequest;
+import common.codec.CloseAccountRequest;
+import common.codec.DepositRequest;
+import common.codec.ExchangeRequest;
+import common.codec.HistoryEntryReply;
+import common.codec.HistoryPageReply;
+import common.codec.HistoryRequest;
+import common.codec.LoginReply;
+import common.codec.LoginRequest;
+import common.codec.MonitorRequest;
+import common.codec.MonitoringReply;
+import common.codec.OpenAccountRequest;
+import common.codec.TransferRequest;
+import common.codec.WithdrawRequest;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes and executes one request payload against the Bank.
+ * Not thread-safe: every worker owns its own handler, so the string scratch
+ * buffers and the message builder are reused without allocation per request.
+ */
+public class RequestHandler {
+    private static final CurrencyType[] CURRENCIES = CurrencyType.values();
+    // A page for clients that cannot reassemble fragments, leaving room for the message
+    private static final int MAX_DATAGRAM_HISTORY_ENTRIES =
+            (Fragments.MAX_UNFRAGMENTED - 128 - HistoryPageReply.SIZE) / HistoryEntryReply.SIZE;
+
+    private final Bank bank;
+    // Request decoders generated from common.codec.BankMessages, reused for every request
+    private final OpenAccountRequest openAccountRequest = new OpenAccountRequest();
+    private final CloseAccountRequest closeAccountRequest = new CloseAccountRequest();
+    private final CheckBalanceRequest checkBalanceRequest = new CheckBalanceRequest();
+    private final DepositRequest depositRequest = new DepositRequest();
+    private final WithdrawRequest withdrawRequest = new WithdrawRequest();
+    private final TransferRequest transferRequest = new TransferRequest();
+    private final ExchangeRequest exchangeRequest = new ExchangeRequest();
+    private final MonitorRequest monitorRequest = new MonitorRequest();
+    private final CheckAllBalancesRequest checkAllBalancesRequest = new CheckAllBalancesRequest();
+    private final LoginRequest loginRequest = new LoginRequest();
+    private final HistoryRequest historyRequest = new HistoryRequest();
+    private final StringBuilder message = new StringBuilder(128);
+    // Typed reply fields of the request being executed; see Constants.REPLY_VERSION_TYPED
+    private final ByteBuffer fields = ByteBuffer.allocate(Constants.MAX_REPLY_SIZE - Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<byte[]> callbacks = new ArrayList<>();
+    private final ByteBuffer callbackScratch = ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final double[] balanceSnapshot = new double[CURRENCIES.length];
+    // Credentials of the request being executed: a session token, or name and password
+    private boolean tokenAuth;
+    private long token;
+    private CharBuffer name;
+    private CharBuffer password;
+    private long balanceVersion;
+    private final int[] batchStatuses = new int[Constants.BUFFER_SIZE / 8];
+
+    public RequestHandler(Bank bank) {
+        this.bank = bank;
+    }
+
+    /**
+     * Executes the request in payload and appends the reply body to reply, in the reply
+     * format version the opcode word asks for (see Constants.VERSION_SHIFT). Returns the
+     * status word for the reply header: the STATUS_* code and the version used.
+     *
+     * A body larger than one datagram is only written for clients that set
+     * OP_FLAG_FRAGMENTS; others get a STATUS_ERROR in its place.
+     */
+    public int handle(int opCode, ByteBuffer payload, ByteBuffer reply, InetSocketAddress client) {
+        message.setLength(0);
+        fields.clear();
+        int op = opCode & Constants.OP_CODE_MASK;
+        int status = op == Constants.OP_BATCH ? executeBatch(payload) : executeOrReject(opCode, payload, client);
+        fields.flip();
+
+        int start = reply.position();
+        int statusWord = writeReply(opCode, status, reply);
+        // the worker appends the echoed nonce after the body
+        int limit = Fragments.MAX_UNFRAGMENTED - ((opCode & Constants.OP_FLAG_REQUEST_ID) != 0 ? Frame.NONCE_SIZE : 0);
+        if (reply.position() - start > limit && (opCode & Constants.OP_FLAG_FRAGMENTS) == 0) {
+            reply.position(start);
+            message.setLength(0);
+            message.append("Reply too large for one datagram");
+            fields.limit(0);
+            statusWord = writeReply(opCode, Constants.STATUS_ERROR, reply);
+        }
+        return statusWord;
+    }
+
+    private int writeReply(int opCode, int status, ByteBuffer reply) {
+        int op = opCode & Constants.OP_CODE_MASK;
+        int version = Math.min(Frame.version(opCode), Constants.REPLY_VERSION_TYPED);
+        if (version == Constants.REPLY_VERSION_TEXT) {
+            Marshaller.packNullTerminated(reply, message);
+            if (status == Constants.STATUS_OK && hasTextTrailer(op)) {
+                reply.put(fields);
+            }
+            return status;
+        }
+        boolean noMessage = status == Constants.STATUS_OK && (opCode & Constants.OP_FLAG_NO_MESSAGE) != 0;
+        Marshaller.packUtf8(reply, noMessage ? "" : message);
+        if (status == Constants.STATUS_OK) {
+            reply.put(fields);
+        }
+        return Frame.withVersion(status, version);
+    }
+
+    /**
+     * Opcodes whose version 0 reply already carries their typed fields after the message.
+     */
+    private static boolean hasTextTrailer(int op) {
+        return op == Constants.OP_BATCH || op == Constants.OP_CHECK_ALL_BALANCES || op == Constants.OP_LOGIN
+                || op == Constants.OP_HISTORY;
+    }
+
+    public Bank bank() {
+        return bank;
+    }
+
+    /**
+     * Bodies (message, NUL, balance trailer) of the monitor notifications produced by the
+     * last handle call; the caller sends and clears them.
+     */
+    public List<byte[]> callbacks() {
+        return callbacks;
+    }
+
+    private int executeOrReject(int opCode, ByteBuffer payload, InetSocketAddress client) {
+        try {
+            return execute(opCode, payload, client);
+        } catch (RuntimeException e) {
+            // truncated or oversized fields, or anything else a decoder chokes on
+            message.setLength(0);
+            message.append("Malformed request");
+            return Constants.STATUS_ERROR;
+        }
+    }
+
+    private int execute(int opCode, ByteBuffer payload, InetSocketAddress client) {
+        switch (opCode & Constants.OP_CODE_MASK) {
+            case Constants.OP_OPEN_ACCOUNT:
+                return openAccount(openAccountRequest.decode(payload));
+            case Constants.OP_CLOSE_ACCOUNT:
+                return closeAccount(closeAccountRequest.decode(payload, opCode));
+            case Constants.OP_CHECK_BALANCE:
+                return checkBalance(checkBalanceRequest.decode(payload, opCode));
+            case Constants.OP_DEPOSIT:
+                return deposit(depositRequest.decode(payload, opCode));
+            case Constants.OP_WITHDRAW:
+                return withdraw(withdrawRequest.decode(payload, opCode));
+            case Constants.OP_TRANSFER:
+                return transfer(transferRequest.decode(payload, opCode));
+            case Constants.OP_EXCHANGE:
+                return exchange(exchangeRequest.decode(payload, opCode));
+            case Constants.OP_MONITOR:
+                return monitor(monitorRequest.decode(payload), client);
+            case Constants.OP_CHECK_ALL_BALANCES:
+                return checkAllBalances(checkAllBalancesRequest.decode(payload, opCode));
+            case Constants.OP_LOGIN:
+                return login(loginRequest.decode(payload));
+            case Constants.OP_HISTORY:
+                return history(historyRequest.decode(payload, opCode), opCode);
+            default:
+                message.append("Unknown operation: ").append(opCode);
+                return Constants.STATUS_ERROR;
+        }
+    }
+
+    // === Operations ===
+
+    private int openAccount(OpenAccountRequest request) {
+        CharBuffer name = request.name();
+        float initialBalance = request.initialBalance();
+        CurrencyType currency = currencyOf(request.currency());
+        if (currency == null) {
+            return invalidCurrency();
+        }
+        if (name.length() == 0) {
+            return fail("Name is required");
+        }
+        if (!(initialBalance >= 0)) {
+            return fail("Initial balance cannot be negative");
+        }
+        Account account = bank.open(name.toString(), request.password().toString(), currency, initialBalance);
+        message.append("Account opened successfully, id: ").append(account.getId());
+        AccountReply.encode(fields, account.getId());
+        return Constants.STATUS_OK;
+    }
+
+    private int closeAccount(CloseAccountRequest request) {
+        int accountId = request.accountId();
+        useCredentials(request.hasToken(), request.token(), request.name(), request.password());
+        Account account = bank.get(accountId);
+        if (account == null) {
+            return accountNotFound();
+        }
+        synchronized (account) {
+            int status = checkAccess(account);
+            if (status != Constants.STATUS_OK) {
+                return status;
+            }
+            account.markClosed();
+        }
+        bank.remove(account);
+        message.append("Account closed, id: ").append(accountId);
+        AccountReply.encode(fields, accountId);
+        notifyMonitors(account, "closed", 0, null);
+        return Constants.STATUS_OK;
+    }
+
+    private int checkBalance(CheckBalanceRequest request) {
+        int accountId = request.accountId();
+        useCredentials(request.hasToken(), request.token(), request.name(), request.password());
+        CurrencyType currency = currencyOf(request.currency());
+        if (currency == null) {
+            return invalidCurrency();
+        }
+        Account account = bank.get(accountId);
+        if (account == null) {
+            return accountNotFound();
+        }
+        double balance;
+        synchronized (account) {
+            int status = checkAccess(account);
+            if (status != Constants.STATUS_OK) {
+                return status;
+            }
+            balance = account.getBalance(currency);
+        }
+        message.append("Balance: ");
+        appendAmount(balance, currency);
+        putBalance(currency, balance);
+        return Constants.STATUS_OK;
+    }
+
+    private int login(LoginRequest request) {
+        int accountId = request.accountId();
+        useCredentials(false, 0, request.name(), request.password());
+        Account account = bank.get(accountId);
+        if (account == null) {
+            return accountNotFound();
+        }
+        synchronized (account) {
+            int status = checkAccess(account);
+            if (status != Constants.STATUS_OK) {
+                return status;
+            }
+        }
+        token = bank.sessions().create(accountId);
+        message.append("Login successful");
+        LoginReply.encode(fields, token, bank.sessions().getIdleTimeoutMillis());
+        return Constants.STATUS_OK;
+    }
+
+    private int checkAllBalances(CheckAllBalancesRequest request) {
+        int accountId = request.accountId();
+        useCredentials(request.hasToken(), request.token(), request.name(), request.password());
+        Account account = bank.get(accountId);
+        if (account == null) {
+            return accountNotFound();
+        }
+        synchronized (account) {
+            int status = checkAccess(account);
+            if (status != Constants.STATUS_OK) {
+                return status;
+            }
+            snapshotBalances(account);
+        }
+        message.append("Balances: ");
+        for (int i = 0; i < CURRENCIES.length; i++) {
+            if (i > 0) {
+                message.append(", ");
+            }
+            appendAmount(balanceSnapshot[i], CURRENCIES[i]);
+        }
+        putBalances(fields, balanceVersion, balanceSnapshot);
+        return Constants.STATUS_OK;
+    }
+
+    /**
+     * Must be called while holding the account's monitor.
+     */
+    private void snapshotBalances(Account account) {
+        for (int i = 0; i < CURRENCIES.length; i++) {
+            balanceSnapshot[i] = account.getBalance(CURRENCIES[i]);
+        }
+        balanceVersion = account.getVersion();
+    }
+
+    private void putBalance(CurrencyType currency, double balance) {
+        BalanceReply.encode(fields, currency.ordinal(), balance);
+    }
+
+    private static void putBalances(ByteBuffer buf, long version, double[] balances) {
+        Marshaller.packLong(buf, version);
+        Marshaller.packInt(buf, balances.length);
+        for (int i = 0; i < balances.length; i++) {
+            Marshaller.packInt(buf, i);
+            Marshaller.packDouble(buf, balances[i]);
+        }
+    }
+
+    private int deposit(DepositRequest request) {
+        int accountId = request.accountId();
+        useCredentials(request.hasToken(), request.token(), request.name(), request.password());
+        CurrencyType currency = currencyOf(request.currency());
+        float amount = request.amount();
+        if (currency == null) {
+            return invalidCurrency();
+        }
+        if (!(amount > 0)) {
+            return fail("Amount must be positive");
+        }
+        Account account = bank.get(accountId);
+        if (account == null) {
+            return accountNotFound();
+        }
+        double balance;
+        synchronized (account) {
+            int status = checkAccess(account);
+            if (status != Constants.STATUS_OK) {
+                return status;
+            }
+            balance = account.getBalance(currency) + amount;
+            account.setBalance(currency, balance);
+            account.record(EntryType.DEPOSIT, currency, amount, -1);
+        }
+        message.append("Deposit successful. New balance: ");
+        appendAmount(balance, currency);
+        putBalance(currency, balance);
+        notifyMonitors(account, "deposit", amount, currency);
+        return Constants.STATUS_OK;
+    }
+
+    private int withdraw(WithdrawRequest request) {
+        int accountId = request.accountId();
+        useCredentials(request.hasToken(), request.token(), request.name(), request.password());
+        CurrencyType currency = currencyOf(request.currency());
+        float amount = request.amount();
+        if (currency == null) {
+            return invalidCurrency();
+        }
+        if (!(amount > 0)) {
+            return fail("Amount must be positive");
+        }
+        Account account = bank.get(accountId);
+        if (account == null) {
+            return accountNotFound();
+        }
+        double balance;
+        synchronized (account) {
+            int status = checkAccess(account);
+            if (status != Constants.STATUS_OK) {
+                return status;
+            }
+            balance = account.getBalance(currency);
+            if (balance < amount) {
+                return fail("Insufficient funds");
+            }
+            balance -= amount;
+            account.setBalance(currency, balance);
+            account.record(EntryType.WITHDRAW, currency, -amount, -1);
+        }
+        message.append("Withdrawal successful. New balance: ");
+        appendAmount(balance, currency);
+        putBalance(currency, balance);
+        notifyMonitors(account, "withdraw", amount, currency);
+        return Constants.STATUS_OK;
+    }
+
+    private int transfer(TransferRequest request) {
+        int accountId = request.accountId();
+        useCredentials(request.hasToken(), request.token(), request.name(), request.password());
+        CurrencyType currency = currencyOf(request.currency());
+        float amount = request.amount();
+        int receiverId = request.receiverId();
+        if (currency == null) {
+            return invalidCurrency();
+        }
+        if (!(amount > 0)) {
+            return fail("Amount must be positive");
+        }
+        if (receiverId == accountId) {
+            return fail("Cannot transfer to the same account");
+        }
+        Account sender = bank.get(accountId);
+        if (sender == null) {
+            return accountNotFound();
+        }
+        Account receiver = bank.get(receiverId);
+        if (receiver == null) {
+            return fail("Receiver account not found");
+        }
+        // lock in id order so opposite transfers cannot deadlock
+        Account first = accountId < receiverId ? sender : receiver;
+        Account second = first == sender ? receiver : sender;
+        double balance;
+        synchronized (first) {
+            synchronized (second) {
+                int status = checkAccess(sender);
+                if (status != Constants.STATUS_OK) {
+                    return status;
+                }
+                if (receiver.isClosed()) {
+                    return fail("Receiver account not found");
+                }
+                balance = sender.getBalance(currency);
+                if (balance < amount) {
+                    return fail("Insufficient funds");
+                }
+                balance -= amount;
+                sender.setBalance(currency, balance);
+                receiver.setBalance(currency, receiver.getBalance(currency) + amount);
+                sender.record(EntryType.TRANSFER_OUT, currency, -amount, receiverId);
+                receiver.record(EntryType.TRANSFER_IN, currency, amount, accountId);
+            }
+        }
+        message.append("Transfer successful. New balance: ");
+        appendAmount(balance, currency);
+        putBalance(currency, balance);
+        notifyMonitors(sender, "transfer out", amount, currency);
+        notifyMonitors(receiver, "transfer in", amount, currency);
+        return Constants.STATUS_OK;
+    }
+
+    private int exchange(ExchangeRequest request) {
+        int accountId = request.accountId();
+        useCredentials(request.hasToken(), request.token(), request.name(), request.password());
+        CurrencyType from = currencyOf(request.fromCurrency());
+        CurrencyType to = currencyOf(request.toCurrency());
+        float amount = request.amount();
+        if (from == null || to == null) {
+            return invalidCurrency();
+        }
+        if (from == to) {
+            return fail("Currencies must differ");
+        }
+        if (!(amount > 0)) {
+            return fail("Amount must be positive");
+        }
+        Account account = bank.get(accountId);
+        if (account == null) {
+            return accountNotFound();
+        }
+        double cost = Bank.convert(amount, to, from);
+        double fromBalance;
+        double toBalance;
+        synchronized (account) {
+            int status = checkAccess(account);
+            if (status != Constants.STATUS_OK) {
+                return status;
+            }
+            fromBalance = account.getBalance(from);
+            if (fromBalance < cost) {
+                return fail("Insufficient funds");
+            }
+            fromBalance -= cost;
+            toBalance = account.getBalance(to) + amount;
+            account.setBalance(from, fromBalance);
+            account.setBalance(to, toBalance);
+            account.record(EntryType.EXCHANGE_OUT, from, -cost, -1);
+            account.record(EntryType.EXCHANGE_IN, to, amount, -1);
+        }
+        message.append("Exchange successful. Balances: ");
+        appendAmount(fromBalance, from);
+        message.append(", ");
+        appendAmount(toBalance, to);
+        putBalance(from, fromBalance);
+        putBalance(to, toBalance);
+        notifyMonitors(account, "exchange", amount, to);
+        return Constants.STATUS_OK;
+    }
+
+    private int history(HistoryRequest request, int opCode) {
+        int accountId = request.accountId();
+        useCredentials(request.hasToken(), request.token(), request.name(), request.password());
+        long cursor = request.cursor();
+        if (cursor < 0 || request.maxEntries() <= 0) {
+            return fail("Invalid history range");
+        }
+        int maxEntries = Math.min(request.maxEntries(), (opCode & Constants.OP_FLAG_FRAGMENTS) != 0
+                ? (fields.capacity() - HistoryPageReply.SIZE) / HistoryEntryReply.SIZE
+                : MAX_DATAGRAM_HISTORY_ENTRIES);
+        Account account = bank.get(accountId);
+        if (account == null) {
+            return accountNotFound();
+        }
+        long from;
+        long total;
+        int count;
+        synchronized (account) {
+            int status = checkAccess(account);
+            if (status != Constants.STATUS_OK) {
+                return status;
+            }
+            History history = account.getHistory();
+            total = history.size();
+            from = Math.min(cursor, total);
+            count = (int) Math.min(maxEntries, total - from);
+            HistoryPageReply.encode(fields, from + count, total, count);
+            for (long seq = from; seq < from + count; seq++) {
+                HistoryEntryReply.encode(fields, seq, history.getTime(seq), history.getType(seq).ordinal(),
+                        history.getCurrency(seq).ordinal(), history.getAmount(seq), history.getBalance(seq),
+                        history.getCounterparty(seq));
+            }
+        }
+        message.append("History entries ").append(from).append(" to ").append(from + count).append(" of ").append(total);
+        return Constants.STATUS_OK;
+    }
+
+    private int monitor(MonitorRequest request, InetSocketAddress client) {
+        long durationMillis = request.durationMillis();
+        if (durationMillis <= 0) {
+            return fail("Duration must be positive");
+        }
+        bank.registerMonitor(client, durationMillis);
+        message.append("Monitoring updates for ").append(durationMillis).append(" ms");
+        MonitoringReply.encode(fields, durationMillis);
+        return Constants.STATUS_OK;
+    }
+
+    /**
+     * Runs each item of an OP_BATCH request by limiting the payload to the item's bytes.
+     * Items never abort the batch; each one gets its own status in the reply fields.
+     * The item framing is checked before any item runs, so a truncated batch is
+     * rejected whole instead of half applied.
+     */
+    private int executeBatch(ByteBuffer payload) {
+        int count;
+        int first;
+        try {
+            count = Marshaller.unpackInt(payload);
+            if (count < 0 || count > batchStatuses.length) {
+                throw new IllegalArgumentException("Bad batch count: " + count);
+            }
+            first = payload.position();
+            for (int i = 0; i < count; i++) {
+                Marshaller.unpackInt(payload);
+                int itemLen = Marshaller.unpackInt(payload);
+                if (itemLen < 0 || itemLen > payload.remaining()) {
+                    throw new IllegalArgumentException("Bad batch item length: " + itemLen);
+                }
+                payload.position(payload.position() + itemLen);
+            }
+        } catch (RuntimeException e) {
+            message.setLength(0);
+            message.append("Malformed request");
+            return Constants.STATUS_ERROR;
+        }
+
+        int end = payload.limit();
+        int ok = 0;
+        payload.position(first);
+        for (int i = 0; i < count; i++) {
+            int itemOp = Marshaller.unpackInt(payload);
+            int itemLen = Marshaller.unpackInt(payload);
+            int itemEnd = payload.position() + itemLen;
+            payload.limit(itemEnd);
+            int status;
+            if (isBatchable(itemOp)) {
+                status = executeOrReject(itemOp, payload, null);
+            } else {
+                status = Constants.STATUS_ERROR;
+            }
+            message.setLength(0);
+            fields.clear();
+            payload.limit(end).position(itemEnd);
+            batchStatuses[i] = status;
+            if (status == Constants.STATUS_OK) {
+                ok++;
+            }
+        }
+        message.append("Batch processed: ").append(ok).append(" ok, ").append(count - ok).append(" failed");
+        fields.clear();
+        Marshaller.packInt(fields, count);
+        for (int i = 0; i < count; i++) {
+            Marshaller.packInt(fields, batchStatuses[i]);
+        }
+        return Constants.STATUS_OK;
+    }
+
+    private static boolean isBatchable(int opCode) {
+        opCode &= Constants.OP_CODE_MASK;
+        return opCode == Constants.OP_DEPOSIT || opCode == Constants.OP_WITHDRAW
+                || opCode == Constants.OP_TRANSFER || opCode == Constants.OP_EXCHANGE;
+    }
+
+    // === Helpers ===
+
+    /**
+     * Must be called while holding the account's monitor.
+     */
+    private int checkAccess(Account account) {
+        if (account.isClosed()) {
+            return accountNotFound();
+        }
+        if (tokenAuth) {
+            if (!bank.sessions().validate(token, account.getId())) {
+                message.append("Invalid session");
+                return Constants.STATUS_INVALID_SESSION;
+            }
+            return Constants.STATUS_OK;
+        }
+        if (!account.getName().contentEquals(name) || !account.checkPassword(password)) {
+            return fail("Invalid credentials");
+        }
+        return Constants.STATUS_OK;
+    }
+
+    /**
+     * Makes the decoded credentials the ones checkAccess() verifies. The buffers stay
+     * owned by the decoder and are valid until its next decode.
+     */
+    private void useCredentials(boolean hasToken, long token, CharBuffer name, CharBuffer password) {
+        this.tokenAuth = hasToken;
+        this.token = token;
+        this.name = name;
+        this.password = password;
+    }
+
+    private static CurrencyType currencyOf(CharBuffer text) {
+        for (CurrencyType currency : CURRENCIES) {
+            if (currency.name().contentEquals(text)) {
+                return currency;
+            }
+        }
+        return null;
+    }
+
+    private int fail(String text) {
+        message.append(text);
+        return Constants.STATUS_FAIL;
+    }
+
+    private int accountNotFound() {
+        return fail("Account not found");
+    }
+
+    private int invalidCurrency() {
+        return fail("Invalid currency");
+    }
+
+    /**
+     * Queues a callback describing the update, followed by the account's balances after it
+     * so monitoring clients can refresh cached balances without asking.
+     */
+    private void notifyMonitors(Account account, String action, double amount, CurrencyType currency) {
+        if (!bank.hasMonitors()) {
+            return;
+        }
+        StringBuilder text = new StringBuilder(64);
+        text.append("Account ").append(account.getId()).append(" (").append(account.getName()).append(") ").append(action);
+        if (currency != null) {
+            text.append(' ');
+            appendAmount(text, amount, currency);
+        }
+        boolean closed;
+        synchronized (account) {
+            closed = account.isClosed();
+            snapshotBalances(account);
+        }
+        callbackScratch.clear();
+        Marshaller.packNullTerminated(callbackScratch, text);
+        Marshaller.packInt(callbackScratch, account.getId());
+        if (closed) {
+            Marshaller.packLong(callbackScratch, balanceVersion);
+            Marshaller.packInt(callbackScratch, 0);
+        } else {
+            putBalances(callbackScratch, balanceVersion, balanceSnapshot);
+        }
+        callbackScratch.flip();
+        byte[] body = new byte[callbackScratch.remaining()];
+        callbackScratch.get(body);
+        callbacks.add(body);
+    }
+
+    private void appendAmount(double amount, CurrencyType currency) {
+        appendAmount(message, amount, currency);
+    }
+
+    /**
+     * Two-decimal formatting without String.format, which dominates the reply path otherwise.
+     */
+    static void appendAmount(StringBuilder sb, double amount, CurrencyType currency) {
+        long cents = Math.round(amount * 100.0);
+        if (cents < 0) {
+            sb.append('-');
+            cents = -cents;
+        }
+        long fraction = cents % 100;
+        sb.append(cents / 100).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction).append(' ').append(currency.name());
+    }
+}
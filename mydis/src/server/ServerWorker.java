@@ -0,0 +1,186 @@
+package server;
+
+import common.Constants;
+import common.DatagramTransport;
+import common.Fragments;
+import common.Frame;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Receive, decode, execute and reply loop for one core. Each worker owns its
+ * receive and reply buffers and its RequestHandler, so the hot path shares
+ * nothing with other workers except the Bank itself.
+ */
+public class ServerWorker implements Runnable {
+    private final DatagramTransport transport;
+    private final RequestHandler handler;
+    private final ReplyCache replyCache;
+    private final ReplyCache fragmentedReplies;
+    private final double dropRate;
+    private final LongAdder handled;
+
+    private final ByteBuffer rxBuf = ByteBuffer.allocateDirect(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    // Whole replies, up to MAX_REPLY_SIZE and the echoed nonce; those that do not fit a datagram go out through fragBuf
+    private final ByteBuffer txBuf = ByteBuffer.allocateDirect(Frame.HEADER_SIZE + Constants.MAX_REPLY_SIZE + Frame.NONCE_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer fragBuf = ByteBuffer.allocateDirect(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * replyCache may be null for at-least-once semantics, in which case every
+     * retransmission is executed again. fragmentedReplies keeps replies that were
+     * sent in fragments so OP_RESEND_FRAGMENTS can be answered; it may be replyCache.
+     */
+    public ServerWorker(DatagramTransport transport, Bank bank, ReplyCache replyCache, ReplyCache fragmentedReplies,
+                        double dropRate, LongAdder handled) {
+        this.transport = transport;
+        this.handler = new RequestHandler(bank);
+        this.replyCache = replyCache;
+        this.fragmentedReplies = fragmentedReplies;
+        this.dropRate = dropRate;
+        this.handled = handled;
+    }
+
+    @Override
+    public void run() {
+        while (transport.isOpen()) {
+            try {
+                rxBuf.clear();
+                InetSocketAddress client = transport.receive(rxBuf, 0);
+                rxBuf.flip();
+                if (client == null || rxBuf.remaining() < Frame.HEADER_SIZE) {
+                    continue;
+                }
+                if (dropRate > 0 && ThreadLocalRandom.current().nextDouble() < dropRate) {
+                    continue;
+                }
+                serve(client);
+            } catch (IOException e) {
+                // closed, or an unsendable reply; keep serving while open
+            } catch (RuntimeException e) {
+                // one bad datagram must not take the worker down with it
+                handler.callbacks().clear();
+            }
+        }
+    }
+
+    private void serve(InetSocketAddress client) throws IOException {
+        int reqID = rxBuf.getInt();
+        int opCode = rxBuf.getInt();
+        boolean hasNonce = (opCode & Constants.OP_FLAG_REQUEST_ID) != 0;
+        if (hasNonce && rxBuf.remaining() < Frame.NONCE_SIZE) {
+            return;
+        }
+        int nonce = hasNonce ? Frame.takeNonce(rxBuf) : 0;
+        long requestId = Frame.requestId(nonce, reqID);
+        if ((opCode & Constants.OP_CODE_MASK) == Constants.OP_RESEND_FRAGMENTS) {
+            resendFragments(client, requestId);
+            return;
+        }
+
+        txBuf.clear();
+        if (replyCache != null) {
+            ReplyCache.Reservation reservation = replyCache.reserve(client, requestId, txBuf);
+            if (reservation == ReplyCache.Reservation.CACHED) {
+                txBuf.flip();
+                sendReply(client);
+                return;
+            }
+            if (reservation == ReplyCache.Reservation.IN_PROGRESS) {
+                // a copy of a request another worker is executing; its reply answers both
+                return;
+            }
+        }
+
+        int status;
+        try {
+            txBuf.putInt(reqID);
+            txBuf.putInt(0);
+            status = handler.handle(opCode, rxBuf, txBuf, client);
+        } catch (RuntimeException e) {
+            if (replyCache != null) {
+                replyCache.release(client, requestId);
+            }
+            throw e;
+        }
+        if (hasNonce) {
+            txBuf.putInt(nonce);
+            status |= Constants.STATUS_FLAG_REQUEST_ID;
+        }
+        txBuf.putInt(4, status);
+        txBuf.flip();
+        if (replyCache != null) {
+            replyCache.store(client, requestId, txBuf);
+        }
+        if (fragmentedReplies != replyCache && Fragments.count(Frame.payloadLength(txBuf)) > 1) {
+            fragmentedReplies.store(client, requestId, txBuf);
+        }
+        sendReply(client);
+        handled.increment();
+
+        List<byte[]> callbacks = handler.callbacks();
+        if (!callbacks.isEmpty()) {
+            try {
+                sendCallbacks(callbacks);
+            } finally {
+                callbacks.clear();
+            }
+        }
+    }
+
+    /**
+     * Sends the reply in txBuf, in fragments if it does not fit a datagram.
+     */
+    private void sendReply(InetSocketAddress client) throws IOException {
+        int count = Fragments.count(Frame.payloadLength(txBuf));
+        if (count == 1) {
+            transport.send(txBuf, client);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            Fragments.write(txBuf, i, fragBuf);
+            transport.send(fragBuf, client);
+        }
+    }
+
+    /**
+     * Sends the fragments listed in an OP_RESEND_FRAGMENTS request. Nothing is sent if the
+     * reply has expired; the client then falls back to retransmitting the request.
+     */
+    private void resendFragments(InetSocketAddress client, long requestId) throws IOException {
+        txBuf.clear();
+        if (!fragmentedReplies.lookup(client, requestId, txBuf)) {
+            return;
+        }
+        txBuf.flip();
+        int count = Fragments.count(Frame.payloadLength(txBuf));
+        int requested = rxBuf.remaining() >= 4 ? rxBuf.getInt() : 0;
+        for (int i = 0; i < requested && rxBuf.remaining() >= 2; i++) {
+            int index = rxBuf.getShort();
+            if (count > 1 && index >= 0 && index < count) {
+                Fragments.write(txBuf, index, fragBuf);
+                transport.send(fragBuf, client);
+            }
+        }
+    }
+
+    private void sendCallbacks(List<byte[]> callbacks) throws IOException {
+        for (byte[] body : callbacks) {
+            txBuf.clear();
+            txBuf.putInt(0);
+            txBuf.putInt(Constants.STATUS_CALLBACK);
+            txBuf.put(body);
+            txBuf.flip();
+            for (Bank.MonitorRegistration monitor : handler.bank().activeMonitors()) {
+                txBuf.rewind();
+                transport.send(txBuf, monitor.getAddress());
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Session tokens issued by OP_LOGIN. A token is a random 64-bit value bound to
+ * one account; checking it is a single hash lookup instead of decoding and
+ * comparing the name and password on every request. Tokens expire after being
+ * idle for the timeout.
+ */
+public class SessionTable {
+    private static final int SWEEP_EVERY = 1024;
+
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final long idleTimeoutMillis;
+    private final AtomicInteger createdSinceSweep = new AtomicInteger();
+
+    public SessionTable(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long create(int accountId) {
+        long now = System.currentTimeMillis();
+        if (createdSinceSweep.incrementAndGet() >= SWEEP_EVERY) {
+            createdSinceSweep.set(0);
+            sessions.values().removeIf(s -> now - s.lastUsed > idleTimeoutMillis);
+        }
+        while (true) {
+            long token = random.nextLong();
+            // 0 means "no token" on the client
+            if (token != 0 && sessions.putIfAbsent(token, new Session(accountId, now)) == null) {
+                return token;
+            }
+        }
+    }
+
+    /**
+     * True if token is live and belongs to accountId; refreshes its idle timer.
+     */
+    public boolean validate(long token, int accountId) {
+        Session session = sessions.get(token);
+        if (session == null || session.accountId != accountId) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - session.lastUsed > idleTimeoutMillis) {
+            sessions.remove(token, session);
+            return false;
+        }
+        session.lastUsed = now;
+        return true;
+    }
+
+    public void removeAccount(int accountId) {
+        sessions.values().removeIf(s -> s.accountId == accountId);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private static final class Session {
+        private final int accountId;
+        private volatile long lastUsed;
+
+        private Session(int accountId, long lastUsed) {
+            this.accountId = accountId;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package client;
+
+import common.CurrencyType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BalanceCacheTest {
+    private static final int ACCOUNT = 7;
+    private static final long LONG_TTL_MS = 60_000;
+
+    private final BalanceCache cache = new BalanceCache(LONG_TTL_MS);
+
+    /**
+     * [long version][int count] then [int currency][double balance] pairs.
+     */
+    private static ByteBuffer trailer(long version, Object... currencyBalancePairs) {
+        ByteBuffer buf = ByteBuffer.allocate(12 + 12 * currencyBalancePairs.length / 2).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(version).putInt(currencyBalancePairs.length / 2);
+        for (int i = 0; i < currencyBalancePairs.length; i += 2) {
+            buf.putInt(((CurrencyType) currencyBalancePairs[i]).ordinal());
+            buf.putDouble((Double) currencyBalancePairs[i + 1]);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static ByteBuffer allCurrencies(long version, double balance) {
+        Object[] pairs = new Object[CurrencyType.values().length * 2];
+        for (CurrencyType currency : CurrencyType.values()) {
+            pairs[currency.ordinal() * 2] = currency;
+            pairs[currency.ordinal() * 2 + 1] = balance + currency.ordinal();
+        }
+        return trailer(version, pairs);
+    }
+
+    @Test
+    void missingBalanceIsNaN() {
+        assertTrue(Double.isNaN(cache.get(ACCOUNT, CurrencyType.USD)));
+        assertFalse(cache.getAll(ACCOUNT, new double[CurrencyType.values().length]));
+    }
+
+    @Test
+    void putIsReadBack() {
+        cache.put(ACCOUNT, CurrencyType.USD, 12.5, cache.epoch());
+        assertEquals(12.5, cache.get(ACCOUNT, CurrencyType.USD));
+        assertTrue(Double.isNaN(cache.get(ACCOUNT, CurrencyType.SGD)));
+        assertTrue(Double.isNaN(cache.get(ACCOUNT + 1, CurrencyType.USD)));
+    }
+
+    @Test
+    void putSentBeforeAnInvalidationIsDropped() {
+        long sentAt = cache.epoch();
+        // a deposit's callback lands while the balance request is in flight
+        cache.invalidate(ACCOUNT, CurrencyType.USD);
+        cache.put(ACCOUNT, CurrencyType.USD, 10, sentAt);
+        assertTrue(Double.isNaN(cache.get(ACCOUNT, CurrencyType.USD)));
+
+        cache.put(ACCOUNT, CurrencyType.USD, 20, cache.epoch());
+        assertEquals(20, cache.get(ACCOUNT, CurrencyType.USD));
+    }
+
+    @Test
+    void putSentBeforeAVersionedUpdateIsDropped() {
+        long sentAt = cache.epoch();
+        cache.applyVersioned(ACCOUNT, trailer(3, CurrencyType.USD, 50.0));
+        cache.put(ACCOUNT, CurrencyType.USD, 10, sentAt);
+        assertEquals(50, cache.get(ACCOUNT, CurrencyType.USD));
+    }
+
+    @Test
+    void putSentBeforeClearIsDropped() {
+        long sentAt = cache.epoch();
+        cache.clear();
+        cache.put(ACCOUNT, CurrencyType.USD, 10, sentAt);
+        assertTrue(Double.isNaN(cache.get(ACCOUNT, CurrencyType.USD)));
+    }
+
+    @Test
+    void newerVersionReplacesOlder() {
+        cache.applyVersioned(ACCOUNT, trailer(1, CurrencyType.USD, 10.0, CurrencyType.SGD, 20.0));
+        cache.applyVersioned(ACCOUNT, trailer(2, CurrencyType.USD, 11.0));
+        assertEquals(11, cache.get(ACCOUNT, CurrencyType.USD));
+        assertEquals(20, cache.get(ACCOUNT, CurrencyType.SGD));
+    }
+
+    @Test
+    void staleVersionIsIgnored() {
+        cache.applyVersioned(ACCOUNT, trailer(5, CurrencyType.USD, 50.0));
+        ByteBuffer late = trailer(4, CurrencyType.USD, 40.0, CurrencyType.SGD, 41.0);
+        cache.applyVersioned(ACCOUNT, late);
+        assertEquals(50, cache.get(ACCOUNT, CurrencyType.USD));
+        assertTrue(Double.isNaN(cache.get(ACCOUNT, CurrencyType.SGD)));
+        // the stale trailer is still read to its end
+        assertEquals(0, late.remaining());
+    }
+
+    @Test
+    void countZeroInvalidatesTheAccount() {
+        cache.applyVersioned(ACCOUNT, allCurrencies(1, 100));
+        cache.applyVersioned(ACCOUNT + 1, trailer(1, CurrencyType.USD, 5.0));
+        assertTrue(cache.getAll(ACCOUNT, new double[CurrencyType.values().length]));
+
+        cache.applyVersioned(ACCOUNT, trailer(2));
+        assertTrue(Double.isNaN(cache.get(ACCOUNT, CurrencyType.USD)));
+        assertFalse(cache.getAll(ACCOUNT, new double[CurrencyType.values().length]));
+        assertEquals(5, cache.get(ACCOUNT + 1, CurrencyType.USD));
+    }
+
+    @Test
+    void getAllNeedsEveryCurrency() {
+        double[] balances = new double[CurrencyType.values().length];
+        cache.applyVersioned(ACCOUNT, trailer(1, CurrencyType.USD, 10.0));
+        assertFalse(cache.getAll(ACCOUNT, balances));
+
+        cache.applyVersioned(ACCOUNT, allCurrencies(2, 100));
+        assertTrue(cache.getAll(ACCOUNT, balances));
+        for (CurrencyType currency : CurrencyType.values()) {
+            assertEquals(100 + currency.ordinal(), balances[currency.ordinal()]);
+        }
+
+        cache.invalidate(ACCOUNT, CurrencyType.USD);
+        assertFalse(cache.getAll(ACCOUNT, balances));
+    }
+
+    @Test
+    void callbackTrailerUpdatesItsAccount() {
+        ByteBuffer body = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+        body.putInt(ACCOUNT).put(trailer(9, CurrencyType.USD, 75.0)).flip();
+        cache.applyCallback("[Callback] Account " + ACCOUNT + " deposit 25.00 USD", body);
+        assertEquals(75, cache.get(ACCOUNT, CurrencyType.USD));
+    }
+
+    @Test
+    void callbackWithoutTrailerInvalidatesTheNamedAccount() {
+        cache.applyVersioned(ACCOUNT, trailer(1, CurrencyType.USD, 10.0));
+        cache.applyVersioned(ACCOUNT + 1, trailer(1, CurrencyType.USD, 20.0));
+        cache.applyCallback("[Callback] Account " + ACCOUNT + " withdraw 5.00 USD", null);
+        assertTrue(Double.isNaN(cache.get(ACCOUNT, CurrencyType.USD)));
+        assertEquals(20, cache.get(ACCOUNT + 1, CurrencyType.USD));
+
+        cache.applyCallback("[Callback] something else", null);
+        assertTrue(Double.isNaN(cache.get(ACCOUNT + 1, CurrencyType.USD)));
+    }
+
+    @Test
+    void entriesExpireAfterTheTtl() throws InterruptedException {
+        BalanceCache shortLived = new BalanceCache(1);
+        shortLived.applyVersioned(ACCOUNT, allCurrencies(1, 100));
+        shortLived.put(ACCOUNT + 1, CurrencyType.USD, 10, shortLived.epoch());
+        Thread.sleep(20);
+        assertTrue(Double.isNaN(shortLived.get(ACCOUNT, CurrencyType.USD)));
+        assertFalse(shortLived.getAll(ACCOUNT, new double[CurrencyType.values().length]));
+        assertTrue(Double.isNaN(shortLived.get(ACCOUNT + 1, CurrencyType.USD)));
+    }
+
+    @Test
+    void zeroTtlDisablesCaching() {
+        cache.put(ACCOUNT, CurrencyType.USD, 10, cache.epoch());
+        cache.setTtl(0);
+        assertFalse(cache.isEnabled());
+        assertTrue(Double.isNaN(cache.get(ACCOUNT, CurrencyType.USD)));
+        cache.put(ACCOUNT, CurrencyType.USD, 10, cache.epoch());
+        cache.applyVersioned(ACCOUNT, trailer(1, CurrencyType.USD, 10.0));
+        assertTrue(Double.isNaN(cache.get(ACCOUNT, CurrencyType.USD)));
+        assertThrows(IllegalArgumentException.class, () -> cache.setTtl(-1));
+    }
+}
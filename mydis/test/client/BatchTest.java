@@ -0,0 +1,196 @@
+package client;
+
+import common.Constants;
+import common.Frame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchTest {
+    // the operations the server runs inside a batch; it answers any other item with STATUS_ERROR
+    private static final Set<Integer> BATCHABLE = Set.of(
+            Constants.OP_DEPOSIT, Constants.OP_WITHDRAW, Constants.OP_TRANSFER, Constants.OP_EXCHANGE);
+
+    private final LoopbackTransport transport = new LoopbackTransport(BatchTest::answerBatch);
+    private BankClientManager manager;
+    private UserSession session;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        manager = BankClientManager.create("127.0.0.1", Constants.SERVER_PORT, transport);
+        session = new UserSession(1, "alice", "secret");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        FrameLeaks.assertAllReleased();
+        manager.close();
+    }
+
+    /**
+     * Stands in for the server: every item of a batch fails if its account id (the
+     * first field of every item this test sends) is a multiple of 3, and succeeds
+     * otherwise. Anything other than a batch is answered with STATUS_ERROR.
+     */
+    private static ByteBuffer answerBatch(ByteBuffer request) {
+        int reqID = request.getInt();
+        int opCode = request.getInt() & Constants.OP_CODE_MASK;
+        ByteBuffer reply = ByteBuffer.allocate(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        reply.putInt(reqID);
+        if (opCode != Constants.OP_BATCH) {
+            reply.putInt(Constants.STATUS_ERROR).put((byte) 0).flip();
+            return reply;
+        }
+        int count = request.getInt();
+        int[] statuses = new int[count];
+        for (int i = 0; i < count; i++) {
+            request.getInt();
+            int length = request.getInt();
+            int accountId = request.getInt(request.position());
+            statuses[i] = accountId % 3 == 0 ? Constants.STATUS_FAIL : Constants.STATUS_OK;
+            request.position(request.position() + length);
+        }
+        reply.putInt(Constants.STATUS_OK);
+        reply.put("Batch processed".getBytes(StandardCharsets.UTF_8)).put((byte) 0);
+        reply.putInt(count);
+        for (int status : statuses) {
+            reply.putInt(status);
+        }
+        reply.flip();
+        return reply;
+    }
+
+    private static int itemCount(ByteBuffer frame) {
+        return frame.getInt(Frame.HEADER_SIZE);
+    }
+
+    private static int payloadLength(ByteBuffer frame) {
+        boolean hasNonce = (frame.getInt(4) & Constants.OP_FLAG_REQUEST_ID) != 0;
+        return frame.limit() - Frame.HEADER_SIZE - (hasNonce ? Frame.NONCE_SIZE : 0);
+    }
+
+    @Test
+    void smallBatchGoesInOneFrame() throws Exception {
+        BatchResult result = new Batch(manager, session)
+                .deposit(1, "USD", 10f)
+                .withdraw(2, "USD", 5f)
+                .execute();
+
+        assertEquals(1, result.getFrameCount());
+        List<ByteBuffer> sent = transport.sent();
+        assertEquals(1, sent.size());
+        assertEquals(2, itemCount(sent.get(0)));
+        assertTrue(result.isAllSuccess());
+    }
+
+    @Test
+    void splitsAtMaxPayload() throws Exception {
+        // names of every length from 1 to 40 move the item size around, so some packings
+        // end within a few bytes of MAX_PAYLOAD
+        for (int nameLength = 1; nameLength <= 40; nameLength++) {
+            UserSession user = new UserSession(1, "n".repeat(nameLength), "secret");
+            int sentBefore = transport.sent().size();
+            Batch batch = new Batch(manager, user);
+            int items = 200;
+            for (int i = 1; i <= items; i++) {
+                batch.deposit(i, "USD", 1f);
+            }
+            BatchResult result = batch.execute();
+
+            List<ByteBuffer> sent = transport.sent();
+            sent = sent.subList(sentBefore, sent.size());
+            assertTrue(sent.size() > 1, "200 deposits fit in one frame");
+            assertEquals(sent.size(), result.getFrameCount());
+            int total = 0;
+            for (int i = 0; i < sent.size(); i++) {
+                ByteBuffer frame = sent.get(i);
+                int count = itemCount(frame);
+                int length = payloadLength(frame);
+                assertTrue(length <= Frame.MAX_PAYLOAD, "frame " + i + " carries " + length + " bytes");
+                if (i < sent.size() - 1) {
+                    // every item is the same size, so a frame that is not the last one is full
+                    int itemSize = (length - Batch.BATCH_HEADER_SIZE) / count;
+                    assertTrue(length + itemSize > Frame.MAX_PAYLOAD, "frame " + i + " had room for another item");
+                }
+                total += count;
+            }
+            assertEquals(items, total);
+            assertEquals(items, result.size());
+        }
+    }
+
+    @Test
+    void statusesFollowTheOrderItemsWereAdded() throws Exception {
+        Batch batch = new Batch(manager, session);
+        int items = 100;
+        for (int i = 1; i <= items; i++) {
+            if (i % 2 == 0) {
+                batch.deposit(i, "USD", 1f);
+            } else {
+                batch.withdraw(i, "SGD", 1f);
+            }
+        }
+        BatchResult result = batch.execute();
+
+        assertTrue(result.getFrameCount() > 1);
+        for (int i = 0; i < items; i++) {
+            int accountId = i + 1;
+            int expected = accountId % 3 == 0 ? Constants.STATUS_FAIL : Constants.STATUS_OK;
+            assertEquals(expected, result.getStatus(i), "item " + i);
+        }
+        assertEquals(items - items / 3, result.getSuccessCount());
+        assertFalse(result.isAllSuccess());
+    }
+
+    @Test
+    void onlyBatchableOperationsAreSent() throws Exception {
+        new Batch(manager, session)
+                .deposit(1, "USD", 1f)
+                .withdraw(1, "USD", 1f)
+                .transfer(2, "USD", 1f)
+                .exchange("USD", "SGD", 1f)
+                .execute();
+
+        ByteBuffer frame = transport.sent().get(0);
+        frame.position(Frame.HEADER_SIZE);
+        int count = frame.getInt();
+        assertEquals(4, count);
+        for (int i = 0; i < count; i++) {
+            int opCode = frame.getInt() & Constants.OP_CODE_MASK;
+            assertTrue(BATCHABLE.contains(opCode), "item " + i + " has opcode " + opCode);
+            int length = frame.getInt();
+            frame.position(frame.position() + length);
+        }
+    }
+
+    @Test
+    void failedFrameMarksAllItsItems() throws Exception {
+        LoopbackTransport failing = new LoopbackTransport(request -> {
+            ByteBuffer reply = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            reply.putInt(request.getInt(0)).putInt(Constants.STATUS_ERROR).put((byte) 0).flip();
+            return reply;
+        });
+        BankClientManager failingManager = BankClientManager.create("127.0.0.1", Constants.SERVER_PORT, failing);
+        try {
+            BatchResult result = new Batch(failingManager, session)
+                    .deposit(1, "USD", 1f)
+                    .deposit(2, "USD", 1f)
+                    .execute();
+            assertEquals(Constants.STATUS_ERROR, result.getStatus(0));
+            assertEquals(Constants.STATUS_ERROR, result.getStatus(1));
+        } finally {
+            FrameLeaks.assertAllReleased();
+            failingManager.close();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CongestionWindowTest {
+    private static final int NO_QUEUE = 0;
+
+    /**
+     * One round trip of a sender that always has more to send: a window's worth of
+     * replies, each slot refilled as soon as it frees. Returns the window after it.
+     */
+    private static int fullRound(CongestionWindow window) {
+        fill(window);
+        int size = window.getWindow();
+        for (int i = 0; i < size; i++) {
+            window.release(true);
+            fill(window);
+        }
+        return window.getWindow();
+    }
+
+    private static void fill(CongestionWindow window) {
+        while (window.acquire(() -> { }, NO_QUEUE) == CongestionWindow.Admission.ADMITTED) {
+            // fill the window
+        }
+    }
+
+    // the rest of a lost flight times out
+    private static void drain(CongestionWindow window) {
+        while (window.getOutstanding() > 0) {
+            window.release(false);
+        }
+    }
+
+    @Test
+    void admitsUpToTheWindowThenQueuesThenRejects() {
+        CongestionWindow window = new CongestionWindow();
+        for (int i = 0; i < CongestionWindow.INITIAL_WINDOW; i++) {
+            assertEquals(CongestionWindow.Admission.ADMITTED, window.acquire(() -> { }, 1));
+        }
+        assertEquals(CongestionWindow.Admission.QUEUED, window.acquire(() -> { }, 1));
+        assertEquals(CongestionWindow.Admission.REJECTED, window.acquire(() -> { }, 1));
+        assertEquals(CongestionWindow.INITIAL_WINDOW, window.getOutstanding());
+        assertEquals(1, window.getWaiting());
+    }
+
+    @Test
+    void releaseAdmitsWaitersInOrder() {
+        CongestionWindow window = new CongestionWindow();
+        window.setMaxWindow(2);
+        fill(window);
+        List<Integer> admitted = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int n = i;
+            assertEquals(CongestionWindow.Admission.QUEUED, window.acquire(() -> admitted.add(n), 10));
+        }
+        // a timeout frees a slot without growing the window
+        window.release(false);
+        assertEquals(List.of(0), admitted);
+        window.release(false);
+        assertEquals(List.of(0, 1), admitted);
+        assertEquals(2, window.getOutstanding());
+        assertEquals(1, window.getWaiting());
+        // a newcomer may not overtake the one still waiting
+        assertEquals(CongestionWindow.Admission.QUEUED, window.acquire(() -> admitted.add(3), 10));
+        window.release(true);
+        assertEquals(List.of(0, 1, 2), admitted);
+    }
+
+    @Test
+    void slowStartDoublesPerRoundUpToTheThreshold() {
+        CongestionWindow window = new CongestionWindow();
+        int size = CongestionWindow.INITIAL_WINDOW;
+        while (size < CongestionWindow.INITIAL_SLOW_START_THRESHOLD) {
+            size = fullRound(window);
+        }
+        assertEquals(CongestionWindow.INITIAL_SLOW_START_THRESHOLD, size);
+        // past the threshold, about one request per round
+        for (int i = 0; i < 4; i++) {
+            fullRound(window);
+        }
+        assertTrue(window.getWindow() >= size + 3 && window.getWindow() <= size + 4, "window " + window.getWindow());
+    }
+
+    @Test
+    void repliesOnlyGrowAFullWindow() {
+        CongestionWindow window = new CongestionWindow();
+        for (int i = 0; i < 100; i++) {
+            window.acquire(() -> { }, NO_QUEUE);
+            window.release(true);
+        }
+        assertEquals(CongestionWindow.INITIAL_WINDOW, window.getWindow());
+    }
+
+    @Test
+    void neverGrowsPastItsCap() {
+        CongestionWindow window = new CongestionWindow();
+        window.setMaxWindow(20);
+        for (int i = 0; i < 50; i++) {
+            fullRound(window);
+        }
+        assertEquals(20, window.getWindow());
+        assertEquals(20, window.getMaxWindow());
+
+        window.setMaxWindow(5);
+        assertEquals(5, window.getWindow());
+        window.setMaxWindow(CongestionWindow.MAX_WINDOW * 2);
+        assertEquals(CongestionWindow.MAX_WINDOW, window.getMaxWindow());
+        window.setMaxWindow(0);
+        assertEquals(CongestionWindow.MIN_WINDOW, window.getMaxWindow());
+    }
+
+    @Test
+    void lossHalvesOncePerRecoveryPeriod() throws InterruptedException {
+        CongestionWindow window = new CongestionWindow();
+        while (window.getWindow() < 32) {
+            fullRound(window);
+        }
+        int before = window.getWindow();
+        fill(window);
+        long sentNanos = System.nanoTime();
+        window.onLoss(sentNanos);
+        assertEquals(before / 2, window.getWindow());
+        // other requests of the same flight report the same congestion
+        window.onLoss(sentNanos);
+        assertEquals(before / 2, window.getWindow());
+        assertEquals(1, window.getDecreases());
+        drain(window);
+
+        // after the cut the window grows linearly: slow start ended where it was cut
+        for (int i = 0; i < 4; i++) {
+            fullRound(window);
+        }
+        int grown = window.getWindow();
+        assertTrue(grown >= before / 2 + 3 && grown <= before / 2 + 4, "window " + grown);
+
+        Thread.sleep(1);
+        window.onLoss(System.nanoTime());
+        assertEquals(grown / 2, window.getWindow());
+        assertEquals(2, window.getDecreases());
+    }
+
+    @Test
+    void lossNeverShrinksBelowTheMinimum() throws InterruptedException {
+        CongestionWindow window = new CongestionWindow();
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(1);
+            window.onLoss(System.nanoTime());
+        }
+        assertEquals(CongestionWindow.MIN_WINDOW, window.getWindow());
+        assertEquals(CongestionWindow.Admission.ADMITTED, window.acquire(() -> { }, NO_QUEUE));
+    }
+
+    @Test
+    void lateRepliesCutAtMostOncePerInterval() throws InterruptedException {
+        CongestionWindow window = new CongestionWindow();
+        long interval = 50_000_000L;
+        Thread.sleep(60);
+        window.onLateReply(interval);
+        assertEquals(CongestionWindow.INITIAL_WINDOW / 2, window.getWindow());
+        window.onLateReply(interval);
+        window.onLateReply(interval);
+        assertEquals(CongestionWindow.INITIAL_WINDOW / 2, window.getWindow());
+        assertEquals(1, window.getDecreases());
+        Thread.sleep(60);
+        window.onLateReply(interval);
+        assertEquals(2, window.getDecreases());
+        assertTrue(window.getWindow() < CongestionWindow.INITIAL_WINDOW / 2);
+    }
+}
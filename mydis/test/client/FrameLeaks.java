@@ -0,0 +1,32 @@
+package client;
+
+import common.BufferPool;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that every request frame went back to BufferPool.requests(). Run with
+ * -Dmydis.bufferpool.leaks=true (surefire sets it), or there is nothing to check.
+ */
+final class FrameLeaks {
+    private FrameLeaks() {
+    }
+
+    /**
+     * Completed requests hand their frame back on the client's retry timer, so this
+     * gives the timer a moment before failing; call it before closing the client.
+     */
+    static void assertAllReleased() throws InterruptedException {
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        while (!BufferPool.requests().getOutstandingTraces().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        List<Throwable> outstanding = BufferPool.requests().getOutstandingTraces();
+        if (!outstanding.isEmpty()) {
+            outstanding.get(0).printStackTrace();
+        }
+        assertEquals(0, outstanding.size(), "request frames not released");
+    }
+}
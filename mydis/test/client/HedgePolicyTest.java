@@ -0,0 +1,96 @@
+package client;
+
+import common.Constants;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgePolicyTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    void onlyBalanceQueriesAreHedgedByDefault() {
+        HedgePolicy policy = new HedgePolicy();
+        assertTrue(policy.isHedged(Constants.OP_CHECK_BALANCE));
+        assertTrue(policy.isHedged(Constants.OP_CHECK_ALL_BALANCES | Constants.OP_FLAG_TOKEN));
+        assertFalse(policy.isHedged(Constants.OP_DEPOSIT));
+        assertEquals(-1, policy.onRequest(Constants.OP_DEPOSIT));
+
+        policy.hedge(Constants.OP_DEPOSIT);
+        assertTrue(policy.isHedged(Constants.OP_DEPOSIT));
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new HedgePolicy(0, 0.05, 1));
+        assertThrows(IllegalArgumentException.class, () -> new HedgePolicy(100, 0.05, 1));
+        assertThrows(IllegalArgumentException.class, () -> new HedgePolicy(95, -0.1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new HedgePolicy(95, 0.05, -1));
+    }
+
+    @Test
+    void delayWaitsForEnoughSamplesThenFollowsThePercentile() {
+        HedgePolicy policy = new HedgePolicy(90, 0.05, 1);
+        ClientMetrics metrics = new ClientMetrics();
+        assertEquals(-1, policy.onRequest(Constants.OP_CHECK_BALANCE));
+
+        for (int i = 0; i < HedgePolicy.MIN_SAMPLES - 1; i++) {
+            metrics.onReply(Constants.OP_CHECK_BALANCE, Constants.STATUS_OK, 10 * MS, 1);
+        }
+        policy.refresh(metrics);
+        assertEquals(-1, policy.onRequest(Constants.OP_CHECK_BALANCE));
+
+        // 90% of replies at 10 ms, the slowest tenth at 50 ms
+        for (int i = 0; i < 9 * HedgePolicy.MIN_SAMPLES; i++) {
+            metrics.onReply(Constants.OP_CHECK_BALANCE, Constants.STATUS_OK, i % 10 == 0 ? 50 * MS : 10 * MS, 1);
+        }
+        policy.refresh(metrics);
+        long delay = policy.onRequest(Constants.OP_CHECK_BALANCE);
+        assertTrue(delay >= 9 * MS && delay <= 12 * MS, "delay " + delay);
+    }
+
+    @Test
+    void delayIsNeverBelowTheMinimum() {
+        HedgePolicy policy = new HedgePolicy(95, 0.05, 5);
+        ClientMetrics metrics = new ClientMetrics();
+        for (int i = 0; i < HedgePolicy.MIN_SAMPLES; i++) {
+            metrics.onReply(Constants.OP_CHECK_BALANCE, Constants.STATUS_OK, MS / 10, 1);
+        }
+        policy.refresh(metrics);
+        assertEquals(5 * MS, policy.onRequest(Constants.OP_CHECK_BALANCE));
+    }
+
+    @Test
+    void hedgesArePaidForFromTheBudget() {
+        HedgePolicy policy = new HedgePolicy(95, 0.05, 1);
+        // a full budget allows a burst of ten
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.tryAcquire());
+        }
+        assertFalse(policy.tryAcquire());
+
+        // then one hedge per twenty requests
+        for (int i = 0; i < 19; i++) {
+            policy.onRequest(Constants.OP_CHECK_BALANCE);
+        }
+        assertFalse(policy.tryAcquire());
+        policy.onRequest(Constants.OP_CHECK_BALANCE);
+        assertTrue(policy.tryAcquire());
+        assertFalse(policy.tryAcquire());
+    }
+
+    @Test
+    void requestsThatAreNotHedgedDoNotFillTheBudget() {
+        HedgePolicy policy = new HedgePolicy(95, 0.5, 1);
+        while (policy.tryAcquire()) {
+            // spend the burst
+        }
+        for (int i = 0; i < 10; i++) {
+            policy.onRequest(Constants.OP_DEPOSIT);
+        }
+        assertFalse(policy.tryAcquire());
+    }
+}
@@ -0,0 +1,233 @@
+package client;
+
+import common.Constants;
+import common.CurrencyType;
+import common.EntryType;
+import common.Frame;
+import common.Marshaller;
+import common.codec.HistoryEntryReply;
+import common.codec.HistoryPageReply;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryStreamTest {
+    private static final EntryType[] TYPES = EntryType.values();
+    private static final CurrencyType[] CURRENCIES = CurrencyType.values();
+
+    /**
+     * Answers OP_HISTORY pages from a history of `length` entries the way the server
+     * does, with typed replies whose buffers count themselves back when released.
+     */
+    private static final class FakeServer implements HistoryStream.PageFetcher {
+        private long length;
+        private final int maxPageEntries;
+        private final List<Long> cursors = new ArrayList<>();
+        private final List<CompletableFuture<BankClientManager.Result>> timeouts = new ArrayList<>();
+        private int sent;
+        private int released;
+        private long timeoutAt = -1;
+        private int timeoutsLeft;
+        private long failAt = -1;
+
+        FakeServer(long length, int maxPageEntries) {
+            this.length = length;
+            this.maxPageEntries = maxPageEntries;
+        }
+
+        @Override
+        public CompletableFuture<BankClientManager.Result> fetch(long cursor, int maxEntries) {
+            cursors.add(cursor);
+            if (cursor == timeoutAt && timeoutsLeft > 0) {
+                timeoutsLeft--;
+                return CompletableFuture.completedFuture(BankClientManager.Result.noResponse(3));
+            }
+            sent++;
+            ByteBuffer datagram = ByteBuffer.allocate(Constants.MAX_REPLY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            datagram.position(Frame.HEADER_SIZE);
+            if (cursor == failAt) {
+                Marshaller.packUtf8(datagram, "Invalid credentials");
+                return view(Constants.STATUS_FAIL, datagram);
+            }
+            int count = (int) Math.max(0, Math.min(Math.min(maxEntries, maxPageEntries), length - cursor));
+            Marshaller.packUtf8(datagram, "History page");
+            HistoryPageReply.encode(datagram, cursor + count, length, count);
+            for (long seq = cursor; seq < cursor + count; seq++) {
+                HistoryEntryReply.encode(datagram, seq, 1_000_000 + seq, (int) (seq % TYPES.length),
+                        (int) (seq % CURRENCIES.length), seq + 0.5, seq * 10.0, (int) seq % 3 == 0 ? (int) seq : -1);
+            }
+            return view(Constants.STATUS_OK, datagram);
+        }
+
+        private CompletableFuture<BankClientManager.Result> view(int status, ByteBuffer datagram) {
+            datagram.flip().position(Frame.HEADER_SIZE);
+            return CompletableFuture.completedFuture(BankClientManager.Result.view(status,
+                    Constants.REPLY_VERSION_TYPED, datagram, 1, buf -> released++));
+        }
+
+        void assertAllReleased() {
+            assertEquals(sent, released, "page replies not released");
+        }
+    }
+
+    private static List<Long> seqs(HistoryStream stream) {
+        List<Long> seqs = new ArrayList<>();
+        while (stream.hasNext()) {
+            seqs.add(stream.next().getSeq());
+        }
+        return seqs;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> seqs = new ArrayList<>();
+        for (long seq = from; seq < to; seq++) {
+            seqs.add(seq);
+        }
+        return seqs;
+    }
+
+    @Test
+    void readsEveryEntryAcrossPages() {
+        FakeServer server = new FakeServer(23, 100);
+        HistoryStream stream = new HistoryStream(server, 0, 5, 2);
+
+        List<HistoryEntry> entries = new ArrayList<>();
+        while (stream.hasNext()) {
+            entries.add(stream.next());
+        }
+
+        assertEquals(23, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            HistoryEntry entry = entries.get(i);
+            assertEquals(i, entry.getSeq());
+            assertEquals(1_000_000 + i, entry.getTimeMillis());
+            assertEquals(TYPES[i % TYPES.length], entry.getType());
+            assertEquals(CURRENCIES[i % CURRENCIES.length], entry.getCurrency());
+            assertEquals(i + 0.5, entry.getAmount(), 1e-9);
+            assertEquals(i * 10.0, entry.getBalance(), 1e-9);
+            assertEquals(i % 3 == 0 ? i : -1, entry.getCounterparty());
+        }
+        assertEquals(List.of(0L, 5L, 10L, 15L, 20L), server.cursors);
+        assertEquals(23, stream.getCursor());
+        assertThrows(NoSuchElementException.class, stream::next);
+        server.assertAllReleased();
+    }
+
+    @Test
+    void keepsAWindowOfPagesInFlight() {
+        FakeServer server = new FakeServer(100, 100);
+        HistoryStream stream = new HistoryStream(server, 0, 10, 3);
+        assertEquals(1, server.cursors.size());
+
+        stream.next();
+        // the first page gave the length: the window is topped up behind it
+        assertEquals(List.of(0L, 10L, 20L, 30L), server.cursors);
+        for (int i = 1; i < 11; i++) {
+            stream.next();
+        }
+        assertEquals(5, server.cursors.size());
+        stream.close();
+        assertFalse(stream.hasNext());
+        server.assertAllReleased();
+    }
+
+    @Test
+    void startsFromTheCursor() {
+        FakeServer server = new FakeServer(12, 100);
+        HistoryStream stream = new HistoryStream(server, 7, 4, 2);
+        assertEquals(range(7, 12), seqs(stream));
+        server.assertAllReleased();
+    }
+
+    @Test
+    void emptyHistoryEndsAtOnce() {
+        FakeServer server = new FakeServer(0, 100);
+        HistoryStream stream = new HistoryStream(server, 0, 5, 4);
+        assertFalse(stream.hasNext());
+        assertEquals(List.of(0L), server.cursors);
+        server.assertAllReleased();
+    }
+
+    @Test
+    void emptyPageEndsTheListing() {
+        // the first page reports 20 entries, but the history is cut short before the rest is sent
+        FakeServer server = new FakeServer(20, 100);
+        HistoryStream stream = new HistoryStream(server, 0, 5, 3);
+        server.length = 8;
+
+        assertEquals(range(0, 8), seqs(stream));
+        assertEquals(8, stream.getCursor());
+        server.assertAllReleased();
+    }
+
+    @Test
+    void cappedPagesAreFollowedWithoutGaps() {
+        FakeServer server = new FakeServer(30, 4);
+        HistoryStream stream = new HistoryStream(server, 0, 10, 3);
+        assertEquals(range(0, 30), seqs(stream));
+        server.assertAllReleased();
+    }
+
+    @Test
+    void timedOutPageIsSentAgain() {
+        FakeServer server = new FakeServer(15, 100);
+        server.timeoutAt = 5;
+        server.timeoutsLeft = 2;
+        HistoryStream stream = new HistoryStream(server, 0, 5, 1);
+        assertEquals(range(0, 15), seqs(stream));
+        assertEquals(List.of(0L, 5L, 5L, 5L, 10L), server.cursors);
+        server.assertAllReleased();
+    }
+
+    @Test
+    void failedPageStopsTheStreamWhereItCanResume() {
+        FakeServer server = new FakeServer(15, 100);
+        server.timeoutAt = 10;
+        server.timeoutsLeft = 3;
+        HistoryStream stream = new HistoryStream(server, 0, 5, 2);
+        List<Long> read = new ArrayList<>();
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> {
+            while (stream.hasNext()) {
+                read.add(stream.next().getSeq());
+            }
+        });
+        assertTrue(e.getMessage().contains("10"), e.getMessage());
+        assertEquals(range(0, 10), read);
+        assertEquals(10, stream.getCursor());
+
+        HistoryStream resumed = new HistoryStream(server, stream.getCursor(), 5, 2);
+        assertEquals(range(10, 15), seqs(resumed));
+        server.assertAllReleased();
+    }
+
+    @Test
+    void failureReplyIsReported() {
+        FakeServer server = new FakeServer(15, 100);
+        server.failAt = 0;
+        HistoryStream stream = new HistoryStream(server, 0, 5, 2);
+        IllegalStateException e = assertThrows(IllegalStateException.class, stream::hasNext);
+        assertTrue(e.getMessage().endsWith("Invalid credentials"), e.getMessage());
+        assertFalse(stream.hasNext());
+        server.assertAllReleased();
+    }
+
+    @Test
+    void closingTheStreamReleasesItsPages() {
+        FakeServer server = new FakeServer(50, 100);
+        try (HistoryStream stream = new HistoryStream(server, 0, 5, 4)) {
+            assertEquals(range(0, 7), stream.stream().limit(7).map(HistoryEntry::getSeq).collect(Collectors.toList()));
+        }
+        server.assertAllReleased();
+    }
+}
@@ -0,0 +1,106 @@
+package client;
+
+import common.DatagramTransport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * DatagramTransport that stays in the process: every frame sent is handed to a
+ * handler standing in for the server, and the reply it returns, if any, is what
+ * the next receive() delivers, as if it came from the address the frame went to.
+ */
+class LoopbackTransport implements DatagramTransport {
+    private static final Reply CLOSED = new Reply(null, null);
+
+    private final Function<ByteBuffer, ByteBuffer> server;
+    private final BlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+    private final List<ByteBuffer> sent = new ArrayList<>();
+    private volatile boolean open = true;
+
+    LoopbackTransport(Function<ByteBuffer, ByteBuffer> server) {
+        this.server = server;
+    }
+
+    /**
+     * Little-endian copies of the frames sent so far, each from 0 to its length.
+     */
+    synchronized List<ByteBuffer> sent() {
+        List<ByteBuffer> copies = new ArrayList<>(sent.size());
+        for (ByteBuffer frame : sent) {
+            copies.add(frame.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        }
+        return copies;
+    }
+
+    @Override
+    public void send(ByteBuffer frame, InetSocketAddress target) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        copy.put(frame.duplicate()).flip();
+        synchronized (this) {
+            sent.add(copy);
+        }
+        ByteBuffer reply = server.apply(copy.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        if (reply != null) {
+            replies.add(new Reply(reply, target));
+        }
+    }
+
+    @Override
+    public InetSocketAddress receive(ByteBuffer dst, long timeoutMillis) throws IOException {
+        Reply reply;
+        try {
+            reply = timeoutMillis == 0 ? replies.take() : replies.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (reply == null || reply == CLOSED) {
+            return null;
+        }
+        ByteBuffer data = reply.data.duplicate();
+        data.limit(data.position() + Math.min(data.remaining(), dst.remaining()));
+        dst.put(data);
+        return reply.source;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public int getReceiveBufferSize() {
+        // as roomy as a tuned socket, so the congestion window is not what a test measures
+        return 1 << 20;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        replies.add(CLOSED);
+    }
+
+    private static final class Reply {
+        private final ByteBuffer data;
+        private final InetSocketAddress source;
+
+        private Reply(ByteBuffer data, InetSocketAddress source) {
+            this.data = data;
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package client;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicaSetTest {
+    private static final long MS = 1_000_000L;
+
+    private long now = 1_000_000_000L;
+
+    private ReplicaSet replicas(int n) {
+        List<InetSocketAddress> servers = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            servers.add(new InetSocketAddress("127.0.0.1", 2222 + i));
+        }
+        return new ReplicaSet(servers, new Random(42), () -> now);
+    }
+
+    private static void measure(Replica replica, long rttNanos) {
+        replica.onSend();
+        replica.onReply(rttNanos);
+    }
+
+    private static void eject(Replica replica) {
+        for (int i = 0; i < Replica.EJECT_AFTER_FAILURES; i++) {
+            replica.onSend();
+            replica.onAbandoned();
+            replica.onTimeout();
+        }
+    }
+
+    private static int[] selections(ReplicaSet set, int n) {
+        int[] counts = new int[set.size()];
+        for (int i = 0; i < n; i++) {
+            counts[set.getReplicas().indexOf(set.select())]++;
+        }
+        return counts;
+    }
+
+    @Test
+    void firstServerIsThePrimary() {
+        ReplicaSet set = replicas(3);
+        assertTrue(set.primary().isPrimary());
+        assertFalse(set.getReplicas().get(1).isPrimary());
+        assertSame(set.getReplicas().get(2), set.find(new InetSocketAddress("127.0.0.1", 2224)));
+        assertNull(set.find(new InetSocketAddress("127.0.0.1", 2225)));
+        assertThrows(IllegalArgumentException.class, () -> new ReplicaSet(List.of()));
+    }
+
+    @Test
+    void parsesHostsWithAndWithoutPorts() throws UnknownHostException {
+        ReplicaSet set = ReplicaSet.parse("127.0.0.1:3000, 127.0.0.2,,", 2222);
+        assertEquals(2, set.size());
+        assertEquals(new InetSocketAddress("127.0.0.1", 3000), set.primary().getAddress());
+        assertEquals(new InetSocketAddress("127.0.0.2", 2222), set.getReplicas().get(1).getAddress());
+    }
+
+    @Test
+    void twoChoicesNeverPicksTheWorstReplica() {
+        ReplicaSet set = replicas(3);
+        List<Replica> r = set.getReplicas();
+        measure(r.get(0), 10 * MS);
+        measure(r.get(1), 20 * MS);
+        measure(r.get(2), 30 * MS);
+
+        int[] counts = selections(set, 3000);
+        // the fastest wins both pairs it is sampled in, the middle one only the pair without it
+        assertEquals(0, counts[2]);
+        assertTrue(counts[0] > 1800 && counts[0] < 2200, "fastest chosen " + counts[0] + " times");
+        assertEquals(3000, counts[0] + counts[1]);
+    }
+
+    @Test
+    void sameSeedMakesTheSameChoices() {
+        ReplicaSet a = replicas(4);
+        ReplicaSet b = replicas(4);
+        for (int i = 0; i < 4; i++) {
+            measure(a.getReplicas().get(i), (i + 1) * MS);
+            measure(b.getReplicas().get(i), (i + 1) * MS);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(a.getReplicas().indexOf(a.select()), b.getReplicas().indexOf(b.select()));
+        }
+    }
+
+    @Test
+    void outstandingRequestsCountAgainstAFastReplica() {
+        ReplicaSet set = replicas(2);
+        Replica fast = set.getReplicas().get(0);
+        Replica slow = set.getReplicas().get(1);
+        measure(fast, 10 * MS);
+        measure(slow, 20 * MS);
+        assertSame(fast, set.select());
+
+        // 10 ms behind two queued requests costs more than 20 ms behind none
+        fast.onSend();
+        fast.onSend();
+        assertSame(slow, set.select());
+
+        fast.onReply(-1);
+        fast.onReply(-1);
+        assertSame(fast, set.select());
+    }
+
+    @Test
+    void oldSamplesDecay() {
+        ReplicaSet set = replicas(2);
+        Replica once = set.getReplicas().get(0);
+        Replica steady = set.getReplicas().get(1);
+        measure(once, 100 * MS);
+        measure(steady, 20 * MS);
+        assertSame(steady, set.select());
+
+        // five halvings take the old 100 ms sample down to about 3 ms
+        now += 5 * Replica.DECAY_NANOS + 1;
+        measure(steady, 20 * MS);
+        assertSame(once, set.select());
+    }
+
+    @Test
+    void consecutiveTimeoutsEjectAReplica() {
+        ReplicaSet set = replicas(2);
+        Replica flaky = set.getReplicas().get(1);
+
+        for (int i = 0; i < Replica.EJECT_AFTER_FAILURES - 1; i++) {
+            flaky.onSend();
+            flaky.onAbandoned();
+            flaky.onTimeout();
+        }
+        measure(flaky, MS);
+        flaky.onTimeout();
+        assertTrue(flaky.isHealthy(), "a reply resets the timeout count");
+
+        eject(flaky);
+        assertFalse(flaky.isHealthy());
+        assertEquals(1, flaky.getEjections());
+        assertEquals(now + Replica.MIN_EJECTION_NANOS, flaky.ejectedUntilNanos());
+        int[] counts = selections(set, 100);
+        assertEquals(100, counts[0]);
+        assertSame(set.primary(), set.selectOther(flaky));
+    }
+
+    @Test
+    void ejectedReplicaIsProbedOnceItsCooldownEnds() {
+        ReplicaSet set = replicas(2);
+        Replica flaky = set.getReplicas().get(1);
+        eject(flaky);
+
+        now += Replica.MIN_EJECTION_NANOS - 1;
+        assertSame(set.primary(), set.select());
+        now += 1;
+        assertSame(flaky, set.select());
+        // one probe at a time
+        assertEquals(100, selections(set, 100)[0]);
+
+        measure(flaky, MS);
+        assertTrue(flaky.isHealthy());
+        assertEquals(1, flaky.getEjections());
+    }
+
+    @Test
+    void failedProbeDoublesTheCooldown() {
+        ReplicaSet set = replicas(2);
+        Replica flaky = set.getReplicas().get(1);
+        eject(flaky);
+
+        now += Replica.MIN_EJECTION_NANOS;
+        assertSame(flaky, set.select());
+        flaky.onTimeout();
+        assertEquals(now + 2 * Replica.MIN_EJECTION_NANOS, flaky.ejectedUntilNanos());
+
+        now += Replica.MIN_EJECTION_NANOS;
+        assertEquals(100, selections(set, 100)[0]);
+        now += Replica.MIN_EJECTION_NANOS;
+        assertSame(flaky, set.select());
+
+        // a good probe starts the next ejection from the minimum again
+        measure(flaky, MS);
+        eject(flaky);
+        assertEquals(now + Replica.MIN_EJECTION_NANOS, flaky.ejectedUntilNanos());
+        assertEquals(2, flaky.getEjections());
+    }
+
+    @Test
+    void cooldownIsCapped() {
+        ReplicaSet set = replicas(2);
+        Replica flaky = set.getReplicas().get(1);
+        eject(flaky);
+        for (int i = 0; i < 10; i++) {
+            now = flaky.ejectedUntilNanos();
+            assertSame(flaky, set.select());
+            flaky.onTimeout();
+        }
+        assertEquals(now + Replica.MAX_EJECTION_NANOS, flaky.ejectedUntilNanos());
+    }
+
+    @Test
+    void allEjectedFallsBackToTheReplicaDueSoonest() {
+        ReplicaSet set = replicas(3);
+        List<Replica> r = set.getReplicas();
+        eject(r.get(1));
+        now += 100 * MS;
+        eject(r.get(0));
+        now += 100 * MS;
+        eject(r.get(2));
+
+        for (int i = 0; i < 20; i++) {
+            assertSame(r.get(1), set.select());
+        }
+    }
+}
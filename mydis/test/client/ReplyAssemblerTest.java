@@ -0,0 +1,142 @@
+package client;
+
+import common.Constants;
+import common.Fragments;
+import common.Frame;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplyAssemblerTest {
+    private static final InetSocketAddress SERVER = new InetSocketAddress("127.0.0.1", 2222);
+    private static final InetSocketAddress OTHER_SERVER = new InetSocketAddress("127.0.0.1", 2223);
+    private static final int REQ_ID = 17;
+    private static final int STATUS = Frame.withVersion(Constants.STATUS_OK, 1);
+    private static final int BODY_LENGTH = 3 * Fragments.MAX_FRAGMENT_DATA + 123;
+    private static final int COUNT = 4;
+
+    private final ByteBuffer reply = replyFrame();
+
+    private static ByteBuffer replyFrame() {
+        ByteBuffer frame = ByteBuffer.allocate(Frame.HEADER_SIZE + BODY_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(REQ_ID).putInt(STATUS);
+        for (int i = 0; i < BODY_LENGTH; i++) {
+            frame.put((byte) (i * 13 + 5));
+        }
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Fragment index as the client's receiver sees it: positioned after the fragment header.
+     */
+    private ByteBuffer fragment(int index) {
+        ByteBuffer datagram = ByteBuffer.allocate(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        Fragments.write(reply, index, datagram);
+        datagram.position(Frame.HEADER_SIZE + Fragments.FRAGMENT_HEADER_SIZE);
+        return datagram;
+    }
+
+    private ReplyAssembler assembler() {
+        ReplyAssembler assembler = ReplyAssembler.create(SERVER, REQ_ID, STATUS, COUNT, BODY_LENGTH);
+        assertNotNull(assembler);
+        return assembler;
+    }
+
+    private boolean add(ReplyAssembler assembler, int index) {
+        return assembler.add(SERVER, STATUS, index, COUNT, BODY_LENGTH, fragment(index));
+    }
+
+    private static List<Integer> missing(ReplyAssembler assembler) {
+        ByteBuffer buf = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        assembler.packMissing(buf);
+        buf.flip();
+        int n = buf.getInt();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            indexes.add((int) buf.getShort());
+        }
+        assertEquals(0, buf.remaining());
+        return indexes;
+    }
+
+    private void assertReassembled(ReplyAssembler assembler) {
+        ByteBuffer frame = assembler.frame();
+        assertEquals(Frame.HEADER_SIZE, frame.position());
+        assertEquals(reply.limit(), frame.limit());
+        assertEquals(REQ_ID, frame.getInt(0));
+        assertEquals(STATUS, frame.getInt(4));
+        assertEquals(reply.rewind(), frame.rewind());
+    }
+
+    @Test
+    void reassemblesFragmentsInAnyOrder() {
+        ReplyAssembler assembler = assembler();
+        assertFalse(add(assembler, 2));
+        assertFalse(add(assembler, 0));
+        assertFalse(add(assembler, 3));
+        assertTrue(add(assembler, 1));
+        assertReassembled(assembler);
+        assertEquals(STATUS, assembler.getStatusWord());
+        assertEquals(SERVER, assembler.getSource());
+    }
+
+    @Test
+    void duplicatesAndForeignFragmentsAreIgnored() {
+        ReplyAssembler assembler = assembler();
+        assertFalse(add(assembler, 0));
+        assertFalse(add(assembler, 0));
+        // a hedge answered by another server, and fragments of a different reply
+        assertFalse(assembler.add(OTHER_SERVER, STATUS, 1, COUNT, BODY_LENGTH, fragment(1)));
+        assertFalse(assembler.add(SERVER, STATUS + 1, 1, COUNT, BODY_LENGTH, fragment(1)));
+        assertFalse(assembler.add(SERVER, STATUS, 1, COUNT, BODY_LENGTH + 1, fragment(1)));
+        assertFalse(assembler.add(SERVER, STATUS, COUNT, COUNT, BODY_LENGTH, fragment(1)));
+        // data of the wrong length for its index
+        assertFalse(assembler.add(SERVER, STATUS, 3, COUNT, BODY_LENGTH, fragment(1)));
+        assertEquals(List.of(1, 2, 3), missing(assembler));
+
+        assertFalse(add(assembler, 1));
+        assertFalse(add(assembler, 2));
+        assertTrue(add(assembler, 3));
+        assertTrue(add(assembler, 3));
+        assertReassembled(assembler);
+    }
+
+    @Test
+    void lostFragmentsAreListedForResendAndFillTheGap() {
+        ReplyAssembler assembler = assembler();
+        add(assembler, 0);
+        add(assembler, 2);
+        assertFalse(assembler.hasGap());
+        add(assembler, 3);
+        assertTrue(assembler.hasGap());
+        assertEquals(List.of(1), missing(assembler));
+
+        // the server answers OP_RESEND_FRAGMENTS with just the listed fragments
+        for (int index : missing(assembler)) {
+            assertTrue(add(assembler, index));
+        }
+        assertFalse(assembler.hasGap());
+        assertEquals(List.of(), missing(assembler));
+        assertReassembled(assembler);
+    }
+
+    @Test
+    void rejectsHeadersNoServerSends() {
+        assertNull(ReplyAssembler.create(SERVER, REQ_ID, STATUS, 1, 100));
+        assertNull(ReplyAssembler.create(SERVER, REQ_ID, STATUS, COUNT + 1, BODY_LENGTH));
+        assertNull(ReplyAssembler.create(SERVER, REQ_ID, STATUS, COUNT, Constants.MAX_REPLY_SIZE + Frame.NONCE_SIZE + 1));
+        assertNotNull(ReplyAssembler.create(SERVER, REQ_ID, STATUS,
+                Fragments.count(Constants.MAX_REPLY_SIZE + Frame.NONCE_SIZE), Constants.MAX_REPLY_SIZE + Frame.NONCE_SIZE));
+    }
+}
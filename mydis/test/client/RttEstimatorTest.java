@@ -0,0 +1,59 @@
+package client;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RttEstimatorTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    void usesTheInitialTimeoutUntilTheFirstSample() {
+        RttEstimator estimator = new RttEstimator(MS, 1000 * MS, 300 * MS);
+        assertEquals(300 * MS, estimator.rtoNanos());
+        estimator.onSample(0);
+        estimator.onSample(-5);
+        assertEquals(300 * MS, estimator.rtoNanos());
+    }
+
+    @Test
+    void firstSampleSetsMeanAndHalfVariance() {
+        RttEstimator estimator = new RttEstimator(MS, 1000 * MS, 300 * MS);
+        estimator.onSample(40 * MS);
+        assertEquals(40 * MS, estimator.srttNanos());
+        assertEquals(20 * MS, estimator.rttvarNanos());
+        assertEquals(120 * MS, estimator.rtoNanos());
+    }
+
+    @Test
+    void laterSamplesAreSmoothedWithRfc6298Gains() {
+        RttEstimator estimator = new RttEstimator(MS, 1000 * MS, 300 * MS);
+        estimator.onSample(80 * MS);
+        estimator.onSample(40 * MS);
+        // RTTVAR = 3/4 * 40 + 1/4 * |80 - 40|, SRTT = 7/8 * 80 + 1/8 * 40
+        assertEquals(40 * MS, estimator.rttvarNanos());
+        assertEquals(75 * MS, estimator.srttNanos());
+        assertEquals(235 * MS, estimator.rtoNanos());
+    }
+
+    @Test
+    void steadySamplesConvergeOnTheRoundTrip() {
+        RttEstimator estimator = new RttEstimator(MS, 1000 * MS, 300 * MS);
+        for (int i = 0; i < 200; i++) {
+            estimator.onSample(10 * MS);
+        }
+        assertEquals(10 * MS, estimator.srttNanos(), MS / 100);
+        assertEquals(10 * MS, estimator.rtoNanos(), MS / 10);
+    }
+
+    @Test
+    void timeoutIsClampedToItsBounds() {
+        RttEstimator fast = new RttEstimator(50 * MS, 1000 * MS, 300 * MS);
+        fast.onSample(MS);
+        assertEquals(50 * MS, fast.rtoNanos());
+
+        RttEstimator slow = new RttEstimator(MS, 100 * MS, 300 * MS);
+        slow.onSample(90 * MS);
+        assertEquals(100 * MS, slow.rtoNanos());
+    }
+}
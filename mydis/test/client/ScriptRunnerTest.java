@@ -0,0 +1,213 @@
+package client;
+
+import common.Constants;
+import common.Frame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScriptRunnerTest {
+    private static final int FIRST_ID = 100;
+
+    // [opcode, account id] of every request after an open, in the order the server got them
+    private final List<int[]> requests = new ArrayList<>();
+    private final List<String> openedNames = new ArrayList<>();
+    private final LoopbackTransport transport = new LoopbackTransport(this::answer);
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private BankClientManager manager;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        manager = BankClientManager.create("127.0.0.1", Constants.SERVER_PORT, transport);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        FrameLeaks.assertAllReleased();
+        manager.close();
+    }
+
+    /**
+     * Opens accounts with ids from FIRST_ID, except for names starting with "fail",
+     * and accepts every other request, in version 0 replies.
+     */
+    private synchronized ByteBuffer answer(ByteBuffer request) {
+        int reqID = request.getInt();
+        int opCode = request.getInt() & Constants.OP_CODE_MASK;
+        String message;
+        int status = Constants.STATUS_OK;
+        if (opCode == Constants.OP_OPEN_ACCOUNT) {
+            String name = readName(request);
+            if (name.startsWith("fail")) {
+                status = Constants.STATUS_FAIL;
+                message = "Account limit reached";
+            } else {
+                message = "Account opened successfully, id: " + (FIRST_ID + openedNames.size());
+                openedNames.add(name);
+            }
+        } else {
+            requests.add(new int[] {opCode, request.getInt(Frame.HEADER_SIZE)});
+            message = "Done";
+        }
+        ByteBuffer reply = ByteBuffer.allocate(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        reply.putInt(reqID).putInt(status).put(message.getBytes(StandardCharsets.UTF_8)).put((byte) 0).flip();
+        return reply;
+    }
+
+    /**
+     * The name an open request starts with: a length then UTF-8 bytes.
+     */
+    private static String readName(ByteBuffer request) {
+        int length = (int) request.getLong();
+        byte[] bytes = new byte[length];
+        request.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private List<String> run(String... lines) throws Exception {
+        ScriptRunner runner = new ScriptRunner(manager, 4, new PrintStream(output, true, "UTF-8"), false);
+        runner.run(new BufferedReader(new StringReader(String.join("\n", lines))));
+        List<String> printed = new ArrayList<>();
+        for (String line : output.toString("UTF-8").split("\n")) {
+            if (!line.isEmpty()) {
+                printed.add(line);
+            }
+        }
+        return printed;
+    }
+
+    /**
+     * What was printed for script line lineNo, which must be printed exactly once.
+     */
+    private static String lineFor(List<String> printed, int lineNo) {
+        String found = null;
+        for (String line : printed) {
+            if (line.startsWith(lineNo + ": ")) {
+                assertNull(found, "line " + lineNo + " reported twice");
+                found = line.substring((lineNo + ": ").length());
+            }
+        }
+        assertNotNull(found, "nothing printed for line " + lineNo + " in " + printed);
+        return found;
+    }
+
+    private synchronized List<int[]> requests() {
+        return new ArrayList<>(requests);
+    }
+
+    @Test
+    void wrongFieldCountIsReported() throws Exception {
+        List<String> printed = run(
+                "deposit 1 alice secret usd",
+                "open alice secret usd 100 extra",
+                "close 1 alice");
+
+        assertEquals("ERROR deposit takes 5 fields, got 4", lineFor(printed, 1));
+        assertEquals("ERROR open takes 4 fields, got 5", lineFor(printed, 2));
+        assertEquals("ERROR close takes 3 fields, got 2", lineFor(printed, 3));
+        assertTrue(transport.sent().isEmpty());
+    }
+
+    @Test
+    void unknownOperationAndCurrencyAreReported() throws Exception {
+        List<String> printed = run(
+                "frobnicate 1 alice secret",
+                "balance 1 alice secret XYZ",
+                "exchange 1 alice secret usd doubloons 5",
+                "deposit one alice secret usd 5");
+
+        assertEquals("ERROR unknown operation frobnicate", lineFor(printed, 1));
+        assertEquals("ERROR unknown currency XYZ", lineFor(printed, 2));
+        assertEquals("ERROR unknown currency doubloons", lineFor(printed, 3));
+        assertTrue(lineFor(printed, 4).startsWith("ERROR "));
+        assertTrue(transport.sent().isEmpty());
+    }
+
+    @Test
+    void commentsBlankLinesAndCommasAreAccepted() throws Exception {
+        List<String> printed = run(
+                "# a comment",
+                "",
+                "   ",
+                "DEPOSIT,7,alice,secret,usd,5",
+                "  withdraw 7, alice, secret, SGD, 2  ");
+
+        assertTrue(lineFor(printed, 4).startsWith("deposit OK "), printed.toString());
+        assertTrue(lineFor(printed, 5).startsWith("withdraw OK "), printed.toString());
+        assertEquals(2, requests().size());
+    }
+
+    @Test
+    void nameReferencesResolveToOpenedAccounts() throws Exception {
+        List<String> printed = run(
+                "open alice secret usd 100",
+                "open bob hunter2 sgd 50",
+                "deposit @alice alice secret usd 5",
+                "transfer @bob bob hunter2 sgd 1 @alice",
+                "balance 42 carol pw usd");
+
+        assertTrue(lineFor(printed, 1).startsWith("open OK "), printed.toString());
+        List<int[]> requests = requests();
+        assertEquals(3, requests.size());
+        int alice = FIRST_ID + openedNames.indexOf("alice");
+        int bob = FIRST_ID + openedNames.indexOf("bob");
+        for (int[] request : requests) {
+            switch (request[0]) {
+                case Constants.OP_DEPOSIT:
+                    assertEquals(alice, request[1]);
+                    break;
+                case Constants.OP_TRANSFER:
+                    assertEquals(bob, request[1]);
+                    break;
+                default:
+                    assertEquals(Constants.OP_CHECK_BALANCE, request[0]);
+                    assertEquals(42, request[1]);
+            }
+        }
+    }
+
+    @Test
+    void referenceToANameNeverOpenedIsReported() throws Exception {
+        List<String> printed = run(
+                "open alice secret usd 100",
+                "deposit @carol carol pw usd 5",
+                "transfer @alice alice secret usd 1 @dave");
+
+        assertEquals("ERROR @carol was not opened earlier in the script", lineFor(printed, 2));
+        assertEquals("ERROR @dave was not opened earlier in the script", lineFor(printed, 3));
+        assertTrue(requests().isEmpty());
+    }
+
+    @Test
+    void referenceToAFailedOpenFailsWithoutASend() throws Exception {
+        List<String> printed = run(
+                "open failing secret usd 100",
+                "deposit @failing failing secret usd 5");
+
+        assertTrue(lineFor(printed, 1).startsWith("open FAIL "), printed.toString());
+        String deposit = lineFor(printed, 2);
+        assertTrue(deposit.startsWith("deposit FAIL ") && deposit.endsWith("Account @failing was not opened"), deposit);
+        assertTrue(requests().isEmpty());
+    }
+
+    @Test
+    void windowMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new ScriptRunner(manager, 0, System.out, true));
+    }
+}
@@ -0,0 +1,155 @@
+package common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BufferPoolTest {
+    private static final int SIZE = 64;
+
+    private static List<ByteBuffer> acquire(BufferPool pool, int n) {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            buffers.add(pool.acquire());
+        }
+        return buffers;
+    }
+
+    @Test
+    void reusesReleasedBuffers() {
+        BufferPool pool = new BufferPool(SIZE, 16, false);
+        ByteBuffer first = pool.acquire();
+        assertEquals(0, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        assertTrue(first.isDirect());
+        assertEquals(SIZE, first.capacity());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, first.order());
+
+        first.putInt(42).order(ByteOrder.BIG_ENDIAN);
+        pool.release(first);
+        assertEquals(1, pool.getFreeCount());
+
+        ByteBuffer second = pool.acquire();
+        assertSame(first, second);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.getReleaseCount());
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(0, second.position());
+        assertEquals(SIZE, second.limit());
+        assertEquals(ByteOrder.LITTLE_ENDIAN, second.order());
+        assertNotSame(first, pool.acquire());
+    }
+
+    @Test
+    void dropsReleasesPastTheStripeCap() {
+        // maxFree 0 still keeps one buffer per stripe
+        BufferPool pool = new BufferPool(SIZE, 0, false);
+        int n = 1000;
+        for (ByteBuffer buf : acquire(pool, n)) {
+            pool.release(buf);
+        }
+        int kept = pool.getFreeCount();
+        assertTrue(kept > 0 && kept < n, kept + " buffers kept");
+        assertEquals(n - kept, pool.getDroppedCount());
+
+        // a second round is served from what was kept and drops the rest again
+        for (ByteBuffer buf : acquire(pool, n)) {
+            pool.release(buf);
+        }
+        assertEquals(kept, pool.getHitCount());
+        assertEquals(2L * n - kept, pool.getMissCount());
+        assertEquals(kept, pool.getFreeCount());
+        assertEquals(2L * (n - kept), pool.getDroppedCount());
+        assertEquals(2L * n, pool.getReleaseCount());
+    }
+
+    @Test
+    void keepsEverythingBelowTheCap() {
+        BufferPool pool = new BufferPool(SIZE, 1024, false);
+        for (ByteBuffer buf : acquire(pool, 8)) {
+            pool.release(buf);
+        }
+        assertEquals(8, pool.getFreeCount());
+        assertEquals(0, pool.getDroppedCount());
+    }
+
+    @Test
+    void rejectsBuffersOfAnotherPool() {
+        BufferPool pool = new BufferPool(SIZE, 16, false);
+        assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocateDirect(SIZE + 1)));
+        assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocate(SIZE)));
+        assertThrows(IllegalArgumentException.class, () -> pool.release(new BufferPool(SIZE * 2, 16, false).acquire()));
+        assertEquals(0, pool.getReleaseCount());
+        assertEquals(0, pool.getFreeCount());
+    }
+
+    @Test
+    void releaseOfNullIsIgnored() {
+        BufferPool pool = new BufferPool(SIZE, 16, true);
+        pool.release(null);
+        assertEquals(0, pool.getReleaseCount());
+    }
+
+    @Test
+    void doubleReleaseThrowsWithLeakDetection() {
+        BufferPool pool = new BufferPool(SIZE, 16, true);
+        ByteBuffer buf = pool.acquire();
+        pool.release(buf);
+        assertThrows(IllegalStateException.class, () -> pool.release(buf));
+        // a buffer of the right size that this pool never handed out
+        assertThrows(IllegalStateException.class, () -> pool.release(ByteBuffer.allocateDirect(SIZE)));
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    void outstandingTracesListUnreleasedBuffers() {
+        BufferPool pool = new BufferPool(SIZE, 16, true);
+        assertTrue(pool.isLeakDetectionEnabled());
+        ByteBuffer kept = pool.acquire();
+        ByteBuffer returned = pool.acquire();
+        assertEquals(2, pool.getOutstandingTraces().size());
+
+        pool.release(returned);
+        List<Throwable> traces = pool.getOutstandingTraces();
+        assertEquals(1, traces.size());
+        boolean fromThisTest = false;
+        for (StackTraceElement frame : traces.get(0).getStackTrace()) {
+            fromThisTest |= frame.getMethodName().equals("outstandingTracesListUnreleasedBuffers");
+        }
+        assertTrue(fromThisTest, "trace does not lead to the acquire");
+
+        pool.release(kept);
+        assertTrue(pool.getOutstandingTraces().isEmpty());
+        assertEquals(0, pool.getLeakCount());
+    }
+
+    @Test
+    void countsBuffersCollectedWithoutRelease() throws InterruptedException {
+        BufferPool pool = new BufferPool(SIZE, 16, true);
+        pool.acquire();
+        for (int i = 0; i < 50 && pool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(1, pool.getLeakCount());
+        assertTrue(pool.getOutstandingTraces().isEmpty());
+    }
+
+    @Test
+    void tracesAreEmptyWithoutLeakDetection() {
+        BufferPool pool = new BufferPool(SIZE, 16, false);
+        pool.acquire();
+        assertTrue(pool.getOutstandingTraces().isEmpty());
+        assertEquals(0, pool.getLeakCount());
+    }
+}
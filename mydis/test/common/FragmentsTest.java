@@ -0,0 +1,73 @@
+package common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FragmentsTest {
+
+    static ByteBuffer replyFrame(int reqID, int status, int bodyLength) {
+        ByteBuffer frame = ByteBuffer.allocate(Frame.HEADER_SIZE + bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(reqID).putInt(status);
+        for (int i = 0; i < bodyLength; i++) {
+            frame.put((byte) (i * 31 + 7));
+        }
+        frame.flip();
+        return frame;
+    }
+
+    @Test
+    void repliesThatFitADatagramAreNotFragmented() {
+        assertEquals(1, Fragments.count(0));
+        assertEquals(1, Fragments.count(Fragments.MAX_UNFRAGMENTED));
+        assertEquals(2, Fragments.count(Fragments.MAX_UNFRAGMENTED + 1));
+        assertEquals(3, Fragments.count(2 * Fragments.MAX_FRAGMENT_DATA + 1));
+        assertEquals(Fragments.MAX_FRAGMENTS, Fragments.count(Constants.MAX_REPLY_SIZE));
+    }
+
+    @Test
+    void everyFragmentFitsADatagram() {
+        assertTrue(Frame.HEADER_SIZE + Fragments.FRAGMENT_HEADER_SIZE + Fragments.MAX_FRAGMENT_DATA
+                <= Constants.NETWORK_BUFFER_SIZE);
+    }
+
+    @Test
+    void writeCutsOneFragmentWithItsHeader() {
+        int bodyLength = 2 * Fragments.MAX_FRAGMENT_DATA + 10;
+        ByteBuffer reply = replyFrame(42, Frame.withVersion(Constants.STATUS_OK, 1), bodyLength);
+        ByteBuffer dst = ByteBuffer.allocate(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Fragments.write(reply, 2, dst);
+        assertEquals(42, dst.getInt());
+        int status = dst.getInt();
+        assertEquals(Constants.STATUS_FLAG_FRAGMENT, status & Constants.STATUS_FLAG_FRAGMENT);
+        assertEquals(1, Frame.version(status));
+        assertEquals(Constants.STATUS_OK, status & ~Constants.STATUS_FLAG_FRAGMENT & Constants.STATUS_MASK);
+        assertEquals(2, dst.getShort());
+        assertEquals(3, dst.getShort());
+        assertEquals(bodyLength, dst.getInt());
+        assertEquals(10, dst.remaining());
+        int offset = Frame.HEADER_SIZE + Fragments.offset(2);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(reply.get(offset + i), dst.get());
+        }
+        // the reply itself is left as it was, ready for the next fragment
+        assertEquals(0, reply.position());
+        assertEquals(Frame.HEADER_SIZE + bodyLength, reply.limit());
+    }
+
+    @Test
+    void writeRejectsFragmentsTheReplyDoesNotHave() {
+        ByteBuffer dst = ByteBuffer.allocate(Constants.NETWORK_BUFFER_SIZE);
+        ByteBuffer small = replyFrame(1, Constants.STATUS_OK, 100);
+        assertThrows(IllegalArgumentException.class, () -> Fragments.write(small, 0, dst));
+        ByteBuffer large = replyFrame(1, Constants.STATUS_OK, Fragments.MAX_UNFRAGMENTED + 1);
+        assertThrows(IllegalArgumentException.class, () -> Fragments.write(large, 2, dst));
+        assertThrows(IllegalArgumentException.class, () -> Fragments.write(large, -1, dst));
+    }
+}
@@ -0,0 +1,126 @@
+package common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MarshallerTest {
+    private static final String[] SAMPLES = {"", "alice", "Zoë", "€100", "日本語", "emoji 😀 end", "a\u0000b"};
+
+    private static ByteBuffer direct(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer heap(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    void utf8RoundTripsThroughHeapAndDirectBuffers() {
+        CharBuffer chars = CharBuffer.allocate(64);
+        for (ByteBuffer buf : new ByteBuffer[]{heap(256), direct(256)}) {
+            for (String text : SAMPLES) {
+                buf.clear();
+                Marshaller.packUtf8(buf, text);
+                assertEquals(8 + text.getBytes(StandardCharsets.UTF_8).length, buf.position());
+                assertEquals(text.getBytes(StandardCharsets.UTF_8).length, Marshaller.utf8Length(text));
+                buf.flip();
+                assertEquals(text, Marshaller.unpackUtf8(buf));
+                assertEquals(0, buf.remaining());
+
+                buf.rewind();
+                Marshaller.unpackUtf8(buf, chars);
+                assertEquals(text, chars.toString());
+                assertEquals(0, buf.remaining());
+            }
+        }
+    }
+
+    @Test
+    void packUtf8MatchesPackString() {
+        ByteBuffer a = heap(256);
+        ByteBuffer b = heap(256);
+        for (String text : SAMPLES) {
+            a.clear();
+            b.clear();
+            Marshaller.packUtf8(a, text);
+            Marshaller.packString(b, text);
+            assertEquals(b.flip(), a.flip());
+        }
+        // unpaired surrogates are written as '?', as String.getBytes does
+        a.clear();
+        Marshaller.packUtf8(a, "x\uD800y");
+        a.flip();
+        assertEquals(3, Marshaller.utf8Length("x\uD800y"));
+        assertEquals("x?y", Marshaller.unpackUtf8(a));
+    }
+
+    @Test
+    void malformedBytesDecodeLikeTheStringConstructor() {
+        Random random = new Random(42);
+        CharBuffer chars = CharBuffer.allocate(64);
+        ByteBuffer buf = direct(64);
+        for (int n = 0; n < 20_000; n++) {
+            byte[] bytes = new byte[random.nextInt(24)];
+            random.nextBytes(bytes);
+            String expected = new String(bytes, StandardCharsets.UTF_8);
+
+            buf.clear();
+            buf.putLong(bytes.length).put(bytes).flip();
+            assertEquals(expected, Marshaller.unpackUtf8(buf));
+            buf.rewind();
+            Marshaller.unpackUtf8(buf, chars);
+            assertEquals(expected, chars.toString());
+        }
+    }
+
+    @Test
+    void decodingLeavesTheBufferPositionedAfterTheString() {
+        ByteBuffer buf = direct(64);
+        Marshaller.packUtf8(buf, "first");
+        Marshaller.packUtf8(buf, "second");
+        buf.putInt(7);
+        buf.flip();
+        CharBuffer chars = CharBuffer.allocate(16);
+        Marshaller.unpackUtf8(buf, chars);
+        assertEquals("first", chars.toString());
+        assertEquals("second", Marshaller.unpackUtf8(buf));
+        assertEquals(7, buf.getInt());
+    }
+
+    @Test
+    void lengthsBeyondTheDataOrTheDestinationAreRejected() {
+        ByteBuffer buf = heap(64);
+        buf.putLong(100).put(new byte[10]).flip();
+        assertThrows(IllegalArgumentException.class, () -> Marshaller.unpackUtf8(buf));
+        buf.rewind();
+        assertThrows(IllegalArgumentException.class, () -> Marshaller.unpackUtf8(buf, CharBuffer.allocate(200)));
+
+        ByteBuffer fits = heap(64);
+        Marshaller.packUtf8(fits, "0123456789");
+        fits.flip();
+        assertThrows(IllegalArgumentException.class, () -> Marshaller.unpackUtf8(fits, CharBuffer.allocate(4)));
+    }
+
+    @Test
+    void nullTerminatedMessagesAreTrimmed() {
+        ByteBuffer buf = direct(64);
+        Marshaller.packNullTerminated(buf, "  Balance: 5 €  ");
+        buf.put((byte) 'x');
+        buf.flip();
+        assertEquals("Balance: 5 €", Marshaller.unpackNullTerminated(buf));
+        assertEquals('x', buf.get());
+
+        ByteBuffer unterminated = heap(8);
+        unterminated.put("abc".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertEquals("abc", Marshaller.unpackNullTerminated(unterminated));
+        assertEquals(0, unterminated.remaining());
+    }
+}
@@ -0,0 +1,115 @@
+package common.codec;
+
+import common.Constants;
+import common.Marshaller;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeneratedCodecTest {
+
+    private static ByteBuffer buffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    void credentialsRoundTripAndSizeIsExact() {
+        ByteBuffer buf = buffer(256);
+        int opCode = DepositRequest.encode(buf, 12, 0, "Zoë", "pw", "USD", 2.5f);
+        assertEquals(Constants.OP_DEPOSIT, opCode);
+        assertEquals(DepositRequest.size(0, "Zoë", "pw", "USD"), buf.position());
+
+        buf.flip();
+        DepositRequest request = new DepositRequest().decode(buf, opCode);
+        assertEquals(0, buf.remaining());
+        assertEquals(12, request.accountId());
+        assertFalse(request.hasToken());
+        assertEquals("Zoë", request.name().toString());
+        assertEquals("pw", request.password().toString());
+        assertEquals("USD", request.currency().toString());
+        assertEquals(2.5f, request.amount());
+    }
+
+    @Test
+    void tokenReplacesNameAndPassword() {
+        ByteBuffer buf = buffer(256);
+        int opCode = DepositRequest.encode(buf, 12, 0x1234_5678_9ABCL, "ignored", "ignored", "EUR", 1f);
+        assertEquals(Constants.OP_DEPOSIT | Constants.OP_FLAG_TOKEN, opCode);
+        assertEquals(DepositRequest.size(0x1234_5678_9ABCL, "ignored", "ignored", "EUR"), buf.position());
+
+        buf.flip();
+        DepositRequest request = new DepositRequest();
+        // a reused instance forgets the previous decode's credentials
+        ByteBuffer withName = buffer(256);
+        DepositRequest.encode(withName, 1, 0, "bob", "pw", "EUR", 1f);
+        request.decode(withName.flip(), Constants.OP_DEPOSIT);
+        request.decode(buf, opCode);
+        assertTrue(request.hasToken());
+        assertEquals(0x1234_5678_9ABCL, request.token());
+        assertEquals(0, request.name().remaining());
+        assertEquals(0, request.password().remaining());
+        assertEquals("EUR", request.currency().toString());
+    }
+
+    @Test
+    void fieldsFollowTheSchemaOrder() {
+        ByteBuffer buf = buffer(256);
+        TransferRequest.encode(buf, 3, 0, "al", "pw", "USD", 4f, 99);
+        buf.flip();
+        // the receiver is the last field, where the client looks for it to invalidate its cache
+        assertEquals(99, buf.getInt(buf.limit() - 4));
+        assertEquals(3, Marshaller.unpackInt(buf));
+        assertEquals("al", Marshaller.unpackUtf8(buf));
+        assertEquals("pw", Marshaller.unpackUtf8(buf));
+        assertEquals("USD", Marshaller.unpackUtf8(buf));
+        assertEquals(4f, Marshaller.unpackFloat(buf));
+        assertEquals(99, Marshaller.unpackInt(buf));
+    }
+
+    @Test
+    void encodeWritesNothingWhenTheFieldsDoNotFit() {
+        int size = DepositRequest.size(0, "name", "password", "USD");
+        ByteBuffer buf = buffer(size - 1);
+        assertThrows(BufferOverflowException.class, () -> DepositRequest.encode(buf, 1, 0, "name", "password", "USD", 1f));
+        assertEquals(0, buf.position());
+
+        ByteBuffer reply = buffer(BalanceReply.SIZE - 1);
+        assertThrows(BufferOverflowException.class, () -> BalanceReply.encode(reply, 1, 2.0));
+        assertEquals(0, reply.position());
+    }
+
+    @Test
+    void truncatedRequestsFailToDecode() {
+        ByteBuffer buf = buffer(256);
+        int opCode = DepositRequest.encode(buf, 12, 0, "alice", "pw", "USD", 2.5f);
+        buf.flip();
+        buf.limit(buf.limit() - 2);
+        assertThrows(BufferUnderflowException.class, () -> new DepositRequest().decode(buf, opCode));
+    }
+
+    @Test
+    void fixedSizeRepliesCanBeReadInPlace() {
+        ByteBuffer buf = buffer(64);
+        buf.putInt(0xCAFE);
+        BalanceReply.encode(buf, 2, 123.25);
+        assertEquals(4 + BalanceReply.SIZE, buf.position());
+        buf.flip();
+        buf.position(4);
+        assertEquals(2, BalanceReply.currency(buf));
+        assertEquals(123.25, BalanceReply.balance(buf));
+        assertEquals(4, buf.position());
+
+        BalanceReply reply = new BalanceReply().decode(buf);
+        assertEquals(2, reply.currency());
+        assertEquals(123.25, reply.balance());
+        assertEquals(0, buf.remaining());
+    }
+}
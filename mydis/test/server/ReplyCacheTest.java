@@ -0,0 +1,159 @@
+package server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplyCacheTest {
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("127.0.0.1", 40000);
+    private static final InetSocketAddress OTHER_CLIENT = new InetSocketAddress("127.0.0.1", 40001);
+
+    private final ByteBuffer dst = ByteBuffer.allocate(64);
+
+    private static ByteBuffer reply(byte... bytes) {
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private byte[] copied() {
+        dst.flip();
+        byte[] bytes = new byte[dst.remaining()];
+        dst.get(bytes);
+        dst.clear();
+        return bytes;
+    }
+
+    @Test
+    void firstCopyIsReservedAndLaterCopiesAreAnsweredFromTheCache() {
+        ReplyCache cache = new ReplyCache(60_000, 1000);
+        assertEquals(ReplyCache.Reservation.RESERVED, cache.reserve(CLIENT, 7, dst));
+        assertEquals(ReplyCache.Reservation.IN_PROGRESS, cache.reserve(CLIENT, 7, dst));
+        assertEquals(0, dst.position());
+
+        cache.store(CLIENT, 7, reply((byte) 1, (byte) 2, (byte) 3));
+        assertEquals(ReplyCache.Reservation.CACHED, cache.reserve(CLIENT, 7, dst));
+        assertArrayEquals(new byte[]{1, 2, 3}, copied());
+        assertTrue(cache.lookup(CLIENT, 7, dst));
+        assertArrayEquals(new byte[]{1, 2, 3}, copied());
+    }
+
+    @Test
+    void storeCopiesOnlyTheRemainingBytes() {
+        ReplyCache cache = new ReplyCache(60_000, 1000);
+        ByteBuffer reply = reply((byte) 9, (byte) 1, (byte) 2, (byte) 9);
+        reply.position(1).limit(3);
+        cache.reserve(CLIENT, 1, dst);
+        cache.store(CLIENT, 1, reply);
+        assertEquals(1, reply.position());
+
+        assertTrue(cache.lookup(CLIENT, 1, dst));
+        assertArrayEquals(new byte[]{1, 2}, copied());
+    }
+
+    @Test
+    void requestsAreKeyedByClientAndFullRequestId() {
+        ReplyCache cache = new ReplyCache(60_000, 1000);
+        long id = 5L << 32 | 42;
+        cache.reserve(CLIENT, id, dst);
+        cache.store(CLIENT, id, reply((byte) 1));
+
+        // same reqID under another nonce, and the same id from another address
+        assertEquals(ReplyCache.Reservation.RESERVED, cache.reserve(CLIENT, 6L << 32 | 42, dst));
+        assertEquals(ReplyCache.Reservation.RESERVED, cache.reserve(OTHER_CLIENT, id, dst));
+        assertEquals(0, dst.position());
+    }
+
+    @Test
+    void releasedReservationCanBeTakenAgain() {
+        ReplyCache cache = new ReplyCache(60_000, 1000);
+        cache.reserve(CLIENT, 3, dst);
+        assertFalse(cache.lookup(CLIENT, 3, dst));
+        cache.release(CLIENT, 3);
+        assertEquals(0, cache.size());
+        assertEquals(ReplyCache.Reservation.RESERVED, cache.reserve(CLIENT, 3, dst));
+    }
+
+    @Test
+    void releaseKeepsAStoredReply() {
+        ReplyCache cache = new ReplyCache(60_000, 1000);
+        cache.reserve(CLIENT, 3, dst);
+        cache.store(CLIENT, 3, reply((byte) 4));
+        cache.release(CLIENT, 3);
+        assertEquals(ReplyCache.Reservation.CACHED, cache.reserve(CLIENT, 3, dst));
+        assertArrayEquals(new byte[]{4}, copied());
+    }
+
+    @Test
+    void expiredEntriesAreReservedAgainAndSwept() throws InterruptedException {
+        ReplyCache cache = new ReplyCache(1, 2);
+        cache.reserve(CLIENT, 1, dst);
+        cache.store(CLIENT, 1, reply((byte) 1));
+        Thread.sleep(5);
+        assertFalse(cache.lookup(CLIENT, 1, dst));
+        assertEquals(ReplyCache.Reservation.RESERVED, cache.reserve(CLIENT, 1, dst));
+        assertEquals(0, dst.position());
+
+        // the second store since the last sweep drops entry 1's expired reservation
+        Thread.sleep(5);
+        cache.store(CLIENT, 2, reply((byte) 2));
+        cache.store(CLIENT, 3, reply((byte) 3));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void concurrentCopiesReserveTheRequestOnce() throws Exception {
+        ReplyCache cache = new ReplyCache(60_000, 1000);
+        int threads = 8;
+        int requests = 2000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            AtomicInteger executed = new AtomicInteger();
+            AtomicInteger wrongReplies = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?>[] workers = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = pool.submit(() -> {
+                    ByteBuffer buf = ByteBuffer.allocate(8);
+                    start.await();
+                    for (int id = 0; id < requests; id++) {
+                        buf.clear();
+                        switch (cache.reserve(CLIENT, id, buf)) {
+                            case RESERVED:
+                                executed.incrementAndGet();
+                                cache.store(CLIENT, id, ByteBuffer.allocate(4).putInt(0, id));
+                                break;
+                            case CACHED:
+                                if (buf.position() != 4 || buf.getInt(0) != id) {
+                                    wrongReplies.incrementAndGet();
+                                }
+                                break;
+                            case IN_PROGRESS:
+                                break;
+                        }
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(30, TimeUnit.SECONDS);
+            }
+            assertEquals(requests, executed.get());
+            assertEquals(0, wrongReplies.get());
+            assertEquals(requests, cache.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
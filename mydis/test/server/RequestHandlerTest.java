@@ -0,0 +1,146 @@
+package server;
+
+import common.Constants;
+import common.CurrencyType;
+import common.Marshaller;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestHandlerTest {
+    private final Bank bank = new Bank();
+    private final RequestHandler handler = new RequestHandler(bank);
+    private final Account account = bank.open("alice", "secret", CurrencyType.USD, 100);
+    private final ByteBuffer reply = ByteBuffer.allocate(Constants.NETWORK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private static ByteBuffer buffer() {
+        return ByteBuffer.allocate(Constants.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Fields of a deposit or withdrawal; a balance check has the same fields without the amount.
+     */
+    private ByteBuffer item(int accountId, String currency, Float amount) {
+        ByteBuffer buf = buffer();
+        Marshaller.packInt(buf, accountId);
+        Marshaller.packUtf8(buf, "alice");
+        Marshaller.packUtf8(buf, "secret");
+        Marshaller.packUtf8(buf, currency);
+        if (amount != null) {
+            Marshaller.packFloat(buf, amount);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static ByteBuffer batch(int count, Object... opsAndItems) {
+        ByteBuffer buf = buffer();
+        Marshaller.packInt(buf, count);
+        for (int i = 0; i < opsAndItems.length; i += 2) {
+            ByteBuffer item = (ByteBuffer) opsAndItems[i + 1];
+            Marshaller.packInt(buf, (Integer) opsAndItems[i]);
+            Marshaller.packInt(buf, item.remaining());
+            buf.put(item);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private int handle(ByteBuffer payload) {
+        reply.clear();
+        int status = handler.handle(Constants.OP_BATCH, payload, reply, null);
+        reply.flip();
+        return status;
+    }
+
+    /**
+     * The per-item statuses after the message of a version 0 batch reply.
+     */
+    private int[] itemStatuses() {
+        String message = Marshaller.unpackNullTerminated(reply);
+        assertTrue(message.startsWith("Batch processed"), message);
+        int[] statuses = new int[Marshaller.unpackInt(reply)];
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = Marshaller.unpackInt(reply);
+        }
+        assertEquals(0, reply.remaining());
+        return statuses;
+    }
+
+    private double usd() {
+        return account.getBalance(CurrencyType.USD);
+    }
+
+    @Test
+    void eachItemGetsItsOwnStatus() {
+        int status = handle(batch(4,
+                Constants.OP_DEPOSIT, item(account.getId(), "USD", 10f),
+                Constants.OP_WITHDRAW, item(account.getId(), "USD", 1000f),
+                Constants.OP_DEPOSIT, item(account.getId() + 1, "USD", 5f),
+                Constants.OP_WITHDRAW, item(account.getId(), "USD", 30f)));
+
+        assertEquals(Constants.STATUS_OK, status);
+        int[] statuses = itemStatuses();
+        assertEquals(Constants.STATUS_OK, statuses[0]);
+        assertEquals(Constants.STATUS_FAIL, statuses[1]);
+        assertEquals(Constants.STATUS_FAIL, statuses[2]);
+        assertEquals(Constants.STATUS_OK, statuses[3]);
+        assertEquals(80, usd(), 1e-9);
+    }
+
+    @Test
+    void nonBatchableItemIsRejectedOnItsOwn() {
+        int status = handle(batch(3,
+                Constants.OP_DEPOSIT, item(account.getId(), "USD", 10f),
+                Constants.OP_CHECK_BALANCE, item(account.getId(), "USD", null),
+                Constants.OP_DEPOSIT, item(account.getId(), "USD", 10f)));
+
+        assertEquals(Constants.STATUS_OK, status);
+        int[] statuses = itemStatuses();
+        assertEquals(Constants.STATUS_OK, statuses[0]);
+        assertEquals(Constants.STATUS_ERROR, statuses[1]);
+        assertEquals(Constants.STATUS_OK, statuses[2]);
+        assertEquals(120, usd(), 1e-9);
+    }
+
+    @Test
+    void malformedItemFailsOnlyItself() {
+        ByteBuffer shortItem = item(account.getId(), "USD", 10f);
+        shortItem.limit(shortItem.limit() - 2);
+        int status = handle(batch(2,
+                Constants.OP_DEPOSIT, shortItem,
+                Constants.OP_DEPOSIT, item(account.getId(), "USD", 10f)));
+
+        assertEquals(Constants.STATUS_OK, status);
+        int[] statuses = itemStatuses();
+        assertEquals(Constants.STATUS_ERROR, statuses[0]);
+        assertEquals(Constants.STATUS_OK, statuses[1]);
+        assertEquals(110, usd(), 1e-9);
+    }
+
+    @Test
+    void truncatedBatchRunsNoItem() {
+        ByteBuffer payload = batch(2,
+                Constants.OP_DEPOSIT, item(account.getId(), "USD", 10f),
+                Constants.OP_DEPOSIT, item(account.getId(), "USD", 10f));
+        payload.limit(payload.limit() - 3);
+
+        assertEquals(Constants.STATUS_ERROR, handle(payload));
+        assertEquals("Malformed request", Marshaller.unpackNullTerminated(reply));
+        assertEquals(100, usd(), 1e-9);
+    }
+
+    @Test
+    void batchShorterThanItsCountRunsNoItem() {
+        ByteBuffer payload = batch(3,
+                Constants.OP_DEPOSIT, item(account.getId(), "USD", 10f),
+                Constants.OP_DEPOSIT, item(account.getId(), "USD", 10f));
+
+        assertEquals(Constants.STATUS_ERROR, handle(payload));
+        assertEquals(100, usd(), 1e-9);
+    }
+}